@@ -0,0 +1,176 @@
+package com.example.android.sunshine.app;
+
+import android.support.v7.widget.RecyclerView;
+import android.test.AndroidTestCase;
+import android.view.ViewGroup;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Checks that ForecastDiff turns one list of forecast rows into the next with only the
+    operations a sync needs, by replaying what it dispatches to an adapter.
+ */
+public class TestForecastDiff extends AndroidTestCase {
+
+    private static final String LOCATION_SETTING = "forecast-diff-test";
+    private static final int TODAY = 2457012;
+
+    public void testUnchangedForecast() {
+        List<ForecastModel.Row> rows = week(TODAY, "Clear");
+        ForecastDiff diff = ForecastDiff.compute(rows, week(TODAY, "Clear"));
+        assertTrue("Error: An unchanged forecast rebinds rows", diff.isEmpty());
+    }
+
+    public void testOneChangedDayRebindsOneRow() {
+        List<ForecastModel.Row> oldRows = week(TODAY, "Clear");
+        List<ForecastModel.Row> newRows = week(TODAY, "Clear");
+        newRows.set(3, row(TODAY + 3, "Storm"));
+
+        Recorder recorder = replay(oldRows, newRows);
+        assertEquals("changed 3+1;", recorder.log.toString());
+    }
+
+    public void testNextDaySync() {
+        // A sync the next day prunes yesterday and adds a day at the end.
+        List<ForecastModel.Row> oldRows = week(TODAY, "Clear");
+        List<ForecastModel.Row> newRows = week(TODAY + 1, "Clear");
+
+        Recorder recorder = replay(oldRows, newRows);
+        assertEquals("removed 0+1;inserted 6+1;", recorder.log.toString());
+    }
+
+    public void testDisjointForecasts() {
+        List<ForecastModel.Row> oldRows = week(TODAY, "Clear");
+        List<ForecastModel.Row> newRows = week(TODAY + 20, "Clear");
+
+        Recorder recorder = replay(oldRows, newRows);
+        assertEquals("removed 0+7;inserted 0+7;", recorder.log.toString());
+    }
+
+    public void testMixedChanges() {
+        List<ForecastModel.Row> oldRows = new ArrayList<>();
+        oldRows.add(row(TODAY, "Clear"));
+        oldRows.add(row(TODAY + 2, "Clear"));
+        oldRows.add(row(TODAY + 3, "Clear"));
+        oldRows.add(row(TODAY + 5, "Clear"));
+        List<ForecastModel.Row> newRows = new ArrayList<>();
+        newRows.add(row(TODAY + 1, "Clear"));
+        newRows.add(row(TODAY + 2, "Storm"));
+        newRows.add(row(TODAY + 4, "Clear"));
+        newRows.add(row(TODAY + 5, "Clear"));
+        newRows.add(row(TODAY + 6, "Clear"));
+
+        replay(oldRows, newRows);
+    }
+
+    /**
+     * Applies what the diff dispatches to the days of the old rows, and checks that it ends
+     * with the new days, with every row whose contents changed rebound.
+     */
+    private static Recorder replay(List<ForecastModel.Row> oldRows,
+                                   List<ForecastModel.Row> newRows) {
+        ForecastDiff diff = ForecastDiff.compute(oldRows, newRows);
+        assertTrue(diff.appliesTo(oldRows));
+
+        Recorder recorder = new Recorder(oldRows);
+        RecyclerView.Adapter<RecyclerView.ViewHolder> adapter = new EmptyAdapter();
+        adapter.registerAdapterDataObserver(recorder);
+        diff.dispatchTo(adapter);
+
+        assertEquals("Error: The diff doesn't lead to as many rows as there are new days",
+                newRows.size(), recorder.days.size());
+        List<Integer> oldDays = days(oldRows);
+        for (int i = 0; i < newRows.size(); i++) {
+            ForecastModel.Row newRow = newRows.get(i);
+            int oldIndex = oldDays.indexOf(newRow.julianDay);
+            if (oldIndex < 0) {
+                assertNull("Error: The new day at " + i + " wasn't inserted", recorder.days.get(i));
+                continue;
+            }
+            assertEquals("Error: The kept day at " + i + " moved",
+                    Integer.valueOf(newRow.julianDay), recorder.days.get(i));
+            if (!oldRows.get(oldIndex).sameContents(newRow)) {
+                assertTrue("Error: The changed day at " + i + " wasn't rebound",
+                        recorder.changed.contains(newRow.julianDay));
+            }
+        }
+        return recorder;
+    }
+
+    private static List<ForecastModel.Row> week(int firstDay, String description) {
+        List<ForecastModel.Row> rows = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            rows.add(row(firstDay + i, description));
+        }
+        return rows;
+    }
+
+    private static ForecastModel.Row row(int julianDay, String description) {
+        return new ForecastModel.Row(ForecastModel.stableId(LOCATION_SETTING, julianDay),
+                julianDay, "Day " + julianDay, description, "20°", "10°", 1, 2);
+    }
+
+    private static List<Integer> days(List<ForecastModel.Row> rows) {
+        List<Integer> days = new ArrayList<>();
+        for (ForecastModel.Row row : rows) {
+            days.add(row.julianDay);
+        }
+        return days;
+    }
+
+    // Follows the days through the dispatched operations; inserted days are filled in as null.
+    private static class Recorder extends RecyclerView.AdapterDataObserver {
+        final List<Integer> days;
+        final List<Integer> changed = new ArrayList<>();
+        final StringBuilder log = new StringBuilder();
+
+        Recorder(List<ForecastModel.Row> oldRows) {
+            days = days(oldRows);
+        }
+
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            log.append("inserted ").append(positionStart).append('+').append(itemCount).append(';');
+            for (int i = 0; i < itemCount; i++) {
+                days.add(positionStart + i, null);
+            }
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            log.append("removed ").append(positionStart).append('+').append(itemCount).append(';');
+            for (int i = 0; i < itemCount; i++) {
+                days.remove(positionStart);
+            }
+        }
+
+        @Override
+        public void onItemRangeChanged(int positionStart, int itemCount) {
+            log.append("changed ").append(positionStart).append('+').append(itemCount).append(';');
+            for (int i = 0; i < itemCount; i++) {
+                Integer day = days.get(positionStart + i);
+                assertNotNull("Error: An inserted row was also changed", day);
+                changed.add(day);
+            }
+        }
+    }
+
+    // Nothing is bound: the test only needs the adapter to dispatch to its observers.
+    private static class EmptyAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
+        @Override
+        public RecyclerView.ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void onBindViewHolder(RecyclerView.ViewHolder holder, int position) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int getItemCount() {
+            return 0;
+        }
+    }
+}
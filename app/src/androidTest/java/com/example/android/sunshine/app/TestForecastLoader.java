@@ -0,0 +1,97 @@
+package com.example.android.sunshine.app;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.JulianDay;
+import com.example.android.sunshine.app.data.TestUtilities;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks that ForecastLoader turns the stored forecast into display-ready rows.
+ */
+public class TestForecastLoader extends AndroidTestCase {
+
+    private static final String LOCATION_SETTING = "forecast-loader-test";
+    private static final String LATITUDE = "64.7488";
+    private static final String LONGITUDE = "-147.353";
+    private static final int DAYS = 10;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteAllRecords(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.deleteAllRecords(mContext);
+        super.tearDown();
+    }
+
+    public void testModelIsDisplayReady() {
+        int today = JulianDay.today();
+        insertForecast(today - 1, DAYS + 1);
+
+        ForecastModel model = new ForecastLoader(mContext, LOCATION_SETTING).loadInBackground();
+
+        assertEquals(LOCATION_SETTING, model.locationSetting);
+        assertEquals(LATITUDE, model.coordLat);
+        assertEquals(LONGITUDE, model.coordLong);
+        assertEquals(today, model.julianToday);
+        assertEquals("Error: The days before today should be left out", DAYS, model.rows.size());
+
+        for (int i = 0; i < DAYS; i++) {
+            ForecastModel.Row row = model.rows.get(i);
+            int weatherId = weatherId(i + 1);
+            assertEquals("Error: The rows aren't in date order", today + i, row.julianDay);
+            assertEquals(Utility.getFriendlyDayString(mContext, today + i), row.dateLabel);
+            assertEquals(Utility.formatTemperature(mContext, 75 + i + 1, model.isMetric),
+                    row.high);
+            assertEquals(Utility.formatTemperature(mContext, 65 - i - 1, model.isMetric),
+                    row.low);
+            assertEquals(Utility.getIconResourceForWeatherCondition(weatherId), row.iconResId);
+            assertEquals(Utility.getArtResourceForWeatherCondition(weatherId), row.artResId);
+        }
+    }
+
+    public void testEmptyForecast() {
+        ForecastModel model = new ForecastLoader(mContext, LOCATION_SETTING).loadInBackground();
+        assertEquals(0, model.rows.size());
+        assertNull("Error: There are no coordinates without a forecast", model.coordLat);
+    }
+
+    private void insertForecast(int firstDay, int days) {
+        ContentValues location = new ContentValues();
+        location.put(LocationEntry.COLUMN_LOCATION_SETTING, LOCATION_SETTING);
+        location.put(LocationEntry.COLUMN_CITY_NAME, "North Pole");
+        location.put(LocationEntry.COLUMN_COORD_LAT, Double.parseDouble(LATITUDE));
+        location.put(LocationEntry.COLUMN_COORD_LONG, Double.parseDouble(LONGITUDE));
+        long locationId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, location));
+
+        ContentValues[] weather = new ContentValues[days];
+        for (int i = 0; i < days; i++) {
+            ContentValues values = new ContentValues();
+            values.put(WeatherEntry.COLUMN_LOC_KEY, locationId);
+            values.put(WeatherEntry.COLUMN_DATE, firstDay + i);
+            values.put(WeatherEntry.COLUMN_SHORT_DESC, "Asteroids");
+            values.put(WeatherEntry.COLUMN_WEATHER_ID, weatherId(i));
+            values.put(WeatherEntry.COLUMN_MIN_TEMP, 65 - i);
+            values.put(WeatherEntry.COLUMN_MAX_TEMP, 75 + i);
+            values.put(WeatherEntry.COLUMN_HUMIDITY, 1.2);
+            values.put(WeatherEntry.COLUMN_PRESSURE, 1.3);
+            values.put(WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+            values.put(WeatherEntry.COLUMN_DEGREES, 1.1);
+            weather[i] = values;
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, weather);
+    }
+
+    // Alternates between a storm and clear sky, which have different icons.
+    private static int weatherId(int day) {
+        return day % 2 == 0 ? 200 : 800;
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.android.sunshine.app;
+
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Checks that the Settings snapshot follows the preferences it is read from, and that a
+    change is published once with the settings before and after it.
+ */
+public class TestSettings extends AndroidTestCase {
+
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private SharedPreferences mPrefs;
+    private String mUnitsKey;
+    private String mSavedUnits;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mUnitsKey = mContext.getString(R.string.pref_units_key);
+        mSavedUnits = mPrefs.getString(mUnitsKey, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mSavedUnits == null) {
+            mPrefs.edit().remove(mUnitsKey).commit();
+        } else {
+            mPrefs.edit().putString(mUnitsKey, mSavedUnits).commit();
+        }
+        super.tearDown();
+    }
+
+    public void testSnapshotIsShared() {
+        Settings.Snapshot settings = Settings.get(mContext);
+        assertSame("Error: Reading the settings built a new snapshot",
+                settings, Settings.get(mContext));
+        assertEquals(Utility.getPreferredLocation(mContext), settings.location);
+        assertEquals(Utility.isMetric(mContext), settings.isMetric);
+    }
+
+    public void testUnitsChangeIsPublished() throws InterruptedException {
+        final Settings.Snapshot before = Settings.get(mContext);
+        final Settings.Snapshot[] published = new Settings.Snapshot[2];
+        final CountDownLatch changed = new CountDownLatch(1);
+        Settings.OnChangeListener listener = new Settings.OnChangeListener() {
+            @Override
+            public void onSettingsChanged(Settings.Snapshot oldSettings,
+                                          Settings.Snapshot newSettings) {
+                published[0] = oldSettings;
+                published[1] = newSettings;
+                changed.countDown();
+            }
+        };
+        Settings.addOnChangeListener(mContext, listener);
+        try {
+            String units = mContext.getString(before.isMetric
+                    ? R.string.pref_units_imperial : R.string.pref_units_metric);
+            mPrefs.edit().putString(mUnitsKey, units).commit();
+
+            // SharedPreferences calls its listeners on the main thread.
+            assertTrue("Error: The units change wasn't published",
+                    changed.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        } finally {
+            Settings.removeOnChangeListener(listener);
+        }
+
+        assertSame(before, published[0]);
+        assertTrue(published[1].unitsChanged(before));
+        assertFalse(published[1].locationChanged(before));
+        assertSame("Error: The published settings aren't the ones being read",
+                published[1], Settings.get(mContext));
+    }
+}
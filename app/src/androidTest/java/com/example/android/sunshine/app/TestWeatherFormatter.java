@@ -0,0 +1,198 @@
+package com.example.android.sunshine.app;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+/*
+    Checks WeatherFormatter against the String.format based formatting it replaces, and
+    compares the time and allocations of both.
+ */
+public class TestWeatherFormatter extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWeatherFormatter.class.getSimpleName();
+
+    private static final int ITERATIONS = 10000;
+
+    public void testTemperatureMatchesResources() {
+        WeatherFormatter formatter = WeatherFormatter.get(mContext);
+        // Quarter degrees hit every rounding case, .5 included, on both sides of zero.
+        for (double temperature = -60; temperature <= 60; temperature += 0.25) {
+            assertEquals(oldTemperature(temperature, true),
+                    formatter.formatTemperature(temperature, true));
+            assertEquals(oldTemperature(temperature, false),
+                    formatter.formatTemperature(temperature, false));
+        }
+        assertEquals(oldTemperature(-0.2, true), formatter.formatTemperature(-0.2, true));
+        assertEquals(oldTemperature(1e20, true), formatter.formatTemperature(1e20, true));
+        assertEquals(oldTemperature(Double.NaN, true),
+                formatter.formatTemperature(Double.NaN, true));
+    }
+
+    public void testWindMatchesResources() {
+        WeatherFormatter formatter = WeatherFormatter.get(mContext);
+        for (float degrees = -90; degrees <= 450; degrees += 0.5f) {
+            float windSpeed = degrees / 10;
+            assertEquals(oldWind(windSpeed, degrees, true),
+                    formatter.formatWind(windSpeed, degrees, true));
+            assertEquals(oldWind(windSpeed, degrees, false),
+                    formatter.formatWind(windSpeed, degrees, false));
+        }
+        assertEquals(oldWind(5.5f, Float.NaN, true), formatter.formatWind(5.5f, Float.NaN, true));
+    }
+
+    public void testHumidityAndPressureMatchResources() {
+        WeatherFormatter formatter = WeatherFormatter.get(mContext);
+        for (float value = 0; value <= 1100; value += 0.5f) {
+            assertEquals(mContext.getString(R.string.format_humidity, value),
+                    formatter.formatHumidity(value));
+            assertEquals(mContext.getString(R.string.format_pressure, value),
+                    formatter.formatPressure(value));
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    public void testAppendDoesntAllocate() {
+        WeatherFormatter formatter = WeatherFormatter.get(mContext);
+        StringBuilder out = new StringBuilder(64);
+        // Grows the builder to the longest string first.
+        appendAll(formatter, out, 1);
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        int length = appendAll(formatter, out, ITERATIONS);
+        Debug.stopAllocCounting();
+        int allocations = Debug.getThreadAllocCount();
+
+        assertTrue(length > 0);
+        assertEquals("Error: Appending the formatted values allocated", 0, allocations);
+    }
+
+    public void testFormattingCost() {
+        final WeatherFormatter formatter = WeatherFormatter.get(mContext);
+        final StringBuilder out = new StringBuilder(64);
+        // Warms up both paths before they're measured.
+        formatAllOld(ITERATIONS / 10);
+        appendAll(formatter, out, ITERATIONS / 10);
+
+        long[] old = measure(new Runnable() {
+            @Override
+            public void run() {
+                formatAllOld(ITERATIONS);
+            }
+        });
+        long[] formatted = measure(new Runnable() {
+            @Override
+            public void run() {
+                formatAll(formatter, ITERATIONS);
+            }
+        });
+        long[] appended = measure(new Runnable() {
+            @Override
+            public void run() {
+                appendAll(formatter, out, ITERATIONS);
+            }
+        });
+
+        // Each iteration formats a temperature, a wind, a humidity and a pressure.
+        int operations = ITERATIONS * 4;
+        Log.i(LOG_TAG, "String.format " + old[0] / operations + " ns/op, "
+                + old[1] / operations + " bytes/op; format " + formatted[0] / operations
+                + " ns/op, " + formatted[1] / operations + " bytes/op; append "
+                + appended[0] / operations + " ns/op, " + appended[1] / operations + " bytes/op");
+    }
+
+    /**
+     * @return the time and allocated bytes of running the work.
+     */
+    @SuppressWarnings("deprecation")
+    private static long[] measure(Runnable work) {
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        long start = System.nanoTime();
+        work.run();
+        long elapsed = System.nanoTime() - start;
+        Debug.stopAllocCounting();
+        return new long[]{elapsed, Debug.getThreadAllocSize()};
+    }
+
+    private static int appendAll(WeatherFormatter formatter, StringBuilder out, int iterations) {
+        int length = 0;
+        for (int i = 0; i < iterations; i++) {
+            float value = i % 400;
+            out.setLength(0);
+            formatter.appendTemperature(out, value / 10, i % 2 == 0);
+            formatter.appendWind(out, value / 20, value, i % 2 == 0);
+            formatter.appendHumidity(out, value / 4);
+            formatter.appendPressure(out, 900 + value);
+            length += out.length();
+        }
+        return length;
+    }
+
+    private static int formatAll(WeatherFormatter formatter, int iterations) {
+        int length = 0;
+        for (int i = 0; i < iterations; i++) {
+            float value = i % 400;
+            length += formatter.formatTemperature(value / 10, i % 2 == 0).length();
+            length += formatter.formatWind(value / 20, value, i % 2 == 0).length();
+            length += formatter.formatHumidity(value / 4).length();
+            length += formatter.formatPressure(900 + value).length();
+        }
+        return length;
+    }
+
+    private int formatAllOld(int iterations) {
+        int length = 0;
+        for (int i = 0; i < iterations; i++) {
+            float value = i % 400;
+            length += oldTemperature(value / 10, i % 2 == 0).length();
+            length += oldWind(value / 20, value, i % 2 == 0).length();
+            length += mContext.getString(R.string.format_humidity, value / 4).length();
+            length += mContext.getString(R.string.format_pressure, 900 + value).length();
+        }
+        return length;
+    }
+
+    // Utility.formatTemperature before WeatherFormatter.
+    private String oldTemperature(double temperature, boolean isMetric) {
+        double temp;
+        if (!isMetric) {
+            temp = 9 * temperature / 5 + 32;
+        } else {
+            temp = temperature;
+        }
+        return mContext.getString(R.string.format_temperature, temp);
+    }
+
+    // Utility.getFormattedWind before WeatherFormatter.
+    private String oldWind(float windSpeed, float degrees, boolean isMetric) {
+        int windFormat;
+        if (isMetric) {
+            windFormat = R.string.format_wind_kmh;
+        } else {
+            windFormat = R.string.format_wind_mph;
+            windSpeed = .621371192237334f * windSpeed;
+        }
+
+        String direction = "Unknown";
+        if (degrees >= 337.5 || degrees < 22.5) {
+            direction = "N";
+        } else if (degrees >= 22.5 && degrees < 67.5) {
+            direction = "NE";
+        } else if (degrees >= 67.5 && degrees < 112.5) {
+            direction = "E";
+        } else if (degrees >= 112.5 && degrees < 157.5) {
+            direction = "SE";
+        } else if (degrees >= 157.5 && degrees < 202.5) {
+            direction = "S";
+        } else if (degrees >= 202.5 && degrees < 247.5) {
+            direction = "SW";
+        } else if (degrees >= 247.5 && degrees < 292.5) {
+            direction = "W";
+        } else if (degrees >= 292.5 && degrees < 337.5) {
+            direction = "NW";
+        }
+        return String.format(mContext.getString(windFormat), windSpeed, direction);
+    }
+}
@@ -0,0 +1,163 @@
+package com.example.android.sunshine.app.data;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/*
+    Checks the ranking, folding and typo tolerance of the city index on a few cities, and
+    measures building it from a list the size of OpenWeatherMap's, its memory and the latency
+    of every keystroke of a thousand typed names.
+ */
+public class TestCityIndex extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestCityIndex.class.getSimpleName();
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String CITIES = "["
+            + "{\"id\":2643743,\"name\":\"London\",\"country\":\"GB\",\"coord\":{\"lon\":-0.13,\"lat\":51.51}},"
+            + "{\"id\":6058560,\"name\":\"London\",\"country\":\"CA\",\"coord\":{\"lon\":-81.23,\"lat\":42.98}},"
+            + "{\"id\":2643734,\"name\":\"Londonderry County Borough\",\"country\":\"GB\"},"
+            + "{\"id\":1,\"name\":\"London\",\"country\":\"GB\"},"
+            + "{\"id\":2657896,\"name\":\"Zürich\",\"country\":\"CH\"},"
+            + "{\"id\":2980291,\"name\":\"Saint-Étienne\",\"country\":\"FR\"},"
+            + "{\"id\":2988507,\"name\":\"Paris\",\"country\":\"FR\"},"
+            + "{\"id\":4717560,\"name\":\"Paris\",\"country\":\"US\"},"
+            + "{\"id\":5375480,\"name\":\"Mountain View\",\"country\":\"US\"}"
+            + "]";
+
+    private static final int BENCHMARK_CITIES = 200000;
+    private static final int BENCHMARK_QUERIES = 1000;
+
+    private CityIndex mIndex;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mIndex = load(CITIES);
+    }
+
+    public void testPrefixRanking() {
+        assertEquals("Error: The exact matches don't come first",
+                Arrays.asList("London, GB", "London, CA", "Londonderry County Borough, GB"),
+                names(mIndex.search("Lond", 10)));
+        assertEquals("Error: The same city in the same country was suggested twice",
+                2, mIndex.search("london", 2).size());
+        assertEquals("Error: Punctuation and spaces don't fold the same",
+                Arrays.asList("Mountain View, US"), names(mIndex.search("mountain-v", 10)));
+    }
+
+    public void testFolding() {
+        assertEquals(Arrays.asList("Zürich, CH"), names(mIndex.search("zurich", 10)));
+        assertEquals(Arrays.asList("Saint-Étienne, FR"),
+                names(mIndex.search("saint etienne", 10)));
+        assertEquals("Error: The suggestion isn't a q= location setting",
+                "Saint-Étienne,FR", mIndex.search("saint-e", 1).get(0).toLocationSetting());
+    }
+
+    public void testCountryFilter() {
+        List<CityIndex.City> cities = mIndex.search("paris, us", 10);
+        assertEquals(1, cities.size());
+        assertEquals(4717560, cities.get(0).id);
+        assertEquals(2, mIndex.search("paris,", 10).size());
+    }
+
+    public void testTypos() {
+        // A swap, a deletion, a replacement and an insertion.
+        for (String typo : new String[]{"lodnon", "lndon", "lindon", "loondon"}) {
+            List<CityIndex.City> cities = mIndex.search(typo, 10);
+            assertFalse("Error: Nothing suggested for " + typo, cities.isEmpty());
+            assertEquals("Error: Wrong first suggestion for " + typo,
+                    "London", cities.get(0).name);
+        }
+        assertTrue("Error: Short queries shouldn't look for typos",
+                mIndex.search("lx", 10).isEmpty());
+    }
+
+    public void testLineDelimitedList() throws IOException {
+        CityIndex index = load("{\"_id\":707860,\"name\":\"Hurzuf\",\"country\":\"UA\"}\n"
+                + "{\"_id\":519188,\"name\":\"Novinki\",\"country\":\"RU\"}\n");
+        assertEquals(2, index.size());
+        assertEquals(519188, index.search("novi", 10).get(0).id);
+    }
+
+    public void testBenchmark() throws IOException {
+        Random random = new Random(42);
+        String[] syllables = {"an", "ber", "co", "dor", "el", "fan", "gri", "hal", "ing", "jo",
+                "ka", "lin", "mo", "nor", "os", "pa", "qui", "ro", "san", "tor", "ur", "vil",
+                "wes", "xa", "yor", "zen"};
+        List<String> names = new ArrayList<>(BENCHMARK_CITIES);
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < BENCHMARK_CITIES; i++) {
+            StringBuilder name = new StringBuilder();
+            int parts = 2 + random.nextInt(3);
+            for (int j = 0; j < parts; j++) {
+                name.append(syllables[random.nextInt(syllables.length)]);
+            }
+            name.setCharAt(0, Character.toUpperCase(name.charAt(0)));
+            names.add(name.toString());
+            json.append(i == 0 ? "" : ",").append("{\"id\":").append(i)
+                    .append(",\"name\":\"").append(name).append("\",\"country\":\"")
+                    .append((char) ('A' + random.nextInt(26)))
+                    .append((char) ('A' + random.nextInt(26))).append("\"}");
+        }
+        byte[] list = json.append(']').toString().getBytes(UTF_8);
+
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long heapBefore = runtime.totalMemory() - runtime.freeMemory();
+        long start = System.nanoTime();
+        CityIndex index = CityIndex.load(new ByteArrayInputStream(list));
+        long buildNanos = System.nanoTime() - start;
+        System.gc();
+        long heapAfter = runtime.totalMemory() - runtime.freeMemory();
+        assertEquals(BENCHMARK_CITIES, index.size());
+
+        // Every keystroke of the names, every other one with two letters swapped.
+        long[] latencies = new long[BENCHMARK_QUERIES * 16];
+        int queries = 0;
+        for (int i = 0; i < BENCHMARK_QUERIES; i++) {
+            char[] typed = names.get(random.nextInt(names.size())).toCharArray();
+            if (i % 2 == 1 && typed.length > 4) {
+                int at = 1 + random.nextInt(typed.length - 3);
+                char swapped = typed[at];
+                typed[at] = typed[at + 1];
+                typed[at + 1] = swapped;
+            }
+            for (int length = 1; length <= typed.length && length <= 16; length++) {
+                String query = new String(typed, 0, length);
+                long queryStart = System.nanoTime();
+                index.search(query, 8);
+                latencies[queries++] = System.nanoTime() - queryStart;
+            }
+        }
+        Arrays.sort(latencies, 0, queries);
+
+        Log.i(LOG_TAG, BENCHMARK_CITIES + " cities: built in " + buildNanos / 1000000
+                + " ms, " + index.sizeInBytes() / 1024 + " KB of arrays, heap grew by "
+                + (heapAfter - heapBefore) / 1024 + " KB; " + queries + " keystrokes, median "
+                + latencies[queries / 2] / 1000 + " us, 99th percentile "
+                + latencies[queries * 99 / 100] / 1000 + " us, slowest "
+                + latencies[queries - 1] / 1000 + " us");
+    }
+
+    private static CityIndex load(String json) throws IOException {
+        return CityIndex.load(new ByteArrayInputStream(json.getBytes(UTF_8)));
+    }
+
+    private static List<String> names(List<CityIndex.City> cities) {
+        List<String> names = new ArrayList<>();
+        for (CityIndex.City city : cities) {
+            names.add(city.toString());
+        }
+        return names;
+    }
+}
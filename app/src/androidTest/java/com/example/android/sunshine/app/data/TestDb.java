@@ -15,6 +15,7 @@
  */
 package com.example.android.sunshine.app.data;
 
+import android.content.ContentProviderClient;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
@@ -28,6 +29,13 @@ public class TestDb extends AndroidTestCase {
 
     // Since we want each test to start with a clean slate
     void deleteTheDatabase() {
+        // The provider keeps its database open; close it so it reopens the new file.
+        ContentProviderClient client = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        if (client != null) {
+            client.getLocalContentProvider().shutdown();
+            client.release();
+        }
         mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
     }
 
@@ -55,8 +63,11 @@ public class TestDb extends AndroidTestCase {
         final HashSet<String> tableNameHashSet = new HashSet<>();
         tableNameHashSet.add(WeatherContract.LocationEntry.TABLE_NAME);
         tableNameHashSet.add(WeatherContract.WeatherEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.ArchiveEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.RollupEntry.WEEK_TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.RollupEntry.MONTH_TABLE_NAME);
 
-        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        deleteTheDatabase();
         SQLiteDatabase db = new WeatherDbHelper(
                 this.mContext).getWritableDatabase();
         assertEquals(true, db.isOpen());
@@ -105,6 +116,31 @@ public class TestDb extends AndroidTestCase {
         db.close();
     }
 
+    /*
+        The database is opened in write-ahead logging mode with the connection settings from
+        WeatherDbHelper.onOpen.  A transaction pins the queries to the writer connection.
+     */
+    public void testWriteAheadLogging() {
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+
+        Cursor cursor = db.rawQuery("PRAGMA journal_mode", null);
+        assertTrue("Error: Unable to query the journal mode", cursor.moveToFirst());
+        assertEquals("Error: The database isn't in WAL mode", "wal", cursor.getString(0));
+        cursor.close();
+
+        db.beginTransaction();
+        try {
+            assertEquals("Error: synchronous should be NORMAL",
+                    1, WeatherDbHelper.queryPragma(db, "PRAGMA synchronous"));
+            assertEquals("Error: Unexpected WAL checkpoint threshold",
+                    WeatherDbHelper.WAL_AUTOCHECKPOINT_PAGES,
+                    WeatherDbHelper.queryPragma(db, "PRAGMA wal_autocheckpoint"));
+        } finally {
+            db.endTransaction();
+        }
+        db.close();
+    }
+
     /*
         Students:  Here is where you will build code to test that we can insert and query the
         location database.  We've done a lot of work for you.  You'll want to look in TestUtilities
@@ -0,0 +1,148 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+    Runs a writer doing bulk inserts through the provider alongside several reader threads
+    querying the forecast, and reports the readers' latency percentiles.  With write-ahead
+    logging the readers shouldn't have to wait for the writer's transactions.
+ */
+public class TestDbConcurrency extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestDbConcurrency.class.getSimpleName();
+
+    private static final int READERS = 4;
+    private static final int WRITE_BATCHES = 50;
+    private static final int ROWS_PER_BATCH = 100;
+
+    private long mLocationRowId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteAllRecords(mContext);
+        mLocationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.deleteAllRecords(mContext);
+        super.tearDown();
+    }
+
+    public void testReadersDuringBulkInserts() throws Exception {
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final CountDownLatch start = new CountDownLatch(1);
+        final Uri forecastUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE);
+
+        List<Thread> readers = new ArrayList<>();
+        final List<long[]> readerLatencies = new ArrayList<>();
+        for (int r = 0; r < READERS; r++) {
+            final LatencyRecorder recorder = new LatencyRecorder();
+            Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        while (writing.get()) {
+                            long begin = System.nanoTime();
+                            Cursor cursor = mContext.getContentResolver().query(
+                                    forecastUri, null, null, null,
+                                    WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+                            cursor.getCount();
+                            cursor.close();
+                            recorder.add(System.nanoTime() - begin);
+                        }
+                        synchronized (readerLatencies) {
+                            readerLatencies.add(recorder.toArray());
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            });
+            reader.start();
+            readers.add(reader);
+        }
+
+        start.countDown();
+        long writeStart = System.nanoTime();
+        try {
+            for (int batch = 0; batch < WRITE_BATCHES; batch++) {
+                ContentValues[] rows = new ContentValues[ROWS_PER_BATCH];
+                for (int i = 0; i < ROWS_PER_BATCH; i++) {
+                    rows[i] = TestUtilities.createWeatherValues(mLocationRowId,
+                            batch * ROWS_PER_BATCH + i);
+                }
+                mContext.getContentResolver().bulkInsert(
+                        WeatherContract.WeatherEntry.CONTENT_URI, rows);
+            }
+        } finally {
+            writing.set(false);
+        }
+        long writeNanos = System.nanoTime() - writeStart;
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        assertEquals("Error: Every reader should have finished", READERS, readerLatencies.size());
+
+        int total = 0;
+        for (long[] latencies : readerLatencies) {
+            total += latencies.length;
+        }
+        long[] all = new long[total];
+        int offset = 0;
+        for (long[] latencies : readerLatencies) {
+            System.arraycopy(latencies, 0, all, offset, latencies.length);
+            offset += latencies.length;
+        }
+        Arrays.sort(all);
+        assertTrue("Error: The readers made no progress while the writer ran", all.length > 0);
+
+        Log.i(LOG_TAG, WRITE_BATCHES + " x " + ROWS_PER_BATCH + " row batches written in "
+                + writeNanos / 1000000 + " ms while " + READERS + " readers ran "
+                + all.length + " queries: "
+                + "p50 " + percentile(all, 50) / 1000 + " us, "
+                + "p90 " + percentile(all, 90) / 1000 + " us, "
+                + "p99 " + percentile(all, 99) / 1000 + " us, "
+                + "max " + all[all.length - 1] / 1000 + " us");
+    }
+
+    private static long percentile(long[] sorted, int percent) {
+        return sorted[Math.min(sorted.length - 1, sorted.length * percent / 100)];
+    }
+
+    // Growable list of latencies owned by a single reader thread.
+    private static class LatencyRecorder {
+        private long[] mValues = new long[256];
+        private int mSize;
+
+        void add(long value) {
+            if (mSize == mValues.length) {
+                mValues = Arrays.copyOf(mValues, mSize * 2);
+            }
+            mValues[mSize++] = value;
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(mValues, mSize);
+        }
+    }
+}
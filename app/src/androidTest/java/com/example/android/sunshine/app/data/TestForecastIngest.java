@@ -0,0 +1,360 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.os.Bundle;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks the columnar METHOD_INGEST_FORECAST path against the rows bulkInsert stores, and
+    that locations resolved to the same city share one set of weather rows.  Compares the time
+    and allocations of both paths on 1k, 10k and 100k weather rows.
+ */
+public class TestForecastIngest extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastIngest.class.getSimpleName();
+
+    private static final int DAYS = TestUtilities.WEEK_DAYS;
+
+    private static final long LONDON_CITY_ID = 2643743;
+    private static final long PARIS_CITY_ID = 2988507;
+
+    private static final int[] BENCHMARK_ROWS = {1000, 10000, 100000};
+    private static final int BENCHMARK_LOCATIONS = 100;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteAllRecords(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.deleteAllRecords(mContext);
+        super.tearDown();
+    }
+
+    public void testIngestStoresForecast() {
+        Bundle counts = ingest(createWeek());
+        assertEquals(DAYS, counts.getInt(WeatherContract.STAT_WEATHER_ROWS_INSERTED));
+        assertEquals(0, counts.getInt(WeatherContract.STAT_WEATHER_ROWS_UPDATED));
+        assertEquals(0, counts.getInt(WeatherContract.STAT_WEATHER_ROWS_UNCHANGED));
+
+        long locationRowId = queryLocationId(TestUtilities.TEST_LOCATION);
+        assertTrue("Error: The batch's location wasn't stored", locationRowId != -1);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithDate(
+                        TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE),
+                null, null, null, null);
+        ContentValues expected = TestUtilities.createWeatherValues(locationRowId);
+        TestUtilities.validateCursor("Error: The ingested day doesn't match", cursor, expected);
+        cursor.close();
+    }
+
+    public void testIngestUpsertsAndPrunes() {
+        ingest(createWeek());
+
+        ForecastBatch batch = createWeek();
+        batch.mMaxTemps[2] = 80;
+        batch.setPruneDate(day(0));
+        Bundle counts = ingest(batch);
+
+        assertEquals(0, counts.getInt(WeatherContract.STAT_WEATHER_ROWS_INSERTED));
+        assertEquals("Error: The changed day wasn't updated",
+                1, counts.getInt(WeatherContract.STAT_WEATHER_ROWS_UPDATED));
+        assertEquals("Error: The other days should be unchanged",
+                DAYS - 1, counts.getInt(WeatherContract.STAT_WEATHER_ROWS_UNCHANGED));
+        assertEquals("Error: The first day wasn't pruned",
+                1, counts.getInt(WeatherContract.STAT_WEATHER_ROWS_DELETED));
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals(DAYS - 1, cursor.getCount());
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(
+                ArchiveEntry.buildArchiveLocation(TestUtilities.TEST_LOCATION),
+                new String[]{ArchiveEntry.COLUMN_PERIOD, ArchiveEntry.COLUMN_DATE,
+                        ArchiveEntry.COLUMN_DAYS, ArchiveEntry.COLUMN_MAX_TEMP},
+                null, null, null);
+        assertEquals("Error: The pruned day wasn't archived", 1, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(ArchiveEntry.PERIOD_DAY, cursor.getInt(0));
+        assertEquals(day(0), cursor.getInt(1));
+        assertEquals(1, cursor.getInt(2));
+        assertEquals(75.0, cursor.getDouble(3));
+        cursor.close();
+    }
+
+    // What a sync sends when every forecast came back unchanged.
+    public void testPruneOnlyBatch() {
+        ingest(createWeek());
+
+        ForecastBatch batch = new ForecastBatch(0, 0);
+        batch.setPruneDate(day(1));
+        Bundle counts = ingest(batch);
+        assertEquals("Error: The past days weren't pruned",
+                2, counts.getInt(WeatherContract.STAT_WEATHER_ROWS_DELETED));
+        assertEquals(DAYS - 2, countWeatherRows());
+
+        Cursor cursor = mContext.getContentResolver().query(
+                ArchiveEntry.buildArchiveLocation(TestUtilities.TEST_LOCATION),
+                null, null, null, null);
+        assertEquals("Error: The pruned days weren't archived", 2, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testLocationsOfOneCityShareWeather() {
+        // Stored before the city ids were, then the same city typed another way.
+        ingest(TestUtilities.createWeekBatch("London, UK", 0));
+        ingest(TestUtilities.createWeekBatch("london", LONDON_CITY_ID));
+        assertEquals(2 * DAYS, countWeatherRows());
+
+        // Resolving the first one makes the second share its rows and drop its own.
+        Bundle counts = ingest(TestUtilities.createWeekBatch("London, UK", LONDON_CITY_ID));
+        assertEquals(0, counts.getInt(WeatherContract.STAT_WEATHER_ROWS_INSERTED));
+        assertEquals(DAYS, counts.getInt(WeatherContract.STAT_WEATHER_ROWS_UNCHANGED));
+        assertEquals("Error: The locations of one city still have a forecast each",
+                DAYS, countWeatherRows());
+
+        long ownerId = queryLocationId("London, UK");
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry.COLUMN_CITY_ID, LocationEntry.COLUMN_SHARED_LOC_KEY},
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?", new String[]{"london"}, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(LONDON_CITY_ID, cursor.getLong(0));
+        assertEquals("Error: The location doesn't share the first one's rows",
+                ownerId, cursor.getLong(1));
+        cursor.close();
+
+        for (String locationSetting : new String[]{"London, UK", "london"}) {
+            cursor = mContext.getContentResolver().query(
+                    WeatherEntry.buildWeatherLocation(locationSetting), null, null, null, null);
+            assertEquals("Error: " + locationSetting + " doesn't show the city's forecast",
+                    DAYS, cursor.getCount());
+            cursor.close();
+        }
+
+        // A later forecast for either location updates both.
+        ForecastBatch batch = TestUtilities.createWeekBatch("london", LONDON_CITY_ID);
+        batch.mMaxTemps[0] = 80;
+        assertEquals(1, ingest(batch).getInt(WeatherContract.STAT_WEATHER_ROWS_UPDATED));
+        cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithDate("London, UK", day(0)),
+                new String[]{WeatherEntry.COLUMN_MAX_TEMP}, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(80.0, cursor.getDouble(0));
+        cursor.close();
+    }
+
+    public void testSharersKeepTheCityWhenItsOwnerLeaves() {
+        ingest(TestUtilities.createWeekBatch("London, UK", LONDON_CITY_ID));
+        ingest(TestUtilities.createWeekBatch("london", LONDON_CITY_ID));
+        ingest(TestUtilities.createWeekBatch("londres", LONDON_CITY_ID));
+
+        // The first location now resolves to another city, with another forecast.
+        ForecastBatch batch = TestUtilities.createWeekBatch("London, UK", PARIS_CITY_ID);
+        for (int i = 0; i < DAYS; i++) {
+            batch.mMaxTemps[i] = 90;
+        }
+        ingest(batch);
+        assertEquals("Error: The city the owner left lost its forecast",
+                2 * DAYS, countWeatherRows());
+        assertEquals(90.0, queryMaxTemp("London, UK"));
+        assertEquals("Error: A sharer shows the forecast of the city its owner moved to",
+                75.0, queryMaxTemp("london"));
+        assertEquals(75.0, queryMaxTemp("londres"));
+
+        // The next location took over the rows, and the last one shares them.
+        long newOwnerId = queryLocationId("london");
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry.COLUMN_SHARED_LOC_KEY},
+                LocationEntry.COLUMN_LOCATION_SETTING + " IN (?, ?)",
+                new String[]{"london", "londres"}, LocationEntry._ID);
+        assertTrue(cursor.moveToFirst());
+        assertTrue("Error: The new owner still shares another location's rows",
+                cursor.isNull(0));
+        assertTrue(cursor.moveToNext());
+        assertEquals(newOwnerId, cursor.getLong(0));
+        cursor.close();
+
+        // Deleting the new owner hands the rows on again.
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI,
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?", new String[]{"london"});
+        assertEquals("Error: The sharer of a deleted location lost its forecast",
+                75.0, queryMaxTemp("londres"));
+
+        // Nobody shares the last one, so its rows go with it.
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI,
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?", new String[]{"londres"});
+        assertEquals("Error: A deleted location left its rows behind", DAYS, countWeatherRows());
+    }
+
+    public void testIncompleteBatchIsRejected() {
+        Bundle extras = createWeek().toBundle();
+        extras.putDoubleArray("minTemps", new double[1]);
+        try {
+            ingest(extras);
+            fail("Error: A batch with columns of different lengths was accepted");
+        } catch (IllegalArgumentException expected) {
+        }
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals("Error: A rejected batch wrote rows", 0, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testInvalidDayFailsBatch() {
+        ForecastBatch batch = createWeek();
+        batch.mDescriptions[3] = null;
+        try {
+            ingest(batch);
+            fail("Error: A day without a description was dropped instead of failing the batch");
+        } catch (SQLException expected) {
+        }
+        assertEquals("Error: A failed batch wrote rows", 0, countWeatherRows());
+    }
+
+    public void testIngestCost() {
+        long[] locationIds = new long[BENCHMARK_LOCATIONS];
+        for (int i = 0; i < BENCHMARK_LOCATIONS; i++) {
+            ContentValues location = createLocation(i);
+            locationIds[i] = Long.parseLong(mContext.getContentResolver()
+                    .insert(LocationEntry.CONTENT_URI, location).getLastPathSegment());
+        }
+
+        for (int rows : BENCHMARK_ROWS) {
+            mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+            long[] bulk = measureBulkInsert(locationIds, rows);
+            mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+            long[] columnar = measureIngest(rows);
+
+            Log.i(LOG_TAG, rows + " rows: bulkInsert " + bulk[0] / 1000000 + " ms, "
+                    + bulk[1] / rows + " bytes/row; ingest " + columnar[0] / 1000000 + " ms, "
+                    + columnar[1] / rows + " bytes/row");
+        }
+    }
+
+    /**
+     * @return the time and allocated bytes of building the rows and storing them.
+     */
+    @SuppressWarnings("deprecation")
+    private long[] measureBulkInsert(long[] locationIds, int rows) {
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        long start = System.nanoTime();
+        ContentValues[] values = new ContentValues[rows];
+        for (int i = 0; i < rows; i++) {
+            ContentValues day = new ContentValues();
+            day.put(WeatherEntry.COLUMN_LOC_KEY, locationIds[i % BENCHMARK_LOCATIONS]);
+            day.put(WeatherEntry.COLUMN_DATE, day(i / BENCHMARK_LOCATIONS));
+            day.put(WeatherEntry.COLUMN_SHORT_DESC, "Asteroids");
+            day.put(WeatherEntry.COLUMN_WEATHER_ID, 321);
+            day.put(WeatherEntry.COLUMN_MIN_TEMP, 65.0);
+            day.put(WeatherEntry.COLUMN_MAX_TEMP, 75.0);
+            day.put(WeatherEntry.COLUMN_HUMIDITY, 1.2);
+            day.put(WeatherEntry.COLUMN_PRESSURE, 1.3);
+            day.put(WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+            day.put(WeatherEntry.COLUMN_DEGREES, 1.1);
+            values[i] = day;
+        }
+        int written = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+        long elapsed = System.nanoTime() - start;
+        Debug.stopAllocCounting();
+        assertEquals(rows, written);
+        return new long[]{elapsed, Debug.getThreadAllocSize()};
+    }
+
+    @SuppressWarnings("deprecation")
+    private long[] measureIngest(int rows) {
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        long start = System.nanoTime();
+        ForecastBatch batch = new ForecastBatch(BENCHMARK_LOCATIONS, rows);
+        for (int i = 0; i < BENCHMARK_LOCATIONS; i++) {
+            batch.addLocation(locationSetting(i), "City " + i, i, -i);
+        }
+        for (int i = 0; i < rows; i++) {
+            batch.addDay(i % BENCHMARK_LOCATIONS, day(i / BENCHMARK_LOCATIONS),
+                    "Asteroids", 321, 65.0, 75.0, 1.2, 1.3, 5.5, 1.1);
+        }
+        Bundle counts = ingest(batch);
+        long elapsed = System.nanoTime() - start;
+        Debug.stopAllocCounting();
+        assertEquals(rows, counts.getInt(WeatherContract.STAT_WEATHER_ROWS_INSERTED));
+        return new long[]{elapsed, Debug.getThreadAllocSize()};
+    }
+
+    // The North Pole location with the week of TestUtilities.createWeek.
+    private static ForecastBatch createWeek() {
+        return TestUtilities.createWeekBatch(TestUtilities.TEST_LOCATION, 0);
+    }
+
+    private static int day(int day) {
+        return TestUtilities.TEST_DATE + day;
+    }
+
+    private static String locationSetting(int i) {
+        return "ingest-" + i;
+    }
+
+    private static ContentValues createLocation(int i) {
+        ContentValues location = new ContentValues();
+        location.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting(i));
+        location.put(LocationEntry.COLUMN_CITY_NAME, "City " + i);
+        location.put(LocationEntry.COLUMN_COORD_LAT, (double) i);
+        location.put(LocationEntry.COLUMN_COORD_LONG, (double) -i);
+        return location;
+    }
+
+    private Bundle ingest(ForecastBatch batch) {
+        return ingest(batch.toBundle());
+    }
+
+    private Bundle ingest(Bundle extras) {
+        return mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_INGEST_FORECAST, null, extras);
+    }
+
+    private int countWeatherRows() {
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // The high of the first day the location shows, or NaN if it shows none.
+    private double queryMaxTemp(String locationSetting) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithDate(locationSetting, day(0)),
+                new String[]{WeatherEntry.COLUMN_MAX_TEMP}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getDouble(0) : Double.NaN;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long queryLocationId(String locationSetting) {
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry._ID},
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting}, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.android.sunshine.app.data;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/*
+    Checks JulianDay against android.text.format.Time, which it replaces, and that its
+    conversions don't allocate.
+ */
+public class TestJulianDay extends AndroidTestCase {
+
+    private static final long HOUR_IN_MILLIS = 60 * 60 * 1000L;
+    private static final int ITERATIONS = 1000;
+
+    public void testMatchesTime() {
+        Time time = new Time();
+        time.setToNow();
+        long now = System.currentTimeMillis();
+        assertEquals("Error: Today doesn't match Time",
+                Time.getJulianDay(now, time.gmtoff), JulianDay.today());
+
+        TimeZone timeZone = TimeZone.getDefault();
+        // Every hour for a year on either side of now, across daylight saving changes.
+        for (long millis = now - 365 * JulianDay.DAY_IN_MILLIS;
+             millis < now + 365 * JulianDay.DAY_IN_MILLIS; millis += HOUR_IN_MILLIS) {
+            assertEquals("Error: The UTC day of " + millis + " doesn't match Time",
+                    Time.getJulianDay(millis, 0), JulianDay.fromUtcMillis(millis));
+            assertEquals("Error: The local day of " + millis + " doesn't match Time",
+                    Time.getJulianDay(millis, timeZone.getOffset(millis) / 1000),
+                    JulianDay.fromLocalMillis(millis));
+        }
+    }
+
+    public void testUtcRoundTrip() {
+        assertEquals(0, JulianDay.toUtcMillis(JulianDay.EPOCH_JULIAN_DAY));
+        assertEquals(TestUtilities.TEST_DATE,
+                JulianDay.fromUtcMillis(JulianDay.toUtcMillis(TestUtilities.TEST_DATE)));
+        // Before the epoch the division has to round down, not towards zero.
+        assertEquals(JulianDay.EPOCH_JULIAN_DAY - 1, JulianDay.fromUtcMillis(-1));
+    }
+
+    public void testWeekAndMonthStarts() {
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        // Every day for four centuries around the test date, leap years and all.
+        for (int day = TestUtilities.TEST_DATE - 200 * 366;
+             day < TestUtilities.TEST_DATE + 200 * 366; day++) {
+            calendar.setTimeInMillis(JulianDay.toUtcMillis(day));
+            int dayOfWeek = (calendar.get(Calendar.DAY_OF_WEEK) + 5) % 7;
+            assertEquals("Error: The week of " + day + " doesn't start on Monday",
+                    day - dayOfWeek, JulianDay.startOfWeek(day));
+            int dayOfMonth = calendar.get(Calendar.DAY_OF_MONTH);
+            assertEquals("Error: The month of " + day + " doesn't start on its first",
+                    day - dayOfMonth + 1, JulianDay.startOfMonth(day));
+            int daysInMonth = calendar.getActualMaximum(Calendar.DAY_OF_MONTH);
+            assertEquals("Error: The month after " + day + " doesn't start after its last day",
+                    day - dayOfMonth + 1 + daysInMonth, JulianDay.startOfNextMonth(day));
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    public void testConversionsDontAllocate() {
+        // Fills the cached day.
+        JulianDay.today();
+        long now = System.currentTimeMillis();
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        int sum = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            sum += JulianDay.today();
+            sum += JulianDay.fromLocalMillis(now);
+            sum += JulianDay.fromUtcMillis(JulianDay.toUtcMillis(TestUtilities.TEST_DATE));
+        }
+        Debug.stopAllocCounting();
+        int allocations = Debug.getThreadAllocCount();
+
+        assertTrue(sum != 0);
+        // Allows for the cached day being refreshed if the test runs across an hour.
+        assertTrue("Error: Converting days allocated " + allocations + " objects",
+                allocations <= 2);
+    }
+}
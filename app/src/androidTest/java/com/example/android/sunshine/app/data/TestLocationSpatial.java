@@ -0,0 +1,257 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/*
+    Compares the nearest-location and bounding-box queries with a scan of every location, on
+    random places and on the edges the cells have to handle: the 180th meridian, the poles and
+    updates of one coordinate.  Then times nearest-location queries over 100k locations
+    against the scan they replace.
+ */
+public class TestLocationSpatial extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestLocationSpatial.class.getSimpleName();
+
+    private static final int LOCATIONS = 500;
+    private static final int QUERIES = 50;
+
+    private static final int BENCHMARK_LOCATIONS = 100000;
+    private static final int BENCHMARK_QUERIES = 200;
+
+    private static final String[] PROJECTION = {LocationEntry._ID,
+            LocationEntry.COLUMN_COORD_LAT, LocationEntry.COLUMN_COORD_LONG};
+
+    private final Random mRandom = new Random(42);
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteAllRecords(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.deleteAllRecords(mContext);
+        super.tearDown();
+    }
+
+    public void testNearestMatchesScan() {
+        List<double[]> places = insertRandomLocations(LOCATIONS);
+        for (int i = 0; i < QUERIES; i++) {
+            double lat = randomLat();
+            double lon = randomLon();
+            int limit = 1 + mRandom.nextInt(10);
+            assertEquals("Error: Wrong nearest locations to " + lat + "," + lon,
+                    nearestByScan(places, lat, lon, limit, Double.POSITIVE_INFINITY),
+                    ids(LocationEntry.buildLocationNear(lat, lon, limit)));
+        }
+    }
+
+    public void testNearestWithinRadius() {
+        List<double[]> places = insertRandomLocations(LOCATIONS);
+        for (int i = 0; i < QUERIES; i++) {
+            double lat = randomLat();
+            double lon = randomLon();
+            double radiusKm = 100 + mRandom.nextInt(3000);
+            assertEquals("Error: Wrong locations within " + radiusKm + " km of " + lat + "," + lon,
+                    nearestByScan(places, lat, lon, 20, radiusKm),
+                    ids(LocationEntry.buildLocationNear(lat, lon, 20, radiusKm)));
+        }
+    }
+
+    public void testWithinMatchesScan() {
+        List<double[]> places = insertRandomLocations(LOCATIONS);
+        for (int i = 0; i < QUERIES; i++) {
+            double south = randomLat();
+            double north = Math.min(90, south + mRandom.nextDouble() * 40);
+            double west = randomLon();
+            double east = west + mRandom.nextDouble() * 60;
+            if (east > 180) {
+                east -= 360;
+            }
+            List<Long> expected = new ArrayList<>();
+            for (double[] place : places) {
+                boolean inLongitude = west <= east
+                        ? place[2] >= west && place[2] <= east
+                        : place[2] >= west || place[2] <= east;
+                if (place[1] >= south && place[1] <= north && inLongitude) {
+                    expected.add((long) place[0]);
+                }
+            }
+            List<Long> actual = ids(LocationEntry.buildLocationWithin(south, west, north, east));
+            Collections.sort(actual);
+            assertEquals("Error: Wrong locations within " + south + "," + west + " - "
+                    + north + "," + east, expected, actual);
+        }
+    }
+
+    public void testDatelineAndPoles() {
+        long fiji = insertLocation("fiji", -17.7, 179.9);
+        long samoa = insertLocation("samoa", -13.8, -171.8);
+        long pole = insertLocation("pole", 89.99, 10);
+        long london = insertLocation("london", 51.5, -0.12);
+
+        assertEquals("Error: The nearest location across the 180th meridian wasn't found",
+                Arrays.asList(fiji, samoa), ids(LocationEntry.buildLocationNear(-16, -179.5, 2)));
+        List<Long> within = ids(LocationEntry.buildLocationWithin(-20, 170, -10, -170));
+        Collections.sort(within);
+        assertEquals("Error: A box across the 180th meridian missed a location",
+                Arrays.asList(fiji, samoa), within);
+        assertEquals("Error: The location by the pole wasn't found from the far side",
+                Arrays.asList(pole), ids(LocationEntry.buildLocationNear(89.9, -170, 1)));
+        assertEquals(Arrays.asList(london, pole),
+                ids(LocationEntry.buildLocationNear(60, 0, 2)));
+    }
+
+    public void testUpdateOneCoordinate() {
+        long id = insertLocation("moved", 10, 10);
+        ContentValues values = new ContentValues();
+        values.put(LocationEntry.COLUMN_COORD_LAT, -40.0);
+        assertEquals(1, mContext.getContentResolver().update(LocationEntry.CONTENT_URI, values,
+                LocationEntry._ID + " = ?", new String[]{Long.toString(id)}));
+
+        assertTrue("Error: The location is still found where it was",
+                ids(LocationEntry.buildLocationWithin(5, 5, 15, 15)).isEmpty());
+        assertEquals("Error: The location isn't found where it moved to",
+                Arrays.asList(id), ids(LocationEntry.buildLocationWithin(-45, 5, -35, 15)));
+    }
+
+    public void testBenchmark() {
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        SQLiteStatement insert = db.compileStatement("INSERT INTO " + LocationEntry.TABLE_NAME
+                + " (" + LocationEntry.COLUMN_LOCATION_SETTING + ", "
+                + LocationEntry.COLUMN_CITY_NAME + ", " + LocationEntry.COLUMN_COORD_LAT + ", "
+                + LocationEntry.COLUMN_COORD_LONG + ", " + GeoCells.COLUMN_GEOCELL
+                + ") VALUES (?, ?, ?, ?, ?)");
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < BENCHMARK_LOCATIONS; i++) {
+                double lat = randomLat();
+                double lon = randomLon();
+                insert.bindString(1, "benchmark" + i);
+                insert.bindString(2, "City " + i);
+                insert.bindDouble(3, lat);
+                insert.bindDouble(4, lon);
+                insert.bindLong(5, GeoCells.encode(lat, lon));
+                insert.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            insert.close();
+        }
+
+        double[][] queries = new double[BENCHMARK_QUERIES][];
+        for (int i = 0; i < BENCHMARK_QUERIES; i++) {
+            queries[i] = new double[]{randomLat(), randomLon()};
+        }
+
+        long start = System.nanoTime();
+        for (double[] query : queries) {
+            assertEquals(5, ids(LocationEntry.buildLocationNear(query[0], query[1], 5)).size());
+        }
+        long nearNanos = System.nanoTime() - start;
+
+        // What finding them took before: every location, ordered by an approximate distance.
+        String scan = "SELECT " + LocationEntry._ID + " FROM " + LocationEntry.TABLE_NAME
+                + " ORDER BY (" + LocationEntry.COLUMN_COORD_LAT + " - ?) * ("
+                + LocationEntry.COLUMN_COORD_LAT + " - ?) + (" + LocationEntry.COLUMN_COORD_LONG
+                + " - ?) * (" + LocationEntry.COLUMN_COORD_LONG + " - ?) LIMIT 5";
+        start = System.nanoTime();
+        for (double[] query : queries) {
+            String lat = Double.toString(query[0]);
+            String lon = Double.toString(query[1]);
+            Cursor cursor = db.rawQuery(scan, new String[]{lat, lat, lon, lon});
+            while (cursor.moveToNext()) {
+                cursor.getLong(0);
+            }
+            cursor.close();
+        }
+        long scanNanos = System.nanoTime() - start;
+        db.close();
+
+        Log.i(LOG_TAG, BENCHMARK_LOCATIONS + " locations, " + BENCHMARK_QUERIES
+                + " nearest-5 queries: cells " + nearNanos / 1000 / BENCHMARK_QUERIES
+                + " us each, full scan " + scanNanos / 1000 / BENCHMARK_QUERIES + " us each");
+    }
+
+    // Returns each location as {id, lat, long}.
+    private List<double[]> insertRandomLocations(int count) {
+        List<double[]> places = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            double lat = randomLat();
+            double lon = randomLon();
+            places.add(new double[]{insertLocation("random" + i, lat, lon), lat, lon});
+        }
+        return places;
+    }
+
+    private long insertLocation(String locationSetting, double lat, double lon) {
+        ContentValues values = new ContentValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        values.put(LocationEntry.COLUMN_CITY_NAME, locationSetting);
+        values.put(LocationEntry.COLUMN_COORD_LAT, lat);
+        values.put(LocationEntry.COLUMN_COORD_LONG, lon);
+        Uri uri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values);
+        return Long.parseLong(uri.getLastPathSegment());
+    }
+
+    private List<Long> ids(Uri uri) {
+        Cursor cursor = mContext.getContentResolver().query(uri, PROJECTION, null, null, null);
+        List<Long> ids = new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+
+    private static List<Long> nearestByScan(List<double[]> places, double lat, double lon,
+                                            int limit, double radiusKm) {
+        List<double[]> byDistance = new ArrayList<>();
+        for (double[] place : places) {
+            double distanceKm = GeoCells.distanceKm(lat, lon, place[1], place[2]);
+            if (distanceKm <= radiusKm) {
+                byDistance.add(new double[]{distanceKm, place[0]});
+            }
+        }
+        Collections.sort(byDistance, new Comparator<double[]>() {
+            @Override
+            public int compare(double[] a, double[] b) {
+                return Double.compare(a[0], b[0]);
+            }
+        });
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < byDistance.size() && i < limit; i++) {
+            ids.add((long) byDistance.get(i)[1]);
+        }
+        return ids;
+    }
+
+    // Uniform over the sphere rather than over latitudes, so the poles aren't crowded.
+    private double randomLat() {
+        return Math.toDegrees(Math.asin(2 * mRandom.nextDouble() - 1));
+    }
+
+    private double randomLon() {
+        return mRandom.nextDouble() * 360 - 180;
+    }
+}
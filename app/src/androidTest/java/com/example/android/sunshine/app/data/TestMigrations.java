@@ -0,0 +1,258 @@
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TimeZone;
+
+/*
+    Upgrades populated databases from every past version that has migrations, checks that
+    their rows survive and that they end up with the same schema as a fresh install, and
+    times each upgrade.
+ */
+public class TestMigrations extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestMigrations.class.getSimpleName();
+
+    private static final String UPGRADED_DATABASE_NAME = "weather_upgraded.db";
+    private static final String FRESH_DATABASE_NAME = "weather_fresh.db";
+
+    private static final int LOCATIONS = 50;
+    private static final int DAYS_PER_LOCATION = 200;
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(UPGRADED_DATABASE_NAME);
+        mContext.deleteDatabase(FRESH_DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testMigrationsAreContiguous() {
+        int version = WeatherDbHelper.MIN_MIGRATABLE_VERSION;
+        for (WeatherDbHelper.Migration migration : WeatherDbHelper.MIGRATIONS) {
+            assertEquals("Error: Migrations have to go one version at a time, in order",
+                    version + 1, migration.toVersion);
+            version = migration.toVersion;
+        }
+        assertEquals("Error: The migrations don't reach the current version",
+                WeatherDbHelper.DATABASE_VERSION, version);
+    }
+
+    public void testUpgradeFromEveryVersion() {
+        List<String> freshSchema = describeFreshSchema();
+
+        for (int version = WeatherDbHelper.MIN_MIGRATABLE_VERSION;
+             version < WeatherDbHelper.DATABASE_VERSION; version++) {
+            createPopulatedDatabase(version);
+
+            long start = System.nanoTime();
+            SQLiteDatabase db = openHelper(UPGRADED_DATABASE_NAME);
+            long upgradeNanos = System.nanoTime() - start;
+
+            assertEquals("Error: Upgrading from version " + version + " lost weather rows",
+                    LOCATIONS * DAYS_PER_LOCATION, count(db, WeatherEntry.TABLE_NAME));
+            assertEquals("Error: Upgrading from version " + version + " lost locations",
+                    LOCATIONS, count(db, LocationEntry.TABLE_NAME));
+            assertEquals("Error: Upgrading from version " + version
+                            + " doesn't give the schema of a fresh install",
+                    freshSchema, describeSchema(db));
+            assertDatesAreJulianDays(db);
+            assertEquals("Error: Upgrading from version " + version
+                            + " doesn't roll up every day",
+                    LOCATIONS * DAYS_PER_LOCATION,
+                    sum(db, WeatherContract.RollupEntry.MONTH_TABLE_NAME,
+                            WeatherContract.RollupEntry.COLUMN_DAYS));
+            assertEquals("Error: Upgrading from version " + version
+                            + " doesn't index every location",
+                    LOCATIONS, count(db, LocationEntry.TABLE_NAME + " WHERE "
+                            + GeoCells.COLUMN_GEOCELL + " = "
+                            + GeoCells.encode(64.7488, -147.353)));
+            db.close();
+
+            Log.i(LOG_TAG, "Upgrade from version " + version + " with "
+                    + LOCATIONS * DAYS_PER_LOCATION + " weather rows: "
+                    + upgradeNanos / 1000000 + " ms");
+            mContext.deleteDatabase(UPGRADED_DATABASE_NAME);
+        }
+    }
+
+    /*
+        Versions without migrations are rebuilt empty rather than left unreadable.
+     */
+    public void testUpgradeFromUnmigratableVersionRecreates() {
+        mContext.deleteDatabase(UPGRADED_DATABASE_NAME);
+        SQLiteDatabase db = mContext.openOrCreateDatabase(UPGRADED_DATABASE_NAME, 0, null);
+        db.execSQL("CREATE TABLE " + WeatherEntry.TABLE_NAME + " (_id INTEGER PRIMARY KEY)");
+        db.execSQL("INSERT INTO " + WeatherEntry.TABLE_NAME + " VALUES (1)");
+        db.setVersion(WeatherDbHelper.MIN_MIGRATABLE_VERSION - 1);
+        db.close();
+
+        db = openHelper(UPGRADED_DATABASE_NAME);
+        assertEquals("Error: The old weather table wasn't replaced",
+                0, count(db, WeatherEntry.TABLE_NAME));
+        assertEquals("Error: The rebuilt database doesn't have the current schema",
+                describeFreshSchema(), describeSchema(db));
+        db.close();
+    }
+
+    // Version 5 turned the dates into Julian day numbers.
+    private static void assertDatesAreJulianDays(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("SELECT MIN(date), MAX(date) FROM weather", null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Error: The first day wasn't converted to its Julian day",
+                    TestUtilities.TEST_DATE, cursor.getInt(0));
+            assertEquals("Error: The last day wasn't converted to its Julian day",
+                    TestUtilities.TEST_DATE + DAYS_PER_LOCATION - 1, cursor.getInt(1));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private SQLiteDatabase openHelper(String name) {
+        return new WeatherDbHelper(mContext, name).getWritableDatabase();
+    }
+
+    private List<String> describeFreshSchema() {
+        SQLiteDatabase db = openHelper(FRESH_DATABASE_NAME);
+        List<String> schema = describeSchema(db);
+        db.close();
+        return schema;
+    }
+
+    /*
+        Writes a version 3 database with LOCATIONS * DAYS_PER_LOCATION weather rows, then
+        brings it to the requested version with the migrations, without opening it through
+        WeatherDbHelper.
+     */
+    private void createPopulatedDatabase(int version) {
+        mContext.deleteDatabase(UPGRADED_DATABASE_NAME);
+        SQLiteDatabase db = mContext.openOrCreateDatabase(UPGRADED_DATABASE_NAME, 0, null);
+        createVersion3Schema(db);
+        populateVersion3(db);
+        WeatherDbHelper.migrate(db, WeatherDbHelper.MIN_MIGRATABLE_VERSION, version);
+        db.setVersion(version);
+        db.close();
+    }
+
+    // The schema as version 3 created it.
+    private static void createVersion3Schema(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE weather (" +
+                "_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "location_id INTEGER NOT NULL, " +
+                "date INTEGER NOT NULL, " +
+                "short_desc TEXT NOT NULL, " +
+                "weather_id INTEGER NOT NULL," +
+                "min REAL NOT NULL, " +
+                "max REAL NOT NULL, " +
+                "humidity REAL NOT NULL, " +
+                "pressure REAL NOT NULL, " +
+                "wind REAL NOT NULL, " +
+                "degrees REAL NOT NULL, " +
+                " FOREIGN KEY (location_id) REFERENCES location (_id), " +
+                " UNIQUE (date, location_id) ON CONFLICT REPLACE);");
+        db.execSQL("CREATE TABLE location (" +
+                "_id INTEGER PRIMARY KEY," +
+                "location_setting TEXT UNIQUE NOT NULL, " +
+                "city_name TEXT NOT NULL, " +
+                "coord_lat REAL NOT NULL, " +
+                "coord_long REAL NOT NULL);");
+    }
+
+    // Version 3 stored each day as milliseconds at the start of the local day.
+    private static void populateVersion3(SQLiteDatabase db) {
+        TimeZone timeZone = TimeZone.getDefault();
+        long firstDayUtc = JulianDay.toUtcMillis(TestUtilities.TEST_DATE);
+        SQLiteStatement insertLocation = db.compileStatement("INSERT INTO location " +
+                "(_id, location_setting, city_name, coord_lat, coord_long) VALUES (?, ?, ?, ?, ?)");
+        SQLiteStatement insertWeather = db.compileStatement("INSERT INTO weather " +
+                "(location_id, date, short_desc, weather_id, min, max, humidity, pressure, " +
+                "wind, degrees) VALUES (?, ?, 'Asteroids', 321, 65, 75, 1.2, 1.3, 5.5, 1.1)");
+        db.beginTransaction();
+        try {
+            for (int location = 1; location <= LOCATIONS; location++) {
+                insertLocation.bindLong(1, location);
+                insertLocation.bindString(2, "location" + location);
+                insertLocation.bindString(3, "City " + location);
+                insertLocation.bindDouble(4, 64.7488);
+                insertLocation.bindDouble(5, -147.353);
+                insertLocation.executeInsert();
+                for (int day = 0; day < DAYS_PER_LOCATION; day++) {
+                    insertWeather.bindLong(1, location);
+                    long dayUtc = firstDayUtc + day * JulianDay.DAY_IN_MILLIS;
+                    insertWeather.bindLong(2, dayUtc - timeZone.getOffset(dayUtc));
+                    insertWeather.executeInsert();
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            insertLocation.close();
+            insertWeather.close();
+        }
+    }
+
+    private static int count(SQLiteDatabase db, String table) {
+        Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM " + table, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static int sum(SQLiteDatabase db, String table, String column) {
+        Cursor cursor = db.rawQuery("SELECT TOTAL(" + column + ") FROM " + table, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /*
+        Every table's columns and every index's columns, sorted, so two schemas compare equal
+        whether they were created in one go or by a series of migrations.
+     */
+    private static List<String> describeSchema(SQLiteDatabase db) {
+        List<String> schema = new ArrayList<>();
+        Cursor objects = db.rawQuery("SELECT type, name, tbl_name FROM sqlite_master " +
+                "WHERE type IN ('table', 'index') " +
+                "AND name NOT IN ('android_metadata', 'sqlite_sequence')", null);
+        while (objects.moveToNext()) {
+            String type = objects.getString(0);
+            String name = objects.getString(1);
+            StringBuilder description = new StringBuilder(type).append(' ').append(name)
+                    .append(" on ").append(objects.getString(2)).append(':');
+            boolean isTable = "table".equals(type);
+            Cursor columns = db.rawQuery(
+                    (isTable ? "PRAGMA table_info(" : "PRAGMA index_info(") + name + ")", null);
+            int nameIndex = columns.getColumnIndex("name");
+            while (columns.moveToNext()) {
+                description.append(' ').append(columns.getString(nameIndex));
+                if (isTable) {
+                    description.append(' ').append(columns.getString(columns.getColumnIndex("type")))
+                            .append(columns.getInt(columns.getColumnIndex("notnull")) != 0
+                                    ? " NOT NULL" : "")
+                            .append(columns.getInt(columns.getColumnIndex("pk")) != 0
+                                    ? " PRIMARY KEY" : "");
+                }
+                description.append(',');
+            }
+            columns.close();
+            schema.add(description.toString());
+        }
+        objects.close();
+        Collections.sort(schema);
+        return schema;
+    }
+}
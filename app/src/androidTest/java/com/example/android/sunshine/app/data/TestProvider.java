@@ -16,6 +16,8 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.pm.PackageManager;
@@ -30,6 +32,8 @@ import android.util.Log;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
+import java.util.ArrayList;
+
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
     that at least the basic functionality has been implemented correctly.
@@ -102,7 +106,7 @@ public class TestProvider extends AndroidTestCase {
         you have implemented delete functionality there.
      */
     public void deleteAllRecords() {
-        deleteAllRecordsFromDB();
+        deleteAllRecordsFromProvider();
     }
 
     // Since we want each test to start with a clean slate, run deleteAllRecords
@@ -161,11 +165,11 @@ public class TestProvider extends AndroidTestCase {
         assertEquals("Error: the WeatherEntry CONTENT_URI with location should return WeatherEntry.CONTENT_TYPE",
                 WeatherEntry.CONTENT_TYPE, type);
 
-        long testDate = 1419120000L; // December 21st, 2014
+        int testDate = 2457013; // December 21st, 2014, as a Julian day
         // content://com.example.android.sunshine.app/weather/94074/20140612
         type = mContext.getContentResolver().getType(
                 WeatherEntry.buildWeatherLocationWithDate(testLocation, testDate));
-        // vnd.android.cursor.item/com.example.android.sunshine.app/weather/1419120000
+        // vnd.android.cursor.item/com.example.android.sunshine.app/weather/2457013
         assertEquals("Error: the WeatherEntry CONTENT_URI with location and date should return WeatherEntry.CONTENT_ITEM_TYPE",
                 WeatherEntry.CONTENT_ITEM_TYPE, type);
 
@@ -439,11 +443,10 @@ public class TestProvider extends AndroidTestCase {
     static private final int BULK_INSERT_RECORDS_TO_INSERT = 10;
 
     static ContentValues[] createBulkInsertWeatherValues(long locationRowId) {
-        long currentTestDate = TestUtilities.TEST_DATE;
-        long millisecondsInADay = 1000 * 60 * 60 * 24;
+        int currentTestDate = TestUtilities.TEST_DATE;
         ContentValues[] returnContentValues = new ContentValues[BULK_INSERT_RECORDS_TO_INSERT];
 
-        for (int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++, currentTestDate += millisecondsInADay) {
+        for (int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++, currentTestDate++) {
             ContentValues weatherValues = new ContentValues();
             weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationRowId);
             weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, currentTestDate);
@@ -527,4 +530,99 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
-}
\ No newline at end of file
+
+    /*
+        The sync adapter stores a whole forecast through applyBatch, so a failing operation must
+        roll back everything that came before it in the same batch.
+     */
+    public void testApplyBatchIsAtomic() {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                .withValues(TestUtilities.createNorthPoleLocationValues())
+                .build());
+        // Missing every NOT NULL weather column, so this insert fails
+        operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                .withValueBackReference(WeatherEntry.COLUMN_LOC_KEY, 0)
+                .build());
+
+        try {
+            mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+            fail("Error: applyBatch should have failed on the invalid weather row");
+        } catch (Exception e) {
+            // expected
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(
+                LocationEntry.CONTENT_URI, null, null, null, null);
+        assertEquals("Error: applyBatch did not roll back the location insert", 0, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+        Inserting a location that is already stored resolves to the existing row, which lets the
+        sync upsert the location and back-reference its id in the same batch.
+     */
+    public void testLocationInsertIsUpsert() throws Exception {
+        ContentValues locationValues = TestUtilities.createNorthPoleLocationValues();
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver()
+                .insert(LocationEntry.CONTENT_URI, locationValues));
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                .withValues(TestUtilities.createNorthPoleLocationValues())
+                .build());
+        ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+        weatherValues.remove(WeatherEntry.COLUMN_LOC_KEY);
+        operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                .withValues(weatherValues)
+                .withValueBackReference(WeatherEntry.COLUMN_LOC_KEY, 0)
+                .build());
+
+        ContentProviderResult[] results = mContext.getContentResolver()
+                .applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+        assertEquals("Error: inserting a location again should return the same ID",
+                locationRowId, ContentUris.parseId(results[0].uri));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                LocationEntry.CONTENT_URI, null, null, null, null);
+        assertEquals("Error: the location upsert created a duplicate row", 1, cursor.getCount());
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION), null, null, null, null);
+        assertEquals("Error: the weather row was not linked to the existing location",
+                1, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+        An upsert of a stored location still takes the city name and coordinates it brings, so
+        a location setting that now resolves elsewhere shows the new place.
+     */
+    public void testLocationUpsertUpdatesCityAndCoordinates() {
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+
+        ContentValues movedValues = TestUtilities.createNorthPoleLocationValues();
+        movedValues.put(LocationEntry.COLUMN_CITY_NAME, "Fairbanks");
+        movedValues.put(LocationEntry.COLUMN_COORD_LAT, 64.8378);
+        movedValues.put(LocationEntry.COLUMN_COORD_LONG, -147.7164);
+        Uri movedUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, movedValues);
+        assertEquals("Error: inserting a location again should return the same ID",
+                locationRowId, ContentUris.parseId(movedUri));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                LocationEntry.CONTENT_URI, null, null, null, null);
+        assertEquals("Error: the location upsert created a duplicate row", 1, cursor.getCount());
+        TestUtilities.validateCursor("Error: the location upsert kept the old city and coordinates",
+                cursor, movedValues);
+
+        // The location is found within a kilometre of its new coordinates, through its new cell.
+        cursor = mContext.getContentResolver().query(
+                LocationEntry.buildLocationNear(64.8378, -147.7164, 1, 1.0),
+                null, null, null, null);
+        assertEquals("Error: the moved location isn't near its new coordinates",
+                1, cursor.getCount());
+        cursor.close();
+    }
+}
@@ -0,0 +1,161 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    Checks that a batch of writes notifies each changed location once, after it commits, and
+    that writes which change nothing don't notify at all.
+ */
+public class TestProviderNotifications extends AndroidTestCase {
+
+    private static final String OTHER_LOCATION = "94043";
+    private static final String UNTOUCHED_LOCATION = "10001";
+
+    // How long to keep listening for notifications that shouldn't arrive.
+    private static final long QUIET_PERIOD_MILLIS = 500;
+
+    private HandlerThread mObserverThread;
+    private final ArrayList<ContentObserver> mObservers = new ArrayList<>();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteAllRecords(mContext);
+        mObserverThread = new HandlerThread("ContentObserverThread");
+        mObserverThread.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (ContentObserver observer : mObservers) {
+            mContext.getContentResolver().unregisterContentObserver(observer);
+        }
+        mObservers.clear();
+        mObserverThread.quit();
+        TestUtilities.deleteAllRecords(mContext);
+        super.tearDown();
+    }
+
+    public void testBatchNotifiesEachChangedLocationOnce() throws Exception {
+        CountingObserver location = register(WeatherEntry.buildWeatherLocation(
+                TestUtilities.TEST_LOCATION));
+        CountingObserver otherLocation = register(WeatherEntry.buildWeatherLocation(
+                OTHER_LOCATION));
+        CountingObserver untouchedLocation = register(WeatherEntry.buildWeatherLocation(
+                UNTOUCHED_LOCATION));
+        // Loaders of a single day listen below the location's URI.
+        CountingObserver day = register(WeatherEntry.buildWeatherLocationWithDate(
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE));
+
+        // What a sync of two locations applies: upserts, a week of weather each and a prune.
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        addLocationOperations(operations, TestUtilities.TEST_LOCATION);
+        addLocationOperations(operations, OTHER_LOCATION);
+        operations.add(ContentProviderOperation.newDelete(WeatherEntry.CONTENT_URI)
+                .withSelection(WeatherEntry.COLUMN_DATE + " <= ?",
+                        new String[]{Integer.toString(TestUtilities.TEST_DATE - 1)})
+                .build());
+        mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+
+        location.waitForCount(1);
+        otherLocation.waitForCount(1);
+        day.waitForCount(1);
+        Thread.sleep(QUIET_PERIOD_MILLIS);
+        assertEquals("Error: The batch should notify each location once",
+                1, location.getCount());
+        assertEquals("Error: The batch should notify each location once",
+                1, otherLocation.getCount());
+        assertEquals("Error: A location the batch didn't write was notified",
+                0, untouchedLocation.getCount());
+    }
+
+    public void testWritesThatChangeNothingDontNotify() throws Exception {
+        ContentValues locationValues = TestUtilities.createNorthPoleLocationValues();
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, locationValues);
+
+        CountingObserver weather = register(WeatherEntry.CONTENT_URI);
+        CountingObserver locations = register(LocationEntry.CONTENT_URI);
+
+        // The location is already stored, and there is no weather to delete or update.
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, locationValues);
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_DATE + " <= ?",
+                new String[]{Integer.toString(TestUtilities.TEST_DATE)});
+        ContentValues weatherValues = new ContentValues();
+        weatherValues.put(WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+        mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, weatherValues, null, null);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, new ContentValues[0]);
+
+        Thread.sleep(QUIET_PERIOD_MILLIS);
+        assertEquals("Error: Writes that changed no weather rows notified", 0, weather.getCount());
+        assertEquals("Error: Writes that changed no locations notified", 0, locations.getCount());
+    }
+
+    private void addLocationOperations(
+            ArrayList<ContentProviderOperation> operations, String locationSetting) {
+        ContentValues locationValues = TestUtilities.createNorthPoleLocationValues();
+        locationValues.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        int locationOperation = operations.size();
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                .withValues(locationValues)
+                .build());
+        for (ContentValues weatherValues : TestUtilities.createWeek(0)) {
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(weatherValues)
+                    .withValueBackReference(WeatherEntry.COLUMN_LOC_KEY, locationOperation)
+                    .build());
+        }
+    }
+
+    private CountingObserver register(Uri uri) {
+        CountingObserver observer = new CountingObserver(new Handler(mObserverThread.getLooper()));
+        mContext.getContentResolver().registerContentObserver(uri, true, observer);
+        mObservers.add(observer);
+        return observer;
+    }
+
+    private static class CountingObserver extends ContentObserver {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        CountingObserver(Handler handler) {
+            super(handler);
+        }
+
+        // On earlier versions of Android, this onChange method is called
+        @Override
+        public void onChange(boolean selfChange) {
+            onChange(selfChange, null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            mCount.incrementAndGet();
+        }
+
+        int getCount() {
+            return mCount.get();
+        }
+
+        void waitForCount(final int count) {
+            new PollingCheck(5000) {
+                @Override
+                protected boolean check() {
+                    return mCount.get() >= count;
+                }
+            }.run();
+        }
+    }
+}
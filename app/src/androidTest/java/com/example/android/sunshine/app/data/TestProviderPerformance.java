@@ -0,0 +1,107 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Arrays;
+
+/*
+    Measures sequential single-row inserts through the provider, which keeps its database and
+    compiled statements open, against opening and closing the database around every write the
+    way the provider used to.
+ */
+public class TestProviderPerformance extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestProviderPerformance.class.getSimpleName();
+
+    private static final int INSERTS = 1000;
+
+    private long mLocationRowId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteAllRecords(mContext);
+        mLocationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.deleteAllRecords(mContext);
+        super.tearDown();
+    }
+
+    /*
+        The cached insert statement has to keep the table's ON CONFLICT REPLACE behaviour.
+     */
+    public void testRepeatedInsertReplacesDay() {
+        ContentValues weatherValues = TestUtilities.createWeatherValues(mLocationRowId);
+        mContext.getContentResolver().insert(WeatherContract.WeatherEntry.CONTENT_URI, weatherValues);
+
+        weatherValues = TestUtilities.createWeatherValues(mLocationRowId);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+        mContext.getContentResolver().insert(WeatherContract.WeatherEntry.CONTENT_URI, weatherValues);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI, null, null, null, null);
+        assertEquals("Error: Inserting the same day twice should replace the row",
+                1, cursor.getCount());
+        TestUtilities.validateCursor("Error: The replacing row wasn't stored",
+                cursor, weatherValues);
+    }
+
+    public void testSequentialInsertBenchmark() {
+        long[] reopened = insertReopeningDatabase();
+        deleteWeather();
+        long[] provider = insertThroughProvider();
+
+        Log.i(LOG_TAG, INSERTS + " inserts, close after each: " + describe(reopened));
+        Log.i(LOG_TAG, INSERTS + " inserts, provider:         " + describe(provider));
+    }
+
+    // What the provider did before: get the writable database, insert, close it again.
+    private long[] insertReopeningDatabase() {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        long[] latencies = new long[INSERTS];
+        for (int i = 0; i < INSERTS; i++) {
+            ContentValues weatherValues = TestUtilities.createWeatherValues(mLocationRowId, i);
+            long start = System.nanoTime();
+            SQLiteDatabase db = dbHelper.getWritableDatabase();
+            db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, weatherValues);
+            db.close();
+            latencies[i] = System.nanoTime() - start;
+        }
+        return latencies;
+    }
+
+    private long[] insertThroughProvider() {
+        long[] latencies = new long[INSERTS];
+        for (int i = 0; i < INSERTS; i++) {
+            ContentValues weatherValues = TestUtilities.createWeatherValues(mLocationRowId, i);
+            long start = System.nanoTime();
+            mContext.getContentResolver().insert(
+                    WeatherContract.WeatherEntry.CONTENT_URI, weatherValues);
+            latencies[i] = System.nanoTime() - start;
+        }
+        return latencies;
+    }
+
+    private void deleteWeather() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+    }
+
+    private static String describe(long[] latencies) {
+        long total = 0;
+        for (long latency : latencies) {
+            total += latency;
+        }
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        return "mean " + total / sorted.length / 1000 + " us, "
+                + "p50 " + sorted[sorted.length / 2] / 1000 + " us, "
+                + "p99 " + sorted[sorted.length * 99 / 100] / 1000 + " us";
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+
+/*
+    Checks that repeated forecast list and detail queries are answered from the provider's
+    query cache, and that writes drop exactly the cached queries they affect.
+ */
+public class TestQueryCache extends AndroidTestCase {
+
+    private static final String OTHER_LOCATION = "94043";
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteAllRecords(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.deleteAllRecords(mContext);
+        super.tearDown();
+    }
+
+    public void testRepeatedLoadsAreCached() {
+        long locationRowId = insertLocation(TestUtilities.TEST_LOCATION);
+        insertWeather(locationRowId, 0);
+
+        Uri listUri = WeatherEntry.buildWeatherLocationWithStartDate(
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE);
+        Uri detailUri = WeatherEntry.buildWeatherLocationWithDate(
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE);
+
+        long[] before = getCacheStats();
+        assertEquals(1, countRows(listUri));
+        assertEquals(1, countRows(detailUri));
+        long[] afterFirstLoad = getCacheStats();
+        assertEquals("Error: The first loads should miss the cache",
+                2, afterFirstLoad[1] - before[1]);
+
+        ContentValues expected = TestUtilities.createWeatherValues(locationRowId);
+        Cursor cursor = mContext.getContentResolver().query(listUri, null, null, null, null);
+        TestUtilities.validateCursor("Error: The cached forecast doesn't match the stored one",
+                cursor, expected);
+        assertEquals(1, countRows(detailUri));
+        long[] afterSecondLoad = getCacheStats();
+        assertEquals("Error: Repeated loads should be cache hits",
+                2, afterSecondLoad[0] - afterFirstLoad[0]);
+        assertEquals("Error: Repeated loads shouldn't miss the cache",
+                afterFirstLoad[1], afterSecondLoad[1]);
+    }
+
+    public void testWriteInvalidatesOnlyItsLocation() {
+        long locationRowId = insertLocation(TestUtilities.TEST_LOCATION);
+        long otherLocationRowId = insertLocation(OTHER_LOCATION);
+        insertWeather(locationRowId, 0);
+        insertWeather(otherLocationRowId, 0);
+
+        Uri uri = WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+        Uri otherUri = WeatherEntry.buildWeatherLocation(OTHER_LOCATION);
+        countRows(uri);
+        countRows(otherUri);
+
+        insertWeather(otherLocationRowId, 1);
+
+        long[] before = getCacheStats();
+        assertEquals(1, countRows(uri));
+        assertEquals("Error: The write to the other location wasn't seen",
+                2, countRows(otherUri));
+        long[] after = getCacheStats();
+        assertEquals("Error: The untouched location should still be cached",
+                1, after[0] - before[0]);
+        assertEquals("Error: The written location should have been dropped from the cache",
+                1, after[1] - before[1]);
+    }
+
+    public void testBatchInvalidatesOnCommit() throws Exception {
+        long locationRowId = insertLocation(TestUtilities.TEST_LOCATION);
+        Uri uri = WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+        assertEquals(0, countRows(uri));
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        for (int day = 0; day < 3; day++) {
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(TestUtilities.createWeatherValues(locationRowId, day))
+                    .build());
+        }
+        mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+
+        assertEquals("Error: The batch's rows weren't seen after it committed",
+                3, countRows(uri));
+    }
+
+    private long[] getCacheStats() {
+        Bundle stats = mContext.getContentResolver().call(
+                WeatherContract.BASE_CONTENT_URI, WeatherContract.METHOD_GET_STATS, null, null);
+        return new long[]{
+                stats.getLong(WeatherContract.STAT_QUERY_CACHE_HITS),
+                stats.getLong(WeatherContract.STAT_QUERY_CACHE_MISSES)
+        };
+    }
+
+    private long insertLocation(String locationSetting) {
+        ContentValues values = TestUtilities.createNorthPoleLocationValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        return ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values));
+    }
+
+    private void insertWeather(long locationRowId, int day) {
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI,
+                TestUtilities.createWeatherValues(locationRowId, day));
+    }
+
+    private int countRows(Uri uri) {
+        Cursor cursor = mContext.getContentResolver().query(uri, null, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
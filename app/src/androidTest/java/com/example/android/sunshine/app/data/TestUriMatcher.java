@@ -27,7 +27,7 @@ import android.test.AndroidTestCase;
  */
 public class TestUriMatcher extends AndroidTestCase {
     private static final String LOCATION_QUERY = "London, UK";
-    private static final long TEST_DATE = 1419033600L;  // December 20th, 2014
+    private static final int TEST_DATE = 2457012;  // December 20th, 2014, as a Julian day
     private static final long TEST_LOCATION_ID = 10L;
 
     // content://com.example.android.sunshine.app/weather"
@@ -36,6 +36,18 @@ public class TestUriMatcher extends AndroidTestCase {
     private static final Uri TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(LOCATION_QUERY, TEST_DATE);
     // content://com.example.android.sunshine.app/location"
     private static final Uri TEST_LOCATION_DIR = WeatherContract.LocationEntry.CONTENT_URI;
+    // content://com.example.android.sunshine.app/location/near/51.5/-0.12?limit=5"
+    private static final Uri TEST_LOCATION_NEAR_DIR = WeatherContract.LocationEntry.buildLocationNear(51.5, -0.12, 5);
+    private static final Uri TEST_LOCATION_WITHIN_DIR = WeatherContract.LocationEntry.buildLocationWithin(51, -1, 52, 1);
+    // content://com.example.android.sunshine.app/archive"
+    private static final Uri TEST_ARCHIVE_DIR = WeatherContract.ArchiveEntry.CONTENT_URI;
+    private static final Uri TEST_ARCHIVE_WITH_LOCATION_DIR = WeatherContract.ArchiveEntry.buildArchiveLocation(LOCATION_QUERY);
+    // content://com.example.android.sunshine.app/rollup/week/London, UK"
+    private static final Uri TEST_WEEK_WITH_LOCATION_DIR = WeatherContract.RollupEntry.buildWeekLocation(LOCATION_QUERY);
+    private static final Uri TEST_WEEK_WITH_LOCATION_AND_DATE = WeatherContract.RollupEntry.buildWeekLocationWithDate(LOCATION_QUERY, TEST_DATE);
+    private static final Uri TEST_MONTH_WITH_LOCATION_DIR = WeatherContract.RollupEntry.buildMonthLocation(LOCATION_QUERY);
+    private static final Uri TEST_MONTH_WITH_LOCATION_AND_DATE = WeatherContract.RollupEntry.buildMonthLocationWithDate(LOCATION_QUERY, TEST_DATE);
+    private static final Uri TEST_RECORDS_WITH_LOCATION = WeatherContract.RollupEntry.buildRecordsLocation(LOCATION_QUERY);
 
     /*
         Students: This function tests that your UriMatcher returns the correct integer value
@@ -53,5 +65,23 @@ public class TestUriMatcher extends AndroidTestCase {
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR), WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE);
         assertEquals("Error: The LOCATION URI was matched incorrectly.",
                 testMatcher.match(TEST_LOCATION_DIR), WeatherProvider.LOCATION);
+        assertEquals("Error: The LOCATION NEAR URI was matched incorrectly.",
+                testMatcher.match(TEST_LOCATION_NEAR_DIR), WeatherProvider.LOCATION_NEAR);
+        assertEquals("Error: The LOCATION WITHIN URI was matched incorrectly.",
+                testMatcher.match(TEST_LOCATION_WITHIN_DIR), WeatherProvider.LOCATION_WITHIN);
+        assertEquals("Error: The ARCHIVE URI was matched incorrectly.",
+                testMatcher.match(TEST_ARCHIVE_DIR), WeatherProvider.ARCHIVE);
+        assertEquals("Error: The ARCHIVE WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_ARCHIVE_WITH_LOCATION_DIR), WeatherProvider.ARCHIVE_WITH_LOCATION);
+        assertEquals("Error: The ROLLUP WEEK WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_WEEK_WITH_LOCATION_DIR), WeatherProvider.ROLLUP_WEEK_WITH_LOCATION);
+        assertEquals("Error: The ROLLUP WEEK WITH LOCATION AND DATE URI was matched incorrectly.",
+                testMatcher.match(TEST_WEEK_WITH_LOCATION_AND_DATE), WeatherProvider.ROLLUP_WEEK_WITH_LOCATION_AND_DATE);
+        assertEquals("Error: The ROLLUP MONTH WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_MONTH_WITH_LOCATION_DIR), WeatherProvider.ROLLUP_MONTH_WITH_LOCATION);
+        assertEquals("Error: The ROLLUP MONTH WITH LOCATION AND DATE URI was matched incorrectly.",
+                testMatcher.match(TEST_MONTH_WITH_LOCATION_AND_DATE), WeatherProvider.ROLLUP_MONTH_WITH_LOCATION_AND_DATE);
+        assertEquals("Error: The ROLLUP RECORDS WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_RECORDS_WITH_LOCATION), WeatherProvider.ROLLUP_RECORDS_WITH_LOCATION);
     }
 }
\ No newline at end of file
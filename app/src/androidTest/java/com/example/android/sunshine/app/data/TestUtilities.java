@@ -22,7 +22,24 @@ import java.util.Set;
  */
 public class TestUtilities extends AndroidTestCase {
     static final String TEST_LOCATION = "99705";
-    static final long TEST_DATE = 1419033600L;  // December 20th, 2014
+    static final int TEST_DATE = 2457012;  // December 20th, 2014, as a Julian day
+    static final int WEEK_DAYS = 7;
+
+    /*
+        Deletes everything the provider stores, so each test starts with a clean slate.  The
+        provider has no URI to write rollups, and deleting the archive leaves their archived
+        part, so the rollup tables are cleared directly.
+     */
+    public static void deleteAllRecords(Context context) {
+        context.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        context.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+        context.getContentResolver().delete(WeatherContract.ArchiveEntry.CONTENT_URI, null, null);
+        SQLiteDatabase db = new WeatherDbHelper(context).getWritableDatabase();
+        for (String table : WeatherRollups.TABLES) {
+            db.delete(table, null, null);
+        }
+        db.close();
+    }
 
     static void validateCursor(String error, Cursor valueCursor, ContentValues expectedValues) {
         assertTrue("Empty cursor returned. " + error, valueCursor.moveToFirst());
@@ -62,6 +79,48 @@ public class TestUtilities extends AndroidTestCase {
         return weatherValues;
     }
 
+    // The default weather values, for the day that is the given number of days after TEST_DATE.
+    static ContentValues createWeatherValues(long locationRowId, int day) {
+        ContentValues weatherValues = createWeatherValues(locationRowId);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, TEST_DATE + day);
+        return weatherValues;
+    }
+
+    // A week of the default weather values, starting on TEST_DATE.
+    static ContentValues[] createWeek(long locationRowId) {
+        ContentValues[] week = new ContentValues[WEEK_DAYS];
+        for (int day = 0; day < WEEK_DAYS; day++) {
+            week[day] = createWeatherValues(locationRowId, day);
+        }
+        return week;
+    }
+
+    /*
+        The same week as a ForecastBatch for the North Pole location, stored under the given
+        location setting and resolved to cityId unless it is 0.
+     */
+    static ForecastBatch createWeekBatch(String locationSetting, long cityId) {
+        ContentValues location = createNorthPoleLocationValues();
+        ForecastBatch batch = new ForecastBatch(1, WEEK_DAYS);
+        int index = batch.addLocation(locationSetting,
+                location.getAsString(WeatherContract.LocationEntry.COLUMN_CITY_NAME),
+                location.getAsDouble(WeatherContract.LocationEntry.COLUMN_COORD_LAT),
+                location.getAsDouble(WeatherContract.LocationEntry.COLUMN_COORD_LONG), cityId);
+        for (ContentValues day : createWeek(0)) {
+            batch.addDay(index,
+                    day.getAsInteger(WeatherContract.WeatherEntry.COLUMN_DATE),
+                    day.getAsString(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC),
+                    day.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID),
+                    day.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP),
+                    day.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP),
+                    day.getAsDouble(WeatherContract.WeatherEntry.COLUMN_HUMIDITY),
+                    day.getAsDouble(WeatherContract.WeatherEntry.COLUMN_PRESSURE),
+                    day.getAsDouble(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED),
+                    day.getAsDouble(WeatherContract.WeatherEntry.COLUMN_DEGREES));
+        }
+        return batch;
+    }
+
     /*
         Students: You can uncomment this helper function once you have finished creating the
         LocationEntry part of the WeatherContract.
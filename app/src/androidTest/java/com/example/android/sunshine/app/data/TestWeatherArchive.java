@@ -0,0 +1,262 @@
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/*
+    Checks that the archive folds expired days into weeks and months without losing any of
+    them, that a compaction pass stays within its budget, and measures archiving and compacting
+    a year of history for 1,000 locations.
+ */
+public class TestWeatherArchive extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWeatherArchive.class.getSimpleName();
+
+    private static final String DATABASE_NAME = "weather_archive.db";
+
+    private static final int FIRST_DAY = TestUtilities.TEST_DATE;
+    private static final int HISTORY_DAYS = 365;
+    private static final int TODAY = FIRST_DAY + HISTORY_DAYS;
+
+    private static final int BENCHMARK_LOCATIONS = 1000;
+
+    private SQLiteDatabase mDb;
+    private StatementCache mStatements;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(DATABASE_NAME);
+        mDb = new WeatherDbHelper(mContext, DATABASE_NAME).getWritableDatabase();
+        mStatements = new StatementCache(mDb, 8);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mStatements.clear();
+        mDb.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testCompactionKeepsEveryDay() {
+        insertHistory(1);
+        archive(TODAY - 1);
+        assertEquals("Error: The days weren't moved out of the weather table",
+                0, count("SELECT COUNT(*) FROM " + WeatherEntry.TABLE_NAME));
+
+        compactFully(WeatherProvider.ARCHIVE_ROWS_PER_PASS);
+
+        assertEquals("Error: Compaction lost days",
+                HISTORY_DAYS, count("SELECT SUM(days) FROM archive"));
+        // The day index is stored as the high, so its total survives any folding exactly.
+        Cursor cursor = mDb.rawQuery("SELECT SUM(max * days) FROM archive", null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Error: The averages aren't weighted by their days",
+                (HISTORY_DAYS - 1) * HISTORY_DAYS / 2.0, cursor.getDouble(0), 0.001);
+        cursor.close();
+
+        int[] expected = expectedRowsPerPeriod();
+        for (int period = ArchiveEntry.PERIOD_DAY; period <= ArchiveEntry.PERIOD_MONTH; period++) {
+            assertEquals("Error: Wrong number of rows of period " + period, expected[period],
+                    count("SELECT COUNT(*) FROM archive WHERE period = " + period));
+        }
+        assertEquals("Error: The stormiest day doesn't set its month's weather id", 200,
+                count("SELECT MIN(weather_id) FROM archive WHERE period = "
+                        + ArchiveEntry.PERIOD_MONTH));
+    }
+
+    public void testLateDayJoinsItsWeek() {
+        insertHistory(1);
+        archive(TODAY - 1);
+        compactFully(WeatherProvider.ARCHIVE_ROWS_PER_PASS);
+
+        // A week that was folded, with its Monday missing.
+        int monday = JulianDay.startOfWeek(TODAY - WeatherArchive.DAILY_RETENTION_DAYS) - 7;
+        mDb.execSQL("UPDATE archive SET days = 6 WHERE period = ? AND date = ?",
+                new Object[]{ArchiveEntry.PERIOD_WEEK, monday});
+        mDb.execSQL("INSERT INTO archive (location_id, period, date, days, weather_id, min, "
+                        + "max, humidity, pressure, wind) VALUES (1, ?, ?, 1, 800, 0, 0, 0, 0, 0)",
+                new Object[]{ArchiveEntry.PERIOD_DAY, monday});
+        compactFully(WeatherProvider.ARCHIVE_ROWS_PER_PASS);
+
+        assertEquals("Error: The late day wasn't folded into its week", 7,
+                count("SELECT days FROM archive WHERE period = " + ArchiveEntry.PERIOD_WEEK
+                        + " AND date = " + monday));
+        assertEquals(0, count("SELECT COUNT(*) FROM archive WHERE period = "
+                + ArchiveEntry.PERIOD_DAY + " AND date = " + monday));
+    }
+
+    public void testOldMonthsExpire() {
+        insertHistory(1);
+        archive(TODAY - 1);
+        int later = TODAY + WeatherArchive.MONTHLY_RETENTION_DAYS + 31;
+        compactFully(later, WeatherProvider.ARCHIVE_ROWS_PER_PASS);
+        assertEquals("Error: Months past the retention period were kept",
+                0, count("SELECT COUNT(*) FROM archive"));
+    }
+
+    public void testPassIsBounded() {
+        insertHistory(10);
+        archive(TODAY - 1);
+
+        int maxRows = 50;
+        WeatherArchive.Pass pass = compact(TODAY, maxRows);
+        assertFalse("Error: A pass over a whole year claims to have finished", pass.finished);
+        // Every candidate may pull in the rest of its week.
+        assertTrue("Error: A pass compacted " + pass.rowsCompacted + " rows",
+                pass.rowsCompacted > 0 && pass.rowsCompacted <= maxRows * 7);
+
+        int passes = compactFully(maxRows);
+        assertTrue(passes > 1);
+        assertTrue("Error: A finished archive still had work",
+                compact(TODAY, maxRows).rowsCompacted == 0);
+    }
+
+    public void testYearOfHistoryBenchmark() {
+        insertHistory(BENCHMARK_LOCATIONS);
+        long rowsBefore = count("SELECT COUNT(*) FROM " + WeatherEntry.TABLE_NAME);
+
+        long start = System.nanoTime();
+        archive(TODAY - 1);
+        long archiveNanos = System.nanoTime() - start;
+
+        int passes = 0;
+        long slowestPassNanos = 0;
+        start = System.nanoTime();
+        WeatherArchive.Pass pass;
+        do {
+            long passStart = System.nanoTime();
+            pass = compact(TODAY, WeatherProvider.ARCHIVE_ROWS_PER_PASS);
+            slowestPassNanos = Math.max(slowestPassNanos, System.nanoTime() - passStart);
+            passes++;
+        } while (!pass.finished);
+        long compactNanos = System.nanoTime() - start;
+
+        long rowsAfter = count("SELECT COUNT(*) FROM archive");
+        assertEquals(BENCHMARK_LOCATIONS * sum(expectedRowsPerPeriod()), rowsAfter);
+
+        Log.i(LOG_TAG, BENCHMARK_LOCATIONS + " locations x " + HISTORY_DAYS + " days: archived "
+                + rowsBefore + " rows in " + archiveNanos / 1000000 + " ms, compacted to "
+                + rowsAfter + " rows in " + passes + " passes, " + compactNanos / 1000000
+                + " ms, slowest pass " + slowestPassNanos / 1000000 + " ms; database "
+                + mContext.getDatabasePath(DATABASE_NAME).length() / 1024 + " KB");
+    }
+
+    // A year of weather rows per location; the high is the day's index in the year, and one
+    // day has a thunderstorm.
+    private void insertHistory(int locations) {
+        SQLiteStatement insert = mDb.compileStatement(WeatherProvider.sWeatherInsertIfNewSql);
+        mDb.beginTransaction();
+        try {
+            for (int location = 1; location <= locations; location++) {
+                for (int day = 0; day < HISTORY_DAYS; day++) {
+                    insert.bindLong(1, location);
+                    insert.bindLong(2, FIRST_DAY + day);
+                    insert.bindString(3, "Clear");
+                    insert.bindLong(4, day == 40 ? 200 : 800);
+                    insert.bindDouble(5, -day);
+                    insert.bindDouble(6, day);
+                    insert.bindDouble(7, 50);
+                    insert.bindDouble(8, 1000);
+                    insert.bindDouble(9, 5);
+                    insert.bindDouble(10, 90);
+                    insert.executeInsert();
+                }
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+            insert.close();
+        }
+    }
+
+    // What the provider's prune does.
+    private void archive(int lastDay) {
+        mDb.beginTransaction();
+        try {
+            WeatherArchive.archiveDays(mStatements, lastDay);
+            mDb.delete(WeatherEntry.TABLE_NAME, WeatherEntry.COLUMN_DATE + " <= ?",
+                    new String[]{Integer.toString(lastDay)});
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    private WeatherArchive.Pass compact(int today, int maxRows) {
+        mDb.beginTransaction();
+        try {
+            WeatherArchive.Pass pass = WeatherArchive.compact(mDb, mStatements, today, maxRows);
+            mDb.setTransactionSuccessful();
+            return pass;
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    private int compactFully(int maxRows) {
+        return compactFully(TODAY, maxRows);
+    }
+
+    // @return the number of passes it took.
+    private int compactFully(int today, int maxRows) {
+        int passes = 0;
+        while (!compact(today, maxRows).finished) {
+            passes++;
+        }
+        return passes + 1;
+    }
+
+    /*
+        The rows per location the retention policy should leave of the history: the days since
+        the Monday DAILY_RETENTION_DAYS ago, the weeks that start since the first of the month
+        WEEKLY_RETENTION_DAYS ago, and the months the earlier weeks start in.
+     */
+    private static int[] expectedRowsPerPeriod() {
+        int dayCutoff = JulianDay.startOfWeek(TODAY - WeatherArchive.DAILY_RETENTION_DAYS);
+        int weekCutoff = JulianDay.startOfMonth(TODAY - WeatherArchive.WEEKLY_RETENTION_DAYS);
+        Set<Integer> days = new HashSet<>();
+        Set<Integer> weeks = new HashSet<>();
+        Set<Integer> months = new HashSet<>();
+        for (int day = FIRST_DAY; day < TODAY; day++) {
+            if (day >= dayCutoff) {
+                days.add(day);
+                continue;
+            }
+            int week = JulianDay.startOfWeek(day);
+            if (week >= weekCutoff) {
+                weeks.add(week);
+            } else {
+                months.add(JulianDay.startOfMonth(week));
+            }
+        }
+        return new int[]{days.size(), weeks.size(), months.size()};
+    }
+
+    private static int sum(int[] values) {
+        int sum = 0;
+        for (int value : values) {
+            sum += value;
+        }
+        return sum;
+    }
+
+    private int count(String sql) {
+        Cursor cursor = mDb.rawQuery(sql, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks that the forecast queries are served by the (location_id, date) indexes, and
+    measures the forecast query as the table grows.
+ */
+public class TestWeatherIndexes extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWeatherIndexes.class.getSimpleName();
+
+    private static final String BENCHMARK_DATABASE_NAME = "weather_index_benchmark.db";
+    private static final int[] BENCHMARK_ROWS = {10000, 100000, 1000000};
+    private static final int DAYS_PER_LOCATION = 100;
+    private static final int FORECAST_DAYS = 7;
+    private static final int QUERY_ITERATIONS = 200;
+
+    // The projection ForecastLoader loads.
+    private static final String[] FORECAST_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+
+    private static final String SORT_ORDER = WeatherEntry.COLUMN_DATE + " ASC";
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(BENCHMARK_DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testForecastQueryUsesCoveringIndex() {
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getReadableDatabase();
+        String plan = explain(db, WeatherProvider.buildWeatherByLocationSettingSql(
+                FORECAST_COLUMNS, WeatherProvider.sLocationSettingWithStartDateSelection,
+                SORT_ORDER), TestUtilities.TEST_LOCATION, Integer.toString(TestUtilities.TEST_DATE));
+        db.close();
+
+        assertTrue("Error: The forecast query doesn't use a covering weather index: " + plan,
+                plan.contains("COVERING INDEX " + WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE));
+        assertFalse("Error: The forecast query sorts instead of reading in index order: " + plan,
+                plan.contains("TEMP B-TREE"));
+    }
+
+    public void testDayQueryUsesIndex() {
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getReadableDatabase();
+        String plan = explain(db, WeatherProvider.buildWeatherByLocationSettingSql(
+                null, WeatherProvider.sLocationSettingAndDaySelection, SORT_ORDER),
+                TestUtilities.TEST_LOCATION, Integer.toString(TestUtilities.TEST_DATE));
+        db.close();
+
+        assertTrue("Error: The day query doesn't use the weather index: " + plan,
+                plan.contains("INDEX " + WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE));
+    }
+
+    /*
+        Grows the weather table to each size, with DAYS_PER_LOCATION days for every location,
+        and times a week's forecast for one location with and without the weather index.
+     */
+    public void testForecastQueryScalingBenchmark() {
+        mContext.deleteDatabase(BENCHMARK_DATABASE_NAME);
+        SQLiteDatabase db = new WeatherDbHelper(mContext, BENCHMARK_DATABASE_NAME)
+                .getWritableDatabase();
+        String sql = WeatherProvider.buildWeatherByLocationSettingSql(FORECAST_COLUMNS,
+                WeatherProvider.sLocationSettingWithStartDateSelection, SORT_ORDER);
+        String[] args = {null, Integer.toString(TestUtilities.TEST_DATE
+                + (DAYS_PER_LOCATION - FORECAST_DAYS))};
+
+        int locations = 0;
+        for (int rows : BENCHMARK_ROWS) {
+            int targetLocations = rows / DAYS_PER_LOCATION;
+            long insertNanos = insertLocations(db, locations, targetLocations);
+            locations = targetLocations;
+            args[0] = locationSetting(locations / 2);
+
+            long indexedNanos = timeQuery(db, sql, args);
+            db.execSQL("DROP INDEX " + WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE);
+            long unindexedNanos = timeQuery(db, sql, args);
+            long start = System.nanoTime();
+            db.execSQL(WeatherDbHelper.SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
+            long indexBuildNanos = System.nanoTime() - start;
+
+            Log.i(LOG_TAG, rows + " rows (" + locations + " locations): forecast query "
+                    + indexedNanos / 1000 + " us indexed, " + unindexedNanos / 1000
+                    + " us without the index; index build " + indexBuildNanos / 1000000
+                    + " ms, inserts " + insertNanos / 1000000 + " ms");
+        }
+        db.close();
+    }
+
+    private static String explain(SQLiteDatabase db, String sql, String... args) {
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        StringBuilder plan = new StringBuilder();
+        int detailIndex = cursor.getColumnIndex("detail");
+        while (cursor.moveToNext()) {
+            plan.append(cursor.getString(detailIndex)).append('\n');
+        }
+        cursor.close();
+        return plan.toString();
+    }
+
+    private static String locationSetting(int location) {
+        return "location" + location;
+    }
+
+    // Adds locations [from, to), each with DAYS_PER_LOCATION days of weather, in one transaction.
+    private static long insertLocations(SQLiteDatabase db, int from, int to) {
+        long start = System.nanoTime();
+        SQLiteStatement insertLocation = db.compileStatement("INSERT INTO " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + ", " +
+                LocationEntry.COLUMN_LOCATION_SETTING + ", " + LocationEntry.COLUMN_CITY_NAME +
+                ", " + LocationEntry.COLUMN_COORD_LAT + ", " + LocationEntry.COLUMN_COORD_LONG +
+                ") VALUES (?, ?, ?, ?, ?)");
+        SQLiteStatement insertWeather = db.compileStatement("INSERT INTO " +
+                WeatherEntry.TABLE_NAME + " (" + WeatherEntry.COLUMN_LOC_KEY + ", " +
+                WeatherEntry.COLUMN_DATE + ", " + WeatherEntry.COLUMN_SHORT_DESC + ", " +
+                WeatherEntry.COLUMN_WEATHER_ID + ", " + WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                WeatherEntry.COLUMN_MAX_TEMP + ", " + WeatherEntry.COLUMN_HUMIDITY + ", " +
+                WeatherEntry.COLUMN_PRESSURE + ", " + WeatherEntry.COLUMN_WIND_SPEED + ", " +
+                WeatherEntry.COLUMN_DEGREES + ") VALUES (?, ?, 'Asteroids', 321, 65, 75, 1.2, " +
+                "1.3, 5.5, 1.1)");
+        db.beginTransaction();
+        try {
+            for (int location = from; location < to; location++) {
+                long locationId = location + 1;
+                insertLocation.bindLong(1, locationId);
+                insertLocation.bindString(2, locationSetting(location));
+                insertLocation.bindString(3, "City " + location);
+                insertLocation.bindDouble(4, 64.7488);
+                insertLocation.bindDouble(5, -147.353);
+                insertLocation.executeInsert();
+                for (int day = 0; day < DAYS_PER_LOCATION; day++) {
+                    insertWeather.bindLong(1, locationId);
+                    insertWeather.bindLong(2, TestUtilities.TEST_DATE + day);
+                    insertWeather.executeInsert();
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            insertLocation.close();
+            insertWeather.close();
+        }
+        return System.nanoTime() - start;
+    }
+
+    // Mean time to run the query and read every row.
+    private static long timeQuery(SQLiteDatabase db, String sql, String[] args) {
+        long start = System.nanoTime();
+        for (int i = 0; i < QUERY_ITERATIONS; i++) {
+            Cursor cursor = db.rawQuery(sql, args);
+            int rows = 0;
+            while (cursor.moveToNext()) {
+                rows++;
+            }
+            cursor.close();
+            assertEquals("Error: Unexpected forecast length", FORECAST_DAYS, rows);
+        }
+        return (System.nanoTime() - start) / QUERY_ITERATIONS;
+    }
+}
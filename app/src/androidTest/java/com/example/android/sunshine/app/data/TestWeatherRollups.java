@@ -0,0 +1,282 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.RollupEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.TreeMap;
+
+/*
+    Checks that the week and month rollups, and the records over them, match the days they
+    stand for through inserts, updates, deletes and prunes, and compares reading a year of
+    monthly averages from the rollups with aggregating them from the weather rows.
+ */
+public class TestWeatherRollups extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWeatherRollups.class.getSimpleName();
+
+    // Two months and a bit, so the days span partial weeks and months at both ends.
+    private static final int DAYS = 70;
+
+    private static final int BENCHMARK_LOCATIONS = 100;
+    private static final int BENCHMARK_DAYS = 365;
+
+    // The high and low of every day stored, including the pruned ones, by Julian day.
+    private final TreeMap<Integer, double[]> mDays = new TreeMap<>();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteAllRecords(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.deleteAllRecords(mContext);
+        super.tearDown();
+    }
+
+    public void testRollupsFollowWrites() {
+        ingest(0, DAYS, -1);
+        assertRollups();
+
+        // A new record, then the day back below the old one: the record has to fall back.
+        int day = day(10);
+        updateHigh(day, 200);
+        assertRollups();
+        updateHigh(day, 10);
+        assertRollups();
+
+        ContentValues values = createDay(queryLocationId(), 12);
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_DATE + " = ?", new String[]{Integer.toString(day(12))});
+        mDays.remove(day(12));
+        assertRollups();
+
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, values);
+        mDays.put(day(12), new double[]{high(12), low(12)});
+        assertRollups();
+    }
+
+    public void testPruneKeepsRollups() {
+        ingest(0, DAYS, -1);
+        Bundle counts = ingest(20, DAYS, day(19));
+        assertEquals(20, counts.getInt(WeatherContract.STAT_WEATHER_ROWS_DELETED));
+        assertRollups();
+
+        // The week and month of the last pruned day are part archived, part live.
+        updateHigh(day(20), -50);
+        assertRollups();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        for (int i = 20; i < DAYS; i++) {
+            mDays.remove(day(i));
+        }
+        assertRollups();
+    }
+
+    // The time zone moved the first day back, so a pruned day is stored and pruned again.
+    public void testDayPrunedTwiceCountsOnce() {
+        ingest(0, DAYS, -1);
+        ingest(20, DAYS, day(19));
+        ingest(19, DAYS, day(18));
+        Bundle counts = ingest(20, DAYS, day(19));
+        assertEquals(1, counts.getInt(WeatherContract.STAT_WEATHER_ROWS_DELETED));
+        assertRollups();
+    }
+
+    public void testReadCost() {
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getReadableDatabase();
+        String[] projection = {RollupEntry.COLUMN_DATE, RollupEntry.COLUMN_DAYS,
+                RollupEntry.COLUMN_AVG_HIGH, RollupEntry.COLUMN_AVG_LOW,
+                RollupEntry.COLUMN_RECORD_HIGH, RollupEntry.COLUMN_RECORD_LOW};
+        for (int location = 0; location < BENCHMARK_LOCATIONS; location++) {
+            ForecastBatch batch = new ForecastBatch(1, BENCHMARK_DAYS);
+            batch.addLocation(locationSetting(location), "City " + location, location, -location);
+            for (int i = 0; i < BENCHMARK_DAYS; i++) {
+                batch.addDay(0, day(i), "Clear", 800, low(i), high(i), 50, 1000, 5, 90);
+            }
+            ingest(batch);
+        }
+
+        long start = System.nanoTime();
+        int months = 0;
+        for (int location = 0; location < BENCHMARK_LOCATIONS; location++) {
+            Cursor cursor = mContext.getContentResolver().query(
+                    RollupEntry.buildMonthLocation(locationSetting(location)),
+                    projection, null, null, null);
+            while (cursor.moveToNext()) {
+                months++;
+            }
+            cursor.close();
+        }
+        long rollupNanos = System.nanoTime() - start;
+
+        // What a month query would have to do without the rollups.
+        String aggregate = "SELECT CAST(julianday(" + WeatherEntry.COLUMN_DATE
+                + ", 'start of month') + 0.5 AS INTEGER) AS month, COUNT(*), AVG("
+                + WeatherEntry.COLUMN_MAX_TEMP + "), AVG(" + WeatherEntry.COLUMN_MIN_TEMP
+                + "), MAX(" + WeatherEntry.COLUMN_MAX_TEMP + "), MIN("
+                + WeatherEntry.COLUMN_MIN_TEMP + ") FROM " + WeatherEntry.TABLE_NAME
+                + " INNER JOIN " + LocationEntry.TABLE_NAME + " ON " + WeatherEntry.COLUMN_LOC_KEY
+                + " = " + LocationEntry.TABLE_NAME + "." + LocationEntry._ID + " WHERE "
+                + LocationEntry.COLUMN_LOCATION_SETTING + " = ? GROUP BY month";
+        start = System.nanoTime();
+        int aggregatedMonths = 0;
+        for (int location = 0; location < BENCHMARK_LOCATIONS; location++) {
+            Cursor cursor = db.rawQuery(aggregate, new String[]{locationSetting(location)});
+            while (cursor.moveToNext()) {
+                aggregatedMonths++;
+            }
+            cursor.close();
+        }
+        long aggregateNanos = System.nanoTime() - start;
+        db.close();
+
+        assertEquals(aggregatedMonths, months);
+        Log.i(LOG_TAG, BENCHMARK_LOCATIONS + " locations x " + BENCHMARK_DAYS + " days, "
+                + months + " months: rollups " + rollupNanos / 1000000 + " ms, aggregating "
+                + "the weather rows " + aggregateNanos / 1000000 + " ms");
+    }
+
+    // Stores days [from, to) of the test location, pruning up to pruneDate unless it is -1.
+    private Bundle ingest(int from, int to, int pruneDate) {
+        ContentValues location = TestUtilities.createNorthPoleLocationValues();
+        ForecastBatch batch = new ForecastBatch(1, to - from);
+        batch.addLocation(TestUtilities.TEST_LOCATION,
+                location.getAsString(LocationEntry.COLUMN_CITY_NAME),
+                location.getAsDouble(LocationEntry.COLUMN_COORD_LAT),
+                location.getAsDouble(LocationEntry.COLUMN_COORD_LONG));
+        for (int i = from; i < to; i++) {
+            batch.addDay(0, day(i), "Clear", 800, low(i), high(i), 50, 1000, 5, 90);
+            mDays.put(day(i), new double[]{high(i), low(i)});
+        }
+        if (pruneDate != -1) {
+            batch.setPruneDate(pruneDate);
+        }
+        return ingest(batch);
+    }
+
+    private Bundle ingest(ForecastBatch batch) {
+        return mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_INGEST_FORECAST, null, batch.toBundle());
+    }
+
+    private void updateHigh(int date, double high) {
+        ContentValues values = new ContentValues();
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, high);
+        assertEquals(1, mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, values,
+                WeatherEntry.COLUMN_DATE + " = ?", new String[]{Integer.toString(date)}));
+        mDays.get(date)[0] = high;
+    }
+
+    private ContentValues createDay(long locationId, int i) {
+        ContentValues values = new ContentValues();
+        values.put(WeatherEntry.COLUMN_LOC_KEY, locationId);
+        values.put(WeatherEntry.COLUMN_DATE, day(i));
+        values.put(WeatherEntry.COLUMN_SHORT_DESC, "Clear");
+        values.put(WeatherEntry.COLUMN_WEATHER_ID, 800);
+        values.put(WeatherEntry.COLUMN_MIN_TEMP, low(i));
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, high(i));
+        values.put(WeatherEntry.COLUMN_HUMIDITY, 50.0);
+        values.put(WeatherEntry.COLUMN_PRESSURE, 1000.0);
+        values.put(WeatherEntry.COLUMN_WIND_SPEED, 5.0);
+        values.put(WeatherEntry.COLUMN_DEGREES, 90.0);
+        return values;
+    }
+
+    /*
+        Compares the week and month of every day of the test range, and the records, with the
+        days stored so far.
+     */
+    private void assertRollups() {
+        String setting = TestUtilities.TEST_LOCATION;
+        for (int i = 0; i < DAYS; i++) {
+            int day = day(i);
+            int week = JulianDay.startOfWeek(day);
+            assertRollup("week of day " + i,
+                    RollupEntry.buildWeekLocationWithDate(setting, day), week, week + 7);
+            int month = JulianDay.startOfMonth(day);
+            assertRollup("month of day " + i,
+                    RollupEntry.buildMonthLocationWithDate(setting, day), month,
+                    JulianDay.startOfNextMonth(day));
+        }
+        assertRollup("records", RollupEntry.buildRecordsLocation(setting),
+                Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    private void assertRollup(String name, Uri uri, int start, int end) {
+        int days = 0;
+        double highSum = 0;
+        double lowSum = 0;
+        double recordHigh = -Double.MAX_VALUE;
+        double recordLow = Double.MAX_VALUE;
+        for (double[] day : mDays.subMap(start, end).values()) {
+            days++;
+            highSum += day[0];
+            lowSum += day[1];
+            recordHigh = Math.max(recordHigh, day[0]);
+            recordLow = Math.min(recordLow, day[1]);
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(uri, new String[]{
+                RollupEntry.COLUMN_DAYS, RollupEntry.COLUMN_AVG_HIGH, RollupEntry.COLUMN_AVG_LOW,
+                RollupEntry.COLUMN_RECORD_HIGH, RollupEntry.COLUMN_RECORD_LOW}, null, null, null);
+        try {
+            if (days == 0) {
+                assertTrue("Error: The " + name + " has a rollup without days",
+                        !cursor.moveToFirst() || cursor.getInt(0) == 0);
+                return;
+            }
+            assertTrue("Error: The " + name + " has no rollup", cursor.moveToFirst());
+            assertEquals("Error: Wrong days in the " + name, days, cursor.getInt(0));
+            assertEquals("Error: Wrong average high in the " + name,
+                    highSum / days, cursor.getDouble(1), 0.001);
+            assertEquals("Error: Wrong average low in the " + name,
+                    lowSum / days, cursor.getDouble(2), 0.001);
+            assertEquals("Error: Wrong record high in the " + name,
+                    recordHigh, cursor.getDouble(3), 0.001);
+            assertEquals("Error: Wrong record low in the " + name,
+                    recordLow, cursor.getDouble(4), 0.001);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long queryLocationId() {
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry._ID},
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{TestUtilities.TEST_LOCATION}, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static int day(int i) {
+        return TestUtilities.TEST_DATE + i;
+    }
+
+    // Highs that go up and down within a week, and lows a little below them.
+    private static double high(int i) {
+        return 50 + (i * 7) % 23;
+    }
+
+    private static double low(int i) {
+        return high(i) - 10 - i % 5;
+    }
+
+    private static String locationSetting(int i) {
+        return "rollup-" + i;
+    }
+}
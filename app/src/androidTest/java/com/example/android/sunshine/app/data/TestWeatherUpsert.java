@@ -0,0 +1,107 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+
+/*
+    Checks that weather writes only touch the rows whose values changed: an identical forecast
+    writes nothing, a changed day keeps its row id, and new days are inserted.
+ */
+public class TestWeatherUpsert extends AndroidTestCase {
+
+    private static final int DAYS = TestUtilities.WEEK_DAYS;
+
+    private long mLocationRowId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        TestUtilities.deleteAllRecords(mContext);
+        mLocationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TestUtilities.deleteAllRecords(mContext);
+        super.tearDown();
+    }
+
+    public void testUnchangedForecastWritesNothing() {
+        assertEquals(DAYS, bulkInsert(TestUtilities.createWeek(mLocationRowId)));
+        long[] ids = queryIds();
+
+        long[] before = getUpsertStats();
+        assertEquals("Error: An identical forecast shouldn't write any rows",
+                0, bulkInsert(TestUtilities.createWeek(mLocationRowId)));
+        long[] after = getUpsertStats();
+
+        assertEquals("Error: No rows should have been inserted", before[0], after[0]);
+        assertEquals("Error: No rows should have been updated", before[1], after[1]);
+        assertEquals("Error: Every row should be reported unchanged", DAYS, after[2] - before[2]);
+        assertTrue("Error: Unchanged rows were replaced", Arrays.equals(ids, queryIds()));
+    }
+
+    public void testChangedAndNewDays() {
+        bulkInsert(TestUtilities.createWeek(mLocationRowId));
+        long[] ids = queryIds();
+
+        ContentValues[] forecast = new ContentValues[DAYS + 1];
+        System.arraycopy(TestUtilities.createWeek(mLocationRowId), 0, forecast, 0, DAYS);
+        forecast[2].put(WeatherEntry.COLUMN_MAX_TEMP, 80);
+        forecast[DAYS] = TestUtilities.createWeatherValues(mLocationRowId, DAYS);
+
+        long[] before = getUpsertStats();
+        assertEquals("Error: One changed and one new day should be written",
+                2, bulkInsert(forecast));
+        long[] after = getUpsertStats();
+        assertEquals("Error: The new day wasn't counted as inserted", 1, after[0] - before[0]);
+        assertEquals("Error: The changed day wasn't counted as updated", 1, after[1] - before[1]);
+        assertEquals("Error: The other days should be unchanged", DAYS - 1, after[2] - before[2]);
+
+        long[] newIds = queryIds();
+        assertEquals(DAYS + 1, newIds.length);
+        for (int day = 0; day < DAYS; day++) {
+            assertEquals("Error: Updating a day changed its row id", ids[day], newIds[day]);
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION,
+                        TestUtilities.TEST_DATE + 2),
+                new String[]{WeatherEntry.COLUMN_MAX_TEMP}, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Error: The changed value wasn't stored", 80.0, cursor.getDouble(0), 0);
+        cursor.close();
+    }
+
+    private int bulkInsert(ContentValues[] values) {
+        return mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+    }
+
+    // The row ids of the stored days, in date order.
+    private long[] queryIds() {
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry._ID}, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        long[] ids = new long[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            ids[i] = cursor.getLong(0);
+        }
+        cursor.close();
+        return ids;
+    }
+
+    private long[] getUpsertStats() {
+        Bundle stats = mContext.getContentResolver().call(
+                WeatherContract.BASE_CONTENT_URI, WeatherContract.METHOD_GET_STATS, null, null);
+        return new long[]{
+                stats.getLong(WeatherContract.STAT_WEATHER_ROWS_INSERTED),
+                stats.getLong(WeatherContract.STAT_WEATHER_ROWS_UPDATED),
+                stats.getLong(WeatherContract.STAT_WEATHER_ROWS_UNCHANGED)
+        };
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.android.sunshine.app.sync;
+
+/*
+    Builds OpenWeatherMap "forecast/daily" payloads shaped like the real API responses, so the
+    sync tests don't depend on the network.
+ */
+class ForecastFixtures {
+
+    static final String CITY_NAME = "Sant Cugat del Valles";
+    static final double CITY_LAT = 41.4667;
+    static final double CITY_LON = 2.0833;
+
+    static String createForecastJson(int days) {
+        StringBuilder json = new StringBuilder(256 + days * 320);
+        json.append("{\"city\":{\"id\":3110718,\"name\":\"").append(CITY_NAME).append("\",")
+                .append("\"coord\":{\"lon\":").append(CITY_LON).append(",\"lat\":").append(CITY_LAT).append("},")
+                .append("\"country\":\"ES\",\"population\":0},")
+                .append("\"cod\":\"200\",\"message\":0.0123,\"cnt\":").append(days).append(",")
+                .append("\"list\":[");
+        for (int i = 0; i < days; i++) {
+            if (i > 0) json.append(',');
+            json.append("{\"dt\":").append(1475578800L + i * 86400L).append(',')
+                    .append("\"temp\":{\"day\":21.5,\"min\":").append(12 + i % 5).append(".25,")
+                    .append("\"max\":").append(22 + i % 7).append(".75,")
+                    .append("\"night\":13.1,\"eve\":19.4,\"morn\":12.6},")
+                    .append("\"pressure\":1013.").append(i % 10).append(',')
+                    .append("\"humidity\":").append(60 + i % 30).append(',')
+                    .append("\"weather\":[{\"id\":").append(i % 2 == 0 ? 800 : 501)
+                    .append(",\"main\":\"Clear\",\"description\":\"")
+                    .append(i % 2 == 0 ? "sky is clear" : "moderate rain")
+                    .append("\",\"icon\":\"01d\"},")
+                    .append("{\"id\":701,\"main\":\"Mist\",\"description\":\"mist\",\"icon\":\"50d\"}],")
+                    .append("\"speed\":").append(3 + i % 4).append(".5,")
+                    .append("\"deg\":").append((i * 45) % 360).append(',')
+                    .append("\"clouds\":0}");
+        }
+        json.append("]}");
+        return json.toString();
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/*
+    Fetches several locations at once against a MockWebServer that answers per location, and
+    checks that every location gets its own outcome, and that the locations resolved to a city
+    are requested by its id, once per city.
+ */
+public class TestForecastFetcher extends AndroidTestCase {
+
+    private static final String BROKEN_LOCATION = "broken";
+    private static final String GARBLED_LOCATION = "garbled";
+
+    private MockWebServer mServer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new MockWebServer();
+        mServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                String location = request.getRequestUrl().queryParameter("q");
+                if (BROKEN_LOCATION.equals(location)) {
+                    return new MockResponse().setResponseCode(500);
+                } else if (GARBLED_LOCATION.equals(location)) {
+                    return new MockResponse().setBody("{\"city\":");
+                }
+                return new MockResponse().setBody(ForecastFixtures.createForecastJson(
+                        SunshineApiClient.NUM_DAYS));
+            }
+        });
+        mServer.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    public void testFetchAllLocations() throws Exception {
+        List<String> locations = Arrays.asList(
+                "08026", BROKEN_LOCATION, "94043", GARBLED_LOCATION, "London, UK");
+
+        ForecastFetcher fetcher = new ForecastFetcher(
+                new SunshineApiClient(mServer.url("/").toString(), null));
+        List<ForecastFetcher.Result> results =
+                fetcher.fetch(locations, Collections.<String, Long>emptyMap());
+
+        assertEquals(locations.size(), results.size());
+        for (int i = 0; i < locations.size(); i++) {
+            ForecastFetcher.Result result = results.get(i);
+            String location = locations.get(i);
+            assertEquals("Error: results are not in request order", location, result.locationSetting);
+
+            if (BROKEN_LOCATION.equals(location)) {
+                assertEquals(ForecastFetcher.STATUS_IO_ERROR, result.status);
+            } else if (GARBLED_LOCATION.equals(location)) {
+                assertTrue(result.status == ForecastFetcher.STATUS_PARSE_ERROR
+                        || result.status == ForecastFetcher.STATUS_IO_ERROR);
+            } else {
+                assertEquals(ForecastFetcher.STATUS_OK, result.status);
+                assertEquals(SunshineApiClient.NUM_DAYS, result.forecast.getCount());
+                assertEquals(3110718, result.forecast.getCityId());
+            }
+        }
+        assertEquals(locations.size(), mServer.getRequestCount());
+    }
+
+    public void testFetchResolvedLocationsByCityId() throws Exception {
+        List<String> locations = Arrays.asList("London, UK", "94043", "london", "London,GB");
+        Map<String, Long> cityIds = new HashMap<>();
+        cityIds.put("London, UK", 2643743L);
+        cityIds.put("london", 2643743L);
+        cityIds.put("London,GB", 2643743L);
+
+        ForecastFetcher fetcher = new ForecastFetcher(
+                new SunshineApiClient(mServer.url("/").toString(), null));
+        List<ForecastFetcher.Result> results = fetcher.fetch(locations, cityIds);
+
+        assertEquals("Error: A city was fetched more than once", 2, results.size());
+        assertEquals("London, UK", results.get(0).locationSetting);
+        assertEquals(2643743L, results.get(0).cityId);
+        assertEquals("94043", results.get(1).locationSetting);
+        assertEquals(0, results.get(1).cityId);
+
+        Set<String> queries = new HashSet<>();
+        for (int i = 0; i < results.size(); i++) {
+            RecordedRequest request = mServer.takeRequest();
+            String id = request.getRequestUrl().queryParameter("id");
+            String q = request.getRequestUrl().queryParameter("q");
+            assertTrue("Error: A request has both an id and a query", id == null || q == null);
+            queries.add(id != null ? "id=" + id : "q=" + q);
+        }
+        assertEquals(new HashSet<>(Arrays.asList("id=2643743", "q=94043")), queries);
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.android.sunshine.app.sync;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.model.SunshineDay;
+import com.example.android.sunshine.app.model.SunshineForecast;
+import com.example.android.sunshine.app.model.SunshineForecastDecoder;
+import com.example.android.sunshine.app.model.SunshineInfo;
+import com.google.gson.Gson;
+
+import java.io.StringReader;
+
+/*
+    Checks the streaming forecast decoder against the reflective Gson mapping, and compares the
+    time and allocations of both on 7, 16 and 100 day payloads.
+ */
+public class TestForecastParsing extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastParsing.class.getSimpleName();
+
+    private static final int[] PAYLOAD_DAYS = {7, 16, 100};
+    private static final int WARMUP_ITERATIONS = 200;
+    private static final int MEASURED_ITERATIONS = 1000;
+
+    private final Gson mGson = new Gson();
+
+    public void testStreamingMatchesReflective() throws Exception {
+        String json = ForecastFixtures.createForecastJson(16);
+
+        SunshineDay reflective = mGson.fromJson(json, SunshineDay.class);
+        SunshineForecast streamed = SunshineForecastDecoder.decode(new StringReader(json));
+
+        assertTrue("Error: the city was not decoded", streamed.hasCity());
+        assertEquals(reflective.getCity().getName(), streamed.getCityName());
+        assertEquals(reflective.getCity().getCityCoords().getLat(), streamed.getLat());
+        assertEquals(reflective.getCity().getCityCoords().getLong(), streamed.getLong());
+        assertEquals(reflective.getList().size(), streamed.getCount());
+
+        for (int i = 0; i < streamed.getCount(); i++) {
+            SunshineInfo info = reflective.getList().get(i);
+            assertEquals(info.getTemperature().getMin(), streamed.getMinTemp(i));
+            assertEquals(info.getTemperature().getMax(), streamed.getMaxTemp(i));
+            assertEquals(info.getHumidity(), streamed.getHumidity(i));
+            assertEquals(info.getPressure(), streamed.getPressure(i));
+            assertEquals(info.getSpeed(), streamed.getWindSpeed(i));
+            assertEquals(info.getDegrees(), streamed.getDegrees(i));
+            assertEquals(info.getWeather().getId(), streamed.getWeatherId(i));
+            assertEquals(info.getWeather().getDescription(), streamed.getDescription(i));
+        }
+    }
+
+    public void testIncompleteDaysAreSkipped() throws Exception {
+        String json = "{\"city\":{\"name\":\"Nowhere\",\"coord\":{\"lat\":1,\"lon\":2}},\"list\":["
+                + "{\"temp\":{\"min\":1,\"max\":2},\"weather\":[]},"
+                + "{\"weather\":[{\"id\":800,\"description\":\"sky is clear\"}]},"
+                + "{\"temp\":{\"min\":3,\"max\":4},\"weather\":[{\"id\":500,\"description\":\"rain\"}]}]}";
+
+        SunshineForecast forecast = SunshineForecastDecoder.decode(new StringReader(json));
+
+        assertEquals(1, forecast.getCount());
+        assertEquals(2, forecast.getSkippedCount());
+        assertEquals(500, forecast.getWeatherId(0));
+        assertEquals(4.0, forecast.getMaxTemp(0));
+    }
+
+    public void testDayCountDoesntSizeTheForecast() throws Exception {
+        String json = "{\"cnt\":2147483647,\"city\":{\"name\":\"Nowhere\","
+                + "\"coord\":{\"lat\":1,\"lon\":2}},\"list\":[{\"temp\":{\"min\":1,"
+                + "\"max\":2},\"weather\":[{\"id\":800,\"description\":\"clear\"}]}]}";
+        SunshineForecast forecast = SunshineForecastDecoder.decode(new StringReader(json));
+        assertEquals(1, forecast.getCount());
+    }
+
+    public void testParsingCost() throws Exception {
+        for (int days : PAYLOAD_DAYS) {
+            String json = ForecastFixtures.createForecastJson(days);
+
+            measure(json, false, WARMUP_ITERATIONS);
+            measure(json, true, WARMUP_ITERATIONS);
+
+            long[] reflective = measure(json, false, MEASURED_ITERATIONS);
+            long[] streaming = measure(json, true, MEASURED_ITERATIONS);
+
+            Log.i(LOG_TAG, days + " days: reflective " + reflective[0] + " ns/op, "
+                    + reflective[1] + " bytes/op; streaming " + streaming[0] + " ns/op, "
+                    + streaming[1] + " bytes/op");
+        }
+    }
+
+    /**
+     * @return the average time and allocated bytes per parse.
+     */
+    @SuppressWarnings("deprecation")
+    private long[] measure(String json, boolean streaming, int iterations) throws Exception {
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            if (streaming) {
+                SunshineForecastDecoder.decode(new StringReader(json));
+            } else {
+                mGson.fromJson(new StringReader(json), SunshineDay.class);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        Debug.stopAllocCounting();
+        return new long[]{elapsed / iterations, Debug.getThreadAllocSize() / iterations};
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.File;
+
+import okhttp3.Cache;
+import okhttp3.ResponseBody;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import retrofit2.Response;
+
+/*
+    Measures the cold cost of a sync round trip against a local MockWebServer, comparing a client
+    built per sync (the old onPerformSync behaviour) with the shared SunshineApiClient.
+ */
+public class TestSunshineApiClient extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestSunshineApiClient.class.getSimpleName();
+
+    private static final int SYNC_ROUNDS = 50;
+    private static final String TEST_LOCATION = "08026";
+
+    private MockWebServer mServer;
+    private String mBaseUrl;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new MockWebServer();
+        mServer.start();
+        mBaseUrl = mServer.url("/").toString();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    public void testSharedClientReusesConnection() throws Exception {
+        SunshineApiClient client = new SunshineApiClient(mBaseUrl, null);
+        String body = ForecastFixtures.createForecastJson(SunshineApiClient.NUM_DAYS);
+
+        for (int i = 0; i < 3; i++) {
+            mServer.enqueue(new MockResponse().setBody(body));
+            Response<ResponseBody> response = client.getEndpoint()
+                    .getDays(SunshineApiClient.API_VERSION, TEST_LOCATION).execute();
+            assertTrue("Error: sync request failed", response.isSuccessful());
+            response.body().close();
+
+            RecordedRequest request = mServer.takeRequest();
+            assertEquals("Error: the shared client did not reuse its pooled connection",
+                    i, request.getSequenceNumber());
+            assertEquals("Error: default query parameters were not added",
+                    Integer.toString(SunshineApiClient.NUM_DAYS),
+                    request.getRequestUrl().queryParameter("cnt"));
+        }
+    }
+
+    public void testUnchangedForecastIsRevalidated() throws Exception {
+        File cacheDir = new File(mContext.getCacheDir(), "test-http");
+        Cache cache = new Cache(cacheDir, 1024 * 1024);
+        cache.evictAll();
+        SunshineApiClient client = new SunshineApiClient(mBaseUrl, cache);
+
+        mServer.enqueue(new MockResponse()
+                .setBody(ForecastFixtures.createForecastJson(SunshineApiClient.NUM_DAYS))
+                .setHeader("ETag", "\"v1\""));
+        mServer.enqueue(new MockResponse().setResponseCode(304));
+
+        Response<ResponseBody> first = client.getEndpoint()
+                .getDays(SunshineApiClient.API_VERSION, TEST_LOCATION).execute();
+        assertEquals(200, first.raw().networkResponse().code());
+        first.body().string();
+
+        Response<ResponseBody> second = client.getEndpoint()
+                .getDays(SunshineApiClient.API_VERSION, TEST_LOCATION).execute();
+        assertNotNull("Error: the 304 was not answered from the cache", second.raw().cacheResponse());
+        assertEquals(304, second.raw().networkResponse().code());
+        second.body().close();
+
+        mServer.takeRequest();
+        assertEquals("Error: the second request was not sent as a conditional request",
+                "\"v1\"", mServer.takeRequest().getHeader("If-None-Match"));
+
+        cache.delete();
+    }
+
+    public void testColdSyncCost() throws Exception {
+        String body = ForecastFixtures.createForecastJson(SunshineApiClient.NUM_DAYS);
+
+        // Warm up class loading and the JIT so neither run pays for it.
+        runSyncs(body, 5, false);
+        runSyncs(body, 5, true);
+
+        long perSyncClientNanos = runSyncs(body, SYNC_ROUNDS, false);
+        long sharedClientNanos = runSyncs(body, SYNC_ROUNDS, true);
+
+        Log.i(LOG_TAG, "Client per sync: " + perSyncClientNanos / SYNC_ROUNDS / 1000 + " us/sync, " +
+                "shared client: " + sharedClientNanos / SYNC_ROUNDS / 1000 + " us/sync");
+    }
+
+    private long runSyncs(String body, int rounds, boolean shared) throws Exception {
+        SunshineApiClient sharedClient = new SunshineApiClient(mBaseUrl, null);
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            mServer.enqueue(new MockResponse().setBody(body));
+            SunshineApiClient client = shared ? sharedClient : new SunshineApiClient(mBaseUrl, null);
+            Response<ResponseBody> response = client.getEndpoint()
+                    .getDays(SunshineApiClient.API_VERSION, TEST_LOCATION).execute();
+            assertTrue("Error: sync request failed", response.isSuccessful());
+            response.body().close();
+            mServer.takeRequest();
+        }
+        return System.nanoTime() - start;
+    }
+}
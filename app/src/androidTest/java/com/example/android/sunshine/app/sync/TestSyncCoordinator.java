@@ -0,0 +1,150 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.Settings;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    Checks that SyncCoordinator turns bursts of sync requests into one sync, and that every
+    caller hears how the sync covering its request went.
+ */
+public class TestSyncCoordinator extends AndroidTestCase {
+
+    private static final long WINDOW_MILLIS = 300;
+    private static final long SHORT_TIMEOUT_MILLIS = 100;
+    private static final long WAIT_SECONDS = 5;
+
+    private final AtomicInteger mRequests = new AtomicInteger();
+    private SyncCoordinator mCoordinator;
+    private String mKey;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCoordinator = createCoordinator(SyncCoordinator.PENDING_TIMEOUT_MILLIS);
+        mKey = SyncCoordinator.keyOf(Settings.get(mContext));
+    }
+
+    private SyncCoordinator createCoordinator(long pendingTimeoutMillis) {
+        return new SyncCoordinator(new SyncCoordinator.SyncRequester() {
+            @Override
+            public void requestSync(Context context) {
+                mRequests.incrementAndGet();
+            }
+        }, WINDOW_MILLIS, pendingTimeoutMillis);
+    }
+
+    public void testBurstIsOneSync() throws InterruptedException {
+        Results results = new Results(3);
+        for (int i = 0; i < 3; i++) {
+            mCoordinator.requestSync(mContext, results);
+        }
+        assertEquals("Error: A burst of requests asked for more than one sync",
+                1, mRequests.get());
+
+        SyncCoordinator.Flight flight = mCoordinator.onSyncStarted(mKey, true);
+        assertNotNull(flight);
+        mCoordinator.onSyncFinished(flight, true);
+        results.await();
+        assertEquals(3, results.successes.get());
+    }
+
+    public void testLateCallerAttachesToRunningSync() throws InterruptedException {
+        SyncCoordinator.Flight flight = mCoordinator.onSyncStarted(mKey, false);
+        Results results = new Results(1);
+        mCoordinator.requestSync(mContext, results);
+        assertEquals("Error: A request for the running sync asked for another",
+                0, mRequests.get());
+
+        mCoordinator.onSyncFinished(flight, false);
+        results.await();
+        assertEquals(1, results.failures.get());
+    }
+
+    public void testOtherLocationWhileRunningIsAnotherSync() {
+        SyncCoordinator.Flight flight = mCoordinator.onSyncStarted("another location", false);
+        mCoordinator.requestSync(mContext, null);
+        assertEquals("Error: The new location won't be synced", 1, mRequests.get());
+        mCoordinator.onSyncFinished(flight, true);
+    }
+
+    public void testRecentSyncStandsIn() throws InterruptedException {
+        mCoordinator.onSyncFinished(mCoordinator.onSyncStarted(mKey, false), true);
+
+        Results results = new Results(1);
+        mCoordinator.requestSync(mContext, results);
+        results.await();
+        assertEquals(1, results.successes.get());
+        assertEquals("Error: A request right after a sync asked for another",
+                0, mRequests.get());
+        assertNull("Error: A sync right after an identical one wasn't skipped",
+                mCoordinator.onSyncStarted(mKey, true));
+
+        Thread.sleep(WINDOW_MILLIS * 2);
+        mCoordinator.requestSync(mContext, null);
+        assertEquals("Error: The window of a sync never closes", 1, mRequests.get());
+    }
+
+    public void testUnrequestedSyncAlwaysRuns() throws InterruptedException {
+        mCoordinator.onSyncFinished(mCoordinator.onSyncStarted(mKey, false), true);
+        SyncCoordinator.Flight periodic = mCoordinator.onSyncStarted(mKey, false);
+        assertNotNull("Error: A periodic sync right after another was skipped", periodic);
+        mCoordinator.onSyncFinished(periodic, true);
+
+        // A periodic sync starting while a requested one waits leaves that one to its callers.
+        Thread.sleep(WINDOW_MILLIS * 2);
+        Results results = new Results(1);
+        mCoordinator.requestSync(mContext, results);
+        assertEquals(1, mRequests.get());
+        mCoordinator.onSyncFinished(mCoordinator.onSyncStarted(mKey, false), false);
+        SyncCoordinator.Flight requested = mCoordinator.onSyncStarted(mKey, true);
+        assertNotNull("Error: The requested sync was taken over by a periodic one", requested);
+        mCoordinator.onSyncFinished(requested, true);
+        results.await();
+        assertEquals(1, results.successes.get());
+    }
+
+    public void testFailedSyncDoesntStandIn() {
+        mCoordinator.onSyncFinished(mCoordinator.onSyncStarted(mKey, false), false);
+        mCoordinator.requestSync(mContext, null);
+        assertEquals("Error: A failed sync wasn't retried", 1, mRequests.get());
+    }
+
+    public void testSyncThatNeverStartsFails() throws InterruptedException {
+        SyncCoordinator coordinator = createCoordinator(SHORT_TIMEOUT_MILLIS);
+        Results results = new Results(1);
+        coordinator.requestSync(mContext, results);
+        results.await();
+        assertEquals(1, results.failures.get());
+
+        // The expired request doesn't hold back the next one.
+        coordinator.requestSync(mContext, null);
+        assertEquals(2, mRequests.get());
+    }
+
+    private static class Results implements SyncCoordinator.Listener {
+        final AtomicInteger successes = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        private final CountDownLatch mDone;
+
+        Results(int expected) {
+            mDone = new CountDownLatch(expected);
+        }
+
+        @Override
+        public void onSyncFinished(boolean success) {
+            (success ? successes : failures).incrementAndGet();
+            mDone.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertTrue("Error: Not every caller heard how the sync went",
+                    mDone.await(WAIT_SECONDS, TimeUnit.SECONDS));
+        }
+    }
+}
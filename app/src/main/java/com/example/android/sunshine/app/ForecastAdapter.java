@@ -1,111 +1,193 @@
 package com.example.android.sunshine.app;
 
 import android.content.Context;
-import android.database.Cursor;
-import android.support.v4.widget.CursorAdapter;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import java.util.Collections;
+import java.util.List;
+
 import butterknife.Bind;
 import butterknife.ButterKnife;
 
 /**
- * {@link ForecastAdapter} exposes a list of weather forecasts
- * from a {@link android.database.Cursor} to a {@link android.widget.ListView}.
+ * {@link ForecastAdapter} exposes the rows of a {@link ForecastModel}
+ * to a {@link RecyclerView}.  The rows are already formatted, so binding one only
+ * sets its views, and a new model only rebinds the rows its diff says have changed.
  */
-public class ForecastAdapter extends CursorAdapter {
+public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ViewHolder> {
+
+    static final int VIEW_TYPE_TODAY = 0;
+    static final int VIEW_TYPE_FUTURE_DAY = 1;
 
-    private static final int VIEW_TYPE_TODAY = 0;
-    private static final int VIEW_TYPE_FUTURE_DAY = 1;
-    private static final int VIEW_TYPE_COUNT = 2;
+    interface OnRowClickListener {
+        void onRowClick(ForecastModel.Row row, int position);
+    }
 
+    private final LayoutInflater mInflater;
+    private final OnRowClickListener mClickListener;
+    private List<ForecastModel.Row> mRows = Collections.emptyList();
     private boolean mUseTodayLayout;
+    private boolean mSingleChoice;
+    private long mSelectedId = RecyclerView.NO_ID;
 
-    public ForecastAdapter(Context context, Cursor c, int flags) {
-        super(context, c, flags);
+    public ForecastAdapter(Context context, OnRowClickListener clickListener) {
+        mInflater = LayoutInflater.from(context);
+        mClickListener = clickListener;
+        setHasStableIds(true);
     }
 
     public void setUseTodayLayout(boolean useTodayLayout) {
-        mUseTodayLayout = useTodayLayout;
+        if (mUseTodayLayout != useTodayLayout) {
+            mUseTodayLayout = useTodayLayout;
+            if (!mRows.isEmpty()) {
+                notifyItemChanged(0);
+            }
+        }
     }
 
-    @Override
-    public int getItemViewType(int position) {
-        return (position == 0 && mUseTodayLayout) ? VIEW_TYPE_TODAY : VIEW_TYPE_FUTURE_DAY;
+    /**
+     * Keeps the selected row activated, for a list that drives a detail pane.
+     */
+    void setSingleChoice(boolean singleChoice) {
+        mSingleChoice = singleChoice;
     }
 
-    @Override
-    public int getViewTypeCount() {
-        return VIEW_TYPE_COUNT;
+    void setSelectedId(long id) {
+        if (mSelectedId == id) {
+            return;
+        }
+        int oldPosition = getPosition(mSelectedId);
+        mSelectedId = id;
+        if (mSingleChoice) {
+            if (oldPosition != RecyclerView.NO_POSITION) {
+                notifyItemChanged(oldPosition);
+            }
+            int newPosition = getPosition(id);
+            if (newPosition != RecyclerView.NO_POSITION) {
+                notifyItemChanged(newPosition);
+            }
+        }
     }
 
-    /*
-        Remember that these views are reused as needed.
-     */
-    @Override
-    public View newView(Context context, Cursor cursor, ViewGroup parent) {
-
-        int viewType = getItemViewType(cursor.getPosition());
+    long getSelectedId() {
+        return mSelectedId;
+    }
 
-        int layout = viewType ==  VIEW_TYPE_TODAY ?
-                R.layout.list_item_forecast_today :
-                R.layout.list_item_forecast;
+    /**
+     * @param model the forecast to show, or null to show nothing.
+     */
+    void setModel(ForecastModel model) {
+        List<ForecastModel.Row> oldRows = mRows;
+        mRows = model != null ? model.rows : Collections.<ForecastModel.Row>emptyList();
+        if (model == null || model.diff == null || !model.diff.appliesTo(oldRows)) {
+            notifyDataSetChanged();
+            return;
+        }
+        model.diff.dispatchTo(this);
+        if (mUseTodayLayout) {
+            refreshTodayLayout(oldRows);
+        }
+    }
 
-        View view = LayoutInflater.from(context).inflate(layout, parent, false);
-        ViewHolder holder = new ViewHolder(view);
-        view.setTag(holder);
+    // The rows that moved to or from the first position have to change layout, which the diff
+    // doesn't know about.
+    private void refreshTodayLayout(List<ForecastModel.Row> oldRows) {
+        if (oldRows.isEmpty() || mRows.isEmpty() || oldRows.get(0).id == mRows.get(0).id) {
+            return;
+        }
+        notifyItemChanged(0);
+        int oldToday = getPosition(oldRows.get(0).id);
+        if (oldToday != RecyclerView.NO_POSITION) {
+            notifyItemChanged(oldToday);
+        }
+    }
 
-        return view;
+    private int getPosition(long id) {
+        for (int i = 0; i < mRows.size(); i++) {
+            if (mRows.get(i).id == id) {
+                return i;
+            }
+        }
+        return RecyclerView.NO_POSITION;
     }
 
-    /*
-        This is where we fill-in the views with the contents of the cursor.
-     */
     @Override
-    public void bindView(View view, Context context, Cursor cursor) {
-
-        ViewHolder holder = (ViewHolder) view.getTag();
+    public int getItemCount() {
+        return mRows.size();
+    }
 
-        double highTemp = cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP);
-        holder.highView.setText(Utility.formatTemperature(context, highTemp));
+    ForecastModel.Row getItem(int position) {
+        return mRows.get(position);
+    }
 
-        double lowTemp = cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP);
-        holder.lowView.setText(Utility.formatTemperature(context, lowTemp));
+    @Override
+    public long getItemId(int position) {
+        return mRows.get(position).id;
+    }
 
-        holder.dateView.setText(Utility.getFriendlyDayString(
-                context, cursor.getLong(ForecastFragment.COL_WEATHER_DATE)));
+    @Override
+    public int getItemViewType(int position) {
+        return (position == 0 && mUseTodayLayout) ? VIEW_TYPE_TODAY : VIEW_TYPE_FUTURE_DAY;
+    }
 
-        String description = cursor.getString(ForecastFragment.COL_WEATHER_DESC);
-        holder.forecastView.setText(description);
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        int layout = viewType == VIEW_TYPE_TODAY ?
+                R.layout.list_item_forecast_today :
+                R.layout.list_item_forecast;
+        return new ViewHolder(mInflater.inflate(layout, parent, false));
+    }
 
-        int weatherIcon = getWeatherIcon(cursor);
-        holder.iconView.setImageResource(weatherIcon);
-        holder.iconView.setContentDescription(description);
+    /*
+        Remember that these views are reused as needed.
+     */
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        ForecastModel.Row row = mRows.get(position);
+        holder.highView.setText(row.high);
+        holder.lowView.setText(row.low);
+        holder.dateView.setText(row.dateLabel);
+        holder.forecastView.setText(row.description);
+        holder.iconView.setImageResource(
+                holder.getItemViewType() == VIEW_TYPE_TODAY ? row.artResId : row.iconResId);
+        holder.iconView.setContentDescription(row.description);
+        holder.itemView.setActivated(mSingleChoice && row.id == mSelectedId);
+        holder.adapter = this;
     }
 
-    private int getWeatherIcon(Cursor cursor) {
-        int weatherId = cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
-        int viewType = getItemViewType(cursor.getPosition());
-        boolean isToday = viewType == VIEW_TYPE_TODAY;
-        int weatherIcon = Utility.getArtResourceForWeatherCondition(weatherId);
-        if (!isToday) {
-            weatherIcon = Utility.getIconResourceForWeatherCondition(weatherId);
-        }
-        return weatherIcon;
+    private void onRowClick(int position) {
+        ForecastModel.Row row = mRows.get(position);
+        setSelectedId(row.id);
+        mClickListener.onRowClick(row, position);
     }
 
-    static class ViewHolder {
+    static class ViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
         @Bind(R.id.list_item_icon) ImageView iconView;
         @Bind(R.id.list_item_high_textview) TextView highView;
         @Bind(R.id.list_item_low_textview) TextView lowView;
         @Bind(R.id.list_item_date_textview) TextView dateView;
         @Bind(R.id.list_item_forecast_textview) TextView forecastView;
+        // The adapter that last bound the row, whose rows the position refers to.
+        ForecastAdapter adapter;
 
         public ViewHolder(View view) {
+            super(view);
             ButterKnife.bind(this, view);
+            view.setOnClickListener(this);
+        }
+
+        @Override
+        public void onClick(View view) {
+            int position = getAdapterPosition();
+            if (position == RecyclerView.NO_POSITION || adapter == null) {
+                return;
+            }
+            adapter.onRowClick(position);
         }
     }
-}
\ No newline at end of file
+}
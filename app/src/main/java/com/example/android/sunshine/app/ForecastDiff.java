@@ -0,0 +1,108 @@
+package com.example.android.sunshine.app;
+
+import android.support.v7.widget.RecyclerView;
+
+import java.util.List;
+
+/**
+ * The row insertions, removals and changes that turn one forecast list into the next, so the
+ * adapter can rebind only the days that changed and animate the ones that came and went.
+ * <p>
+ * The rows of a forecast are sorted by day with one row per day, so the lists are merged in a
+ * single pass rather than searched for a longest common subsequence.
+ */
+final class ForecastDiff {
+
+    private static final int INSERT = 0;
+    private static final int REMOVE = 1;
+    private static final int CHANGE = 2;
+
+    // The rows the operations apply to.
+    private final List<ForecastModel.Row> mBaseRows;
+    // Runs of (operation, position, count), in the order they have to be dispatched.
+    private final int[] mOperations;
+    private int mSize;
+
+    private ForecastDiff(List<ForecastModel.Row> baseRows, int maxOperations) {
+        mBaseRows = baseRows;
+        mOperations = new int[maxOperations * 3];
+    }
+
+    static ForecastDiff compute(List<ForecastModel.Row> oldRows, List<ForecastModel.Row> newRows) {
+        ForecastDiff diff = new ForecastDiff(oldRows, oldRows.size() + newRows.size());
+        int oldIndex = 0;
+        int newIndex = 0;
+        // Where the next operation goes in the list as it is after the previous ones.
+        int position = 0;
+        while (oldIndex < oldRows.size() || newIndex < newRows.size()) {
+            ForecastModel.Row oldRow = oldIndex < oldRows.size() ? oldRows.get(oldIndex) : null;
+            ForecastModel.Row newRow = newIndex < newRows.size() ? newRows.get(newIndex) : null;
+            if (newRow == null || (oldRow != null && oldRow.julianDay < newRow.julianDay)) {
+                diff.add(REMOVE, position);
+                oldIndex++;
+            } else if (oldRow == null || oldRow.julianDay > newRow.julianDay) {
+                diff.add(INSERT, position++);
+                newIndex++;
+            } else {
+                if (oldRow.id != newRow.id || !oldRow.sameContents(newRow)) {
+                    diff.add(CHANGE, position);
+                }
+                position++;
+                oldIndex++;
+                newIndex++;
+            }
+        }
+        return diff;
+    }
+
+    // Extends the last run when the position continues it.
+    private void add(int operation, int position) {
+        if (mSize > 0) {
+            int last = (mSize - 1) * 3;
+            int lastPosition = mOperations[last + 1];
+            int lastCount = mOperations[last + 2];
+            if (mOperations[last] == operation) {
+                // Removals all happen at the same position, the others move along.
+                int next = operation == REMOVE ? lastPosition : lastPosition + lastCount;
+                if (position == next) {
+                    mOperations[last + 2]++;
+                    return;
+                }
+            }
+        }
+        int index = mSize++ * 3;
+        mOperations[index] = operation;
+        mOperations[index + 1] = position;
+        mOperations[index + 2] = 1;
+    }
+
+    /**
+     * @return whether the operations were computed from these rows, as opposed to those of
+     * another location or an older load.
+     */
+    boolean appliesTo(List<ForecastModel.Row> rows) {
+        return rows == mBaseRows;
+    }
+
+    boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    void dispatchTo(RecyclerView.Adapter<?> adapter) {
+        for (int i = 0; i < mSize * 3; i += 3) {
+            int position = mOperations[i + 1];
+            int count = mOperations[i + 2];
+            switch (mOperations[i]) {
+                case INSERT:
+                    adapter.notifyItemRangeInserted(position, count);
+                    break;
+                case REMOVE:
+                    adapter.notifyItemRangeRemoved(position, count);
+                    break;
+                default:
+                    adapter.notifyItemRangeChanged(position, count);
+                    break;
+            }
+        }
+    }
+}
@@ -17,15 +17,15 @@ package com.example.android.sunshine.app;
 
 import android.content.Context;
 import android.content.Intent;
-import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
 import android.support.annotation.Nullable;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
 import android.support.v4.widget.SwipeRefreshLayout;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.Menu;
@@ -33,11 +33,10 @@ import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.AdapterView;
-import android.widget.ListView;
 
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+import com.example.android.sunshine.app.sync.SyncCoordinator;
 
 import butterknife.Bind;
 import butterknife.ButterKnife;
@@ -45,9 +44,10 @@ import icepick.Icepick;
 import icepick.State;
 
 /**
- * Encapsulates fetching the forecast and displaying it as a {@link ListView} layout.
+ * Encapsulates fetching the forecast and displaying it as a {@link RecyclerView} layout.
  */
-public class ForecastFragment extends Fragment implements LoaderManager.LoaderCallbacks<Cursor> {
+public class ForecastFragment extends Fragment
+        implements LoaderManager.LoaderCallbacks<ForecastModel> {
 
     private static final String LOG_TAG = ForecastFragment.class.getSimpleName();
 
@@ -65,40 +65,31 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
 
     private Callback mItemSelectedCallback;
 
-    private static final String[] FORECAST_COLUMNS = {
-        WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID,
-        WeatherContract.WeatherEntry.COLUMN_DATE,
-        WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
-        WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-        WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-        WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
-        WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-        WeatherContract.LocationEntry.COLUMN_COORD_LAT,
-        WeatherContract.LocationEntry.COLUMN_COORD_LONG
-    };
-
-    static final int COL_WEATHER_ID = 0;
-    static final int COL_WEATHER_DATE = 1;
-    static final int COL_WEATHER_DESC = 2;
-    static final int COL_WEATHER_MAX_TEMP = 3;
-    static final int COL_WEATHER_MIN_TEMP = 4;
-    static final int COL_LOCATION_SETTING = 5;
-    static final int COL_WEATHER_CONDITION_ID = 6;
-    static final int COL_COORD_LAT = 7;
-    static final int COL_COORD_LONG = 8;
-
     private static final int FORECAST_LOADER = 0;
 
+    // Enough future days to fill a tall screen, so none has to be inflated while scrolling.
+    private static final int MAX_RECYCLED_FUTURE_DAYS = 10;
+
 //    private final String LOG_TAG = ForecastFragment.class.getSimpleName();
 
     private ForecastAdapter mForecastAdapter;
+    private ForecastModel mForecastModel;
+    private final SyncCoordinator.Listener mRefreshListener = new SyncCoordinator.Listener() {
+        @Override
+        public void onSyncFinished(boolean success) {
+            if (getView() != null) {
+                mListViewRefreshLayout.setRefreshing(false);
+            }
+        }
+    };
 
-    @Bind(R.id.listview_forecast)
-    ListView mListView;
+    @Bind(R.id.recyclerview_forecast)
+    RecyclerView mRecyclerView;
     @Bind (R.id.listview_forecast_refresh)
     SwipeRefreshLayout mListViewRefreshLayout;
 
     @State int mCurrentPosition = 0;
+    @State long mSelectedId = RecyclerView.NO_ID;
     @State boolean mUseTodayLayout;
 
     public ForecastFragment() {
@@ -114,6 +105,9 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
 
     @Override
     public void onSaveInstanceState(Bundle outState) {
+        if (mForecastAdapter != null) {
+            mSelectedId = mForecastAdapter.getSelectedId();
+        }
         super.onSaveInstanceState(outState);
         Icepick.saveInstanceState(this, outState);
     }
@@ -156,12 +150,10 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         // Using the URI scheme for showing a location found on a map.  This super-handy
         // intent can is detailed in the "Common Intents" page of Android's developer site:
         // http://developer.android.com/guide/components/intents-common.html#Maps
-        if ( null != mForecastAdapter ) {
-            Cursor c = mForecastAdapter.getCursor();
-            if ( null != c ) {
-                c.moveToPosition(0);
-                String posLat = c.getString(COL_COORD_LAT);
-                String posLong = c.getString(COL_COORD_LONG);
+        if ( null != mForecastModel ) {
+            if ( null != mForecastModel.coordLat ) {
+                String posLat = mForecastModel.coordLat;
+                String posLong = mForecastModel.coordLong;
                 Uri geoLocation = Uri.parse("geo:" + posLat + "," + posLong);
 
                 Intent intent = new Intent(Intent.ACTION_VIEW);
@@ -181,8 +173,26 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
                              Bundle savedInstanceState) {
 
-        mForecastAdapter = new ForecastAdapter(getActivity(), null, 0);
+        mForecastAdapter = new ForecastAdapter(getActivity(),
+                new ForecastAdapter.OnRowClickListener() {
+                    @Override
+                    public void onRowClick(ForecastModel.Row row, int position) {
+                        if (mForecastModel != null) {
+                            Uri intentData = WeatherContract.WeatherEntry
+                                    .buildWeatherLocationWithDate(
+                                            mForecastModel.locationSetting, row.julianDay);
+                            if (mItemSelectedCallback != null) {
+                                mItemSelectedCallback.onItemSelected(intentData);
+                            }
+                        }
+                        mCurrentPosition = position;
+                    }
+                });
         mForecastAdapter.setUseTodayLayout(mUseTodayLayout);
+        mForecastAdapter.setSingleChoice(
+                getResources().getBoolean(R.bool.forecast_list_single_choice));
+        mForecastAdapter.setSelectedId(mSelectedId);
+        mForecastAdapter.setModel(mForecastModel);
 
         View rootView = inflater.inflate(R.layout.fragment_main, container, false);
 
@@ -197,56 +207,43 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         mListViewRefreshLayout.setOnRefreshListener(new SwipeRefreshLayout.OnRefreshListener() {
             @Override
             public void onRefresh() {
-                updateWeather();
-                mListViewRefreshLayout.setRefreshing(false);
+                // The spinner stays until the sync this refresh shares, or started, is done.
+                SunshineSyncAdapter.syncImmediately(getActivity(), mRefreshListener);
             }
         });
 
-        mListView.setAdapter(mForecastAdapter);
-        mListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
-            @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long id) {
-                // CursorAdapter returns a cursor at the correct position for getItem(), or null
-                // if it cannot seek to that position.
-                Cursor cursor = (Cursor) adapterView.getItemAtPosition(position);
-                if (cursor != null) {
-                    String locationSetting = Utility.getPreferredLocation(getActivity());
-                    Uri intentData = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
-                            locationSetting, cursor.getLong(COL_WEATHER_DATE));
-                    if (mItemSelectedCallback != null) {
-                        mItemSelectedCallback.onItemSelected(intentData);
-                    }
-                }
-                mCurrentPosition = position;
-            }
-        });
+        mRecyclerView.setLayoutManager(new LinearLayoutManager(getActivity()));
+        // Each list gets a pool of its own: its rows belong to the adapter created with it.
+        RecyclerView.RecycledViewPool viewPool = mRecyclerView.getRecycledViewPool();
+        viewPool.setMaxRecycledViews(ForecastAdapter.VIEW_TYPE_TODAY, 1);
+        viewPool.setMaxRecycledViews(
+                ForecastAdapter.VIEW_TYPE_FUTURE_DAY, MAX_RECYCLED_FUTURE_DAYS);
+        mRecyclerView.setAdapter(mForecastAdapter);
     }
 
     @Override
-    public Loader onCreateLoader(int id, Bundle args) {
-        String locationSetting = Utility.getPreferredLocation(getActivity());
-
-        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
-                locationSetting, System.currentTimeMillis());
-        String sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
-
-        return new CursorLoader(getActivity(), weatherForLocationUri,
-                FORECAST_COLUMNS, null, null, sortOrder);
+    public Loader<ForecastModel> onCreateLoader(int id, Bundle args) {
+        return new ForecastLoader(getActivity(), Utility.getPreferredLocation(getActivity()));
     }
 
     @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
-        mForecastAdapter.swapCursor(cursor);
-        mListView.setSelection(mCurrentPosition);
+    public void onLoadFinished(Loader<ForecastModel> loader, ForecastModel model) {
+        boolean wasEmpty = mForecastAdapter.getItemCount() == 0;
+        mForecastModel = model;
+        mForecastAdapter.setModel(model);
+        // Only a list being filled scrolls back to the selected day, not one being updated.
+        if (wasEmpty && mCurrentPosition < mForecastAdapter.getItemCount()) {
+            mRecyclerView.scrollToPosition(mCurrentPosition);
+        }
     }
 
     @Override
-    public void onLoaderReset(Loader loader) {
-        mForecastAdapter.swapCursor(null);
+    public void onLoaderReset(Loader<ForecastModel> loader) {
+        mForecastModel = null;
+        mForecastAdapter.setModel(null);
     }
 
     public void onLocationChanged() {
-        updateWeather();
         getLoaderManager().restartLoader(FORECAST_LOADER, null, this);
     }
 
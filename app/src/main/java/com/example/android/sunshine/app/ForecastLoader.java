@@ -0,0 +1,204 @@
+package com.example.android.sunshine.app;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.v4.content.AsyncTaskLoader;
+
+import com.example.android.sunshine.app.data.JulianDay;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads the forecast of a location and turns it into a {@link ForecastModel} on the loader's
+ * background thread: the rows are read once, formatted, and the cursor closed.  The new rows
+ * are also diffed there against those of the previous model, for the adapter to apply.
+ * <p>
+ * The model is rebuilt only when something it shows changes: the location's weather rows,
+ * the units setting, or the day, which moves both the first row and the day labels.  While
+ * the loader is stopped those changes are only noted, and picked up when it starts again.
+ */
+class ForecastLoader extends AsyncTaskLoader<ForecastModel> {
+
+    static final String[] FORECAST_COLUMNS = {
+            WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG
+    };
+
+    // these indices must match the projection
+    static final int COL_WEATHER_ID = 0;
+    static final int COL_WEATHER_DATE = 1;
+    static final int COL_WEATHER_DESC = 2;
+    static final int COL_WEATHER_MAX_TEMP = 3;
+    static final int COL_WEATHER_MIN_TEMP = 4;
+    static final int COL_LOCATION_SETTING = 5;
+    static final int COL_WEATHER_CONDITION_ID = 6;
+    static final int COL_COORD_LAT = 7;
+    static final int COL_COORD_LONG = 8;
+
+    private static final String SORT_ORDER = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+
+    private final String mLocationSetting;
+
+    private final ForceLoadContentObserver mWeatherObserver = new ForceLoadContentObserver();
+
+    private final BroadcastReceiver mDayReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (!Intent.ACTION_DATE_CHANGED.equals(intent.getAction())) {
+                JulianDay.invalidate();
+            }
+            onContentChanged();
+        }
+    };
+
+    private final Settings.OnChangeListener mUnitsListener = new Settings.OnChangeListener() {
+        @Override
+        public void onSettingsChanged(Settings.Snapshot oldSettings,
+                                      Settings.Snapshot newSettings) {
+            if (newSettings.unitsChanged(oldSettings)) {
+                onContentChanged();
+            }
+        }
+    };
+
+    private boolean mObserving;
+    // Written on the main thread, and read by the next load to diff against.
+    private volatile ForecastModel mModel;
+
+    ForecastLoader(Context context, String locationSetting) {
+        super(context);
+        mLocationSetting = locationSetting;
+    }
+
+    @Override
+    public ForecastModel loadInBackground() {
+        Context context = getContext();
+        int julianToday = JulianDay.today();
+        boolean isMetric = Settings.get(context).isMetric;
+        WeatherFormatter formatter = WeatherFormatter.get(context);
+
+        Uri uri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                mLocationSetting, julianToday);
+        Cursor cursor = context.getContentResolver().query(
+                uri, FORECAST_COLUMNS, null, null, SORT_ORDER);
+        List<ForecastModel.Row> rows = new ArrayList<>();
+        String coordLat = null;
+        String coordLong = null;
+        if (cursor != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    if (coordLat == null) {
+                        coordLat = cursor.getString(COL_COORD_LAT);
+                        coordLong = cursor.getString(COL_COORD_LONG);
+                    }
+                    rows.add(buildRow(context, formatter, cursor, mLocationSetting, isMetric));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return new ForecastModel(
+                mLocationSetting, coordLat, coordLong, isMetric, julianToday, rows, mModel);
+    }
+
+    private static ForecastModel.Row buildRow(Context context, WeatherFormatter formatter,
+                                              Cursor cursor, String locationSetting,
+                                              boolean isMetric) {
+        int weatherId = cursor.getInt(COL_WEATHER_CONDITION_ID);
+        int julianDay = cursor.getInt(COL_WEATHER_DATE);
+        return new ForecastModel.Row(
+                ForecastModel.stableId(locationSetting, julianDay),
+                julianDay,
+                Utility.getFriendlyDayString(context, julianDay),
+                cursor.getString(COL_WEATHER_DESC),
+                formatter.formatTemperature(cursor.getDouble(COL_WEATHER_MAX_TEMP), isMetric),
+                formatter.formatTemperature(cursor.getDouble(COL_WEATHER_MIN_TEMP), isMetric),
+                Utility.getIconResourceForWeatherCondition(weatherId),
+                Utility.getArtResourceForWeatherCondition(weatherId));
+    }
+
+    @Override
+    public void deliverResult(ForecastModel model) {
+        if (isReset()) {
+            return;
+        }
+        mModel = model;
+        if (isStarted()) {
+            super.deliverResult(model);
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        startObserving();
+        if (mModel != null) {
+            deliverResult(mModel);
+        }
+        // A change may have been missed while the loader wasn't observing.
+        if (takeContentChanged() || mModel == null || isStale(mModel)) {
+            forceLoad();
+        }
+    }
+
+    private boolean isStale(ForecastModel model) {
+        return model.julianToday != JulianDay.today()
+                || model.isMetric != Settings.get(getContext()).isMetric;
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+        stopObserving();
+        mModel = null;
+    }
+
+    private void startObserving() {
+        if (mObserving) {
+            return;
+        }
+        Context context = getContext();
+        // The provider notifies weather/<location_setting> for every write to the location.
+        context.getContentResolver().registerContentObserver(
+                WeatherContract.WeatherEntry.buildWeatherLocation(mLocationSetting),
+                true, mWeatherObserver);
+
+        IntentFilter dayChanges = new IntentFilter();
+        dayChanges.addAction(Intent.ACTION_DATE_CHANGED);
+        dayChanges.addAction(Intent.ACTION_TIME_CHANGED);
+        dayChanges.addAction(Intent.ACTION_TIMEZONE_CHANGED);
+        context.registerReceiver(mDayReceiver, dayChanges);
+
+        Settings.addOnChangeListener(context, mUnitsListener);
+        mObserving = true;
+    }
+
+    private void stopObserving() {
+        if (!mObserving) {
+            return;
+        }
+        Context context = getContext();
+        context.getContentResolver().unregisterContentObserver(mWeatherObserver);
+        context.unregisterReceiver(mDayReceiver);
+        Settings.removeOnChangeListener(mUnitsListener);
+        mObserving = false;
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.android.sunshine.app;
+
+import android.text.TextUtils;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The forecast list as it is displayed: every label formatted and every icon resolved, so
+ * binding a row only sets its views.  Built by {@link ForecastLoader} off the main thread and
+ * never changed afterwards.
+ */
+final class ForecastModel {
+
+    final String locationSetting;
+    // Coordinates of the location, as stored; null when there is no forecast.
+    final String coordLat;
+    final String coordLong;
+
+    // What the labels depend on besides the rows: the units and the day "today" refers to.
+    final boolean isMetric;
+    final int julianToday;
+
+    final List<Row> rows;
+
+    // How the rows differ from those of the model loaded before; null when there was none.
+    final ForecastDiff diff;
+
+    ForecastModel(String locationSetting, String coordLat, String coordLong,
+                  boolean isMetric, int julianToday, List<Row> rows, ForecastModel previous) {
+        this.locationSetting = locationSetting;
+        this.coordLat = coordLat;
+        this.coordLong = coordLong;
+        this.isMetric = isMetric;
+        this.julianToday = julianToday;
+        this.rows = Collections.unmodifiableList(rows);
+        this.diff = previous != null ? ForecastDiff.compute(previous.rows, this.rows) : null;
+    }
+
+    /**
+     * @return an id for the day of a location that stays the same however often its weather
+     * row is rewritten.
+     */
+    static long stableId(String locationSetting, int julianDay) {
+        return ((long) locationSetting.hashCode() << 32) | (julianDay & 0xffffffffL);
+    }
+
+    static final class Row {
+        // From stableId; the rows of one model are days of the same location.
+        final long id;
+        final int julianDay;
+        final String dateLabel;
+        final String description;
+        final String high;
+        final String low;
+        // The small icon of the list, and the art of the larger today item.
+        final int iconResId;
+        final int artResId;
+
+        Row(long id, int julianDay, String dateLabel, String description, String high,
+            String low, int iconResId, int artResId) {
+            this.id = id;
+            this.julianDay = julianDay;
+            this.dateLabel = dateLabel;
+            this.description = description;
+            this.high = high;
+            this.low = low;
+            this.iconResId = iconResId;
+            this.artResId = artResId;
+        }
+
+        /**
+         * @return whether the row would be displayed the same as the other one.
+         */
+        boolean sameContents(Row other) {
+            return dateLabel.equals(other.dateLabel)
+                    && TextUtils.equals(description, other.description)
+                    && high.equals(other.high)
+                    && low.equals(other.low)
+                    && iconResId == other.iconResId
+                    && artResId == other.artResId;
+        }
+    }
+}
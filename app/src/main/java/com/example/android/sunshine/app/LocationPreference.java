@@ -0,0 +1,143 @@
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.preference.EditTextPreference;
+import android.util.AttributeSet;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewParent;
+import android.widget.AutoCompleteTextView;
+import android.widget.BaseAdapter;
+import android.widget.EditText;
+import android.widget.Filter;
+import android.widget.Filterable;
+import android.widget.TextView;
+
+import com.example.android.sunshine.app.data.CityIndex;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The location setting, edited in an {@link AutoCompleteTextView} that suggests the cities of
+ * the on-device {@link CityIndex} as the user types.  Picking a suggestion stores it in the
+ * "name,country" form the API resolves without guessing; anything else typed, such as a postal
+ * code, is stored as it is.
+ */
+public class LocationPreference extends EditTextPreference {
+
+    private static final int SUGGESTIONS = 8;
+
+    private final AutoCompleteTextView mAutoComplete;
+
+    public LocationPreference(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        mAutoComplete = new AutoCompleteTextView(context, attrs);
+        mAutoComplete.setId(android.R.id.edit);
+        mAutoComplete.setThreshold(2);
+        mAutoComplete.setAdapter(new CityAdapter(context));
+    }
+
+    @Override
+    protected void onBindDialogView(View view) {
+        super.onBindDialogView(view);
+        mAutoComplete.setText(getText());
+        mAutoComplete.setSelection(mAutoComplete.length());
+    }
+
+    // Puts the suggesting view in the dialog in place of the plain one.
+    @Override
+    protected void onAddEditTextToDialogView(View dialogView, EditText editText) {
+        ViewParent oldParent = mAutoComplete.getParent();
+        if (oldParent != null) {
+            ((ViewGroup) oldParent).removeView(mAutoComplete);
+        }
+        super.onAddEditTextToDialogView(dialogView, mAutoComplete);
+    }
+
+    @Override
+    protected void onDialogClosed(boolean positiveResult) {
+        if (positiveResult) {
+            String value = mAutoComplete.getText().toString().trim();
+            if (callChangeListener(value)) {
+                setText(value);
+            }
+        }
+    }
+
+    /*
+        The suggestions for the text typed so far.  The filter runs on a worker thread, which
+        also loads the index the first time.
+     */
+    private static final class CityAdapter extends BaseAdapter implements Filterable {
+        private final Context mContext;
+        private final LayoutInflater mInflater;
+        private List<CityIndex.City> mCities = Collections.emptyList();
+
+        CityAdapter(Context context) {
+            mContext = context.getApplicationContext();
+            mInflater = LayoutInflater.from(context);
+        }
+
+        @Override
+        public int getCount() {
+            return mCities.size();
+        }
+
+        @Override
+        public CityIndex.City getItem(int position) {
+            return mCities.get(position);
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return mCities.get(position).id;
+        }
+
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            TextView view = (TextView) (convertView != null ? convertView : mInflater.inflate(
+                    android.R.layout.simple_dropdown_item_1line, parent, false));
+            view.setText(getItem(position).toString());
+            return view;
+        }
+
+        @Override
+        public Filter getFilter() {
+            return new Filter() {
+                @Override
+                protected FilterResults performFiltering(CharSequence constraint) {
+                    FilterResults results = new FilterResults();
+                    if (constraint != null) {
+                        List<CityIndex.City> cities = CityIndex.getInstance(mContext)
+                                .search(constraint.toString(), SUGGESTIONS);
+                        results.values = cities;
+                        results.count = cities.size();
+                    }
+                    return results;
+                }
+
+                @Override
+                @SuppressWarnings("unchecked")
+                protected void publishResults(CharSequence constraint, FilterResults results) {
+                    if (results.values != null) {
+                        mCities = (List<CityIndex.City>) results.values;
+                    } else {
+                        mCities = Collections.emptyList();
+                    }
+                    if (results.count > 0) {
+                        notifyDataSetChanged();
+                    } else {
+                        notifyDataSetInvalidated();
+                    }
+                }
+
+                @Override
+                public CharSequence convertResultToString(Object resultValue) {
+                    return ((CityIndex.City) resultValue).toLocationSetting();
+                }
+            };
+        }
+    }
+}
@@ -33,13 +33,23 @@ public class MainActivity extends ActionBarActivity implements ForecastFragment.
     private static final String DETAILFRAGMENT_TAG = "DFTAG";
 
     private boolean mTwoPane;
-    private String mLocation;
+
+    // Moves both panes to a new location as soon as it is set, rather than on the next resume.
+    private final Settings.OnChangeListener mLocationListener = new Settings.OnChangeListener() {
+        @Override
+        public void onSettingsChanged(Settings.Snapshot oldSettings,
+                                      Settings.Snapshot newSettings) {
+            if (newSettings.locationChanged(oldSettings)) {
+                onLocationChanged(newSettings.location);
+            }
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         Fabric.with(this, new Crashlytics(), new CrashlyticsNdk());
-        mLocation = Utility.getPreferredLocation(this);
+        Settings.addOnChangeListener(this, mLocationListener);
 
         setContentView(R.layout.activity_main);
         if (findViewById(R.id.weather_detail_container) != null) {
@@ -82,21 +92,21 @@ public class MainActivity extends ActionBarActivity implements ForecastFragment.
     }
 
     @Override
-    protected void onResume() {
-        super.onResume();
-        String location = Utility.getPreferredLocation( this );
+    protected void onDestroy() {
+        Settings.removeOnChangeListener(mLocationListener);
+        super.onDestroy();
+    }
+
+    private void onLocationChanged(String location) {
         // update the location in our second pane using the fragment manager
-        if (location != null && !location.equals(mLocation)) {
-            ForecastFragment ff = (ForecastFragment)getSupportFragmentManager()
-                    .findFragmentById(R.id.fragment_forecast);
-            if ( null != ff ) {
-                ff.onLocationChanged();
-            }
-            DetailFragment df = getDetailFragment();
-            if (null != df) {
-                df.onLocationChanged(location);
-            }
-            mLocation = location;
+        ForecastFragment ff = (ForecastFragment)getSupportFragmentManager()
+                .findFragmentById(R.id.fragment_forecast);
+        if ( null != ff ) {
+            ff.onLocationChanged();
+        }
+        DetailFragment df = getDetailFragment();
+        if (null != df) {
+            df.onLocationChanged(location);
         }
     }
 
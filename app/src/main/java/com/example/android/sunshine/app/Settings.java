@@ -0,0 +1,148 @@
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The user's settings as one immutable {@link Snapshot}, so the list, the detail view and the
+ * sync read them with a single volatile load instead of a preference lookup each.
+ * <p>
+ * The snapshot is read from the default SharedPreferences the first time it's needed, and
+ * replaced whenever one of its keys changes.  Whoever has to react to a change, rather than
+ * just read the latest value, registers an {@link OnChangeListener}.
+ */
+public final class Settings {
+
+    public interface OnChangeListener {
+        /**
+         * Called on the main thread once the new settings have been published, with the
+         * settings before and after the change.
+         */
+        void onSettingsChanged(Snapshot oldSettings, Snapshot newSettings);
+    }
+
+    public static final class Snapshot {
+        public final String location;
+        public final boolean isMetric;
+        public final boolean notificationsEnabled;
+        public final boolean syncAllLocations;
+
+        Snapshot(String location, boolean isMetric, boolean notificationsEnabled,
+                 boolean syncAllLocations) {
+            this.location = location;
+            this.isMetric = isMetric;
+            this.notificationsEnabled = notificationsEnabled;
+            this.syncAllLocations = syncAllLocations;
+        }
+
+        public boolean locationChanged(Snapshot other) {
+            return !location.equals(other.location);
+        }
+
+        public boolean unitsChanged(Snapshot other) {
+            return isMetric != other.isMetric;
+        }
+
+        boolean sameAs(Snapshot other) {
+            return !locationChanged(other) && !unitsChanged(other)
+                    && notificationsEnabled == other.notificationsEnabled
+                    && syncAllLocations == other.syncAllLocations;
+        }
+    }
+
+    private static volatile Snapshot sSnapshot;
+
+    // Resolved once with the snapshot, rather than on every read.
+    private static String sLocationKey;
+    private static String sLocationDefault;
+    private static String sUnitsKey;
+    private static String sUnitsMetric;
+    private static String sNotificationsKey;
+    private static String sSyncAllLocationsKey;
+
+    private static final CopyOnWriteArrayList<OnChangeListener> sListeners =
+            new CopyOnWriteArrayList<>();
+
+    // SharedPreferences only keeps weak references to its listeners.
+    private static final SharedPreferences.OnSharedPreferenceChangeListener sPreferenceListener =
+            new SharedPreferences.OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+                    if (isSettingKey(key)) {
+                        publish(read(prefs));
+                    }
+                }
+            };
+
+    private Settings() {
+    }
+
+    public static Snapshot get(Context context) {
+        Snapshot snapshot = sSnapshot;
+        if (snapshot != null) {
+            return snapshot;
+        }
+        return load(context);
+    }
+
+    /**
+     * Adds a listener for the changes published from now on; adding it again does nothing.
+     */
+    public static void addOnChangeListener(Context context, OnChangeListener listener) {
+        // The preferences have to be watched for the listener to hear about anything.
+        get(context);
+        sListeners.addIfAbsent(listener);
+    }
+
+    public static void removeOnChangeListener(OnChangeListener listener) {
+        sListeners.remove(listener);
+    }
+
+    private static synchronized Snapshot load(Context context) {
+        if (sSnapshot == null) {
+            Context appContext = context.getApplicationContext();
+            sLocationKey = appContext.getString(R.string.pref_location_key);
+            sLocationDefault = appContext.getString(R.string.pref_location_default);
+            sUnitsKey = appContext.getString(R.string.pref_units_key);
+            sUnitsMetric = appContext.getString(R.string.pref_units_metric);
+            sNotificationsKey = appContext.getString(R.string.pref_enable_notifications_key);
+            sSyncAllLocationsKey = appContext.getString(R.string.pref_sync_all_locations_key);
+
+            SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(appContext);
+            // Registered before the first read, so no change can fall in between.
+            prefs.registerOnSharedPreferenceChangeListener(sPreferenceListener);
+            sSnapshot = read(prefs);
+        }
+        return sSnapshot;
+    }
+
+    private static boolean isSettingKey(String key) {
+        return sLocationKey.equals(key) || sUnitsKey.equals(key)
+                || sNotificationsKey.equals(key) || sSyncAllLocationsKey.equals(key);
+    }
+
+    private static Snapshot read(SharedPreferences prefs) {
+        return new Snapshot(
+                prefs.getString(sLocationKey, sLocationDefault),
+                sUnitsMetric.equals(prefs.getString(sUnitsKey, sUnitsMetric)),
+                prefs.getBoolean(sNotificationsKey, true),
+                prefs.getBoolean(sSyncAllLocationsKey, false));
+    }
+
+    private static void publish(Snapshot newSettings) {
+        Snapshot oldSettings;
+        synchronized (Settings.class) {
+            oldSettings = sSnapshot;
+            if (oldSettings.sameAs(newSettings)) {
+                return;
+            }
+            sSnapshot = newSettings;
+        }
+        for (OnChangeListener listener : sListeners) {
+            listener.onSettingsChanged(oldSettings, newSettings);
+        }
+    }
+}
@@ -11,8 +11,6 @@ import android.preference.Preference;
 import android.preference.PreferenceActivity;
 import android.preference.PreferenceManager;
 
-import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
-
 /**
  * A {@link PreferenceActivity} that presents a set of application settings.
  * <p>
@@ -72,7 +70,6 @@ public class SettingsActivity extends PreferenceActivity
         } else if(preference instanceof EditTextPreference) {
             preference.setSummary(stringValue);
         }
-        SunshineSyncAdapter.syncImmediately(this);
         return true;
     }
 
@@ -1,7 +1,6 @@
 package com.example.android.sunshine.app;
 
-import com.example.android.sunshine.app.model.SunshineDay;
-
+import okhttp3.ResponseBody;
 import retrofit2.Call;
 import retrofit2.http.GET;
 import retrofit2.http.Path;
@@ -11,6 +10,11 @@ import retrofit2.http.Query;
  * Created by alberto on 10/3/16.
  */
 public interface SunshineEndpointInterface {
+    // The raw body is returned so callers can tell a 304 revalidation apart and skip parsing it
+    @GET("data/{version}/forecast/daily")
+    Call<ResponseBody> getDays(@Path("version") double versionCode, @Query("q") String query);
+
+    // The same forecast for a city the API resolved a query to before, which skips geocoding
     @GET("data/{version}/forecast/daily")
-    Call<SunshineDay> getDays(@Path("version") double versionCode, @Query("q") String query);
+    Call<ResponseBody> getDaysById(@Path("version") double versionCode, @Query("id") long cityId);
 }
@@ -16,57 +16,46 @@
 package com.example.android.sunshine.app;
 
 import android.content.Context;
-import android.content.SharedPreferences;
-import android.preference.PreferenceManager;
-import android.text.format.Time;
 
-import java.text.DateFormat;
+import com.example.android.sunshine.app.data.JulianDay;
+
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.TimeZone;
 
 public class Utility {
     public static String getPreferredLocation(Context context) {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        return prefs.getString(context.getString(R.string.pref_location_key),
-                context.getString(R.string.pref_location_default));
+        return Settings.get(context).location;
     }
 
-    private static boolean isMetric(Context context) {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        return prefs.getString(context.getString(R.string.pref_units_key),
-                context.getString(R.string.pref_units_metric))
-                .equals(context.getString(R.string.pref_units_metric));
+    static boolean isMetric(Context context) {
+        return Settings.get(context).isMetric;
     }
 
     public static boolean isAllowingNotifications(Context context) {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        return prefs.getBoolean(context.getString(R.string.pref_enable_notifications_key), true);
+        return Settings.get(context).notificationsEnabled;
     }
 
-    // Format used for storing dates in the database.  ALso used for converting those strings
-    // back into date objects for comparison/processing.
-    public static final String DATE_FORMAT = "yyyyMMdd";
+    public static boolean isSyncingAllLocations(Context context) {
+        return Settings.get(context).syncAllLocations;
+    }
 
     /**
      * Helper method to convert the database representation of the date into something to display
-     * to users.  As classy and polished a user experience as "20140102" is, we can do better.
+     * to users.  As classy and polished a user experience as "2456833" is, we can do better.
      *
-     * @param context      Context to use for resource localization
-     * @param dateInMillis The date in milliseconds
+     * @param context   Context to use for resource localization
+     * @param julianDay The date as a Julian day number
      * @return a user-friendly representation of the date.
      */
-    public static String getFriendlyDayString(Context context, long dateInMillis) {
+    public static String getFriendlyDayString(Context context, int julianDay) {
         // The day string for forecast uses the following logic:
         // For today: "Today, June 8"
         // For tomorrow:  "Tomorrow"
         // For the next 5 days: "Wednesday" (just the day name)
         // For all days after that: "Mon Jun 8"
 
-        Time time = new Time();
-        time.setToNow();
-        long currentTime = System.currentTimeMillis();
-        int julianDay = Time.getJulianDay(dateInMillis, time.gmtoff);
-        int currentJulianDay = Time.getJulianDay(currentTime, time.gmtoff);
+        int currentJulianDay = JulianDay.today();
 
         // If the date we're building the String for is today's date, the format
         // is "Today, June 24"
@@ -76,14 +65,13 @@ public class Utility {
             return String.format(context.getString(
                     formatId,
                     today,
-                    getFormattedMonthDay(dateInMillis)));
+                    getFormattedMonthDay(julianDay)));
         } else if (julianDay < currentJulianDay + 7) {
             // If the input date is less than a week in the future, just return the day name.
-            return getDayName(context, dateInMillis);
+            return getDayName(context, julianDay);
         } else {
             // Otherwise, use the form "Mon Jun 3"
-            SimpleDateFormat shortenedDateFormat = new SimpleDateFormat("EEE MMM dd");
-            return shortenedDateFormat.format(dateInMillis);
+            return formatDay("EEE MMM dd", julianDay);
         }
     }
 
@@ -91,88 +79,59 @@ public class Utility {
      * Given a day, returns just the name to use for that day.
      * E.g "today", "tomorrow", "wednesday".
      *
-     * @param context      Context to use for resource localization
-     * @param dateInMillis The date in milliseconds
+     * @param context   Context to use for resource localization
+     * @param julianDay The date as a Julian day number
      * @return
      */
-    public static String getDayName(Context context, long dateInMillis) {
+    public static String getDayName(Context context, int julianDay) {
         // If the date is today, return the localized version of "Today" instead of the actual
         // day name.
 
-        Time t = new Time();
-        t.setToNow();
-        int julianDay = Time.getJulianDay(dateInMillis, t.gmtoff);
-        int currentJulianDay = Time.getJulianDay(System.currentTimeMillis(), t.gmtoff);
+        int currentJulianDay = JulianDay.today();
         if (julianDay == currentJulianDay) {
             return context.getString(R.string.today);
         } else if (julianDay == currentJulianDay + 1) {
             return context.getString(R.string.tomorrow);
         } else {
-            Time time = new Time();
-            time.setToNow();
             // Otherwise, the format is just the day of the week (e.g "Wednesday".
-            SimpleDateFormat dayFormat = new SimpleDateFormat("EEEE");
-            return dayFormat.format(dateInMillis);
+            return formatDay("EEEE", julianDay);
         }
     }
 
     /**
-     * Converts db date format to the format "Month day", e.g "June 24".
+     * Converts a Julian day number to the format "Month day", e.g "June 24".
      *
-     * @param dateInMillis The db formatted date string, expected to be of the form specified
-     *                     in Utility.DATE_FORMAT
+     * @param julianDay The date as a Julian day number
      * @return The day in the form of a string formatted "December 6"
      */
-    public static String getFormattedMonthDay(long dateInMillis) {
-        Time time = new Time();
-        time.setToNow();
-        SimpleDateFormat monthDayFormat = new SimpleDateFormat("MMMM dd");
-        String monthDayString = monthDayFormat.format(dateInMillis);
-        return monthDayString;
+    public static String getFormattedMonthDay(int julianDay) {
+        return formatDay("MMMM dd", julianDay);
+    }
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    // A day number has no time zone of its own: formatting the start of the day at UTC in UTC
+    // gives its date wherever the device is.
+    private static String formatDay(String pattern, int julianDay) {
+        SimpleDateFormat format = new SimpleDateFormat(pattern);
+        format.setTimeZone(UTC);
+        return format.format(new Date(JulianDay.toUtcMillis(julianDay)));
     }
 
     public static String formatTemperature(Context context, double temperature) {
-        double temp;
-        boolean isMetric = Utility.isMetric(context);
-        if (!isMetric) {
-            temp = 9 * temperature / 5 + 32;
-        } else {
-            temp = temperature;
-        }
-        return context.getString(R.string.format_temperature, temp);
+        return formatTemperature(context, temperature, Utility.isMetric(context));
     }
 
-    public static String getFormattedWind(Context context, float windSpeed, float degrees) {
-        int windFormat;
-        if (Utility.isMetric(context)) {
-            windFormat = R.string.format_wind_kmh;
-        } else {
-            windFormat = R.string.format_wind_mph;
-            windSpeed = .621371192237334f * windSpeed;
-        }
+    /**
+     * Formats a temperature in the given units, for callers that read the setting once for
+     * many temperatures.
+     */
+    public static String formatTemperature(Context context, double temperature, boolean isMetric) {
+        return WeatherFormatter.get(context).formatTemperature(temperature, isMetric);
+    }
 
-        // From wind direction in degrees, determine compass direction as a string (e.g NW)
-        // You know what's fun, writing really long if/else statements with tons of possible
-        // conditions.  Seriously, try it!
-        String direction = "Unknown";
-        if (degrees >= 337.5 || degrees < 22.5) {
-            direction = "N";
-        } else if (degrees >= 22.5 && degrees < 67.5) {
-            direction = "NE";
-        } else if (degrees >= 67.5 && degrees < 112.5) {
-            direction = "E";
-        } else if (degrees >= 112.5 && degrees < 157.5) {
-            direction = "SE";
-        } else if (degrees >= 157.5 && degrees < 202.5) {
-            direction = "S";
-        } else if (degrees >= 202.5 && degrees < 247.5) {
-            direction = "SW";
-        } else if (degrees >= 247.5 && degrees < 292.5) {
-            direction = "W";
-        } else if (degrees >= 292.5 && degrees < 337.5) {
-            direction = "NW";
-        }
-        return String.format(context.getString(windFormat), windSpeed, direction);
+    public static String getFormattedWind(Context context, float windSpeed, float degrees) {
+        return WeatherFormatter.get(context).formatWind(windSpeed, degrees, isMetric(context));
     }
 
     /**
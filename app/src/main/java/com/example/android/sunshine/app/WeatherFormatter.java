@@ -0,0 +1,235 @@
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.res.Resources;
+
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
+/**
+ * Formats temperatures, wind, humidity and pressure the way their string resources do, without
+ * going through {@link String#format}: the patterns are parsed once per locale, and the
+ * {@code append} methods write into the caller's StringBuilder without allocating.
+ * <p>
+ * Only the conversions our patterns use are understood: {@code %1.0f} for the number,
+ * {@code %s} for the text, and {@code %%}.  Numbers are rounded half up like the Formatter does.
+ */
+final class WeatherFormatter {
+
+    // The compass point of each 45 degree sector, starting with the one centered on north.
+    private static final String[] COMPASS_POINTS = {"N", "NE", "E", "SE", "S", "SW", "W", "NW"};
+    private static final String UNKNOWN_DIRECTION = "Unknown";
+
+    private static final float KMH_TO_MPH = .621371192237334f;
+
+    // Beyond this a double can't be rounded through a long, so it falls back to the Formatter.
+    private static final double MAX_FAST_NUMBER = 1e15;
+
+    private static volatile WeatherFormatter sInstance;
+
+    private static final ThreadLocal<StringBuilder> sScratch = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(32);
+        }
+    };
+
+    private final Locale mLocale;
+    private final char mZeroDigit;
+    private final Template mTemperature;
+    private final Template mWindKmh;
+    private final Template mWindMph;
+    private final Template mHumidity;
+    private final Template mPressure;
+
+    private WeatherFormatter(Resources resources, Locale locale) {
+        mLocale = locale;
+        mZeroDigit = DecimalFormatSymbols.getInstance(locale).getZeroDigit();
+        mTemperature = new Template(resources.getString(R.string.format_temperature));
+        mWindKmh = new Template(resources.getString(R.string.format_wind_kmh));
+        mWindMph = new Template(resources.getString(R.string.format_wind_mph));
+        mHumidity = new Template(resources.getString(R.string.format_humidity));
+        mPressure = new Template(resources.getString(R.string.format_pressure));
+    }
+
+    /**
+     * @return the formatter of the current locale, parsing its patterns if the locale changed.
+     */
+    static WeatherFormatter get(Context context) {
+        // String.format, and so Context.getString, formats in the default locale.
+        Locale locale = Locale.getDefault();
+        WeatherFormatter formatter = sInstance;
+        if (formatter == null || !formatter.mLocale.equals(locale)) {
+            formatter = new WeatherFormatter(context.getResources(), locale);
+            sInstance = formatter;
+        }
+        return formatter;
+    }
+
+    StringBuilder appendTemperature(StringBuilder out, double temperature, boolean isMetric) {
+        double temp = isMetric ? temperature : 9 * temperature / 5 + 32;
+        return mTemperature.append(this, out, temp, null);
+    }
+
+    StringBuilder appendWind(StringBuilder out, float windSpeed, float degrees, boolean isMetric) {
+        if (isMetric) {
+            return mWindKmh.append(this, out, windSpeed, getCompassPoint(degrees));
+        }
+        return mWindMph.append(this, out, KMH_TO_MPH * windSpeed, getCompassPoint(degrees));
+    }
+
+    StringBuilder appendHumidity(StringBuilder out, float humidity) {
+        return mHumidity.append(this, out, humidity, null);
+    }
+
+    StringBuilder appendPressure(StringBuilder out, float pressure) {
+        return mPressure.append(this, out, pressure, null);
+    }
+
+    String formatTemperature(double temperature, boolean isMetric) {
+        return appendTemperature(scratch(), temperature, isMetric).toString();
+    }
+
+    String formatWind(float windSpeed, float degrees, boolean isMetric) {
+        return appendWind(scratch(), windSpeed, degrees, isMetric).toString();
+    }
+
+    String formatHumidity(float humidity) {
+        return appendHumidity(scratch(), humidity).toString();
+    }
+
+    String formatPressure(float pressure) {
+        return appendPressure(scratch(), pressure).toString();
+    }
+
+    private static StringBuilder scratch() {
+        StringBuilder scratch = sScratch.get();
+        scratch.setLength(0);
+        return scratch;
+    }
+
+    /**
+     * @return the compass point the wind blows from, e.g "NW".
+     */
+    static String getCompassPoint(float degrees) {
+        if (Float.isNaN(degrees)) {
+            return UNKNOWN_DIRECTION;
+        }
+        // Anything outside [22.5, 337.5), even outside a turn, has always read as north.
+        if (degrees < 22.5 || degrees >= 337.5) {
+            return COMPASS_POINTS[0];
+        }
+        return COMPASS_POINTS[(int) ((degrees + 22.5) / 45)];
+    }
+
+    // Same as "%1.0f": the sign, including that of a negative zero, then the rounded digits.
+    private void appendNumber(StringBuilder out, double value) {
+        double magnitude = Math.abs(value);
+        if (!(magnitude < MAX_FAST_NUMBER)) {
+            out.append(String.format(mLocale, "%1.0f", value));
+            return;
+        }
+        if (Double.doubleToRawLongBits(value) < 0) {
+            out.append('-');
+        }
+        long rounded = (long) magnitude;
+        if (magnitude - rounded >= 0.5) {
+            rounded++;
+        }
+        int start = out.length();
+        do {
+            out.append((char) (mZeroDigit + (int) (rounded % 10)));
+            rounded /= 10;
+        } while (rounded != 0);
+        // The digits went in least significant first.
+        for (int i = start, j = out.length() - 1; i < j; i++, j--) {
+            char digit = out.charAt(i);
+            out.setCharAt(i, out.charAt(j));
+            out.setCharAt(j, digit);
+        }
+    }
+
+    /**
+     * A pattern split into its literal text and the arguments between it: the number is
+     * argument 1 and the text argument 2.
+     */
+    private static final class Template {
+        private static final int NUMBER = 1;
+        private static final int TEXT = 2;
+
+        // One more literal than arguments; literal i comes before argument i.
+        private final String[] mLiterals;
+        private final int[] mArguments;
+
+        Template(String pattern) {
+            int arguments = 0;
+            for (int i = 0; i < pattern.length(); i++) {
+                if (pattern.charAt(i) == '%') {
+                    i++;
+                    if (i < pattern.length() && pattern.charAt(i) != '%') {
+                        arguments++;
+                    }
+                }
+            }
+            mLiterals = new String[arguments + 1];
+            mArguments = new int[arguments];
+
+            StringBuilder literal = new StringBuilder();
+            int argument = 0;
+            int nextIndex = 1;
+            int i = 0;
+            while (i < pattern.length()) {
+                char c = pattern.charAt(i++);
+                if (c != '%') {
+                    literal.append(c);
+                    continue;
+                }
+                if (i < pattern.length() && pattern.charAt(i) == '%') {
+                    literal.append('%');
+                    i++;
+                    continue;
+                }
+                int end = i;
+                while (end < pattern.length() && !Character.isLetter(pattern.charAt(end))) {
+                    end++;
+                }
+                if (end == pattern.length()) {
+                    throw new IllegalArgumentException("Unterminated conversion in " + pattern);
+                }
+                String spec = pattern.substring(i, end);
+                int index = nextIndex++;
+                int dollar = spec.indexOf('$');
+                if (dollar >= 0) {
+                    index = Integer.parseInt(spec.substring(0, dollar));
+                    spec = spec.substring(dollar + 1);
+                }
+                char conversion = pattern.charAt(end);
+                i = end + 1;
+
+                boolean isNumber = conversion == 'f' && (spec.equals("1.0") || spec.equals(".0"));
+                boolean isText = conversion == 's' && spec.isEmpty();
+                if (!(isNumber && index == NUMBER) && !(isText && index == TEXT)) {
+                    throw new IllegalArgumentException(
+                            "Unsupported conversion %" + spec + conversion + " in " + pattern);
+                }
+                mLiterals[argument] = literal.toString();
+                mArguments[argument++] = index;
+                literal.setLength(0);
+            }
+            mLiterals[argument] = literal.toString();
+        }
+
+        StringBuilder append(WeatherFormatter formatter, StringBuilder out, double number,
+                             String text) {
+            for (int i = 0; i < mArguments.length; i++) {
+                out.append(mLiterals[i]);
+                if (mArguments[i] == NUMBER) {
+                    formatter.appendNumber(out, number);
+                } else {
+                    out.append(text);
+                }
+            }
+            return out.append(mLiterals[mArguments.length]);
+        }
+    }
+}
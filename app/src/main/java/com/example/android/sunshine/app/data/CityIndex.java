@@ -0,0 +1,540 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.Context;
+import android.content.res.AssetManager;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.Log;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * An in-memory index of the cities in OpenWeatherMap's city list, for suggesting locations as
+ * the user types them instead of sending a typo to the API.
+ * <p>
+ * Names are folded to search keys (lower case, without accents, punctuation collapsed to single
+ * spaces), sorted, and packed as UTF-8 into one byte array with an array of offsets, so the
+ * 200k cities of the full list take a few megabytes and no object each.  A prefix is a range
+ * of the sorted keys that two binary searches find.  When a query has fewer prefix matches
+ * than were asked for, the prefixes one edit away from it (a deleted, swapped, replaced or
+ * inserted character) are searched the same way, which catches most typos in a few hundred
+ * binary searches.
+ * <p>
+ * A query may end in a country code after a comma, as OpenWeatherMap's q= parameter takes it:
+ * "paris, us" only suggests the cities in the US.
+ */
+public final class CityIndex {
+
+    public static final String LOG_TAG = CityIndex.class.getSimpleName();
+
+    // OpenWeatherMap's city.list.json, as a JSON array or as one JSON object per line, in
+    // app/src/main/assets, either as it is or gzipped with a .gz suffix.
+    public static final String ASSET_NAME = "city.list.json";
+
+    // Typos are only looked for once the query is long enough not to match half the list.
+    static final int MIN_FUZZY_LENGTH = 3;
+    // How many cities of a prefix one edit away are considered, in key order.
+    static final int MAX_FUZZY_SCAN = 50;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // The characters tried as replacements and insertions, which covers the typos of most
+    // city names in Latin script.
+    private static final byte[] sEditAlphabet = "abcdefghijklmnopqrstuvwxyz ".getBytes(UTF_8);
+
+    // Ranks: lower is better
+    private static final int RANK_EXACT = 0;
+    private static final int RANK_PREFIX = 1;
+    private static final int RANK_FUZZY = 2;
+
+    private static CityIndex sInstance;
+
+    // The search keys in sorted order, and where each starts; mKeyOffsets[size] is the end.
+    private final byte[] mKeys;
+    private final int[] mKeyOffsets;
+    // The names as OpenWeatherMap spells them, in the same order.
+    private final byte[] mNames;
+    private final int[] mNameOffsets;
+    // Two letters per city.
+    private final char[] mCountries;
+    private final int[] mIds;
+
+    /**
+     * A suggested city.
+     */
+    public static final class City {
+        public final int id;
+        public final String name;
+        public final String country;
+
+        City(int id, String name, String country) {
+            this.id = id;
+            this.name = name;
+            this.country = country;
+        }
+
+        /**
+         * @return the city as a location setting, in the "name,country" form of q=.
+         */
+        public String toLocationSetting() {
+            return country.isEmpty() ? name : name + "," + country;
+        }
+
+        @Override
+        public String toString() {
+            return country.isEmpty() ? name : name + ", " + country;
+        }
+    }
+
+    /**
+     * Returns the index of the bundled city list, loading it the first time.  Loading takes a
+     * while, so this isn't for the main thread.  Without a bundled list, the index is empty,
+     * and the next call looks for the list again.
+     */
+    public static synchronized CityIndex getInstance(Context context) {
+        if (sInstance == null) {
+            InputStream in;
+            try {
+                in = openAsset(context.getApplicationContext().getAssets());
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "No city list to suggest locations from", e);
+                return new CityIndex(new ArrayList<Entry>());
+            }
+            try {
+                sInstance = load(in);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error reading the city list", e);
+                return new CityIndex(new ArrayList<Entry>());
+            } finally {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Already read, or already failed.
+                }
+            }
+        }
+        return sInstance;
+    }
+
+    // The list gzipped (about a tenth of the size in the APK) if it's there, or as it is.
+    private static InputStream openAsset(AssetManager assets) throws IOException {
+        try {
+            return new GZIPInputStream(assets.open(ASSET_NAME + ".gz"));
+        } catch (FileNotFoundException e) {
+            return assets.open(ASSET_NAME);
+        }
+    }
+
+    /**
+     * Reads a city list in either of OpenWeatherMap's formats.  Only the id, name and country
+     * of each city are kept.
+     */
+    public static CityIndex load(InputStream in) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, UTF_8));
+        reader.setLenient(true);
+        List<Entry> entries = new ArrayList<>();
+        JsonToken token = reader.peek();
+        boolean array = token == JsonToken.BEGIN_ARRAY;
+        if (array) {
+            reader.beginArray();
+        }
+        while (reader.hasNext() && reader.peek() != JsonToken.END_DOCUMENT) {
+            Entry entry = readCity(reader);
+            if (entry != null) {
+                entries.add(entry);
+            }
+        }
+        if (array) {
+            reader.endArray();
+        }
+        return new CityIndex(entries);
+    }
+
+    private static Entry readCity(JsonReader reader) throws IOException {
+        int id = 0;
+        String name = null;
+        String country = "";
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String field = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+            } else if (field.equals("_id") || field.equals("id")) {
+                id = reader.nextInt();
+            } else if (field.equals("name")) {
+                name = reader.nextString();
+            } else if (field.equals("country")) {
+                country = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (name == null) {
+            return null;
+        }
+        String key = normalize(name);
+        if (key.isEmpty()) {
+            return null;
+        }
+        return new Entry(id, key.getBytes(UTF_8), name, country.toUpperCase(Locale.US));
+    }
+
+    // A city while the index is built.
+    private static final class Entry {
+        final int id;
+        final byte[] key;
+        final String name;
+        final String country;
+
+        Entry(int id, byte[] key, String name, String country) {
+            this.id = id;
+            this.key = key;
+            this.name = name;
+            this.country = country;
+        }
+    }
+
+    private CityIndex(List<Entry> entries) {
+        Collections.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry a, Entry b) {
+                return compareBytes(a.key, 0, a.key.length, b.key, b.key.length);
+            }
+        });
+
+        int size = entries.size();
+        int keyBytes = 0;
+        byte[][] names = new byte[size][];
+        int nameBytes = 0;
+        for (int i = 0; i < size; i++) {
+            keyBytes += entries.get(i).key.length;
+            names[i] = entries.get(i).name.getBytes(UTF_8);
+            nameBytes += names[i].length;
+        }
+
+        mKeys = new byte[keyBytes];
+        mKeyOffsets = new int[size + 1];
+        mNames = new byte[nameBytes];
+        mNameOffsets = new int[size + 1];
+        mCountries = new char[size * 2];
+        mIds = new int[size];
+        for (int i = 0; i < size; i++) {
+            Entry entry = entries.get(i);
+            System.arraycopy(entry.key, 0, mKeys, mKeyOffsets[i], entry.key.length);
+            mKeyOffsets[i + 1] = mKeyOffsets[i] + entry.key.length;
+            System.arraycopy(names[i], 0, mNames, mNameOffsets[i], names[i].length);
+            mNameOffsets[i + 1] = mNameOffsets[i] + names[i].length;
+            String country = entry.country;
+            mCountries[i * 2] = country.length() > 0 ? country.charAt(0) : ' ';
+            mCountries[i * 2 + 1] = country.length() > 1 ? country.charAt(1) : ' ';
+            mIds[i] = entry.id;
+        }
+    }
+
+    /**
+     * @return the number of cities in the index.
+     */
+    public int size() {
+        return mIds.length;
+    }
+
+    /**
+     * @return the bytes the index's arrays take, for the memory benchmark.
+     */
+    public long sizeInBytes() {
+        return mKeys.length + mNames.length + 4L * (mKeyOffsets.length + mNameOffsets.length)
+                + 2L * mCountries.length + 4L * mIds.length;
+    }
+
+    /**
+     * Suggests up to {@code limit} cities for what the user typed: the cities named exactly
+     * that, then the names that start with it, shortest first, then the names that start with
+     * something one edit away from it.  Cities with the same name in the same country are
+     * suggested once.
+     */
+    public List<City> search(String query, int limit) {
+        String countryFilter = "";
+        int comma = query.lastIndexOf(',');
+        if (comma != -1) {
+            countryFilter = query.substring(comma + 1).trim().toUpperCase(Locale.US);
+            query = query.substring(0, comma);
+        }
+        byte[] prefix = normalizeQuery(query).getBytes(UTF_8);
+        if (prefix.length == 0 || limit <= 0) {
+            return Collections.emptyList();
+        }
+
+        Candidates candidates = new Candidates(limit, countryFilter);
+        int[] range = new int[2];
+        findRange(prefix, prefix.length, range);
+        for (int i = range[0]; i < range[1]; i++) {
+            int keyLength = mKeyOffsets[i + 1] - mKeyOffsets[i];
+            candidates.offer(i, keyLength == prefix.length ? RANK_EXACT : RANK_PREFIX, keyLength);
+        }
+
+        if (!candidates.isFull() && prefix.length >= MIN_FUZZY_LENGTH) {
+            searchOneEditAway(prefix, candidates, range);
+        }
+        return candidates.toCities();
+    }
+
+    /*
+        Offers the cities whose keys start with a prefix one deletion, transposition,
+        replacement or insertion away from the query's.  The variants are written into one
+        scratch buffer.
+     */
+    private void searchOneEditAway(byte[] prefix, Candidates candidates, int[] range) {
+        int length = prefix.length;
+        byte[] variant = new byte[length + 1];
+
+        for (int i = 0; i < length; i++) {
+            // Deletion of character i
+            System.arraycopy(prefix, 0, variant, 0, i);
+            System.arraycopy(prefix, i + 1, variant, i, length - i - 1);
+            offerFuzzy(variant, length - 1, candidates, range);
+
+            // Transposition of characters i and i + 1
+            if (i + 1 < length && prefix[i] != prefix[i + 1]) {
+                System.arraycopy(prefix, 0, variant, 0, length);
+                variant[i] = prefix[i + 1];
+                variant[i + 1] = prefix[i];
+                offerFuzzy(variant, length, candidates, range);
+            }
+
+            // Replacement of character i
+            System.arraycopy(prefix, 0, variant, 0, length);
+            for (byte c : sEditAlphabet) {
+                if (c != prefix[i]) {
+                    variant[i] = c;
+                    offerFuzzy(variant, length, candidates, range);
+                }
+            }
+        }
+
+        // Insertion before character i, or at the end
+        for (int i = 0; i <= length; i++) {
+            System.arraycopy(prefix, 0, variant, 0, i);
+            System.arraycopy(prefix, i, variant, i + 1, length - i);
+            for (byte c : sEditAlphabet) {
+                variant[i] = c;
+                offerFuzzy(variant, length + 1, candidates, range);
+            }
+        }
+    }
+
+    private void offerFuzzy(byte[] variant, int length, Candidates candidates, int[] range) {
+        findRange(variant, length, range);
+        int end = Math.min(range[1], range[0] + MAX_FUZZY_SCAN);
+        for (int i = range[0]; i < end; i++) {
+            candidates.offer(i, RANK_FUZZY, mKeyOffsets[i + 1] - mKeyOffsets[i]);
+        }
+    }
+
+    // Sets range to the indexes [from, to) of the keys that start with prefix[0, length).
+    private void findRange(byte[] prefix, int length, int[] range) {
+        int low = 0;
+        int high = mIds.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (comparePrefix(middle, prefix, length) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        range[0] = low;
+        high = mIds.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (comparePrefix(middle, prefix, length) <= 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        range[1] = low;
+    }
+
+    // Negative, zero or positive as the key at index sorts before, starts with or sorts after
+    // prefix[0, length).
+    private int comparePrefix(int index, byte[] prefix, int length) {
+        int start = mKeyOffsets[index];
+        int keyLength = mKeyOffsets[index + 1] - start;
+        // A key shorter than the prefix that it starts with sorts before it.
+        return compareBytes(mKeys, start, Math.min(keyLength, length), prefix, length);
+    }
+
+    // Compares a[from, from + aLength) with b[0, bLength) as unsigned bytes, which orders UTF-8
+    // the way its code points are ordered.
+    private static int compareBytes(byte[] a, int from, int aLength, byte[] b, int bLength) {
+        int length = Math.min(aLength, bLength);
+        for (int i = 0; i < length; i++) {
+            int difference = (a[from + i] & 0xff) - (b[i] & 0xff);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return aLength - bLength;
+    }
+
+    private boolean sameCity(int a, int b) {
+        if (mCountries[a * 2] != mCountries[b * 2]
+                || mCountries[a * 2 + 1] != mCountries[b * 2 + 1]) {
+            return false;
+        }
+        int aStart = mKeyOffsets[a];
+        int bStart = mKeyOffsets[b];
+        int length = mKeyOffsets[a + 1] - aStart;
+        if (length != mKeyOffsets[b + 1] - bStart) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (mKeys[aStart + i] != mKeys[bStart + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+        The best cities offered so far, kept sorted by rank, then key length, then index, in
+        arrays of the size of the limit.
+     */
+    private final class Candidates {
+        private final int[] mIndexes;
+        private final long[] mScores;
+        private final String mCountryFilter;
+        private int mCount;
+
+        Candidates(int limit, String countryFilter) {
+            mIndexes = new int[limit];
+            mScores = new long[limit];
+            mCountryFilter = countryFilter;
+        }
+
+        boolean isFull() {
+            return mCount == mIndexes.length;
+        }
+
+        void offer(int index, int rank, int keyLength) {
+            long score = ((long) rank << 56) | ((long) keyLength << 32) | index;
+            if (isFull() && score >= mScores[mCount - 1]) {
+                return;
+            }
+            if (!matchesCountry(index)) {
+                return;
+            }
+            for (int i = 0; i < mCount; i++) {
+                if (sameCity(mIndexes[i], index)) {
+                    if (score >= mScores[i]) {
+                        return;
+                    }
+                    // The better-ranked duplicate replaces this one.
+                    System.arraycopy(mIndexes, i + 1, mIndexes, i, mCount - i - 1);
+                    System.arraycopy(mScores, i + 1, mScores, i, mCount - i - 1);
+                    mCount--;
+                    break;
+                }
+            }
+            int position = mCount < mIndexes.length ? mCount : mCount - 1;
+            while (position > 0 && mScores[position - 1] > score) {
+                position--;
+            }
+            int moved = Math.min(mCount, mIndexes.length - 1) - position;
+            System.arraycopy(mIndexes, position, mIndexes, position + 1, moved);
+            System.arraycopy(mScores, position, mScores, position + 1, moved);
+            mIndexes[position] = index;
+            mScores[position] = score;
+            if (mCount < mIndexes.length) {
+                mCount++;
+            }
+        }
+
+        private boolean matchesCountry(int index) {
+            switch (mCountryFilter.length()) {
+                case 0:
+                    return true;
+                case 1:
+                    return mCountries[index * 2] == mCountryFilter.charAt(0);
+                default:
+                    return mCountries[index * 2] == mCountryFilter.charAt(0)
+                            && mCountries[index * 2 + 1] == mCountryFilter.charAt(1);
+            }
+        }
+
+        List<City> toCities() {
+            List<City> cities = new ArrayList<>(mCount);
+            for (int i = 0; i < mCount; i++) {
+                int index = mIndexes[i];
+                String name = new String(mNames, mNameOffsets[index],
+                        mNameOffsets[index + 1] - mNameOffsets[index], UTF_8);
+                String country = new String(mCountries, index * 2, 2).trim();
+                cities.add(new City(mIds[index], name, country));
+            }
+            return cities;
+        }
+    }
+
+    /**
+     * Folds a name to its search key: lower case, accents stripped, and every run of other
+     * characters than letters and digits made a single space, without leading or trailing
+     * spaces.
+     */
+    static String normalize(CharSequence name) {
+        String key = normalizeQuery(name);
+        return key.endsWith(" ") ? key.substring(0, key.length() - 1) : key;
+    }
+
+    // As normalize, but keeps a trailing space, so "new " only matches whole words.
+    private static String normalizeQuery(CharSequence text) {
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        StringBuilder key = new StringBuilder(decomposed.length());
+        boolean separator = false;
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (Character.getType(c) == Character.NON_SPACING_MARK) {
+                continue;
+            }
+            if (Character.isLetterOrDigit(c)) {
+                if (separator && key.length() > 0) {
+                    key.append(' ');
+                }
+                separator = false;
+                key.append(Character.toLowerCase(c));
+            } else {
+                separator = true;
+            }
+        }
+        if (separator && key.length() > 0) {
+            key.append(' ');
+        }
+        return key.toString();
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.os.Bundle;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+
+/**
+ * A column-oriented batch of forecasts for {@link WeatherContract#METHOD_INGEST_FORECAST}.
+ * It holds the locations, and for each forecast day the index of its location plus one value
+ * in a primitive array per weather column.  The provider binds the arrays straight into its
+ * compiled statements, so no row is boxed into a ContentValues on the way.
+ * <p>
+ * Dates are Julian day numbers, as {@link JulianDay} computes them.
+ */
+public final class ForecastBatch {
+
+    private static final String KEY_LOCATION_SETTINGS = "locationSettings";
+    private static final String KEY_CITY_NAMES = "cityNames";
+    private static final String KEY_COORD_LATS = "coordLats";
+    private static final String KEY_COORD_LONGS = "coordLongs";
+    private static final String KEY_CITY_IDS = "cityIds";
+    private static final String KEY_DAY_LOCATIONS = "dayLocations";
+    private static final String KEY_DATES = "dates";
+    private static final String KEY_DESCRIPTIONS = "descriptions";
+    private static final String KEY_WEATHER_IDS = "weatherIds";
+    private static final String KEY_MIN_TEMPS = "minTemps";
+    private static final String KEY_MAX_TEMPS = "maxTemps";
+    private static final String KEY_HUMIDITIES = "humidities";
+    private static final String KEY_PRESSURES = "pressures";
+    private static final String KEY_WIND_SPEEDS = "windSpeeds";
+    private static final String KEY_DEGREES = "degrees";
+    private static final String KEY_PRUNE_DATE = "pruneDate";
+
+    private static final int NO_PRUNE_DATE = Integer.MIN_VALUE;
+
+    // Locations
+    String[] mLocationSettings;
+    String[] mCityNames;
+    double[] mCoordLats;
+    double[] mCoordLongs;
+    long[] mCityIds;
+    int mLocationCount;
+
+    // Forecast days
+    int[] mDayLocations;
+    int[] mDates;
+    String[] mDescriptions;
+    int[] mWeatherIds;
+    double[] mMinTemps;
+    double[] mMaxTemps;
+    double[] mHumidities;
+    double[] mPressures;
+    double[] mWindSpeeds;
+    double[] mDegrees;
+    int mDayCount;
+
+    int mPruneDate = NO_PRUNE_DATE;
+
+    /**
+     * @param locationCapacity number of locations expected; the batch grows past it if needed
+     * @param dayCapacity      number of forecast days expected, over all locations
+     */
+    public ForecastBatch(int locationCapacity, int dayCapacity) {
+        mLocationSettings = new String[locationCapacity];
+        mCityNames = new String[locationCapacity];
+        mCoordLats = new double[locationCapacity];
+        mCoordLongs = new double[locationCapacity];
+        mCityIds = new long[locationCapacity];
+
+        mDayLocations = new int[dayCapacity];
+        mDates = new int[dayCapacity];
+        mDescriptions = new String[dayCapacity];
+        mWeatherIds = new int[dayCapacity];
+        mMinTemps = new double[dayCapacity];
+        mMaxTemps = new double[dayCapacity];
+        mHumidities = new double[dayCapacity];
+        mPressures = new double[dayCapacity];
+        mWindSpeeds = new double[dayCapacity];
+        mDegrees = new double[dayCapacity];
+    }
+
+    /**
+     * Adds a location, which the provider resolves to the stored row or creates.
+     *
+     * @return the index to pass to {@link #addDay} for its forecast.
+     */
+    public int addLocation(String locationSetting, String cityName, double lat, double lon) {
+        return addLocation(locationSetting, cityName, lat, lon, 0);
+    }
+
+    /**
+     * As above, for a location the API resolved to a city.  The locations that resolve to
+     * the same city share their weather rows.
+     */
+    public int addLocation(String locationSetting, String cityName, double lat, double lon,
+                           long cityId) {
+        if (mLocationCount == mLocationSettings.length) {
+            int capacity = Math.max(1, mLocationCount * 2);
+            mLocationSettings = Arrays.copyOf(mLocationSettings, capacity);
+            mCityNames = Arrays.copyOf(mCityNames, capacity);
+            mCoordLats = Arrays.copyOf(mCoordLats, capacity);
+            mCoordLongs = Arrays.copyOf(mCoordLongs, capacity);
+            mCityIds = Arrays.copyOf(mCityIds, capacity);
+        }
+        mLocationSettings[mLocationCount] = locationSetting;
+        mCityNames[mLocationCount] = cityName;
+        mCoordLats[mLocationCount] = lat;
+        mCoordLongs[mLocationCount] = lon;
+        mCityIds[mLocationCount] = cityId;
+        return mLocationCount++;
+    }
+
+    public void addDay(int location, int julianDay, String description, int weatherId,
+                       double minTemp, double maxTemp, double humidity, double pressure,
+                       double windSpeed, double degrees) {
+        if (location < 0 || location >= mLocationCount) {
+            throw new IllegalArgumentException("Unknown location index: " + location);
+        }
+        if (mDayCount == mDates.length) {
+            int capacity = Math.max(1, mDayCount * 2);
+            mDayLocations = Arrays.copyOf(mDayLocations, capacity);
+            mDates = Arrays.copyOf(mDates, capacity);
+            mDescriptions = Arrays.copyOf(mDescriptions, capacity);
+            mWeatherIds = Arrays.copyOf(mWeatherIds, capacity);
+            mMinTemps = Arrays.copyOf(mMinTemps, capacity);
+            mMaxTemps = Arrays.copyOf(mMaxTemps, capacity);
+            mHumidities = Arrays.copyOf(mHumidities, capacity);
+            mPressures = Arrays.copyOf(mPressures, capacity);
+            mWindSpeeds = Arrays.copyOf(mWindSpeeds, capacity);
+            mDegrees = Arrays.copyOf(mDegrees, capacity);
+        }
+        int day = mDayCount++;
+        mDayLocations[day] = location;
+        mDates[day] = julianDay;
+        mDescriptions[day] = description;
+        mWeatherIds[day] = weatherId;
+        mMinTemps[day] = minTemp;
+        mMaxTemps[day] = maxTemp;
+        mHumidities[day] = humidity;
+        mPressures[day] = pressure;
+        mWindSpeeds[day] = windSpeed;
+        mDegrees[day] = degrees;
+    }
+
+    /**
+     * Once the days are written, deletes the stored days of every location on or before
+     * {@code julianDay}.
+     */
+    public void setPruneDate(int julianDay) {
+        mPruneDate = julianDay;
+    }
+
+    boolean hasPruneDate() {
+        return mPruneDate != NO_PRUNE_DATE;
+    }
+
+    public int getLocationCount() {
+        return mLocationCount;
+    }
+
+    public int getDayCount() {
+        return mDayCount;
+    }
+
+    /**
+     * @return the batch as the extras of a {@link WeatherContract#METHOD_INGEST_FORECAST} call.
+     * Arrays that are already full are handed over as they are, not copied.
+     */
+    public Bundle toBundle() {
+        Bundle bundle = new Bundle();
+        bundle.putStringArray(KEY_LOCATION_SETTINGS, trim(mLocationSettings, mLocationCount));
+        bundle.putStringArray(KEY_CITY_NAMES, trim(mCityNames, mLocationCount));
+        bundle.putDoubleArray(KEY_COORD_LATS, trim(mCoordLats, mLocationCount));
+        bundle.putDoubleArray(KEY_COORD_LONGS, trim(mCoordLongs, mLocationCount));
+        bundle.putLongArray(KEY_CITY_IDS, trim(mCityIds, mLocationCount));
+
+        bundle.putIntArray(KEY_DAY_LOCATIONS, trim(mDayLocations, mDayCount));
+        bundle.putIntArray(KEY_DATES, trim(mDates, mDayCount));
+        bundle.putStringArray(KEY_DESCRIPTIONS, trim(mDescriptions, mDayCount));
+        bundle.putIntArray(KEY_WEATHER_IDS, trim(mWeatherIds, mDayCount));
+        bundle.putDoubleArray(KEY_MIN_TEMPS, trim(mMinTemps, mDayCount));
+        bundle.putDoubleArray(KEY_MAX_TEMPS, trim(mMaxTemps, mDayCount));
+        bundle.putDoubleArray(KEY_HUMIDITIES, trim(mHumidities, mDayCount));
+        bundle.putDoubleArray(KEY_PRESSURES, trim(mPressures, mDayCount));
+        bundle.putDoubleArray(KEY_WIND_SPEEDS, trim(mWindSpeeds, mDayCount));
+        bundle.putDoubleArray(KEY_DEGREES, trim(mDegrees, mDayCount));
+
+        bundle.putInt(KEY_PRUNE_DATE, mPruneDate);
+        return bundle;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the extras aren't a complete batch.
+     */
+    static ForecastBatch fromBundle(Bundle bundle) {
+        if (bundle == null) {
+            throw new IllegalArgumentException("Missing forecast batch");
+        }
+        ForecastBatch batch = new ForecastBatch(0, 0);
+        batch.mLocationSettings = bundle.getStringArray(KEY_LOCATION_SETTINGS);
+        batch.mCityNames = bundle.getStringArray(KEY_CITY_NAMES);
+        batch.mCoordLats = bundle.getDoubleArray(KEY_COORD_LATS);
+        batch.mCoordLongs = bundle.getDoubleArray(KEY_COORD_LONGS);
+        batch.mCityIds = bundle.getLongArray(KEY_CITY_IDS);
+
+        batch.mDayLocations = bundle.getIntArray(KEY_DAY_LOCATIONS);
+        batch.mDates = bundle.getIntArray(KEY_DATES);
+        batch.mDescriptions = bundle.getStringArray(KEY_DESCRIPTIONS);
+        batch.mWeatherIds = bundle.getIntArray(KEY_WEATHER_IDS);
+        batch.mMinTemps = bundle.getDoubleArray(KEY_MIN_TEMPS);
+        batch.mMaxTemps = bundle.getDoubleArray(KEY_MAX_TEMPS);
+        batch.mHumidities = bundle.getDoubleArray(KEY_HUMIDITIES);
+        batch.mPressures = bundle.getDoubleArray(KEY_PRESSURES);
+        batch.mWindSpeeds = bundle.getDoubleArray(KEY_WIND_SPEEDS);
+        batch.mDegrees = bundle.getDoubleArray(KEY_DEGREES);
+
+        batch.mPruneDate = bundle.getInt(KEY_PRUNE_DATE, NO_PRUNE_DATE);
+
+        if (batch.mLocationSettings == null || batch.mDates == null) {
+            throw new IllegalArgumentException("Incomplete forecast batch");
+        }
+        batch.mLocationCount = batch.mLocationSettings.length;
+        batch.mDayCount = batch.mDates.length;
+        if (!hasLength(batch.mLocationCount, batch.mCityNames, batch.mCoordLats,
+                batch.mCoordLongs, batch.mCityIds)
+                || !hasLength(batch.mDayCount, batch.mDayLocations, batch.mDescriptions,
+                batch.mWeatherIds, batch.mMinTemps, batch.mMaxTemps, batch.mHumidities,
+                batch.mPressures, batch.mWindSpeeds, batch.mDegrees)) {
+            throw new IllegalArgumentException("Forecast batch columns differ in length");
+        }
+        return batch;
+    }
+
+    private static boolean hasLength(int length, Object... arrays) {
+        for (Object array : arrays) {
+            if (array == null || Array.getLength(array) != length) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String[] trim(String[] array, int count) {
+        return array.length == count ? array : Arrays.copyOf(array, count);
+    }
+
+    private static double[] trim(double[] array, int count) {
+        return array.length == count ? array : Arrays.copyOf(array, count);
+    }
+
+    private static int[] trim(int[] array, int count) {
+        return array.length == count ? array : Arrays.copyOf(array, count);
+    }
+
+    private static long[] trim(long[] array, int count) {
+        return array.length == count ? array : Arrays.copyOf(array, count);
+    }
+}
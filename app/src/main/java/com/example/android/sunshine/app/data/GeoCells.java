@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The spatial index of the location table.  Each location stores the cell of its coordinates
+ * in {@link #COLUMN_GEOCELL}: latitude and longitude quantized to {@link #BITS} bits each and
+ * interleaved, the integer form of a geohash.  Cells that share a prefix are neighbours, so
+ * any cell of a coarser grid is one range of the indexed column, and a bounding box is a
+ * handful of ranges plus an exact filter on the coordinates.
+ * <p>
+ * This works on the SQLite of every device, where the R*Tree module is an optional build.
+ */
+final class GeoCells {
+
+    static final String COLUMN_GEOCELL = "geocell";
+
+    // Per axis; the finest cells are about 30 cm high.
+    static final int BITS = 26;
+
+    // A bounding box is covered with no more cells of one grid than this.
+    static final int MAX_CELLS = 16;
+
+    static final double EARTH_RADIUS_KM = 6371.0088;
+    // Half the circumference: no two places are further apart.
+    static final double MAX_DISTANCE_KM = Math.PI * EARTH_RADIUS_KM;
+
+    //(geocell >= ? AND geocell < ?)
+    private static final String sRangeSelection =
+            "(" + COLUMN_GEOCELL + " >= ? AND " + COLUMN_GEOCELL + " < ?)";
+
+    //coord_lat BETWEEN ? AND ? AND coord_long BETWEEN ? AND ?
+    private static final String sBoxSelection =
+            LocationEntry.COLUMN_COORD_LAT + " BETWEEN ? AND ? AND " +
+                    LocationEntry.COLUMN_COORD_LONG + " BETWEEN ? AND ?";
+
+    private GeoCells() {
+    }
+
+    /**
+     * @return the finest cell of the coordinates.
+     */
+    static long encode(double lat, double lon) {
+        return interleave(quantize(lon + 180, 360), quantize(lat + 90, 180));
+    }
+
+    /**
+     * Sets the cell of values' coordinates, when it has both.
+     *
+     * @return whether values changes a coordinate without the other, so the cell of the rows
+     * it's written to has to be computed after the write.
+     */
+    static boolean putCell(ContentValues values) {
+        Double lat = values.getAsDouble(LocationEntry.COLUMN_COORD_LAT);
+        Double lon = values.getAsDouble(LocationEntry.COLUMN_COORD_LONG);
+        if (lat != null && lon != null) {
+            values.put(COLUMN_GEOCELL, encode(lat, lon));
+            return false;
+        }
+        return lat != null || lon != null;
+    }
+
+    /**
+     * Recomputes the cells of the locations a selection matches.
+     */
+    static void updateCells(SQLiteDatabase db, String selection, String[] selectionArgs) {
+        Cursor cursor = db.query(LocationEntry.TABLE_NAME, new String[]{LocationEntry._ID,
+                        LocationEntry.COLUMN_COORD_LAT, LocationEntry.COLUMN_COORD_LONG},
+                selection, selectionArgs, null, null, null);
+        try {
+            ContentValues values = new ContentValues(1);
+            while (cursor.moveToNext()) {
+                values.put(COLUMN_GEOCELL, encode(cursor.getDouble(1), cursor.getDouble(2)));
+                db.update(LocationEntry.TABLE_NAME, values, LocationEntry._ID + " = ?",
+                        new String[]{Long.toString(cursor.getLong(0))});
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Appends the selection of the locations inside a bounding box to selection, and its
+     * arguments to args.  A box whose west edge is east of its east edge crosses the 180th
+     * meridian.
+     */
+    static void appendBoxSelection(double south, double west, double north, double east,
+                                   StringBuilder selection, List<String> args) {
+        if (west > east) {
+            selection.append('(');
+            appendBoxSelection(south, west, north, 180, selection, args);
+            selection.append(") OR (");
+            appendBoxSelection(south, -180, north, east, selection, args);
+            selection.append(')');
+            return;
+        }
+        selection.append('(');
+        List<long[]> ranges = cover(south, west, north, east);
+        for (int i = 0; i < ranges.size(); i++) {
+            selection.append(i == 0 ? "" : " OR ").append(sRangeSelection);
+            args.add(Long.toString(ranges.get(i)[0]));
+            args.add(Long.toString(ranges.get(i)[1]));
+        }
+        selection.append(") AND ").append(sBoxSelection);
+        args.add(Double.toString(south));
+        args.add(Double.toString(north));
+        args.add(Double.toString(west));
+        args.add(Double.toString(east));
+    }
+
+    /**
+     * The ranges [from, to) of cells that cover a box that doesn't cross the 180th meridian,
+     * on the finest grid that takes no more than {@link #MAX_CELLS} cells, merged where they
+     * touch.
+     */
+    static List<long[]> cover(double south, double west, double north, double east) {
+        long y0 = quantize(south + 90, 180);
+        long y1 = quantize(north + 90, 180);
+        long x0 = quantize(west + 180, 360);
+        long x1 = quantize(east + 180, 360);
+
+        int shift = 0;
+        while (shift < BITS
+                && ((x1 >> shift) - (x0 >> shift) + 1) * ((y1 >> shift) - (y0 >> shift) + 1)
+                > MAX_CELLS) {
+            shift++;
+        }
+
+        List<long[]> cells = new ArrayList<>();
+        for (long x = x0 >> shift; x <= x1 >> shift; x++) {
+            for (long y = y0 >> shift; y <= y1 >> shift; y++) {
+                long from = interleave(x, y) << (2 * shift);
+                cells.add(new long[]{from, from + (1L << (2 * shift))});
+            }
+        }
+        Collections.sort(cells, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] a, long[] b) {
+                return a[0] < b[0] ? -1 : (a[0] == b[0] ? 0 : 1);
+            }
+        });
+
+        List<long[]> ranges = new ArrayList<>();
+        for (long[] cell : cells) {
+            long[] last = ranges.isEmpty() ? null : ranges.get(ranges.size() - 1);
+            if (last != null && last[1] == cell[0]) {
+                last[1] = cell[1];
+            } else {
+                ranges.add(cell);
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * @return the great-circle distance between two points.
+     */
+    static double distanceKm(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+                * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    /**
+     * The bounding box of the points within {@code radiusKm} of a point, as south, west, north
+     * and east.  Near a pole the box takes every longitude.
+     */
+    static double[] boundingBox(double lat, double lon, double radiusKm) {
+        double angle = radiusKm / EARTH_RADIUS_KM;
+        double dLat = Math.toDegrees(angle);
+        double south = lat - dLat;
+        double north = lat + dLat;
+        if (south <= -90 || north >= 90 || angle >= Math.PI / 2) {
+            return new double[]{Math.max(south, -90), -180, Math.min(north, 90), 180};
+        }
+        double dLon = Math.toDegrees(Math.asin(Math.sin(angle) / Math.cos(Math.toRadians(lat))));
+        double west = lon - dLon;
+        double east = lon + dLon;
+        if (east - west >= 360) {
+            return new double[]{south, -180, north, 180};
+        }
+        // Wrapped round the 180th meridian, which makes west > east.
+        return new double[]{south, west < -180 ? west + 360 : west,
+                north, east > 180 ? east - 360 : east};
+    }
+
+    private static long quantize(double offset, double span) {
+        long cells = 1L << BITS;
+        long cell = (long) Math.floor(offset / span * cells);
+        return Math.max(0, Math.min(cells - 1, cell));
+    }
+
+    // Longitude in the odd bits and latitude in the even ones, as in a geohash.
+    private static long interleave(long x, long y) {
+        return (spread(x) << 1) | spread(y);
+    }
+
+    private static long spread(long value) {
+        value &= 0xffffffffL;
+        value = (value | (value << 16)) & 0x0000ffff0000ffffL;
+        value = (value | (value << 8)) & 0x00ff00ff00ff00ffL;
+        value = (value | (value << 4)) & 0x0f0f0f0f0f0f0f0fL;
+        value = (value | (value << 2)) & 0x3333333333333333L;
+        value = (value | (value << 1)) & 0x5555555555555555L;
+        return value;
+    }
+}
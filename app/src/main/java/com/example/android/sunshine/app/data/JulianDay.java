@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import java.util.TimeZone;
+
+/**
+ * Days as Julian day numbers, the form in which {@link WeatherContract.WeatherEntry#COLUMN_DATE}
+ * is stored.  The numbering is that of {@link android.text.format.Time#getJulianDay}: day
+ * 2440588 is January 1st, 1970.
+ * <p>
+ * None of the conversions allocate.  Local days use the device's time zone as of the current
+ * day: today's number and the offset are cached with the instant they stop being valid, which
+ * is the next local midnight or, to pick up a change of time zone or of daylight saving time,
+ * an hour later at most.
+ */
+public final class JulianDay {
+
+    public static final int EPOCH_JULIAN_DAY = 2440588;
+    public static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+
+    private static final long MAX_CACHE_MILLIS = 60 * 60 * 1000L;
+
+    private static volatile Today sToday;
+
+    private JulianDay() {
+    }
+
+    /**
+     * @return the number of the day the device is on, in its time zone.
+     */
+    public static int today() {
+        return getToday(System.currentTimeMillis()).julianDay;
+    }
+
+    /**
+     * @return the number of the local day that contains {@code millis}.
+     */
+    public static int fromLocalMillis(long millis) {
+        Today today = getToday(System.currentTimeMillis());
+        int offset = millis >= today.startMillis && millis < today.endMillis
+                ? today.offsetMillis : today.timeZone.getOffset(millis);
+        return fromUtcMillis(millis + offset);
+    }
+
+    /**
+     * @return the number of the UTC day that contains {@code millis}.
+     */
+    public static int fromUtcMillis(long millis) {
+        long days = millis / DAY_IN_MILLIS;
+        if (millis % DAY_IN_MILLIS < 0) {
+            days--;
+        }
+        return (int) days + EPOCH_JULIAN_DAY;
+    }
+
+    /**
+     * @return the start of the day at UTC, for formatting the day with a UTC formatter.
+     */
+    public static long toUtcMillis(int julianDay) {
+        return (julianDay - EPOCH_JULIAN_DAY) * DAY_IN_MILLIS;
+    }
+
+    /**
+     * @return the Monday of the week that contains the day.  Day 0 of the numbering was a
+     * Monday, so weeks are the multiples of seven.
+     */
+    public static int startOfWeek(int julianDay) {
+        return julianDay - julianDay % 7;
+    }
+
+    /**
+     * @return the first day of the (Gregorian) month that contains the day.
+     */
+    public static int startOfMonth(int julianDay) {
+        // The day of the month, from the civil-from-days conversion with years that start on
+        // March 1st, so the leap day comes last.
+        int dayOfEra = (julianDay - EPOCH_JULIAN_DAY + 719468) % 146097;
+        if (dayOfEra < 0) {
+            dayOfEra += 146097;
+        }
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int monthOfYear = (5 * dayOfYear + 2) / 153;
+        int dayOfMonth = dayOfYear - (153 * monthOfYear + 2) / 5;
+        return julianDay - dayOfMonth;
+    }
+
+    /**
+     * @return the first day of the month after the one that contains the day.
+     */
+    public static int startOfNextMonth(int julianDay) {
+        return startOfMonth(startOfMonth(julianDay) + 31);
+    }
+
+    /**
+     * Drops the cached day, for a receiver of a time zone or clock change that has to see it
+     * before the cache would expire.
+     */
+    public static void invalidate() {
+        sToday = null;
+    }
+
+    private static Today getToday(long now) {
+        Today today = sToday;
+        if (today == null || now < today.checkedMillis || now >= today.expiresMillis) {
+            today = new Today(now, TimeZone.getDefault());
+            sToday = today;
+        }
+        return today;
+    }
+
+    private static final class Today {
+        final TimeZone timeZone;
+        final int offsetMillis;
+        final int julianDay;
+        // The local day, as UTC instants
+        final long startMillis;
+        final long endMillis;
+        // When the cached values were computed and when they have to be computed again
+        final long checkedMillis;
+        final long expiresMillis;
+
+        Today(long now, TimeZone timeZone) {
+            this.timeZone = timeZone;
+            offsetMillis = timeZone.getOffset(now);
+            julianDay = fromUtcMillis(now + offsetMillis);
+            startMillis = toUtcMillis(julianDay) - offsetMillis;
+            endMillis = startMillis + DAY_IN_MILLIS;
+            checkedMillis = now;
+            expiresMillis = Math.min(endMillis, now + MAX_CACHE_MILLIS);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.LruCache;
+
+import java.util.Arrays;
+
+/**
+ * Read-through cache of the provider's forecast queries, bounded by the number of rows it
+ * holds.  A query result is copied out of SQLite once and then served from memory until a
+ * write to its location invalidates it.
+ * <p>
+ * Every invalidation bumps a generation counter.  A result read from the database is only
+ * stored if no invalidation happened while it was being read, so a query racing a write can't
+ * put rows back that the write has already replaced.
+ */
+class QueryCache {
+
+    private final LruCache<Key, Result> mResults;
+    private long mGeneration;
+    private long mHits;
+    private long mMisses;
+
+    QueryCache(int maxRows) {
+        mResults = new LruCache<Key, Result>(maxRows) {
+            @Override
+            protected int sizeOf(Key key, Result result) {
+                // Empty results still take an entry.
+                return Math.max(1, result.rows.length);
+            }
+        };
+    }
+
+    /**
+     * Identifies one query: the URI match and its location and date, plus the columns and the
+     * order asked for.
+     */
+    static final class Key {
+        final int match;
+        final String locationSetting;
+        final long date;
+        private final String[] mProjection;
+        private final String mSortOrder;
+
+        Key(int match, String locationSetting, long date, String[] projection, String sortOrder) {
+            this.match = match;
+            this.locationSetting = locationSetting;
+            this.date = date;
+            mProjection = projection == null ? null : projection.clone();
+            mSortOrder = sortOrder;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return match == other.match
+                    && date == other.date
+                    && locationSetting.equals(other.locationSetting)
+                    && Arrays.equals(mProjection, other.mProjection)
+                    && (mSortOrder == null ? other.mSortOrder == null
+                            : mSortOrder.equals(other.mSortOrder));
+        }
+
+        @Override
+        public int hashCode() {
+            int result = match;
+            result = 31 * result + locationSetting.hashCode();
+            result = 31 * result + (int) (date ^ (date >>> 32));
+            result = 31 * result + Arrays.hashCode(mProjection);
+            result = 31 * result + (mSortOrder == null ? 0 : mSortOrder.hashCode());
+            return result;
+        }
+    }
+
+    // A query result copied out of its cursor, with the text the cursor gave for each REAL
+    // value (null for the other cells).
+    private static final class Result {
+        final String[] columnNames;
+        final Object[][] rows;
+        final String[][] floatStrings;
+
+        Result(String[] columnNames, Object[][] rows, String[][] floatStrings) {
+            this.columnNames = columnNames;
+            this.rows = rows;
+            this.floatStrings = floatStrings;
+        }
+    }
+
+    /**
+     * @return a new cursor over the cached result, or null (counted as a miss) if there is none.
+     */
+    synchronized Cursor get(Key key) {
+        Result result = mResults.get(key);
+        if (result == null) {
+            mMisses++;
+            return null;
+        }
+        mHits++;
+        MatrixCursor cursor = new CachedCursor(result.columnNames, result.floatStrings);
+        for (Object[] row : result.rows) {
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    /**
+     * @return the generation to hand to {@link #put} once the query has been read.
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Reads the cursor to the end and caches its rows, unless the cache was invalidated since
+     * {@code generation}.  The cursor is left before its first row.
+     */
+    void put(Key key, long generation, Cursor cursor) {
+        String[] columnNames = cursor.getColumnNames();
+        int columnCount = columnNames.length;
+        Object[][] rows = new Object[cursor.getCount()][];
+        String[][] floatStrings = new String[rows.length][];
+        cursor.moveToPosition(-1);
+        for (int row = 0; cursor.moveToNext(); row++) {
+            Object[] values = new Object[columnCount];
+            for (int column = 0; column < columnCount; column++) {
+                values[column] = getValue(cursor, column);
+                if (values[column] instanceof Double) {
+                    if (floatStrings[row] == null) {
+                        floatStrings[row] = new String[columnCount];
+                    }
+                    floatStrings[row][column] = cursor.getString(column);
+                }
+            }
+            rows[row] = values;
+        }
+        cursor.moveToPosition(-1);
+
+        synchronized (this) {
+            if (generation == mGeneration) {
+                mResults.put(key, new Result(columnNames, rows, floatStrings));
+            }
+        }
+    }
+
+    private static Object getValue(Cursor cursor, int column) {
+        switch (cursor.getType(column)) {
+            case Cursor.FIELD_TYPE_INTEGER:
+                return cursor.getLong(column);
+            case Cursor.FIELD_TYPE_FLOAT:
+                return cursor.getDouble(column);
+            case Cursor.FIELD_TYPE_STRING:
+                return cursor.getString(column);
+            case Cursor.FIELD_TYPE_BLOB:
+                return cursor.getBlob(column);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * A copy of a database cursor.  Its values keep their column types; a REAL value read as a
+     * string gives the text the database cursor gave for it, so callers see the same text
+     * from either cursor.
+     */
+    private static final class CachedCursor extends MatrixCursor {
+        private final String[][] mFloatStrings;
+
+        CachedCursor(String[] columnNames, String[][] floatStrings) {
+            super(columnNames, floatStrings.length);
+            mFloatStrings = floatStrings;
+        }
+
+        @Override
+        public String getString(int column) {
+            // The superclass checks the position and column first.
+            String value = super.getString(column);
+            String[] floatStrings = mFloatStrings[getPosition()];
+            return floatStrings != null && floatStrings[column] != null
+                    ? floatStrings[column] : value;
+        }
+    }
+
+    /**
+     * Drops the cached queries of one location.
+     */
+    synchronized void invalidate(String locationSetting) {
+        mGeneration++;
+        for (Key key : mResults.snapshot().keySet()) {
+            if (key.locationSetting.equals(locationSetting)) {
+                mResults.remove(key);
+            }
+        }
+    }
+
+    synchronized void invalidateAll() {
+        mGeneration++;
+        mResults.evictAll();
+    }
+
+    synchronized long getHitCount() {
+        return mHits;
+    }
+
+    synchronized long getMissCount() {
+        return mMisses;
+    }
+}
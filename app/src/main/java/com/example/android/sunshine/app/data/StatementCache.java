@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.LruCache;
+
+/**
+ * Keeps the compiled {@link SQLiteStatement}s of the provider's hot write paths, so a write
+ * only has to bind its arguments instead of parsing and compiling the SQL again.
+ * <p>
+ * A compiled statement can only be bound and executed by one thread at a time, so statements
+ * are used under this cache's lock.  To keep that lock from being held while waiting on the
+ * database, every execution first joins (or opens) a transaction, which takes the database's
+ * writer connection before the lock is taken.
+ */
+class StatementCache {
+
+    private final SQLiteDatabase mDb;
+    private final LruCache<String, SQLiteStatement> mStatements;
+
+    StatementCache(SQLiteDatabase db, int maxStatements) {
+        mDb = db;
+        mStatements = new LruCache<String, SQLiteStatement>(maxStatements) {
+            @Override
+            protected void entryRemoved(boolean evicted, String sql,
+                                        SQLiteStatement oldValue, SQLiteStatement newValue) {
+                oldValue.close();
+            }
+        };
+    }
+
+    /**
+     * Binds the arguments in order and runs an INSERT statement.
+     *
+     * @return the row id of the inserted row, or -1 if it wasn't inserted.
+     */
+    long executeInsert(String sql, Object[] bindArgs) {
+        mDb.beginTransaction();
+        try {
+            long rowId;
+            synchronized (this) {
+                SQLiteStatement statement = bind(sql, bindArgs);
+                rowId = statement.executeInsert();
+            }
+            mDb.setTransactionSuccessful();
+            return rowId;
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    /**
+     * Binds the arguments in order and runs an UPDATE or DELETE statement.
+     *
+     * @return the number of rows affected.
+     */
+    int executeUpdateDelete(String sql, Object[] bindArgs) {
+        mDb.beginTransaction();
+        try {
+            int count;
+            synchronized (this) {
+                SQLiteStatement statement = bind(sql, bindArgs);
+                count = statement.executeUpdateDelete();
+            }
+            mDb.setTransactionSuccessful();
+            return count;
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    /**
+     * Returns the compiled statement for {@code sql}, for a caller that binds and runs it
+     * directly, without boxing its arguments.  The caller has to be in a transaction already
+     * and hold this cache's lock for as long as it uses the statement.
+     */
+    SQLiteStatement getStatement(String sql) {
+        if (!Thread.holdsLock(this)) {
+            throw new IllegalStateException("Statements must be used under the cache's lock");
+        }
+        return compile(sql);
+    }
+
+    /**
+     * Closes every cached statement.
+     */
+    synchronized void clear() {
+        mStatements.evictAll();
+    }
+
+    private SQLiteStatement compile(String sql) {
+        SQLiteStatement statement = mStatements.get(sql);
+        if (statement == null) {
+            statement = mDb.compileStatement(sql);
+            mStatements.put(sql, statement);
+        }
+        return statement;
+    }
+
+    private SQLiteStatement bind(String sql, Object[] bindArgs) {
+        SQLiteStatement statement = compile(sql);
+        statement.clearBindings();
+        if (bindArgs != null) {
+            for (int i = 0; i < bindArgs.length; i++) {
+                DatabaseUtils.bindObjectToProgram(statement, i + 1, bindArgs[i]);
+            }
+        }
+        return statement;
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.app.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The retention policy of the weather history.  The days the sync prunes from the weather
+ * table are moved to the archive table; compaction then folds the days older than
+ * {@link #DAILY_RETENTION_DAYS} into weeks, the weeks older than {@link #WEEKLY_RETENTION_DAYS}
+ * into months, and drops the months older than {@link #MONTHLY_RETENTION_DAYS}, along with
+ * their week and month rollups.  A year of
+ * history costs a location about 60 rows instead of 365, and the archive stops growing after
+ * three years.
+ * <p>
+ * Compaction runs in passes that each look at a bounded number of rows, so a pass holds the
+ * writer connection only briefly, and the caller can stop between passes.  Both methods
+ * expect to run inside the caller's transaction.
+ */
+final class WeatherArchive {
+
+    static final int DAILY_RETENTION_DAYS = 28;
+    static final int WEEKLY_RETENTION_DAYS = 182;
+    static final int MONTHLY_RETENTION_DAYS = 3 * 365;
+
+    // The columns the archive shares with the weather table, after its key.
+    private static final String sValueColumns =
+            ArchiveEntry.COLUMN_WEATHER_ID + ", " +
+                    ArchiveEntry.COLUMN_MIN_TEMP + ", " +
+                    ArchiveEntry.COLUMN_MAX_TEMP + ", " +
+                    ArchiveEntry.COLUMN_HUMIDITY + ", " +
+                    ArchiveEntry.COLUMN_PRESSURE + ", " +
+                    ArchiveEntry.COLUMN_WIND_SPEED;
+
+    private static final String sInsertColumns = "INSERT INTO " + ArchiveEntry.TABLE_NAME + " (" +
+            ArchiveEntry.COLUMN_LOC_KEY + ", " +
+            ArchiveEntry.COLUMN_PERIOD + ", " +
+            ArchiveEntry.COLUMN_DATE + ", " +
+            ArchiveEntry.COLUMN_DAYS + ", " +
+            sValueColumns + ") ";
+
+    //INSERT INTO archive (...) SELECT location_id, 0, date, 1, weather_id, ... FROM weather
+    //    WHERE date <= ?
+    // The table's ON CONFLICT REPLACE overwrites a day that was archived before.
+    static final String sArchiveDaysSql = sInsertColumns +
+            "SELECT " + WeatherEntry.COLUMN_LOC_KEY + ", " + ArchiveEntry.PERIOD_DAY + ", " +
+            WeatherEntry.COLUMN_DATE + ", 1, " +
+            WeatherEntry.COLUMN_WEATHER_ID + ", " +
+            WeatherEntry.COLUMN_MIN_TEMP + ", " +
+            WeatherEntry.COLUMN_MAX_TEMP + ", " +
+            WeatherEntry.COLUMN_HUMIDITY + ", " +
+            WeatherEntry.COLUMN_PRESSURE + ", " +
+            WeatherEntry.COLUMN_WIND_SPEED +
+            " FROM " + WeatherEntry.TABLE_NAME + " WHERE " + WeatherEntry.COLUMN_DATE + " <= ?";
+
+    // Replaces the row of period ?2 that starts on ?3 with the aggregate of the rows of period
+    // ?4 from ?3 up to ?5, and of the row it replaces, if any: a day archived late joins the
+    // week it belongs to.  Averages are weighted by the days each row stands for.
+    static final String sFoldSql = sInsertColumns +
+            "SELECT ?1, ?2, ?3, SUM(" + ArchiveEntry.COLUMN_DAYS + "), " +
+            "MIN(" + ArchiveEntry.COLUMN_WEATHER_ID + "), " +
+            weightedAverage(ArchiveEntry.COLUMN_MIN_TEMP) + ", " +
+            weightedAverage(ArchiveEntry.COLUMN_MAX_TEMP) + ", " +
+            weightedAverage(ArchiveEntry.COLUMN_HUMIDITY) + ", " +
+            weightedAverage(ArchiveEntry.COLUMN_PRESSURE) + ", " +
+            weightedAverage(ArchiveEntry.COLUMN_WIND_SPEED) +
+            " FROM " + ArchiveEntry.TABLE_NAME +
+            " WHERE " + ArchiveEntry.COLUMN_LOC_KEY + " = ?1 AND ((" +
+            ArchiveEntry.COLUMN_PERIOD + " = ?4 AND " +
+            ArchiveEntry.COLUMN_DATE + " >= ?3 AND " + ArchiveEntry.COLUMN_DATE + " < ?5) OR (" +
+            ArchiveEntry.COLUMN_PERIOD + " = ?2 AND " + ArchiveEntry.COLUMN_DATE + " = ?3))";
+
+    //DELETE FROM archive WHERE location_id = ? AND period = ? AND date >= ? AND date < ?
+    static final String sDeleteFoldedSql = "DELETE FROM " + ArchiveEntry.TABLE_NAME +
+            " WHERE " + ArchiveEntry.COLUMN_LOC_KEY + " = ? AND " +
+            ArchiveEntry.COLUMN_PERIOD + " = ? AND " +
+            ArchiveEntry.COLUMN_DATE + " >= ? AND " + ArchiveEntry.COLUMN_DATE + " < ?";
+
+    // Deletes at most ?3 of the rows of period ?1 that start before ?2.
+    static final String sExpireSql = "DELETE FROM " + ArchiveEntry.TABLE_NAME +
+            " WHERE " + ArchiveEntry._ID + " IN (SELECT " + ArchiveEntry._ID +
+            " FROM " + ArchiveEntry.TABLE_NAME +
+            " WHERE " + ArchiveEntry.COLUMN_PERIOD + " = ? AND " + ArchiveEntry.COLUMN_DATE +
+            " < ? LIMIT ?)";
+
+    // The oldest ?3 rows of period ?1 that start before ?2, across all locations; covered by
+    // the archive_period_date index.
+    private static final String sFoldCandidatesSql = "SELECT " +
+            ArchiveEntry.COLUMN_LOC_KEY + ", " + ArchiveEntry.COLUMN_DATE +
+            " FROM " + ArchiveEntry.TABLE_NAME +
+            " WHERE " + ArchiveEntry.COLUMN_PERIOD + " = ? AND " + ArchiveEntry.COLUMN_DATE +
+            " < ? ORDER BY " + ArchiveEntry.COLUMN_DATE + " LIMIT ?";
+
+    private static String weightedAverage(String column) {
+        return "SUM(" + column + " * " + ArchiveEntry.COLUMN_DAYS + ") / SUM(" +
+                ArchiveEntry.COLUMN_DAYS + ")";
+    }
+
+    /**
+     * What one compaction pass did.
+     */
+    static final class Pass {
+        // The archive rows folded into coarser ones, or expired.
+        int rowsCompacted;
+        // The week and month rollups dropped with the months they cover.
+        int rollupsExpired;
+        // Whether every row due for compaction was seen, so another pass would find nothing.
+        boolean finished;
+    }
+
+    private WeatherArchive() {
+    }
+
+    /**
+     * Copies the weather rows up to and including {@code lastDay} into the archive as days.
+     * The caller deletes them from the weather table.
+     */
+    static void archiveDays(StatementCache statements, int lastDay) {
+        statements.executeInsert(sArchiveDaysSql, new Object[]{lastDay});
+    }
+
+    /**
+     * Runs one compaction pass that looks at no more than {@code maxRows} rows due for
+     * compaction, oldest first.
+     *
+     * @param today the current Julian day, which the retention periods count back from.
+     */
+    static Pass compact(SQLiteDatabase db, StatementCache statements, int today, int maxRows) {
+        Pass pass = new Pass();
+        int budget = maxRows;
+
+        // Each step sees the rows the previous one made, so a pass that stays within its
+        // budget leaves nothing for the next.  Only whole weeks and months are folded.
+        budget -= fold(db, statements, pass, ArchiveEntry.PERIOD_DAY, ArchiveEntry.PERIOD_WEEK,
+                JulianDay.startOfWeek(today - DAILY_RETENTION_DAYS), budget);
+        budget -= fold(db, statements, pass, ArchiveEntry.PERIOD_WEEK, ArchiveEntry.PERIOD_MONTH,
+                JulianDay.startOfMonth(today - WEEKLY_RETENTION_DAYS), budget);
+
+        int monthCutoff = JulianDay.startOfMonth(today - MONTHLY_RETENTION_DAYS);
+        if (budget > 0) {
+            int expired = statements.executeUpdateDelete(sExpireSql, new Object[]{
+                    ArchiveEntry.PERIOD_MONTH, monthCutoff, budget});
+            pass.rowsCompacted += expired;
+            budget -= expired;
+        }
+        if (budget > 0) {
+            pass.rollupsExpired = WeatherRollups.expire(statements, monthCutoff, budget);
+            budget -= pass.rollupsExpired;
+        }
+
+        pass.finished = budget > 0;
+        return pass;
+    }
+
+    /**
+     * Folds the oldest rows of period {@code from} that start before {@code before} into the
+     * rows of period {@code to} they belong to.  Every row of a period that one of them
+     * belongs to is folded, even past the budget.
+     *
+     * @return the number of candidate rows looked at, which counts against the budget.
+     */
+    private static int fold(SQLiteDatabase db, StatementCache statements, Pass pass,
+                            int from, int to, int before, int budget) {
+        if (budget <= 0) {
+            return 0;
+        }
+        Cursor cursor = db.rawQuery(sFoldCandidatesSql, new String[]{
+                Integer.toString(from), Integer.toString(before), Integer.toString(budget)});
+        try {
+            // Counting reads the rows into the cursor's window before the folds change the table.
+            int candidates = cursor.getCount();
+            Set<Long> folded = new HashSet<>();
+            while (cursor.moveToNext()) {
+                long locationId = cursor.getLong(0);
+                int date = cursor.getInt(1);
+                int start = to == ArchiveEntry.PERIOD_WEEK
+                        ? JulianDay.startOfWeek(date) : JulianDay.startOfMonth(date);
+                if (!folded.add((locationId << 32) | start)) {
+                    continue;
+                }
+                int end = to == ArchiveEntry.PERIOD_WEEK
+                        ? start + 7 : JulianDay.startOfNextMonth(date);
+                statements.executeInsert(sFoldSql,
+                        new Object[]{locationId, to, start, from, end});
+                pass.rowsCompacted += statements.executeUpdateDelete(sDeleteFoldedSql,
+                        new Object[]{locationId, from, start, end});
+            }
+            return candidates;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -20,7 +20,6 @@ import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
 import android.text.TextUtils;
-import android.text.format.Time;
 
 /**
  * Defines table and column names for the weather database.
@@ -33,16 +32,41 @@ public class WeatherContract {
 
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_ARCHIVE = "archive";
+    public static final String PATH_ROLLUP = "rollup";
 
-    // To make it easy to query for the exact date, we normalize all dates that go into
-    // the database to the start of the the Julian day at UTC.
-    public static long normalizeDate(long startDate) {
-        // normalize the start date to the beginning of the (UTC) day
-        Time time = new Time();
-        time.set(startDate);
-        int julianDay = Time.getJulianDay(startDate, time.gmtoff);
-        return time.setJulianDay(julianDay);
-    }
+    // Method for ContentResolver.call on BASE_CONTENT_URI.  It returns a Bundle with the
+    // provider's counters under the STAT_ keys below.
+    public static final String METHOD_GET_STATS = "getStats";
+
+    // Forecast queries answered from the provider's in-memory cache, and those that weren't.
+    public static final String STAT_QUERY_CACHE_HITS = "queryCacheHits";
+    public static final String STAT_QUERY_CACHE_MISSES = "queryCacheMisses";
+
+    // Weather rows written by the provider's upserts: new days, changed days, and days that
+    // matched the stored row and weren't written.
+    public static final String STAT_WEATHER_ROWS_INSERTED = "weatherRowsInserted";
+    public static final String STAT_WEATHER_ROWS_UPDATED = "weatherRowsUpdated";
+    public static final String STAT_WEATHER_ROWS_UNCHANGED = "weatherRowsUnchanged";
+
+    // Method for ContentResolver.call on BASE_CONTENT_URI that stores a ForecastBatch, passed
+    // as the extras from ForecastBatch.toBundle().  It returns a Bundle with the weather rows
+    // counted under the STAT_WEATHER_ROWS_ keys above, plus the days pruned.
+    public static final String METHOD_INGEST_FORECAST = "ingestForecast";
+
+    public static final String STAT_WEATHER_ROWS_DELETED = "weatherRowsDeleted";
+
+    // Method for ContentResolver.call on BASE_CONTENT_URI that runs one bounded pass of the
+    // archive's compaction (see ArchiveEntry).  The arg is today's Julian day, as a string.
+    // It returns a Bundle with the archive rows folded into coarser ones or expired, and
+    // whether the archive is fully compacted or needs another pass.
+    public static final String METHOD_COMPACT_ARCHIVE = "compactArchive";
+
+    public static final String STAT_ARCHIVE_ROWS_COMPACTED = "archiveRowsCompacted";
+    public static final String STAT_ARCHIVE_COMPACTED = "archiveCompacted";
+
+    // Dates are stored and passed in URIs as Julian day numbers (see JulianDay), so a date is
+    // already normalized to its day and compares as a plain integer.
 
     /*
         Inner class that defines the table contents of the location table
@@ -69,9 +93,64 @@ public class WeatherContract {
 
         public static final String COLUMN_COORD_LONG = "coord_long";
 
+        // The OpenWeatherMap city id the location setting resolved to, which later syncs
+        // request it by.  0 until the first sync stores its forecast.
+        public static final String COLUMN_CITY_ID = "city_id";
+
+        // The location whose weather rows this one shows, because both resolved to the same
+        // city; null for a location with weather rows of its own.
+        public static final String COLUMN_SHARED_LOC_KEY = "shared_location_id";
+
+        // The stored locations nearest to a point, and those inside a bounding box.
+        public static final String PATH_NEAR = "near";
+        public static final String PATH_WITHIN = "within";
+
+        // How many locations near a point to return, 1 by default, and how far from it they
+        // may be, in kilometres; any distance by default.
+        public static final String QUERY_LIMIT = "limit";
+        public static final String QUERY_RADIUS = "radius";
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
+
+        // The limit locations nearest to the point, nearest first.
+        public static Uri buildLocationNear(double lat, double lon, int limit) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_NEAR)
+                    .appendPath(Double.toString(lat)).appendPath(Double.toString(lon))
+                    .appendQueryParameter(QUERY_LIMIT, Integer.toString(limit)).build();
+        }
+
+        // As above, leaving out the locations further than radiusKm from the point.
+        public static Uri buildLocationNear(double lat, double lon, int limit, double radiusKm) {
+            return buildLocationNear(lat, lon, limit).buildUpon()
+                    .appendQueryParameter(QUERY_RADIUS, Double.toString(radiusKm)).build();
+        }
+
+        // The locations inside the box.  A box whose west edge is east of its east edge
+        // crosses the 180th meridian.
+        public static Uri buildLocationWithin(double south, double west, double north,
+                                              double east) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_WITHIN)
+                    .appendPath(Double.toString(south)).appendPath(Double.toString(west))
+                    .appendPath(Double.toString(north)).appendPath(Double.toString(east))
+                    .build();
+        }
+
+        // The index-th coordinate of a near or within URI.
+        public static double getCoordinateFromUri(Uri uri, int index) {
+            return Double.parseDouble(uri.getPathSegments().get(2 + index));
+        }
+
+        public static int getLimitFromUri(Uri uri) {
+            String limit = uri.getQueryParameter(QUERY_LIMIT);
+            return TextUtils.isEmpty(limit) ? 1 : Integer.parseInt(limit);
+        }
+
+        public static double getRadiusFromUri(Uri uri) {
+            String radius = uri.getQueryParameter(QUERY_RADIUS);
+            return TextUtils.isEmpty(radius) ? Double.POSITIVE_INFINITY : Double.parseDouble(radius);
+        }
     }
 
     /* Inner class that defines the table contents of the weather table */
@@ -89,7 +168,7 @@ public class WeatherContract {
 
         // Column with the foreign key into the location table.
         public static final String COLUMN_LOC_KEY = "location_id";
-        // Date, stored as long in milliseconds since the epoch
+        // Date, stored as an int Julian day number (see JulianDay)
         public static final String COLUMN_DATE = "date";
         // Weather id as returned by API, to identify the icon to be used
         public static final String COLUMN_WEATHER_ID = "weather_id";
@@ -126,32 +205,157 @@ public class WeatherContract {
         }
 
         public static Uri buildWeatherLocationWithStartDate(
-                String locationSetting, long startDate) {
-            long normalizedDate = normalizeDate(startDate);
+                String locationSetting, int startJulianDay) {
             return CONTENT_URI.buildUpon().appendPath(locationSetting)
-                    .appendQueryParameter(COLUMN_DATE, Long.toString(normalizedDate)).build();
+                    .appendQueryParameter(COLUMN_DATE, Integer.toString(startJulianDay)).build();
         }
 
-        public static Uri buildWeatherLocationWithDate(String locationSetting, long date) {
+        public static Uri buildWeatherLocationWithDate(String locationSetting, int julianDay) {
             return CONTENT_URI.buildUpon().appendPath(locationSetting)
-                    .appendPath(Long.toString(normalizeDate(date))).build();
+                    .appendPath(Integer.toString(julianDay)).build();
         }
 
         public static String getLocationSettingFromUri(Uri uri) {
             return uri.getPathSegments().get(1);
         }
 
-        public static long getDateFromUri(Uri uri) {
-            return Long.parseLong(uri.getPathSegments().get(2));
+        public static int getDateFromUri(Uri uri) {
+            return Integer.parseInt(uri.getPathSegments().get(2));
         }
 
-        public static long getStartDateFromUri(Uri uri) {
+        public static int getStartDateFromUri(Uri uri) {
             String dateString = uri.getQueryParameter(COLUMN_DATE);
             if (!TextUtils.isEmpty(dateString))
-                return Long.parseLong(dateString);
+                return Integer.parseInt(dateString);
             else
                 return 0;
         }
 
     }
+
+    /*
+        Inner class that defines the table contents of the archive table, the history of the
+        days pruned from the weather table.  Recent days are kept as they were; older ones are
+        folded into one row per week, then one row per month, and the oldest months expire.
+     */
+    public static final class ArchiveEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_ARCHIVE).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_ARCHIVE;
+
+        public static final String TABLE_NAME = "archive";
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+
+        // The span of weather a row summarizes, one of the PERIOD_ values.
+        public static final String COLUMN_PERIOD = "period";
+        public static final int PERIOD_DAY = 0;
+        public static final int PERIOD_WEEK = 1;
+        public static final int PERIOD_MONTH = 2;
+
+        // The first day of the period, as a Julian day.  Weeks start on Monday; a week that
+        // runs into the next month is counted in the month it starts in.
+        public static final String COLUMN_DATE = "date";
+
+        // The number of days the row summarizes.
+        public static final String COLUMN_DAYS = "days";
+
+        // The remaining columns are those of WeatherEntry.  For a week or a month they are the
+        // averages of its days, except the weather id, which is the lowest of its days: in the
+        // API's numbering that is roughly the most severe weather of the period.
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+        public static final String COLUMN_MIN_TEMP = "min";
+        public static final String COLUMN_MAX_TEMP = "max";
+        public static final String COLUMN_HUMIDITY = "humidity";
+        public static final String COLUMN_PRESSURE = "pressure";
+        public static final String COLUMN_WIND_SPEED = "wind";
+
+        public static Uri buildArchiveLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+    }
+
+    /*
+        Inner class that defines the rollup tables: the statistics of a location's weather per
+        week and per month, kept up to date as its weather rows change, so they can be read
+        without aggregating the history.  They cover the days in the weather table and those
+        moved to the archive, for as long as the archive keeps their month.
+     */
+    public static final class RollupEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_ROLLUP).build();
+
+        public static final String PATH_WEEK = "week";
+        public static final String PATH_MONTH = "month";
+        // The location's statistics over every stored month, as a single row.
+        public static final String PATH_RECORDS = "records";
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_ROLLUP;
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_ROLLUP;
+
+        public static final String WEEK_TABLE_NAME = "weather_week";
+        public static final String MONTH_TABLE_NAME = "weather_month";
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+
+        // The first day of the week (a Monday) or month, as a Julian day.
+        public static final String COLUMN_DATE = "date";
+
+        // The number of days of weather stored for the period.
+        public static final String COLUMN_DAYS = "days";
+
+        // The average of the days' highs and lows, and the highest high and lowest low.
+        public static final String COLUMN_AVG_HIGH = "avg_high";
+        public static final String COLUMN_AVG_LOW = "avg_low";
+        public static final String COLUMN_RECORD_HIGH = "record_high";
+        public static final String COLUMN_RECORD_LOW = "record_low";
+
+        public static Uri buildWeekLocation(String locationSetting) {
+            return buildRollupLocation(PATH_WEEK, locationSetting);
+        }
+
+        // The week that contains the day.
+        public static Uri buildWeekLocationWithDate(String locationSetting, int julianDay) {
+            return buildWeekLocation(locationSetting).buildUpon()
+                    .appendPath(Integer.toString(julianDay)).build();
+        }
+
+        public static Uri buildMonthLocation(String locationSetting) {
+            return buildRollupLocation(PATH_MONTH, locationSetting);
+        }
+
+        // The month that contains the day.
+        public static Uri buildMonthLocationWithDate(String locationSetting, int julianDay) {
+            return buildMonthLocation(locationSetting).buildUpon()
+                    .appendPath(Integer.toString(julianDay)).build();
+        }
+
+        public static Uri buildRecordsLocation(String locationSetting) {
+            return buildRollupLocation(PATH_RECORDS, locationSetting);
+        }
+
+        private static Uri buildRollupLocation(String path, String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(path).appendPath(locationSetting).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(2);
+        }
+
+        public static int getDateFromUri(Uri uri) {
+            return Integer.parseInt(uri.getPathSegments().get(3));
+        }
+    }
 }
@@ -15,25 +15,191 @@
  */
 package com.example.android.sunshine.app.data;
 
+import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 
+import com.example.android.sunshine.app.data.WeatherContract.ArchiveEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.RollupEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
+import java.util.TimeZone;
+
 /**
  * Manages a local database for weather data.
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
-    // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 3;
+    // If you change the database schema, you must increment the database version and add the
+    // step that migrates the previous version to MIGRATIONS.
+    static final int DATABASE_VERSION = 9;
+
+    // The oldest version MIGRATIONS can start from.  Files older than this are rebuilt.
+    static final int MIN_MIGRATABLE_VERSION = 3;
 
     static final String DATABASE_NAME = "weather.db";
 
+    // Checkpoint once the write-ahead log holds this many pages, and truncate it back to this
+    // size afterwards.  A sync writes a few dozen rows, so the log never has to grow large.
+    static final int WAL_AUTOCHECKPOINT_PAGES = 256;
+    private static final long JOURNAL_SIZE_LIMIT_BYTES = 1024 * 1024;
+
+    // Page cache of the primary (writer) connection, converted to pages once the page size is
+    // known.  onOpen only runs on that connection; WAL readers keep the platform default.
+    private static final long CACHE_SIZE_BYTES = 2 * 1024 * 1024;
+
+    // Covers the forecast list: the weather rows of one location in date order.  The UNIQUE
+    // (date, location_id) constraint has the columns the other way round, so it can't serve
+    // a per-location date range or its ORDER BY date.
+    static final String INDEX_WEATHER_LOCATION_DATE = "weather_location_date";
+    static final String SQL_CREATE_WEATHER_LOCATION_DATE_INDEX =
+            "CREATE INDEX IF NOT EXISTS " + INDEX_WEATHER_LOCATION_DATE + " ON " +
+                    WeatherEntry.TABLE_NAME + " (" +
+                    WeatherEntry.COLUMN_LOC_KEY + ", " +
+                    WeatherEntry.COLUMN_DATE + ", " +
+                    WeatherEntry.COLUMN_SHORT_DESC + ", " +
+                    WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                    WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                    WeatherEntry.COLUMN_WEATHER_ID + ");";
+
+    // Covers the location side of the same join: setting to id and coordinates.
+    static final String INDEX_LOCATION_SETTING = "location_setting_coords";
+    private static final String SQL_CREATE_LOCATION_SETTING_INDEX =
+            "CREATE INDEX IF NOT EXISTS " + INDEX_LOCATION_SETTING + " ON " +
+                    LocationEntry.TABLE_NAME + " (" +
+                    LocationEntry.COLUMN_LOCATION_SETTING + ", " +
+                    LocationEntry.COLUMN_COORD_LAT + ", " +
+                    LocationEntry.COLUMN_COORD_LONG + ");";
+
+    // The spatial index: a bounding box is a few ranges of cells, and the coordinates the rows
+    // are filtered on exactly come with them.
+    static final String INDEX_LOCATION_GEOCELL = "location_geocell";
+    private static final String SQL_CREATE_LOCATION_GEOCELL_INDEX =
+            "CREATE INDEX IF NOT EXISTS " + INDEX_LOCATION_GEOCELL + " ON " +
+                    LocationEntry.TABLE_NAME + " (" +
+                    GeoCells.COLUMN_GEOCELL + ", " +
+                    LocationEntry.COLUMN_COORD_LAT + ", " +
+                    LocationEntry.COLUMN_COORD_LONG + ");";
+
+    // Finds the locations that resolved to a city, to share its weather rows between them.
+    static final String INDEX_LOCATION_CITY = "location_city";
+    private static final String SQL_CREATE_LOCATION_CITY_INDEX =
+            "CREATE INDEX IF NOT EXISTS " + INDEX_LOCATION_CITY + " ON " +
+                    LocationEntry.TABLE_NAME + " (" +
+                    LocationEntry.COLUMN_CITY_ID + ");";
+
+    // One row per location, period and first day.  Its index also serves a location's history
+    // in date order, one period at a time.
+    static final String SQL_CREATE_ARCHIVE_TABLE = "CREATE TABLE " +
+            ArchiveEntry.TABLE_NAME + " (" +
+            ArchiveEntry._ID + " INTEGER PRIMARY KEY," +
+            ArchiveEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+            ArchiveEntry.COLUMN_PERIOD + " INTEGER NOT NULL, " +
+            ArchiveEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+            ArchiveEntry.COLUMN_DAYS + " INTEGER NOT NULL, " +
+            ArchiveEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+            ArchiveEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+            ArchiveEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+            ArchiveEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+            ArchiveEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+            ArchiveEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+            " FOREIGN KEY (" + ArchiveEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+            " UNIQUE (" + ArchiveEntry.COLUMN_LOC_KEY + ", " + ArchiveEntry.COLUMN_PERIOD + ", " +
+            ArchiveEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
+
+    // Covers the compaction's search for the oldest rows of a period across all locations.
+    static final String INDEX_ARCHIVE_PERIOD_DATE = "archive_period_date";
+    private static final String SQL_CREATE_ARCHIVE_PERIOD_DATE_INDEX =
+            "CREATE INDEX IF NOT EXISTS " + INDEX_ARCHIVE_PERIOD_DATE + " ON " +
+                    ArchiveEntry.TABLE_NAME + " (" +
+                    ArchiveEntry.COLUMN_PERIOD + ", " +
+                    ArchiveEntry.COLUMN_DATE + ", " +
+                    ArchiveEntry.COLUMN_LOC_KEY + ");";
+
+    // The week and month rollups share a layout: one row per location and first day, with the
+    // archived part WeatherRollups maintains next to the statistics.
+    static String buildCreateRollupTableSql(String table) {
+        return "CREATE TABLE " + table + " (" +
+                RollupEntry._ID + " INTEGER PRIMARY KEY," +
+                RollupEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                RollupEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                RollupEntry.COLUMN_DAYS + " INTEGER NOT NULL, " +
+                RollupEntry.COLUMN_AVG_HIGH + " REAL NOT NULL, " +
+                RollupEntry.COLUMN_AVG_LOW + " REAL NOT NULL, " +
+                RollupEntry.COLUMN_RECORD_HIGH + " REAL NOT NULL, " +
+                RollupEntry.COLUMN_RECORD_LOW + " REAL NOT NULL, " +
+                WeatherRollups.COLUMN_ARCHIVED_DAYS + " INTEGER NOT NULL, " +
+                WeatherRollups.COLUMN_ARCHIVED_HIGH_SUM + " REAL NOT NULL, " +
+                WeatherRollups.COLUMN_ARCHIVED_LOW_SUM + " REAL NOT NULL, " +
+                WeatherRollups.COLUMN_ARCHIVED_HIGH + " REAL, " +
+                WeatherRollups.COLUMN_ARCHIVED_LOW + " REAL, " +
+                " FOREIGN KEY (" + RollupEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+                " UNIQUE (" + RollupEntry.COLUMN_LOC_KEY + ", " + RollupEntry.COLUMN_DATE +
+                ") ON CONFLICT REPLACE);";
+    }
+
+    // Lets the archive's compaction expire the oldest rollups across all locations.
+    static String buildCreateRollupDateIndexSql(String table) {
+        return "CREATE INDEX IF NOT EXISTS " + table + "_date ON " + table + " (" +
+                RollupEntry.COLUMN_DATE + ");";
+    }
+
     public WeatherDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME);
+    }
+
+    WeatherDbHelper(Context context, String name) {
+        super(context, name, null, DATABASE_VERSION);
+        // With write-ahead logging the loaders can read while a sync is writing, instead of
+        // waiting for its transaction to commit.
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(true);
+        }
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (db.isReadOnly()) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            db.enableWriteAheadLogging();
+        }
+        // In WAL mode NORMAL only syncs at checkpoints: a commit can be lost on power failure,
+        // but the database can't be corrupted, which is fine for a cache of online data.
+        db.execSQL("PRAGMA synchronous = NORMAL");
+
+        // The rest are per connection and may be changed inside a transaction, which pins the
+        // statements to the connection that does the writing and checkpointing.
+        db.beginTransaction();
+        try {
+            long pageSize = queryPragma(db, "PRAGMA page_size");
+            if (pageSize > 0) {
+                db.execSQL("PRAGMA cache_size = " + CACHE_SIZE_BYTES / pageSize);
+            }
+            // These two report their new value, so they have to run as queries.
+            queryPragma(db, "PRAGMA wal_autocheckpoint = " + WAL_AUTOCHECKPOINT_PAGES);
+            queryPragma(db, "PRAGMA journal_size_limit = " + JOURNAL_SIZE_LIMIT_BYTES);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    static long queryPragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery(pragma, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
     }
 
     @Override
@@ -48,6 +214,7 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
 
                 // the ID of the location entry associated with this weather data
                 WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                // the Julian day number of the forecast's local day
                 WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
                 WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
                 WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
@@ -77,22 +244,243 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
 
                 LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
-                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL);";
+                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL, " +
+
+                // the cell of the coordinates, which the provider keeps up to date (see GeoCells)
+                GeoCells.COLUMN_GEOCELL + " INTEGER NOT NULL DEFAULT 0, " +
+
+                // the city the forecast is requested by, and the location sharing its weather
+                LocationEntry.COLUMN_CITY_ID + " INTEGER NOT NULL DEFAULT 0, " +
+                LocationEntry.COLUMN_SHARED_LOC_KEY + " INTEGER);";
 
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_ARCHIVE_TABLE);
+        for (String table : WeatherRollups.TABLES) {
+            sqLiteDatabase.execSQL(buildCreateRollupTableSql(table));
+        }
+        createIndexes(sqLiteDatabase);
     }
 
+    private static void createIndexes(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
+        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_SETTING_INDEX);
+        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_GEOCELL_INDEX);
+        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_CITY_INDEX);
+        sqLiteDatabase.execSQL(SQL_CREATE_ARCHIVE_PERIOD_DATE_INDEX);
+        for (String table : WeatherRollups.TABLES) {
+            sqLiteDatabase.execSQL(buildCreateRollupDateIndexSql(table));
+        }
+    }
+
+    /**
+     * One schema change, from {@code toVersion - 1} to {@code toVersion}.  A step's SQL must
+     * stay as it was written, so it spells out its tables, columns and values instead of using
+     * the constants onCreate uses, and keeps its own copy of any code it runs: later schema
+     * changes get a step of their own.
+     */
+    abstract static class Migration {
+        final int toVersion;
+
+        Migration(int toVersion) {
+            this.toVersion = toVersion;
+        }
+
+        abstract void migrate(SQLiteDatabase db);
+    }
+
+    // The steps from MIN_MIGRATABLE_VERSION up to DATABASE_VERSION, in order.
+    static final Migration[] MIGRATIONS = {
+            new Migration(4) {
+                // Indexes for the forecast queries.
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE INDEX IF NOT EXISTS weather_location_date ON weather " +
+                            "(location_id, date, short_desc, max, min, weather_id);");
+                    db.execSQL("CREATE INDEX IF NOT EXISTS location_setting_coords ON location " +
+                            "(location_setting, coord_lat, coord_long);");
+                }
+            },
+            new Migration(5) {
+                // Dates from milliseconds at the start of the local day to Julian day numbers.
+                // The current offset is used for every row; the half day added absorbs rows
+                // stored under the other side of a daylight saving change.
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    long offset = TimeZone.getDefault().getOffset(System.currentTimeMillis());
+                    long dayInMillis = 24 * 60 * 60 * 1000L;
+                    // The Julian day number of 1970-01-01.
+                    long epochJulianDay = 2440588;
+                    db.execSQL("UPDATE weather SET date = (date + ?) / ? + ?",
+                            new Object[]{offset + dayInMillis / 2, dayInMillis, epochJulianDay});
+                }
+            },
+            new Migration(6) {
+                // The archive of pruned days.  The days pruned before it existed are gone.
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE archive (_id INTEGER PRIMARY KEY," +
+                            "location_id INTEGER NOT NULL, period INTEGER NOT NULL, " +
+                            "date INTEGER NOT NULL, days INTEGER NOT NULL, " +
+                            "weather_id INTEGER NOT NULL, min REAL NOT NULL, " +
+                            "max REAL NOT NULL, humidity REAL NOT NULL, " +
+                            "pressure REAL NOT NULL, wind REAL NOT NULL, " +
+                            " FOREIGN KEY (location_id) REFERENCES location (_id), " +
+                            " UNIQUE (location_id, period, date) ON CONFLICT REPLACE);");
+                    db.execSQL("CREATE INDEX IF NOT EXISTS archive_period_date ON archive " +
+                            "(period, date, location_id);");
+                }
+            },
+            new Migration(7) {
+                // Week and month rollups, filled from the weather rows and the archive.  The
+                // weeks and months the archive had already folded only kept their averages,
+                // which stand in for their records.
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    createAndFill(db, "weather_week", "date - date % 7", "0, 1");
+                    createAndFill(db, "weather_month",
+                            "CAST(julianday(date, 'start of month') + 0.5 AS INTEGER)", "0, 1, 2");
+                }
+
+                // bucketOf gives the first day of the period of a row's date.
+                private void createAndFill(SQLiteDatabase db, String table, String bucketOf,
+                                           String archivePeriods) {
+                    db.execSQL("CREATE TABLE " + table + " (_id INTEGER PRIMARY KEY," +
+                            "location_id INTEGER NOT NULL, date INTEGER NOT NULL, " +
+                            "days INTEGER NOT NULL, avg_high REAL NOT NULL, " +
+                            "avg_low REAL NOT NULL, record_high REAL NOT NULL, " +
+                            "record_low REAL NOT NULL, archived_days INTEGER NOT NULL, " +
+                            "archived_high_sum REAL NOT NULL, archived_low_sum REAL NOT NULL, " +
+                            "archived_high REAL, archived_low REAL, " +
+                            " FOREIGN KEY (location_id) REFERENCES location (_id), " +
+                            " UNIQUE (location_id, date) ON CONFLICT REPLACE);");
+                    db.execSQL("CREATE INDEX IF NOT EXISTS " + table + "_date ON " + table +
+                            " (date);");
+                    // The archive's rows make up the archived part, the weather rows the rest.
+                    db.execSQL("INSERT INTO " + table + " (location_id, date, days, " +
+                            "avg_high, avg_low, record_high, record_low, archived_days, " +
+                            "archived_high_sum, archived_low_sum, archived_high, archived_low) " +
+                            "SELECT location_id, bucket, SUM(days), " +
+                            "SUM(high_sum) / SUM(days), SUM(low_sum) / SUM(days), " +
+                            "MAX(high), MIN(low), SUM(archived_days), " +
+                            "TOTAL(archived_high_sum), TOTAL(archived_low_sum), " +
+                            "MAX(archived_high), MIN(archived_low) FROM (" +
+                            "SELECT location_id, " + bucketOf + " AS bucket, days, " +
+                            "max * days AS high_sum, min * days AS low_sum, " +
+                            "max AS high, min AS low, " +
+                            "days AS archived_days, max * days AS archived_high_sum, " +
+                            "min * days AS archived_low_sum, max AS archived_high, " +
+                            "min AS archived_low FROM archive " +
+                            "WHERE period IN (" + archivePeriods + ") " +
+                            "UNION ALL SELECT location_id, " + bucketOf + ", " +
+                            "1, max, min, max, min, 0, 0, 0, NULL, NULL FROM weather) " +
+                            "GROUP BY location_id, bucket");
+                }
+            },
+            new Migration(8) {
+                // The geocell of each location, and its index.
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE location ADD COLUMN geocell " +
+                            "INTEGER NOT NULL DEFAULT 0");
+                    Cursor cursor = db.rawQuery(
+                            "SELECT _id, coord_lat, coord_long FROM location", null);
+                    try {
+                        ContentValues values = new ContentValues(1);
+                        while (cursor.moveToNext()) {
+                            values.put("geocell",
+                                    encode(cursor.getDouble(1), cursor.getDouble(2)));
+                            db.update("location", values, "_id = ?",
+                                    new String[]{Long.toString(cursor.getLong(0))});
+                        }
+                    } finally {
+                        cursor.close();
+                    }
+                    db.execSQL("CREATE INDEX IF NOT EXISTS location_geocell ON location " +
+                            "(geocell, coord_lat, coord_long);");
+                }
+
+                // The cells as GeoCells encoded them at this version: 26 bits per axis,
+                // longitude in the odd bits and latitude in the even ones.
+                private long encode(double lat, double lon) {
+                    return (spread(quantize(lon + 180, 360)) << 1)
+                            | spread(quantize(lat + 90, 180));
+                }
+
+                private long quantize(double offset, double span) {
+                    long cells = 1L << 26;
+                    long cell = (long) Math.floor(offset / span * cells);
+                    return Math.max(0, Math.min(cells - 1, cell));
+                }
+
+                private long spread(long value) {
+                    value &= 0xffffffffL;
+                    value = (value | (value << 16)) & 0x0000ffff0000ffffL;
+                    value = (value | (value << 8)) & 0x00ff00ff00ff00ffL;
+                    value = (value | (value << 4)) & 0x0f0f0f0f0f0f0f0fL;
+                    value = (value | (value << 2)) & 0x3333333333333333L;
+                    value = (value | (value << 1)) & 0x5555555555555555L;
+                    return value;
+                }
+            },
+            new Migration(9) {
+                // The city each location resolves to.  Stored locations get theirs on their
+                // next sync, which also finds out which of them share a city.
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE location ADD COLUMN city_id " +
+                            "INTEGER NOT NULL DEFAULT 0");
+                    db.execSQL("ALTER TABLE location ADD COLUMN shared_location_id INTEGER");
+                    db.execSQL("CREATE INDEX IF NOT EXISTS location_city ON location " +
+                            "(city_id);");
+                }
+            }
+    };
+
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
-        // Note that this only fires if you change the version number for your database.
-        // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
+        if (oldVersion < MIN_MIGRATABLE_VERSION) {
+            // There are no migrations from these versions, and this database is only a cache
+            // for online data, so the upgrade policy is to discard the data and start over.
+            recreate(sqLiteDatabase);
+            return;
+        }
+        migrate(sqLiteDatabase, oldVersion, newVersion);
+    }
+
+    @Override
+    public void onDowngrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        // A newer build's schema can't be migrated back, so start over.
+        recreate(sqLiteDatabase);
+    }
+
+    /**
+     * Runs the migration steps that lead from {@code fromVersion} to {@code toVersion}, each
+     * in a transaction of its own.  SQLiteOpenHelper runs onUpgrade inside a transaction too,
+     * so a failing step rolls the whole upgrade back and the file stays at its old version.
+     */
+    static void migrate(SQLiteDatabase db, int fromVersion, int toVersion) {
+        for (Migration migration : MIGRATIONS) {
+            if (migration.toVersion <= fromVersion || migration.toVersion > toVersion) {
+                continue;
+            }
+            db.beginTransaction();
+            try {
+                migration.migrate(db);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+    }
+
+    private void recreate(SQLiteDatabase sqLiteDatabase) {
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + ArchiveEntry.TABLE_NAME);
+        for (String table : WeatherRollups.TABLES) {
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + table);
+        }
         onCreate(sqLiteDatabase);
     }
 }
@@ -17,38 +17,152 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class WeatherProvider extends ContentProvider {
 
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
+    // The helper's database stays open for the life of the provider.  SQLiteDatabase is safe
+    // to share between threads, and closing it after each write only made the next call reopen it.
     private WeatherDbHelper mOpenHelper;
 
+    // Compiled statements for the hot write paths; created with the writable database.  Only
+    // the fixed SQL of the ingest, archive and rollup code goes through it, about twenty
+    // statements, so one batch never evicts a statement it runs again.
+    private StatementCache mStatementCache;
+    private static final int MAX_CACHED_STATEMENTS = 32;
+
+    // The forecast list and detail queries, kept until a write to their location.
+    private final QueryCache mQueryCache = new QueryCache(MAX_CACHED_ROWS);
+    private static final int MAX_CACHED_ROWS = 512;
+
+    // The changes made by the applyBatch running on this thread, if any.  They are held until
+    // the batch ends: the cache can't be refilled from the rows the batch is about to replace,
+    // and observers hear about the whole batch once, after it has committed.
+    private final ThreadLocal<PendingChanges> mPendingChanges = new ThreadLocal<>();
+
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
     static final int LOCATION = 300;
+    static final int LOCATION_NEAR = 301;
+    static final int LOCATION_WITHIN = 302;
+    static final int ARCHIVE = 400;
+    static final int ARCHIVE_WITH_LOCATION = 401;
+    static final int ROLLUP_WEEK_WITH_LOCATION = 500;
+    static final int ROLLUP_WEEK_WITH_LOCATION_AND_DATE = 501;
+    static final int ROLLUP_MONTH_WITH_LOCATION = 510;
+    static final int ROLLUP_MONTH_WITH_LOCATION_AND_DATE = 511;
+    static final int ROLLUP_RECORDS_WITH_LOCATION = 520;
+
+    // The archive rows one compaction pass looks at, at most.
+    static final int ARCHIVE_ROWS_PER_PASS = 500;
+
+    // The most locations a near query returns, and the radius its search starts with; each
+    // round that finds too few searches four times as far.
+    static final int MAX_NEAR_LIMIT = 100;
+    static final double INITIAL_NEAR_RADIUS_KM = 25;
+
+    // The location_id of a location's weather, archive and rollup rows: those of the location
+    // it shares them with, if any, or its own.
+    //IFNULL(location.shared_location_id, location._id)
+    private static final String sLocationWeatherKey = "IFNULL(" +
+            WeatherContract.LocationEntry.TABLE_NAME + "." +
+            WeatherContract.LocationEntry.COLUMN_SHARED_LOC_KEY + ", " +
+            WeatherContract.LocationEntry.TABLE_NAME + "." +
+            WeatherContract.LocationEntry._ID + ")";
 
     private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    private static final SQLiteQueryBuilder sArchiveByLocationSettingQueryBuilder;
+    private static final SQLiteQueryBuilder sWeekRollupByLocationSettingQueryBuilder;
+    private static final SQLiteQueryBuilder sMonthRollupByLocationSettingQueryBuilder;
+    private static final SQLiteQueryBuilder sRecordsByLocationSettingQueryBuilder;
 
     static {
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
 
         //This is an inner join which looks like
-        //weather INNER JOIN location ON weather.location_id = location._id
+        //weather INNER JOIN location ON weather.location_id =
+        //    IFNULL(location.shared_location_id, location._id)
         sWeatherByLocationSettingQueryBuilder.setTables(
                 WeatherContract.WeatherEntry.TABLE_NAME + " INNER JOIN " +
                         WeatherContract.LocationEntry.TABLE_NAME +
                         " ON " + WeatherContract.WeatherEntry.TABLE_NAME +
                         "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
-                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
-                        "." + WeatherContract.LocationEntry._ID);
+                        " = " + sLocationWeatherKey);
+
+        //archive INNER JOIN location ON archive.location_id = IFNULL(...), as above
+        sArchiveByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
+        sArchiveByLocationSettingQueryBuilder.setTables(
+                WeatherContract.ArchiveEntry.TABLE_NAME + " INNER JOIN " +
+                        WeatherContract.LocationEntry.TABLE_NAME +
+                        " ON " + WeatherContract.ArchiveEntry.TABLE_NAME +
+                        "." + WeatherContract.ArchiveEntry.COLUMN_LOC_KEY +
+                        " = " + sLocationWeatherKey);
+
+        //weather_week INNER JOIN location ON weather_week.location_id = IFNULL(...),
+        //and the same for weather_month
+        sWeekRollupByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
+        sWeekRollupByLocationSettingQueryBuilder.setTables(
+                buildRollupJoin(WeatherContract.RollupEntry.WEEK_TABLE_NAME));
+        sMonthRollupByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
+        sMonthRollupByLocationSettingQueryBuilder.setTables(
+                buildRollupJoin(WeatherContract.RollupEntry.MONTH_TABLE_NAME));
+
+        // The records of a location aggregate its months, of which the archive keeps a few
+        // dozen at most.
+        sRecordsByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
+        sRecordsByLocationSettingQueryBuilder.setTables(
+                buildRollupJoin(WeatherContract.RollupEntry.MONTH_TABLE_NAME));
+        String days = "SUM(" + WeatherContract.RollupEntry.COLUMN_DAYS + ")";
+        HashMap<String, String> records = new HashMap<>();
+        records.put(WeatherContract.RollupEntry.COLUMN_DAYS,
+                days + " AS " + WeatherContract.RollupEntry.COLUMN_DAYS);
+        records.put(WeatherContract.RollupEntry.COLUMN_AVG_HIGH,
+                "SUM(" + WeatherContract.RollupEntry.COLUMN_AVG_HIGH + " * " +
+                        WeatherContract.RollupEntry.COLUMN_DAYS + ") / " + days +
+                        " AS " + WeatherContract.RollupEntry.COLUMN_AVG_HIGH);
+        records.put(WeatherContract.RollupEntry.COLUMN_AVG_LOW,
+                "SUM(" + WeatherContract.RollupEntry.COLUMN_AVG_LOW + " * " +
+                        WeatherContract.RollupEntry.COLUMN_DAYS + ") / " + days +
+                        " AS " + WeatherContract.RollupEntry.COLUMN_AVG_LOW);
+        records.put(WeatherContract.RollupEntry.COLUMN_RECORD_HIGH,
+                "MAX(" + WeatherContract.RollupEntry.COLUMN_RECORD_HIGH + ") AS " +
+                        WeatherContract.RollupEntry.COLUMN_RECORD_HIGH);
+        records.put(WeatherContract.RollupEntry.COLUMN_RECORD_LOW,
+                "MIN(" + WeatherContract.RollupEntry.COLUMN_RECORD_LOW + ") AS " +
+                        WeatherContract.RollupEntry.COLUMN_RECORD_LOW);
+        sRecordsByLocationSettingQueryBuilder.setProjectionMap(records);
+    }
+
+    private static String buildRollupJoin(String rollupTable) {
+        return rollupTable + " INNER JOIN " + WeatherContract.LocationEntry.TABLE_NAME +
+                " ON " + rollupTable + "." + WeatherContract.RollupEntry.COLUMN_LOC_KEY +
+                " = " + sLocationWeatherKey;
     }
 
     //location.location_setting = ?
@@ -63,16 +177,23 @@ public class WeatherProvider extends ContentProvider {
                     WeatherContract.WeatherEntry.COLUMN_DATE;
 
     //location.location_setting = ? AND date >= ?
-    private static final String sLocationSettingWithStartDateSelection =
+    static final String sLocationSettingWithStartDateSelection =
             sLocationSettingDateBase + " >= ? ";
 
     //location.location_setting = ? AND date = ?
-    private static final String sLocationSettingAndDaySelection =
+    static final String sLocationSettingAndDaySelection =
             sLocationSettingDateBase + " = ? ";
 
+    // The SQL the weather/* URIs run for a selection above, for checking their query plans.
+    static String buildWeatherByLocationSettingSql(
+            String[] projection, String selection, String sortOrder) {
+        return sWeatherByLocationSettingQueryBuilder.buildQuery(
+                projection, selection, null, null, sortOrder, null);
+    }
+
     private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
-        long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
+        int startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
 
         String[] selectionArgs;
         String selection;
@@ -81,7 +202,7 @@ public class WeatherProvider extends ContentProvider {
             selection = sLocationSettingSelection;
             selectionArgs = new String[]{locationSetting};
         } else {
-            selectionArgs = new String[]{locationSetting, Long.toString(startDate)};
+            selectionArgs = new String[]{locationSetting, Integer.toString(startDate)};
             selection = sLocationSettingWithStartDateSelection;
         }
 
@@ -100,21 +221,247 @@ public class WeatherProvider extends ContentProvider {
     private Cursor getWeatherByLocationSettingAndDate(
             Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
-        long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
+        int date = WeatherContract.WeatherEntry.getDateFromUri(uri);
 
         return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
                 projection,
                 sLocationSettingAndDaySelection,
-                new String[]{locationSetting, Long.toString(date)},
+                new String[]{locationSetting, Integer.toString(date)},
                 null,
                 null,
                 sortOrder
         );
     }
 
+    //archive.date ASC
+    private static final String sArchiveDateSortOrder =
+            WeatherContract.ArchiveEntry.TABLE_NAME + "." +
+                    WeatherContract.ArchiveEntry.COLUMN_DATE + " ASC";
+
+    /*
+        The archive of a location, narrowed down by the caller's selection, e.g. to one period.
+     */
+    private Cursor getArchiveByLocationSetting(Uri uri, String[] projection, String selection,
+                                               String[] selectionArgs, String sortOrder) {
+        String locationSetting = WeatherContract.ArchiveEntry.getLocationSettingFromUri(uri);
+        return sArchiveByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                DatabaseUtils.concatenateWhere(sLocationSettingSelection, selection),
+                DatabaseUtils.appendSelectionArgs(new String[]{locationSetting}, selectionArgs),
+                null,
+                null,
+                sortOrder != null ? sortOrder : sArchiveDateSortOrder
+        );
+    }
+
+    /*
+        A location's week or month rollups, or with a date, the one of the week or month that
+        contains it.  The records are a single row whatever the projection.
+     */
+    private Cursor getRollupByLocationSetting(Uri uri, int match, String[] projection,
+                                              String sortOrder) {
+        String locationSetting = WeatherContract.RollupEntry.getLocationSettingFromUri(uri);
+        SQLiteQueryBuilder builder;
+        String table;
+        int start = -1;
+        switch (match) {
+            case ROLLUP_WEEK_WITH_LOCATION_AND_DATE:
+                start = JulianDay.startOfWeek(WeatherContract.RollupEntry.getDateFromUri(uri));
+                // fall through
+            case ROLLUP_WEEK_WITH_LOCATION:
+                builder = sWeekRollupByLocationSettingQueryBuilder;
+                table = WeatherContract.RollupEntry.WEEK_TABLE_NAME;
+                break;
+            case ROLLUP_MONTH_WITH_LOCATION_AND_DATE:
+                start = JulianDay.startOfMonth(WeatherContract.RollupEntry.getDateFromUri(uri));
+                // fall through
+            case ROLLUP_MONTH_WITH_LOCATION:
+                builder = sMonthRollupByLocationSettingQueryBuilder;
+                table = WeatherContract.RollupEntry.MONTH_TABLE_NAME;
+                break;
+            default:
+                return sRecordsByLocationSettingQueryBuilder.query(
+                        mOpenHelper.getReadableDatabase(),
+                        projection,
+                        sLocationSettingSelection,
+                        new String[]{locationSetting},
+                        null,
+                        null,
+                        null
+                );
+        }
+
+        String selection = sLocationSettingSelection;
+        String[] selectionArgs = {locationSetting};
+        if (start != -1) {
+            //location.location_setting = ? AND weather_week.date = ?
+            selection = sLocationSettingSelection + "AND " + table + "." +
+                    WeatherContract.RollupEntry.COLUMN_DATE + " = ?";
+            selectionArgs = new String[]{locationSetting, Integer.toString(start)};
+        }
+        return builder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                selection,
+                selectionArgs,
+                null,
+                null,
+                sortOrder != null ? sortOrder
+                        : table + "." + WeatherContract.RollupEntry.COLUMN_DATE + " ASC"
+        );
+    }
+
+    /*
+        The locations nearest to a point, nearest first.  The bounding box of a circle around
+        the point is searched on the geocell index, and the circle grows until it holds enough
+        locations or reaches the radius the URI allows.  The distances are exact, so a location
+        just outside the box's corner can't displace one inside the circle.
+     */
+    private Cursor getLocationsNear(Uri uri, String[] projection) {
+        double lat = WeatherContract.LocationEntry.getCoordinateFromUri(uri, 0);
+        double lon = WeatherContract.LocationEntry.getCoordinateFromUri(uri, 1);
+        int limit = WeatherContract.LocationEntry.getLimitFromUri(uri);
+        double maxRadius = Math.min(WeatherContract.LocationEntry.getRadiusFromUri(uri),
+                GeoCells.MAX_DISTANCE_KM);
+        if (Math.abs(lat) > 90 || Math.abs(lon) > 180 || limit < 1 || !(maxRadius >= 0)) {
+            throw new IllegalArgumentException("Invalid near query: " + uri);
+        }
+        limit = Math.min(limit, MAX_NEAR_LIMIT);
+
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        double radius = Math.min(INITIAL_NEAR_RADIUS_KM, maxRadius);
+        List<Neighbour> neighbours;
+        while (true) {
+            neighbours = findLocationsAround(db, lat, lon, radius);
+            if (neighbours.size() >= limit || radius >= maxRadius) {
+                break;
+            }
+            radius = Math.min(radius * 4, maxRadius);
+        }
+        Collections.sort(neighbours, new Comparator<Neighbour>() {
+            @Override
+            public int compare(Neighbour a, Neighbour b) {
+                return Double.compare(a.distanceKm, b.distanceKm);
+            }
+        });
+
+        // The ids are read from the database, so they go into the SQL as they are.
+        StringBuilder selection = new StringBuilder(WeatherContract.LocationEntry._ID)
+                .append(" IN (");
+        StringBuilder order = new StringBuilder("CASE ")
+                .append(WeatherContract.LocationEntry._ID);
+        int count = Math.min(limit, neighbours.size());
+        for (int i = 0; i < count; i++) {
+            long id = neighbours.get(i).id;
+            selection.append(i == 0 ? "" : ", ").append(id);
+            order.append(" WHEN ").append(id).append(" THEN ").append(i);
+        }
+        selection.append(')');
+        order.append(" END");
+        return db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                projection,
+                count == 0 ? "0" : selection.toString(),
+                null,
+                null,
+                null,
+                count == 0 ? null : order.toString()
+        );
+    }
+
+    // A location and its distance from the point of a near query.
+    private static final class Neighbour {
+        final long id;
+        final double distanceKm;
+
+        Neighbour(long id, double distanceKm) {
+            this.id = id;
+            this.distanceKm = distanceKm;
+        }
+    }
+
+    // The locations no further than radiusKm from a point.
+    private static List<Neighbour> findLocationsAround(
+            SQLiteDatabase db, double lat, double lon, double radiusKm) {
+        double[] box = GeoCells.boundingBox(lat, lon, radiusKm);
+        StringBuilder selection = new StringBuilder();
+        List<String> args = new ArrayList<>();
+        GeoCells.appendBoxSelection(box[0], box[1], box[2], box[3], selection, args);
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry._ID,
+                        WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+                        WeatherContract.LocationEntry.COLUMN_COORD_LONG},
+                selection.toString(), args.toArray(new String[args.size()]),
+                null, null, null);
+        try {
+            List<Neighbour> neighbours = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                double distance =
+                        GeoCells.distanceKm(lat, lon, cursor.getDouble(1), cursor.getDouble(2));
+                if (distance <= radiusKm) {
+                    neighbours.add(new Neighbour(cursor.getLong(0), distance));
+                }
+            }
+            return neighbours;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /*
+        The locations inside a bounding box, found through the geocell index, further narrowed
+        by the caller's selection.
+     */
+    private Cursor getLocationsWithin(Uri uri, String[] projection, String selection,
+                                      String[] selectionArgs, String sortOrder) {
+        double south = WeatherContract.LocationEntry.getCoordinateFromUri(uri, 0);
+        double west = WeatherContract.LocationEntry.getCoordinateFromUri(uri, 1);
+        double north = WeatherContract.LocationEntry.getCoordinateFromUri(uri, 2);
+        double east = WeatherContract.LocationEntry.getCoordinateFromUri(uri, 3);
+        if (south > north || Math.abs(south) > 90 || Math.abs(north) > 90
+                || Math.abs(west) > 180 || Math.abs(east) > 180) {
+            throw new IllegalArgumentException("Invalid bounding box: " + uri);
+        }
+        StringBuilder box = new StringBuilder();
+        List<String> args = new ArrayList<>();
+        GeoCells.appendBoxSelection(south, west, north, east, box, args);
+        return mOpenHelper.getReadableDatabase().query(
+                WeatherContract.LocationEntry.TABLE_NAME,
+                projection,
+                DatabaseUtils.concatenateWhere(box.toString(), selection),
+                DatabaseUtils.appendSelectionArgs(args.toArray(new String[args.size()]),
+                        selectionArgs),
+                null,
+                null,
+                sortOrder
+        );
+    }
+
+    /*
+        The weather/* queries go through the query cache.  On a miss the database cursor is
+        returned after its rows have been copied into the cache.
+     */
+    private Cursor getWeatherCached(Uri uri, String[] projection, String sortOrder) {
+        int match = sUriMatcher.match(uri);
+        String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+        int date = match == WEATHER_WITH_LOCATION_AND_DATE
+                ? WeatherContract.WeatherEntry.getDateFromUri(uri)
+                : WeatherContract.WeatherEntry.getStartDateFromUri(uri);
+        QueryCache.Key key = new QueryCache.Key(match, locationSetting, date, projection, sortOrder);
+
+        Cursor cursor = mQueryCache.get(key);
+        if (cursor != null) {
+            return cursor;
+        }
+        long generation = mQueryCache.getGeneration();
+        cursor = match == WEATHER_WITH_LOCATION_AND_DATE
+                ? getWeatherByLocationSettingAndDate(uri, projection, sortOrder)
+                : getWeatherByLocationSetting(uri, projection, sortOrder);
+        mQueryCache.put(key, generation, cursor);
+        return cursor;
+    }
+
     /*
         This UriMatcher will match each URI to the WEATHER, WEATHER_WITH_LOCATION, WEATHER_WITH_LOCATION_AND_DATE,
-        and LOCATION integer constants defined above.  You can test this by uncommenting the
+        LOCATION, ARCHIVE, ARCHIVE_WITH_LOCATION and ROLLUP_ integer constants defined above.  You can test this by uncommenting the
         testUriMatcher test within TestUriMatcher.
      */
     static UriMatcher buildUriMatcher() {
@@ -126,6 +473,25 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION + "/" +
+                WeatherContract.LocationEntry.PATH_NEAR + "/*/*", LOCATION_NEAR);
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION + "/" +
+                WeatherContract.LocationEntry.PATH_WITHIN + "/*/*/*/*", LOCATION_WITHIN);
+
+        matcher.addURI(authority, WeatherContract.PATH_ARCHIVE, ARCHIVE);
+        matcher.addURI(authority, WeatherContract.PATH_ARCHIVE + "/*", ARCHIVE_WITH_LOCATION);
+
+        final String rollup = WeatherContract.PATH_ROLLUP + "/";
+        matcher.addURI(authority, rollup + WeatherContract.RollupEntry.PATH_WEEK + "/*",
+                ROLLUP_WEEK_WITH_LOCATION);
+        matcher.addURI(authority, rollup + WeatherContract.RollupEntry.PATH_WEEK + "/*/#",
+                ROLLUP_WEEK_WITH_LOCATION_AND_DATE);
+        matcher.addURI(authority, rollup + WeatherContract.RollupEntry.PATH_MONTH + "/*",
+                ROLLUP_MONTH_WITH_LOCATION);
+        matcher.addURI(authority, rollup + WeatherContract.RollupEntry.PATH_MONTH + "/*/#",
+                ROLLUP_MONTH_WITH_LOCATION_AND_DATE);
+        matcher.addURI(authority, rollup + WeatherContract.RollupEntry.PATH_RECORDS + "/*",
+                ROLLUP_RECORDS_WITH_LOCATION);
 
         return matcher;
     }
@@ -149,7 +515,19 @@ public class WeatherProvider extends ContentProvider {
             case WEATHER:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
+            case LOCATION_NEAR:
+            case LOCATION_WITHIN:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case ARCHIVE:
+            case ARCHIVE_WITH_LOCATION:
+                return WeatherContract.ArchiveEntry.CONTENT_TYPE;
+            case ROLLUP_WEEK_WITH_LOCATION:
+            case ROLLUP_MONTH_WITH_LOCATION:
+                return WeatherContract.RollupEntry.CONTENT_TYPE;
+            case ROLLUP_WEEK_WITH_LOCATION_AND_DATE:
+            case ROLLUP_MONTH_WITH_LOCATION_AND_DATE:
+            case ROLLUP_RECORDS_WITH_LOCATION:
+                return WeatherContract.RollupEntry.CONTENT_ITEM_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -163,13 +541,10 @@ public class WeatherProvider extends ContentProvider {
         Cursor retCursor;
         switch (sUriMatcher.match(uri)) {
             // "weather/*/*"
-            case WEATHER_WITH_LOCATION_AND_DATE: {
-                retCursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
-                break;
-            }
+            case WEATHER_WITH_LOCATION_AND_DATE:
             // "weather/*"
             case WEATHER_WITH_LOCATION: {
-                retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
+                retCursor = getWeatherCached(uri, projection, sortOrder);
                 break;
             }
             // "weather"
@@ -198,6 +573,46 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "location/near/*/*"
+            case LOCATION_NEAR: {
+                retCursor = getLocationsNear(uri, projection);
+                break;
+            }
+            // "location/within/*/*/*/*"
+            case LOCATION_WITHIN: {
+                retCursor = getLocationsWithin(
+                        uri, projection, selection, selectionArgs, sortOrder);
+                break;
+            }
+            // "archive"
+            case ARCHIVE: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.ArchiveEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "archive/*"
+            case ARCHIVE_WITH_LOCATION: {
+                retCursor = getArchiveByLocationSetting(
+                        uri, projection, selection, selectionArgs, sortOrder);
+                break;
+            }
+            // "rollup/week/*", "rollup/month/*", with or without a day, and "rollup/records/*"
+            case ROLLUP_WEEK_WITH_LOCATION:
+            case ROLLUP_WEEK_WITH_LOCATION_AND_DATE:
+            case ROLLUP_MONTH_WITH_LOCATION:
+            case ROLLUP_MONTH_WITH_LOCATION_AND_DATE:
+            case ROLLUP_RECORDS_WITH_LOCATION: {
+                retCursor = getRollupByLocationSetting(
+                        uri, sUriMatcher.match(uri), projection, sortOrder);
+                break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
@@ -207,27 +622,55 @@ public class WeatherProvider extends ContentProvider {
     }
 
     /*
-        Student: Add the ability to insert Locations to the implementation of this function.
+        Inserting a location is an upsert keyed on its location setting: if the setting is
+        already stored, the Uri of the existing row is returned, and its city name and
+        coordinates are updated only if the new ones differ.
      */
     @Override
     public Uri insert(Uri uri, ContentValues values) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
+        final PendingChanges changes = startChanges();
         Uri returnUri;
 
         switch (match) {
             case WEATHER: {
-                normalizeDate(values);
-                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                // An unchanged day resolves to the stored row and changes nothing.  The day's
+                // rollups are updated in the same transaction.
+                int result;
+                long _id;
+                db.beginTransaction();
+                try {
+                    result = upsertWeather(db, values);
+                    _id = result == ROW_FAILED ? -1 : findWeatherId(db, values);
+                    if (result == ROW_INSERTED || result == ROW_UPDATED) {
+                        WeatherRollups.Buckets buckets = new WeatherRollups.Buckets();
+                        addBuckets(buckets, values);
+                        updateRollups(db, changes, buckets);
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
                 if (_id > 0)
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                if (result != ROW_UNCHANGED) {
+                    weatherChanged(db, changes,
+                            values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY));
+                }
                 break;
             }
             case LOCATION: {
-                normalizeDate(values);
-                long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
+                long _id;
+                db.beginTransaction();
+                try {
+                    _id = upsertLocation(db, changes, values);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
                 if (_id > 0)
                     returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
                 else
@@ -237,8 +680,7 @@ public class WeatherProvider extends ContentProvider {
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
-        db.close();
+        finishChanges(changes);
         return returnUri;
     }
 
@@ -253,37 +695,688 @@ public class WeatherProvider extends ContentProvider {
         // Student: Use the uriMatcher to match the WEATHER and LOCATION URI's we are going to
         // handle.  If it doesn't match these, throw an UnsupportedOperationException.
 
-        if (null == selection) selection = "1";
-        switch (match) {
-            case WEATHER: {
-                rowsDeleted = db.delete(WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
-                break;
-            }
-            case LOCATION: {
-                rowsDeleted = db.delete(WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
-                break;
+        final PendingChanges changes = startChanges();
+        // The rows are looked up and deleted in one transaction, so the changes recorded are
+        // exactly those of the rows deleted.
+        db.beginTransaction();
+        try {
+            switch (match) {
+                case WEATHER: {
+                    WeatherRollups.Buckets buckets = new WeatherRollups.Buckets();
+                    Set<Long> locationIds =
+                            findWeatherDays(db, selection, selectionArgs, null, buckets);
+                    rowsDeleted = db.delete(WeatherContract.WeatherEntry.TABLE_NAME,
+                            selection == null ? "1" : selection, selectionArgs);
+                    if (rowsDeleted != 0) {
+                        if (selection == null) {
+                            changes.allWeather = true;
+                        } else {
+                            weatherChanged(db, changes, locationIds);
+                        }
+                        updateRollups(db, changes, buckets);
+                    }
+                    break;
+                }
+                case LOCATION: {
+                    Set<String> locationSettings =
+                            findLocationSettings(db, selection, selectionArgs);
+                    Set<Long> locationIds = findLocationIds(db, selection, selectionArgs);
+                    for (Long locationId : locationIds) {
+                        // Nothing stops a location inserted later from reusing the id, so
+                        // the rows nobody takes over mustn't stay behind for it.
+                        if (!releaseSharers(db, changes, locationId, locationIds)) {
+                            dropWeather(db, changes, locationId);
+                        }
+                    }
+                    rowsDeleted = db.delete(WeatherContract.LocationEntry.TABLE_NAME,
+                            selection == null ? "1" : selection, selectionArgs);
+                    if (rowsDeleted != 0) {
+                        changes.locations = true;
+                        changes.weatherLocations.addAll(locationSettings);
+                    }
+                    break;
+                }
+                case ARCHIVE: {
+                    rowsDeleted = db.delete(WeatherContract.ArchiveEntry.TABLE_NAME,
+                            selection == null ? "1" : selection, selectionArgs);
+                    if (rowsDeleted != 0) {
+                        changes.archive = true;
+                    }
+                    break;
+                }
+                default:
+                    throw new UnsupportedOperationException("Unknown uri: " + uri);
             }
-            default:
-                throw new UnsupportedOperationException("Unknown uri: " + uri);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
         }
 
         // Student: A null value deletes all rows.  In my implementation of this, I only notified
         // the uri listeners (using the content resolver) if the rowsDeleted != 0 or the selection
         // is null.
         // Oh, and you should notify the listeners here.
-        if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
-        }
-        db.close();
+        finishChanges(changes);
         // Student: return the actual rows deleted
         return rowsDeleted;
     }
 
-    private void normalizeDate(ContentValues values) {
-        // normalize the date value
-        if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
-            long dateValue = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
-            values.put(WeatherContract.WeatherEntry.COLUMN_DATE, WeatherContract.normalizeDate(dateValue));
+    //location.location_setting = ?
+    private static final String sLocationSettingOnlySelection =
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?";
+
+    private static long findLocationId(SQLiteDatabase db, String locationSetting) {
+        if (locationSetting == null) {
+            return -1;
+        }
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry._ID},
+                sLocationSettingOnlySelection,
+                new String[]{locationSetting},
+                null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // The id of the location with the setting in values, inserting the location if the setting
+    // isn't stored yet.  Returns -1 if the insert failed.
+    private static long upsertLocation(
+            SQLiteDatabase db, PendingChanges changes, ContentValues values) {
+        String locationSetting =
+                values.getAsString(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+        long _id = findLocationId(db, locationSetting);
+        if (_id != -1) {
+            // Already stored: resolve to the existing row, so callers (and back
+            // references in a batch) get its id without a query of their own.
+            updateLocationIfChanged(db, changes, _id, locationSetting, values);
+            return _id;
+        }
+        ContentValues row = new ContentValues(values);
+        GeoCells.putCell(row);
+        _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, row);
+        if (_id > 0) {
+            // A new location has no forecast yet, so no weather query changes.
+            changes.locations = true;
+        }
+        return _id;
+    }
+
+    /*
+        Writes the other values of an inserted location to the stored row with its setting, as
+        the replacing insert used to, but only when one of them differs: a sync stores the same
+        city name and coordinates every time, and those shouldn't write or notify anything.
+     */
+    private static void updateLocationIfChanged(SQLiteDatabase db, PendingChanges changes,
+            long locationId, String locationSetting, ContentValues values) {
+        ContentValues row = new ContentValues(values);
+        row.remove(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+        if (row.size() == 0) {
+            return;
+        }
+        // With one coordinate, the cell is computed once the row has both.
+        boolean cellPending = GeoCells.putCell(row);
+
+        //UPDATE location SET city_name = ?, ... WHERE _id = ?
+        //    AND (city_name IS NOT ? OR ...)
+        StringBuilder set = new StringBuilder();
+        StringBuilder differs = new StringBuilder();
+        Object[] bindArgs = new Object[2 * row.size() + 1];
+        int i = 0;
+        for (Map.Entry<String, Object> entry : row.valueSet()) {
+            set.append(i > 0 ? ", " : "").append(entry.getKey()).append(" = ?");
+            differs.append(i > 0 ? " OR " : "").append(entry.getKey()).append(" IS NOT ?");
+            bindArgs[i] = entry.getValue();
+            bindArgs[row.size() + 1 + i] = entry.getValue();
+            i++;
+        }
+        bindArgs[row.size()] = locationId;
+        SQLiteStatement update = db.compileStatement("UPDATE " +
+                WeatherContract.LocationEntry.TABLE_NAME + " SET " + set + " WHERE " +
+                sLocationIdSelection + " AND (" + differs + ")");
+        int changed;
+        try {
+            // Bound with their own types, so a coordinate compares as the number stored.
+            for (int arg = 0; arg < bindArgs.length; arg++) {
+                DatabaseUtils.bindObjectToProgram(update, arg + 1, bindArgs[arg]);
+            }
+            changed = update.executeUpdateDelete();
+        } finally {
+            update.close();
+        }
+        if (changed != 0) {
+            if (cellPending) {
+                GeoCells.updateCells(db, sLocationIdSelection,
+                        new String[]{Long.toString(locationId)});
+            }
+            // The forecast queries show the location's city name and coordinates.
+            changes.locations = true;
+            changes.weatherLocations.add(locationSetting);
+        }
+    }
+
+    //location._id = ?
+    private static final String sLocationIdSelection = WeatherContract.LocationEntry._ID + " = ?";
+
+    //location._id = ? OR shared_location_id = ?
+    private static final String sLocationWeatherSelection = sLocationIdSelection + " OR " +
+            WeatherContract.LocationEntry.COLUMN_SHARED_LOC_KEY + " = ?";
+
+    //city_id = ?
+    private static final String sCityIdSelection =
+            WeatherContract.LocationEntry.COLUMN_CITY_ID + " = ?";
+
+    //location_id = ?, in the weather, archive and rollup tables
+    private static final String sLocKeySelection =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ?";
+
+    /*
+        Records the city a location resolved to, and has all the locations of that city share
+        the weather rows of the first one stored.  A location that had rows of its own until
+        now drops them, with their archive and rollups: the shared rows hold the same forecast.
+
+        Returns the location_id the city's forecast is stored under.
+     */
+    private static long shareCity(
+            SQLiteDatabase db, PendingChanges changes, long locationId, long cityId) {
+        String[] cityArgs = {Long.toString(cityId)};
+        ContentValues values = new ContentValues(1);
+        values.put(WeatherContract.LocationEntry.COLUMN_CITY_ID, cityId);
+        int changed = db.update(WeatherContract.LocationEntry.TABLE_NAME, values,
+                sLocationIdSelection + " AND " + WeatherContract.LocationEntry.COLUMN_CITY_ID +
+                        " != ?", new String[]{Long.toString(locationId), cityArgs[0]});
+        if (changed != 0) {
+            releaseSharers(db, changes, locationId, Collections.<Long>emptySet());
+        }
+
+        long ownerId = DatabaseUtils.longForQuery(db, "SELECT MIN(" +
+                WeatherContract.LocationEntry._ID + ") FROM " +
+                WeatherContract.LocationEntry.TABLE_NAME + " WHERE " + sCityIdSelection, cityArgs);
+        String[] sharingArgs = {cityArgs[0], Long.toString(ownerId)};
+
+        //city_id = ? AND _id != ? AND shared_location_id IS NULL
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry._ID},
+                sCityIdSelection + " AND " + WeatherContract.LocationEntry._ID + " != ? AND " +
+                        WeatherContract.LocationEntry.COLUMN_SHARED_LOC_KEY + " IS NULL",
+                sharingArgs, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                dropWeather(db, changes, cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        values.clear();
+        values.put(WeatherContract.LocationEntry.COLUMN_SHARED_LOC_KEY, ownerId);
+        changed += db.update(WeatherContract.LocationEntry.TABLE_NAME, values,
+                sCityIdSelection + " AND " + WeatherContract.LocationEntry._ID + " != ? AND (" +
+                        WeatherContract.LocationEntry.COLUMN_SHARED_LOC_KEY + " IS NULL OR " +
+                        WeatherContract.LocationEntry.COLUMN_SHARED_LOC_KEY + " != ?)",
+                new String[]{cityArgs[0], sharingArgs[1], sharingArgs[1]});
+        // The first location of the city may have shared the rows of one deleted since.
+        values.putNull(WeatherContract.LocationEntry.COLUMN_SHARED_LOC_KEY);
+        changed += db.update(WeatherContract.LocationEntry.TABLE_NAME, values,
+                sLocationIdSelection + " AND " +
+                        WeatherContract.LocationEntry.COLUMN_SHARED_LOC_KEY + " IS NOT NULL",
+                new String[]{sharingArgs[1]});
+
+        if (changed != 0) {
+            // Some of the city's locations show other rows now.
+            changes.locations = true;
+            changes.weatherLocations.addAll(findLocationSettings(db, sCityIdSelection, cityArgs));
+        }
+        return ownerId;
+    }
+
+    /*
+        Hands the weather rows of a location, with their archive and rollups, over to the first
+        of the locations that share them, which the others then share instead.  This runs
+        before the location stops holding its city's forecast: it resolved to another city, or
+        it is about to be deleted.  Otherwise they would go on showing its rows, soon those of
+        another city, and with sync-all off nothing would repair that.  The locations in
+        leaving are deleted along with it and can't take over.
+
+        Returns false if no location took the rows over.
+     */
+    private static boolean releaseSharers(SQLiteDatabase db, PendingChanges changes,
+                                       long locationId, Set<Long> leaving) {
+        String[] args = {Long.toString(locationId)};
+        long newOwnerId = -1;
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry._ID,
+                        WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                WeatherContract.LocationEntry.COLUMN_SHARED_LOC_KEY + " = ?", args,
+                null, null, WeatherContract.LocationEntry._ID);
+        try {
+            while (cursor.moveToNext()) {
+                if (newOwnerId == -1 && !leaving.contains(cursor.getLong(0))) {
+                    newOwnerId = cursor.getLong(0);
+                }
+                changes.weatherLocations.add(cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        if (newOwnerId == -1) {
+            return false;
+        }
+
+        ContentValues values = new ContentValues(1);
+        values.put(WeatherContract.LocationEntry.COLUMN_SHARED_LOC_KEY, newOwnerId);
+        db.update(WeatherContract.LocationEntry.TABLE_NAME, values,
+                WeatherContract.LocationEntry.COLUMN_SHARED_LOC_KEY + " = ?", args);
+        values.putNull(WeatherContract.LocationEntry.COLUMN_SHARED_LOC_KEY);
+        db.update(WeatherContract.LocationEntry.TABLE_NAME, values, sLocationIdSelection,
+                new String[]{Long.toString(newOwnerId)});
+        changes.locations = true;
+
+        // The sharers have no rows of their own, so the keys can't collide.
+        values.clear();
+        values.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, newOwnerId);
+        db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, sLocKeySelection, args);
+        if (db.update(WeatherContract.ArchiveEntry.TABLE_NAME, values, sLocKeySelection,
+                args) != 0) {
+            changes.archive = true;
+        }
+        for (String table : WeatherRollups.TABLES) {
+            if (db.update(table, values, sLocKeySelection, args) != 0) {
+                changes.rollups = true;
+            }
+        }
+        return true;
+    }
+
+    // Deletes the weather rows of a location, and its archive and rollups.  This happens once
+    // per location at most, so the statements aren't worth a place in the statement cache.
+    private static void dropWeather(SQLiteDatabase db, PendingChanges changes, long locationId) {
+        String[] args = {Long.toString(locationId)};
+        weatherChanged(db, changes, locationId);
+        db.delete(WeatherContract.WeatherEntry.TABLE_NAME, sLocKeySelection, args);
+        if (db.delete(WeatherContract.ArchiveEntry.TABLE_NAME, sLocKeySelection, args) != 0) {
+            changes.archive = true;
+        }
+        for (String table : WeatherRollups.TABLES) {
+            if (db.delete(table, sLocKeySelection, args) != 0) {
+                changes.rollups = true;
+            }
+        }
+    }
+
+    // The distinct location_id of the weather rows a selection matches.
+    private static Set<Long> findWeatherLocationIds(
+            SQLiteDatabase db, String selection, String[] selectionArgs) {
+        Cursor cursor = db.query(true, WeatherContract.WeatherEntry.TABLE_NAME,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_LOC_KEY},
+                selection, selectionArgs, null, null, null, null);
+        try {
+            Set<Long> locationIds = new HashSet<>();
+            while (cursor.moveToNext()) {
+                locationIds.add(cursor.getLong(0));
+            }
+            return locationIds;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /*
+        The distinct location_id of the weather rows a selection matches, and the weeks and
+        months of their days, added to buckets.  Rows that values move to another location or
+        day touch that one too.
+     */
+    private static Set<Long> findWeatherDays(SQLiteDatabase db, String selection,
+                                             String[] selectionArgs, ContentValues values,
+                                             WeatherRollups.Buckets buckets) {
+        Long newLocationId = values == null
+                ? null : values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+        Integer newDate = values == null
+                ? null : values.getAsInteger(WeatherContract.WeatherEntry.COLUMN_DATE);
+        Cursor cursor = db.query(true, WeatherContract.WeatherEntry.TABLE_NAME,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+                        WeatherContract.WeatherEntry.COLUMN_DATE},
+                selection, selectionArgs, null, null, null, null);
+        try {
+            Set<Long> locationIds = new HashSet<>();
+            while (cursor.moveToNext()) {
+                long locationId = cursor.getLong(0);
+                int date = cursor.getInt(1);
+                locationIds.add(locationId);
+                buckets.add(locationId, date);
+                if (newLocationId != null || newDate != null) {
+                    buckets.add(newLocationId != null ? newLocationId : locationId,
+                            newDate != null ? newDate : date);
+                }
+            }
+            return locationIds;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void addBuckets(WeatherRollups.Buckets buckets, ContentValues values) {
+        Long locationId = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+        Integer date = values.getAsInteger(WeatherContract.WeatherEntry.COLUMN_DATE);
+        if (locationId != null && date != null) {
+            buckets.add(locationId, date);
+        }
+    }
+
+    // Recomputes the rollups of the weeks and months a write touched, in its transaction.
+    private void updateRollups(SQLiteDatabase db, PendingChanges changes,
+                               WeatherRollups.Buckets buckets) {
+        if (!buckets.isEmpty()) {
+            WeatherRollups.recompute(db, getStatementCache(db), buckets);
+            changes.rollups = true;
+        }
+    }
+
+    // Selects the location rows a selection matches now by their ids, which don't change.
+    private static String findLocationIdSelection(
+            SQLiteDatabase db, String selection, String[] selectionArgs) {
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry._ID},
+                selection, selectionArgs, null, null, null);
+        try {
+            StringBuilder ids = new StringBuilder(WeatherContract.LocationEntry._ID)
+                    .append(" IN (");
+            while (cursor.moveToNext()) {
+                ids.append(cursor.isFirst() ? "" : ", ").append(cursor.getLong(0));
+            }
+            return ids.append(')').toString();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // The _id of the location rows a selection matches.
+    private static Set<Long> findLocationIds(
+            SQLiteDatabase db, String selection, String[] selectionArgs) {
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry._ID},
+                selection, selectionArgs, null, null, null);
+        try {
+            Set<Long> locationIds = new HashSet<>();
+            while (cursor.moveToNext()) {
+                locationIds.add(cursor.getLong(0));
+            }
+            return locationIds;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // The location_setting of the location rows a selection matches.
+    private static Set<String> findLocationSettings(
+            SQLiteDatabase db, String selection, String[] selectionArgs) {
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                selection, selectionArgs, null, null, null);
+        try {
+            Set<String> locationSettings = new HashSet<>();
+            while (cursor.moveToNext()) {
+                locationSettings.add(cursor.getString(0));
+            }
+            return locationSettings;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /*
+        What one logical write (a single call, or a whole applyBatch) changed: the locations
+        whose forecast changed, whether weather rows that can't be tied to a location changed,
+        whether the location table changed, and whether the archive or the rollups changed.
+     */
+    private static class PendingChanges {
+        final Set<String> weatherLocations = new HashSet<>();
+        boolean allWeather;
+        boolean locations;
+        boolean archive;
+        boolean rollups;
+    }
+
+    // The changes to record a write into: those of the batch running on this thread, or new
+    // ones that finishChanges publishes when the caller's write is done.
+    private PendingChanges startChanges() {
+        PendingChanges batch = mPendingChanges.get();
+        return batch != null ? batch : new PendingChanges();
+    }
+
+    private void finishChanges(PendingChanges changes) {
+        if (changes != mPendingChanges.get()) {
+            publishChanges(changes, true);
+        }
+    }
+
+    // Records a change to the weather rows of a location, by its row id.  The locations that
+    // share its rows change with it.
+    private static void weatherChanged(SQLiteDatabase db, PendingChanges changes, Long locationId) {
+        Set<String> locationSettings = null;
+        if (locationId != null) {
+            String id = Long.toString(locationId);
+            locationSettings =
+                    findLocationSettings(db, sLocationWeatherSelection, new String[]{id, id});
+        }
+        if (locationSettings != null && !locationSettings.isEmpty()) {
+            changes.weatherLocations.addAll(locationSettings);
+        } else {
+            changes.allWeather = true;
+        }
+    }
+
+    private static void weatherChanged(
+            SQLiteDatabase db, PendingChanges changes, Set<Long> locationIds) {
+        for (Long locationId : locationIds) {
+            weatherChanged(db, changes, locationId);
+        }
+    }
+
+    /*
+        Drops the cached queries the changes affect.  If they were committed, observers get one
+        notification per changed location (weather/<location_setting>, which also reaches the
+        loaders of its dates), or a single one for all weather, plus one for the locations.
+     */
+    private void publishChanges(PendingChanges changes, boolean committed) {
+        ContentResolver resolver = getContext().getContentResolver();
+        if (changes.allWeather) {
+            mQueryCache.invalidateAll();
+            if (committed) {
+                resolver.notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+            }
+        } else {
+            for (String locationSetting : changes.weatherLocations) {
+                mQueryCache.invalidate(locationSetting);
+                if (committed) {
+                    resolver.notifyChange(
+                            WeatherContract.WeatherEntry.buildWeatherLocation(locationSetting),
+                            null);
+                }
+            }
+        }
+        if (changes.locations && committed) {
+            resolver.notifyChange(WeatherContract.LocationEntry.CONTENT_URI, null);
+        }
+        if (changes.archive && committed) {
+            resolver.notifyChange(WeatherContract.ArchiveEntry.CONTENT_URI, null);
+        }
+        if (changes.rollups && committed) {
+            resolver.notifyChange(WeatherContract.RollupEntry.CONTENT_URI, null);
+        }
+    }
+
+    // The columns of a full weather row, in the order they are bound to the upsert statements.
+    // The first two are the row's key.
+    private static final String[] sWeatherInsertColumns = {
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES
+    };
+    private static final int WEATHER_KEY_COLUMNS = 2;
+
+    //UPDATE weather SET short_desc = ?3, ... WHERE location_id = ?1 AND date = ?2
+    //    AND (short_desc IS NOT ?3 OR ...)
+    static final String sWeatherUpdateIfChangedSql = buildUpdateIfChangedSql(
+            WeatherContract.WeatherEntry.TABLE_NAME, sWeatherInsertColumns, WEATHER_KEY_COLUMNS);
+
+    //INSERT INTO weather (location_id, date, ...) SELECT ?1, ?2, ...
+    //    WHERE NOT EXISTS (SELECT 1 FROM weather WHERE location_id = ?1 AND date = ?2)
+    // Skips only a day that is already stored.  Unlike INSERT OR IGNORE, a row that breaks a
+    // NOT NULL constraint still fails, and the table's ON CONFLICT REPLACE never gets to fire.
+    static final String sWeatherInsertIfNewSql = buildInsertIfNewSql(
+            WeatherContract.WeatherEntry.TABLE_NAME, sWeatherInsertColumns, WEATHER_KEY_COLUMNS);
+
+    private static String buildInsertIfNewSql(String table, String[] columns, int keyColumns) {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (");
+        StringBuilder params = new StringBuilder();
+        StringBuilder key = new StringBuilder();
+        for (int i = 0; i < columns.length; i++) {
+            String param = "?" + (i + 1);
+            if (i > 0) {
+                sql.append(", ");
+                params.append(", ");
+            }
+            sql.append(columns[i]);
+            params.append(param);
+            if (i < keyColumns) {
+                key.append(i > 0 ? " AND " : "").append(columns[i]).append(" = ").append(param);
+            }
+        }
+        return sql.append(") SELECT ").append(params).append(" WHERE NOT EXISTS (SELECT 1 FROM ")
+                .append(table).append(" WHERE ").append(key).append(')').toString();
+    }
+
+    // Uses numbered parameters, so it binds the same arguments as the insert, in the same order.
+    private static String buildUpdateIfChangedSql(String table, String[] columns, int keyColumns) {
+        StringBuilder set = new StringBuilder();
+        StringBuilder where = new StringBuilder();
+        StringBuilder changed = new StringBuilder();
+        for (int i = 0; i < columns.length; i++) {
+            String param = "?" + (i + 1);
+            if (i < keyColumns) {
+                where.append(i > 0 ? " AND " : "").append(columns[i]).append(" = ").append(param);
+            } else {
+                set.append(i > keyColumns ? ", " : "").append(columns[i]).append(" = ").append(param);
+                changed.append(i > keyColumns ? " OR " : "")
+                        .append(columns[i]).append(" IS NOT ").append(param);
+            }
+        }
+        return "UPDATE " + table + " SET " + set + " WHERE " + where + " AND (" + changed + ")";
+    }
+
+    private synchronized StatementCache getStatementCache(SQLiteDatabase db) {
+        if (mStatementCache == null) {
+            mStatementCache = new StatementCache(db, MAX_CACHED_STATEMENTS);
+        }
+        return mStatementCache;
+    }
+
+    // What upsertWeather did with a row.
+    static final int ROW_INSERTED = 0;
+    static final int ROW_UPDATED = 1;
+    static final int ROW_UNCHANGED = 2;
+    static final int ROW_FAILED = 3;
+
+    // Totals of the upserts since the provider started, for METHOD_GET_STATS.
+    private final AtomicLong mRowsInserted = new AtomicLong();
+    private final AtomicLong mRowsUpdated = new AtomicLong();
+    private final AtomicLong mRowsUnchanged = new AtomicLong();
+
+    /*
+        Writes a weather row only if it differs from the stored one.  The table's ON CONFLICT
+        REPLACE would delete and reinsert every day of every sync, identical or not; instead an
+        UPDATE rewrites the day only when one of its values changed, and an INSERT guarded by
+        NOT EXISTS adds days that aren't stored yet.  An unchanged row costs two index lookups
+        and no writes.
+
+        A complete weather row (the shape the sync writes) goes through the cached statements.
+        Anything else falls back to SQLiteDatabase.insert.
+     */
+    private int upsertWeather(SQLiteDatabase db, ContentValues values) {
+        Object[] bindArgs = getWeatherBindArgs(values);
+        if (bindArgs == null) {
+            long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+            return countRow(_id != -1 ? ROW_INSERTED : ROW_FAILED);
+        }
+        try {
+            StatementCache statements = getStatementCache(db);
+            int result;
+            db.beginTransaction();
+            try {
+                if (statements.executeUpdateDelete(sWeatherUpdateIfChangedSql, bindArgs) > 0) {
+                    result = ROW_UPDATED;
+                } else if (statements.executeInsert(sWeatherInsertIfNewSql, bindArgs) != -1) {
+                    result = ROW_INSERTED;
+                } else {
+                    result = ROW_UNCHANGED;
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            return countRow(result);
+        } catch (SQLException e) {
+            // Like SQLiteDatabase.insert, a rejected row is reported rather than thrown.
+            return ROW_FAILED;
+        }
+    }
+
+    private static Object[] getWeatherBindArgs(ContentValues values) {
+        if (values.size() != sWeatherInsertColumns.length) {
+            return null;
+        }
+        Object[] bindArgs = new Object[sWeatherInsertColumns.length];
+        for (int i = 0; i < sWeatherInsertColumns.length; i++) {
+            if (!values.containsKey(sWeatherInsertColumns[i])) {
+                return null;
+            }
+            bindArgs[i] = values.get(sWeatherInsertColumns[i]);
+        }
+        return bindArgs;
+    }
+
+    private int countRow(int result) {
+        switch (result) {
+            case ROW_INSERTED:
+                mRowsInserted.incrementAndGet();
+                break;
+            case ROW_UPDATED:
+                mRowsUpdated.incrementAndGet();
+                break;
+            case ROW_UNCHANGED:
+                mRowsUnchanged.incrementAndGet();
+                break;
+        }
+        return result;
+    }
+
+    //weather.location_id = ? AND weather.date = ?
+    private static final String sWeatherKeySelection =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " = ?";
+
+    private static long findWeatherId(SQLiteDatabase db, ContentValues values) {
+        Cursor cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                new String[]{WeatherContract.WeatherEntry._ID},
+                sWeatherKeySelection,
+                new String[]{
+                        values.getAsString(WeatherContract.WeatherEntry.COLUMN_LOC_KEY),
+                        values.getAsString(WeatherContract.WeatherEntry.COLUMN_DATE)},
+                null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
         }
     }
 
@@ -292,62 +1385,333 @@ public class WeatherProvider extends ContentProvider {
             Uri uri, ContentValues values, String selection, String[] selectionArgs) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
+        final PendingChanges changes = startChanges();
         int rowsUpdated;
 
-        switch (match) {
-            case WEATHER: {
-                normalizeDate(values);
-                rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection, selectionArgs);
-                break;
-            }
-            case LOCATION: {
-                rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection, selectionArgs);
-                break;
+        // As in delete, the affected rows are looked up in the same transaction.
+        db.beginTransaction();
+        try {
+            switch (match) {
+                case WEATHER: {
+                    WeatherRollups.Buckets buckets = new WeatherRollups.Buckets();
+                    Set<Long> locationIds =
+                            findWeatherDays(db, selection, selectionArgs, values, buckets);
+                    rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values,
+                            selection, selectionArgs);
+                    if (rowsUpdated != 0) {
+                        updateRollups(db, changes, buckets);
+                        // Rows moved to another location change that location too.
+                        if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_LOC_KEY)) {
+                            locationIds.add(values.getAsLong(
+                                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY));
+                        }
+                        weatherChanged(db, changes, locationIds);
+                    }
+                    break;
+                }
+                case LOCATION: {
+                    Set<String> locationSettings =
+                            findLocationSettings(db, selection, selectionArgs);
+                    ContentValues row = new ContentValues(values);
+                    // With one coordinate, the cells are computed once the rows have both.
+                    boolean cellsPending = GeoCells.putCell(row);
+                    String idSelection = cellsPending
+                            ? findLocationIdSelection(db, selection, selectionArgs) : null;
+                    rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, row,
+                            selection, selectionArgs);
+                    if (cellsPending) {
+                        GeoCells.updateCells(db, idSelection, null);
+                    }
+                    if (rowsUpdated != 0) {
+                        String newSetting = values.getAsString(
+                                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+                        if (newSetting != null) {
+                            locationSettings.add(newSetting);
+                        }
+                        changes.locations = true;
+                        changes.weatherLocations.addAll(locationSettings);
+                    }
+                    break;
+                }
+                default:
+                    throw new UnsupportedOperationException("Unknown uri: " + uri);
             }
-            default:
-                throw new UnsupportedOperationException("Unknown uri: " + uri);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
         }
 
-        if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
-        }
-        db.close();
+        finishChanges(changes);
         return rowsUpdated;
     }
 
+    /*
+        Weather rows are upserted: the count returned is the rows inserted or changed, so a
+        forecast identical to the stored one returns 0 and notifies nobody.
+     */
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case WEATHER:
+                PendingChanges changes = startChanges();
                 db.beginTransaction();
                 int returnCount = 0;
+                Set<Long> locationIds = new HashSet<>();
+                WeatherRollups.Buckets buckets = new WeatherRollups.Buckets();
                 try {
                     for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
+                        int result = upsertWeather(db, value);
+                        if (result == ROW_INSERTED || result == ROW_UPDATED) {
                             returnCount++;
+                            locationIds.add(value.getAsLong(
+                                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY));
+                            addBuckets(buckets, value);
                         }
                     }
+                    updateRollups(db, changes, buckets);
+                    weatherChanged(db, changes, locationIds);
                     db.setTransactionSuccessful();
                 } finally {
                     db.endTransaction();
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
+                finishChanges(changes);
                 return returnCount;
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /**
+     * Applies the whole batch inside a single database transaction, so a sync either commits
+     * all of its location, weather and prune operations or none of them.  Observers are
+     * notified once the batch has committed, once for each location it changed.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        PendingChanges changes = new PendingChanges();
+        boolean successful = false;
+        mPendingChanges.set(changes);
+        db.beginTransaction();
+        try {
+            ContentProviderResult[] results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+            successful = true;
+            return results;
+        } finally {
+            db.endTransaction();
+            mPendingChanges.remove();
+            // Also after a rollback: the batch's queries may have cached rows it wrote.
+            publishChanges(changes, successful);
+        }
+    }
+
+    //weather.date <= ?
+    private static final String sWeatherPruneSelection =
+            WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?";
+
+    //DELETE FROM weather WHERE weather.date <= ?
+    private static final String sWeatherPruneSql =
+            "DELETE FROM " + WeatherContract.WeatherEntry.TABLE_NAME
+                    + " WHERE " + sWeatherPruneSelection;
+
+    /*
+        Stores a ForecastBatch in one transaction.  Its locations are upserted like inserts to
+        the location URI; its days are bound column by column straight into the compiled
+        upsert statements, so a day costs no ContentValues, no boxed values and no bind array.
+        The days of a location the API resolved to a city go to the rows every location of
+        that city shares.  The rollups of the weeks and months of the changed days are
+        recomputed, and the days up to the batch's prune date are moved to the archive last.
+        Any failure rolls the whole batch back.
+     */
+    private Bundle ingestForecast(ForecastBatch batch) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final StatementCache statements = getStatementCache(db);
+        final PendingChanges changes = startChanges();
+        int inserted = 0;
+        int updated = 0;
+        int unchanged = 0;
+        int deleted = 0;
+
+        db.beginTransaction();
+        try {
+            long[] locationIds = new long[batch.mLocationCount];
+            for (int i = 0; i < batch.mLocationCount; i++) {
+                ContentValues location = new ContentValues();
+                location.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+                        batch.mLocationSettings[i]);
+                location.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, batch.mCityNames[i]);
+                location.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, batch.mCoordLats[i]);
+                location.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, batch.mCoordLongs[i]);
+                locationIds[i] = upsertLocation(db, changes, location);
+                if (locationIds[i] <= 0) {
+                    throw new SQLException("Failed to insert location " + batch.mLocationSettings[i]);
+                }
+                if (batch.mCityIds[i] != 0) {
+                    // The days go to the rows the city's locations share.
+                    locationIds[i] = shareCity(db, changes, locationIds[i], batch.mCityIds[i]);
+                }
+            }
+
+            boolean[] locationChanged = new boolean[batch.mLocationCount];
+            WeatherRollups.Buckets buckets = new WeatherRollups.Buckets();
+            synchronized (statements) {
+                SQLiteStatement update = statements.getStatement(sWeatherUpdateIfChangedSql);
+                SQLiteStatement insert = statements.getStatement(sWeatherInsertIfNewSql);
+                for (int day = 0; day < batch.mDayCount; day++) {
+                    int location = batch.mDayLocations[day];
+                    bindWeatherDay(update, batch, day, locationIds[location]);
+                    if (update.executeUpdateDelete() > 0) {
+                        updated++;
+                        locationChanged[location] = true;
+                        buckets.add(locationIds[location], batch.mDates[day]);
+                        continue;
+                    }
+                    bindWeatherDay(insert, batch, day, locationIds[location]);
+                    if (insert.executeInsert() != -1) {
+                        inserted++;
+                        locationChanged[location] = true;
+                        buckets.add(locationIds[location], batch.mDates[day]);
+                    } else {
+                        unchanged++;
+                    }
+                }
+            }
+            for (int i = 0; i < batch.mLocationCount; i++) {
+                if (locationChanged[i]) {
+                    weatherChanged(db, changes, locationIds[i]);
+                }
+            }
+            updateRollups(db, changes, buckets);
+
+            if (batch.hasPruneDate()) {
+                String[] pruneArgs = {Integer.toString(batch.mPruneDate)};
+                Set<Long> prunedLocationIds =
+                        findWeatherLocationIds(db, sWeatherPruneSelection, pruneArgs);
+                // The pruned days leave the live part of their rollups for the archived one,
+                // so the rollups don't change.
+                WeatherRollups.absorbPruned(db, statements, batch.mPruneDate);
+                WeatherArchive.archiveDays(statements, batch.mPruneDate);
+                deleted = statements.executeUpdateDelete(sWeatherPruneSql, pruneArgs);
+                if (deleted != 0) {
+                    weatherChanged(db, changes, prunedLocationIds);
+                    changes.archive = true;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        finishChanges(changes);
+
+        mRowsInserted.addAndGet(inserted);
+        mRowsUpdated.addAndGet(updated);
+        mRowsUnchanged.addAndGet(unchanged);
+
+        Bundle result = new Bundle();
+        result.putInt(WeatherContract.STAT_WEATHER_ROWS_INSERTED, inserted);
+        result.putInt(WeatherContract.STAT_WEATHER_ROWS_UPDATED, updated);
+        result.putInt(WeatherContract.STAT_WEATHER_ROWS_UNCHANGED, unchanged);
+        result.putInt(WeatherContract.STAT_WEATHER_ROWS_DELETED, deleted);
+        return result;
+    }
+
+    // Binds a day in the order of sWeatherInsertColumns, which both upsert statements share.
+    private static void bindWeatherDay(
+            SQLiteStatement statement, ForecastBatch batch, int day, long locationId) {
+        statement.bindLong(1, locationId);
+        statement.bindLong(2, batch.mDates[day]);
+        if (batch.mDescriptions[day] != null) {
+            statement.bindString(3, batch.mDescriptions[day]);
+        } else {
+            statement.bindNull(3);
+        }
+        statement.bindLong(4, batch.mWeatherIds[day]);
+        statement.bindDouble(5, batch.mMinTemps[day]);
+        statement.bindDouble(6, batch.mMaxTemps[day]);
+        statement.bindDouble(7, batch.mHumidities[day]);
+        statement.bindDouble(8, batch.mPressures[day]);
+        statement.bindDouble(9, batch.mWindSpeeds[day]);
+        statement.bindDouble(10, batch.mDegrees[day]);
+    }
+
+    /*
+        One pass of the archive's compaction, in a transaction of its own so that the writer
+        connection is free again between passes.
+     */
+    private Bundle compactArchive(int today, int maxRows) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final PendingChanges changes = startChanges();
+        WeatherArchive.Pass pass;
+
+        db.beginTransaction();
+        try {
+            pass = WeatherArchive.compact(db, getStatementCache(db), today, maxRows);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (pass.rowsCompacted != 0) {
+            changes.archive = true;
+        }
+        if (pass.rollupsExpired != 0) {
+            changes.rollups = true;
+        }
+        finishChanges(changes);
+
+        Bundle result = new Bundle();
+        result.putInt(WeatherContract.STAT_ARCHIVE_ROWS_COMPACTED, pass.rowsCompacted);
+        result.putBoolean(WeatherContract.STAT_ARCHIVE_COMPACTED, pass.finished);
+        return result;
+    }
+
+    /**
+     * {@link WeatherContract#METHOD_INGEST_FORECAST} stores the {@link ForecastBatch} in the
+     * extras and returns the counts of weather rows inserted, updated, left unchanged and
+     * pruned.
+     * <p>
+     * {@link WeatherContract#METHOD_GET_STATS} returns the query cache's hit and miss counts
+     * and the number of weather rows inserted, updated and left unchanged by upserts.
+     * <p>
+     * {@link WeatherContract#METHOD_COMPACT_ARCHIVE} runs one compaction pass for the day in
+     * the arg and returns the archive rows it compacted, and whether it finished.
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (WeatherContract.METHOD_GET_STATS.equals(method)) {
+            Bundle stats = new Bundle();
+            stats.putLong(WeatherContract.STAT_QUERY_CACHE_HITS, mQueryCache.getHitCount());
+            stats.putLong(WeatherContract.STAT_QUERY_CACHE_MISSES, mQueryCache.getMissCount());
+            stats.putLong(WeatherContract.STAT_WEATHER_ROWS_INSERTED, mRowsInserted.get());
+            stats.putLong(WeatherContract.STAT_WEATHER_ROWS_UPDATED, mRowsUpdated.get());
+            stats.putLong(WeatherContract.STAT_WEATHER_ROWS_UNCHANGED, mRowsUnchanged.get());
+            return stats;
+        }
+        if (WeatherContract.METHOD_INGEST_FORECAST.equals(method)) {
+            return ingestForecast(ForecastBatch.fromBundle(extras));
+        }
+        if (WeatherContract.METHOD_COMPACT_ARCHIVE.equals(method)) {
+            return compactArchive(Integer.parseInt(arg), ARCHIVE_ROWS_PER_PASS);
+        }
+        return super.call(method, arg, extras);
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
     @Override
     @TargetApi(11)
     public void shutdown() {
+        synchronized (this) {
+            if (mStatementCache != null) {
+                mStatementCache.clear();
+                mStatementCache = null;
+            }
+        }
+        mQueryCache.invalidateAll();
         mOpenHelper.close();
         super.shutdown();
     }
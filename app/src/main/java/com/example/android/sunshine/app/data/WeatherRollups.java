@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.app.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.RollupEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Keeps the week and month rollup tables up to date with the weather rows, so their averages
+ * and records are read as one row instead of aggregated over the history.
+ * <p>
+ * A rollup row adds up two parts.  The days archived out of the weather table are frozen, so
+ * their count, sums and extremes are kept in the row's archived_ columns; the days still in the
+ * weather table are aggregated from it whenever one of them changes, which for a week or a
+ * month is a range of at most 31 rows on the weather_location_date index.  Recomputing a bucket
+ * that way stays exact when a day is updated or deleted, which adjusting running totals could
+ * not do for a record.
+ * <p>
+ * Every method expects to run inside the caller's transaction.
+ */
+final class WeatherRollups {
+
+    // The part of a rollup row that the days moved to the archive contribute.  The extremes
+    // are null while there are none.
+    static final String COLUMN_ARCHIVED_DAYS = "archived_days";
+    static final String COLUMN_ARCHIVED_HIGH_SUM = "archived_high_sum";
+    static final String COLUMN_ARCHIVED_LOW_SUM = "archived_low_sum";
+    static final String COLUMN_ARCHIVED_HIGH = "archived_high";
+    static final String COLUMN_ARCHIVED_LOW = "archived_low";
+
+    static final String[] TABLES = {RollupEntry.WEEK_TABLE_NAME, RollupEntry.MONTH_TABLE_NAME};
+
+    private static final String sColumns = RollupEntry.COLUMN_LOC_KEY + ", " +
+            RollupEntry.COLUMN_DATE + ", " +
+            RollupEntry.COLUMN_DAYS + ", " +
+            RollupEntry.COLUMN_AVG_HIGH + ", " +
+            RollupEntry.COLUMN_AVG_LOW + ", " +
+            RollupEntry.COLUMN_RECORD_HIGH + ", " +
+            RollupEntry.COLUMN_RECORD_LOW + ", " +
+            COLUMN_ARCHIVED_DAYS + ", " +
+            COLUMN_ARCHIVED_HIGH_SUM + ", " +
+            COLUMN_ARCHIVED_LOW_SUM + ", " +
+            COLUMN_ARCHIVED_HIGH + ", " +
+            COLUMN_ARCHIVED_LOW;
+
+    //SELECT COUNT(*), TOTAL(max), TOTAL(min), MAX(max), MIN(min) FROM weather
+    //    WHERE location_id = ? AND date >= ? AND date < ?
+    private static final String sLiveSql = "SELECT COUNT(*), " +
+            "TOTAL(" + WeatherEntry.COLUMN_MAX_TEMP + "), " +
+            "TOTAL(" + WeatherEntry.COLUMN_MIN_TEMP + "), " +
+            "MAX(" + WeatherEntry.COLUMN_MAX_TEMP + "), " +
+            "MIN(" + WeatherEntry.COLUMN_MIN_TEMP + ") FROM " + WeatherEntry.TABLE_NAME +
+            " WHERE " + WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+            WeatherEntry.COLUMN_DATE + " >= ? AND " + WeatherEntry.COLUMN_DATE + " < ?";
+
+    //SELECT location_id, date, max, min FROM weather WHERE date <= ?
+    //    AND NOT EXISTS (SELECT 1 FROM archive WHERE location_id = weather.location_id
+    //    AND period = 0 AND date = weather.date)
+    // A day that was archived before, e.g. stored again after the time zone moved the first
+    // day back, is already in the archived part of its rollups.
+    private static final String sPrunedSql = "SELECT " +
+            WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE + ", " +
+            WeatherEntry.COLUMN_MAX_TEMP + ", " + WeatherEntry.COLUMN_MIN_TEMP +
+            " FROM " + WeatherEntry.TABLE_NAME + " WHERE " + WeatherEntry.COLUMN_DATE +
+            " <= ? AND NOT EXISTS (SELECT 1 FROM " + ArchiveEntry.TABLE_NAME + " WHERE " +
+            ArchiveEntry.TABLE_NAME + "." + ArchiveEntry.COLUMN_LOC_KEY + " = " +
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_LOC_KEY + " AND " +
+            ArchiveEntry.COLUMN_PERIOD + " = " + ArchiveEntry.PERIOD_DAY + " AND " +
+            ArchiveEntry.TABLE_NAME + "." + ArchiveEntry.COLUMN_DATE + " = " +
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_DATE + ")";
+
+    private static final String[] sWriteSql = new String[TABLES.length];
+    private static final String[] sDeleteSql = new String[TABLES.length];
+    private static final String[] sArchivedSql = new String[TABLES.length];
+    private static final String[] sAbsorbSql = new String[TABLES.length];
+    private static final String[] sExpireSql = new String[TABLES.length];
+
+    static {
+        for (int i = 0; i < TABLES.length; i++) {
+            String table = TABLES[i];
+            sWriteSql[i] = "INSERT INTO " + table + " (" + sColumns +
+                    ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+            sDeleteSql[i] = "DELETE FROM " + table + " WHERE " +
+                    RollupEntry.COLUMN_LOC_KEY + " = ? AND " + RollupEntry.COLUMN_DATE + " = ?";
+            sArchivedSql[i] = "SELECT " + COLUMN_ARCHIVED_DAYS + ", " +
+                    COLUMN_ARCHIVED_HIGH_SUM + ", " + COLUMN_ARCHIVED_LOW_SUM + ", " +
+                    COLUMN_ARCHIVED_HIGH + ", " + COLUMN_ARCHIVED_LOW + " FROM " + table +
+                    " WHERE " + RollupEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    RollupEntry.COLUMN_DATE + " = ?";
+            // Moves a day with high ?3 and low ?4 from the live part to the archived one; the
+            // totals stay as they are.
+            sAbsorbSql[i] = "UPDATE " + table + " SET " +
+                    COLUMN_ARCHIVED_DAYS + " = " + COLUMN_ARCHIVED_DAYS + " + 1, " +
+                    COLUMN_ARCHIVED_HIGH_SUM + " = " + COLUMN_ARCHIVED_HIGH_SUM + " + ?3, " +
+                    COLUMN_ARCHIVED_LOW_SUM + " = " + COLUMN_ARCHIVED_LOW_SUM + " + ?4, " +
+                    COLUMN_ARCHIVED_HIGH + " = MAX(COALESCE(" + COLUMN_ARCHIVED_HIGH +
+                    ", ?3), ?3), " +
+                    COLUMN_ARCHIVED_LOW + " = MIN(COALESCE(" + COLUMN_ARCHIVED_LOW +
+                    ", ?4), ?4)" +
+                    " WHERE " + RollupEntry.COLUMN_LOC_KEY + " = ?1 AND " +
+                    RollupEntry.COLUMN_DATE + " = ?2";
+            sExpireSql[i] = "DELETE FROM " + table + " WHERE " + RollupEntry._ID +
+                    " IN (SELECT " + RollupEntry._ID + " FROM " + table +
+                    " WHERE " + RollupEntry.COLUMN_DATE + " < ? LIMIT ?)";
+        }
+    }
+
+    private static final int WEEK = 0;
+    private static final int MONTH = 1;
+
+    /**
+     * The weeks and months a write touched, by location.
+     */
+    static final class Buckets {
+        private final Set<Long> mWeeks = new HashSet<>();
+        private final Set<Long> mMonths = new HashSet<>();
+
+        void add(long locationId, int julianDay) {
+            mWeeks.add(key(locationId, JulianDay.startOfWeek(julianDay)));
+            mMonths.add(key(locationId, JulianDay.startOfMonth(julianDay)));
+        }
+
+        boolean isEmpty() {
+            return mWeeks.isEmpty();
+        }
+
+        private static long key(long locationId, int start) {
+            return (locationId << 32) | start;
+        }
+    }
+
+    private WeatherRollups() {
+    }
+
+    /**
+     * Recomputes the rollups of the buckets from their archived part and the weather rows.
+     */
+    static void recompute(SQLiteDatabase db, StatementCache statements, Buckets buckets) {
+        for (long key : buckets.mWeeks) {
+            int start = (int) key;
+            recompute(db, statements, WEEK, key >>> 32, start, start + 7);
+        }
+        for (long key : buckets.mMonths) {
+            int start = (int) key;
+            recompute(db, statements, MONTH, key >>> 32, start, JulianDay.startOfNextMonth(start));
+        }
+    }
+
+    private static void recompute(SQLiteDatabase db, StatementCache statements, int table,
+                                  long locationId, int start, int end) {
+        String location = Long.toString(locationId);
+        String date = Integer.toString(start);
+
+        int days;
+        double highSum;
+        double lowSum;
+        Double high;
+        Double low;
+        Cursor live = db.rawQuery(sLiveSql, new String[]{location, date, Integer.toString(end)});
+        try {
+            live.moveToFirst();
+            days = live.getInt(0);
+            highSum = live.getDouble(1);
+            lowSum = live.getDouble(2);
+            high = live.isNull(3) ? null : live.getDouble(3);
+            low = live.isNull(4) ? null : live.getDouble(4);
+        } finally {
+            live.close();
+        }
+
+        int archivedDays = 0;
+        double archivedHighSum = 0;
+        double archivedLowSum = 0;
+        Double archivedHigh = null;
+        Double archivedLow = null;
+        Cursor archived = db.rawQuery(sArchivedSql[table], new String[]{location, date});
+        try {
+            if (archived.moveToFirst()) {
+                archivedDays = archived.getInt(0);
+                archivedHighSum = archived.getDouble(1);
+                archivedLowSum = archived.getDouble(2);
+                archivedHigh = archived.isNull(3) ? null : archived.getDouble(3);
+                archivedLow = archived.isNull(4) ? null : archived.getDouble(4);
+            }
+        } finally {
+            archived.close();
+        }
+
+        int totalDays = days + archivedDays;
+        if (totalDays == 0) {
+            statements.executeUpdateDelete(sDeleteSql[table], new Object[]{locationId, start});
+            return;
+        }
+        statements.executeInsert(sWriteSql[table], new Object[]{
+                locationId, start, totalDays,
+                (highSum + archivedHighSum) / totalDays,
+                (lowSum + archivedLowSum) / totalDays,
+                extreme(high, archivedHigh, true),
+                extreme(low, archivedLow, false),
+                archivedDays, archivedHighSum, archivedLowSum, archivedHigh, archivedLow});
+    }
+
+    private static Double extreme(Double a, Double b, boolean highest) {
+        if (a == null || b == null) {
+            return a != null ? a : b;
+        }
+        return highest ? Math.max(a, b) : Math.min(a, b);
+    }
+
+    /**
+     * Moves the weather rows up to and including {@code lastDay} into the archived part of
+     * their rollups, skipping the days the archive already has.  The caller archives them and
+     * deletes them from the weather table afterwards.
+     */
+    static void absorbPruned(SQLiteDatabase db, StatementCache statements, int lastDay) {
+        Cursor cursor = db.rawQuery(sPrunedSql, new String[]{Integer.toString(lastDay)});
+        try {
+            while (cursor.moveToNext()) {
+                long locationId = cursor.getLong(0);
+                int day = cursor.getInt(1);
+                double high = cursor.getDouble(2);
+                double low = cursor.getDouble(3);
+                statements.executeUpdateDelete(sAbsorbSql[WEEK], new Object[]{
+                        locationId, JulianDay.startOfWeek(day), high, low});
+                statements.executeUpdateDelete(sAbsorbSql[MONTH], new Object[]{
+                        locationId, JulianDay.startOfMonth(day), high, low});
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Deletes at most {@code maxRows} rollups of weeks and months that start before
+     * {@code before}, as the archive drops their history.
+     *
+     * @return the number of rows deleted.
+     */
+    static int expire(StatementCache statements, int before, int maxRows) {
+        int deleted = 0;
+        for (String sql : sExpireSql) {
+            if (deleted < maxRows) {
+                deleted += statements.executeUpdateDelete(sql,
+                        new Object[]{before, maxRows - deleted});
+            }
+        }
+        return deleted;
+    }
+}
@@ -4,12 +4,19 @@ import com.google.gson.annotations.SerializedName;
 
 public class SunshineCity {
 
+    @SerializedName("id")
+    private long mId;
+
     @SerializedName("name")
     private String mName;
 
     @SerializedName("coord")
     private SunshineCityCoords mCityCoords;
 
+    public long getId() {
+        return mId;
+    }
+
     public String getName() {
         return mName;
     }
@@ -0,0 +1,134 @@
+package com.example.android.sunshine.app.model;
+
+import java.util.Arrays;
+
+/**
+ * A decoded daily forecast, laid out as one primitive array per weather column so the rows can
+ * be stored without building an intermediate object per day.  Only the first {@link #getCount()}
+ * entries of each array are valid.
+ */
+public class SunshineForecast {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    long mCityId;
+    String mCityName;
+    double mLat;
+    double mLong;
+    boolean mHasCoords;
+
+    int mCount;
+    int mSkipped;
+    double[] mMinTemp;
+    double[] mMaxTemp;
+    double[] mHumidity;
+    double[] mPressure;
+    double[] mWindSpeed;
+    double[] mDegrees;
+    int[] mWeatherId;
+    String[] mDescription;
+
+    SunshineForecast() {
+        allocate(DEFAULT_CAPACITY);
+    }
+
+    void ensureCapacity(int capacity) {
+        if (capacity > mMinTemp.length) {
+            allocate(Math.max(capacity, mMinTemp.length * 2));
+        }
+    }
+
+    private void allocate(int capacity) {
+        if (mMinTemp == null) {
+            mMinTemp = new double[capacity];
+            mMaxTemp = new double[capacity];
+            mHumidity = new double[capacity];
+            mPressure = new double[capacity];
+            mWindSpeed = new double[capacity];
+            mDegrees = new double[capacity];
+            mWeatherId = new int[capacity];
+            mDescription = new String[capacity];
+        } else {
+            mMinTemp = Arrays.copyOf(mMinTemp, capacity);
+            mMaxTemp = Arrays.copyOf(mMaxTemp, capacity);
+            mHumidity = Arrays.copyOf(mHumidity, capacity);
+            mPressure = Arrays.copyOf(mPressure, capacity);
+            mWindSpeed = Arrays.copyOf(mWindSpeed, capacity);
+            mDegrees = Arrays.copyOf(mDegrees, capacity);
+            mWeatherId = Arrays.copyOf(mWeatherId, capacity);
+            mDescription = Arrays.copyOf(mDescription, capacity);
+        }
+    }
+
+    /**
+     * @return the OpenWeatherMap id of the city, or 0 if the response didn't have one.
+     */
+    public long getCityId() {
+        return mCityId;
+    }
+
+    public String getCityName() {
+        return mCityName;
+    }
+
+    public double getLat() {
+        return mLat;
+    }
+
+    public double getLong() {
+        return mLong;
+    }
+
+    /**
+     * @return true if the response identified the city and its coordinates.
+     */
+    public boolean hasCity() {
+        return mCityName != null && mHasCoords;
+    }
+
+    /**
+     * @return the number of complete days decoded.
+     */
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * @return the number of days dropped because they had no temperature or weather condition.
+     */
+    public int getSkippedCount() {
+        return mSkipped;
+    }
+
+    public double getMinTemp(int day) {
+        return mMinTemp[day];
+    }
+
+    public double getMaxTemp(int day) {
+        return mMaxTemp[day];
+    }
+
+    public double getHumidity(int day) {
+        return mHumidity[day];
+    }
+
+    public double getPressure(int day) {
+        return mPressure[day];
+    }
+
+    public double getWindSpeed(int day) {
+        return mWindSpeed[day];
+    }
+
+    public double getDegrees(int day) {
+        return mDegrees[day];
+    }
+
+    public int getWeatherId(int day) {
+        return mWeatherId[day];
+    }
+
+    public String getDescription(int day) {
+        return mDescription[day];
+    }
+}
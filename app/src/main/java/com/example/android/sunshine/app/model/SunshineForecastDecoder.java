@@ -0,0 +1,223 @@
+package com.example.android.sunshine.app.model;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Streaming decoder for the OpenWeatherMap "forecast/daily" response.
+ * <p>
+ * Unlike the reflective {@link SunshineDay} mapping it doesn't build an object per day, per
+ * temperature and per weather condition: every value is read straight into the columns of a
+ * {@link SunshineForecast}, and the fields Sunshine doesn't store ("dt", "temp.day", the
+ * weather conditions after the first one, ...) are skipped without being materialized.
+ */
+public final class SunshineForecastDecoder {
+
+    // The API returns at most 16 days; a larger "cnt" doesn't get to size the columns, which
+    // still grow with the days actually read.
+    private static final int MAX_PRESIZED_DAYS = 16;
+
+    private SunshineForecastDecoder() {
+    }
+
+    /**
+     * @return the forecast, or null if the response is a JSON null.
+     */
+    public static SunshineForecast decode(Reader reader) throws IOException {
+        return read(new JsonReader(reader));
+    }
+
+    public static SunshineForecast read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+
+        SunshineForecast forecast = new SunshineForecast();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "city":
+                    readCity(in, forecast);
+                    break;
+                case "cnt":
+                    forecast.ensureCapacity(Math.min(in.nextInt(), MAX_PRESIZED_DAYS));
+                    break;
+                case "list":
+                    readDays(in, forecast);
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return forecast;
+    }
+
+    private static void readCity(JsonReader in, SunshineForecast forecast) throws IOException {
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "id":
+                    forecast.mCityId = in.nextLong();
+                    break;
+                case "name":
+                    forecast.mCityName = in.nextString();
+                    break;
+                case "coord":
+                    readCoords(in, forecast);
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+    }
+
+    private static void readCoords(JsonReader in, SunshineForecast forecast) throws IOException {
+        boolean hasLat = false;
+        boolean hasLong = false;
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "lat":
+                    forecast.mLat = in.nextDouble();
+                    hasLat = true;
+                    break;
+                case "lon":
+                    forecast.mLong = in.nextDouble();
+                    hasLong = true;
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        forecast.mHasCoords = hasLat && hasLong;
+    }
+
+    private static void readDays(JsonReader in, SunshineForecast forecast) throws IOException {
+        in.beginArray();
+        while (in.hasNext()) {
+            readDay(in, forecast);
+        }
+        in.endArray();
+    }
+
+    /**
+     * Decodes one day into the next free row.  The row is only kept (by bumping the count) if
+     * the day had both its temperatures and a weather condition.
+     */
+    private static void readDay(JsonReader in, SunshineForecast forecast) throws IOException {
+        int row = forecast.mCount;
+        forecast.ensureCapacity(row + 1);
+        forecast.mHumidity[row] = 0;
+        forecast.mPressure[row] = 0;
+        forecast.mWindSpeed[row] = 0;
+        forecast.mDegrees[row] = 0;
+
+        boolean hasTemp = false;
+        boolean hasWeather = false;
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "temp":
+                    hasTemp = readTemperature(in, forecast, row);
+                    break;
+                case "weather":
+                    hasWeather = readWeather(in, forecast, row);
+                    break;
+                case "pressure":
+                    forecast.mPressure[row] = in.nextDouble();
+                    break;
+                case "humidity":
+                    forecast.mHumidity[row] = in.nextDouble();
+                    break;
+                case "speed":
+                    forecast.mWindSpeed[row] = in.nextDouble();
+                    break;
+                case "deg":
+                    forecast.mDegrees[row] = in.nextDouble();
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+
+        if (hasTemp && hasWeather) {
+            forecast.mCount++;
+        } else {
+            forecast.mSkipped++;
+        }
+    }
+
+    private static boolean readTemperature(JsonReader in, SunshineForecast forecast, int row)
+            throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return false;
+        }
+        boolean hasMin = false;
+        boolean hasMax = false;
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "min":
+                    forecast.mMinTemp[row] = in.nextDouble();
+                    hasMin = true;
+                    break;
+                case "max":
+                    forecast.mMaxTemp[row] = in.nextDouble();
+                    hasMax = true;
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return hasMin && hasMax;
+    }
+
+    /**
+     * Only the first weather condition is stored, as with {@link SunshineInfo#getWeather()}.
+     */
+    private static boolean readWeather(JsonReader in, SunshineForecast forecast, int row)
+            throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return false;
+        }
+        in.beginArray();
+        if (!in.hasNext()) {
+            in.endArray();
+            return false;
+        }
+
+        forecast.mWeatherId[row] = 0;
+        forecast.mDescription[row] = null;
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "id":
+                    forecast.mWeatherId[row] = in.nextInt();
+                    break;
+                case "description":
+                    forecast.mDescription[row] = in.nextString();
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+
+        while (in.hasNext()) {
+            in.skipValue();
+        }
+        in.endArray();
+        return forecast.mDescription[row] != null;
+    }
+}
@@ -0,0 +1,202 @@
+package com.example.android.sunshine.app.sync;
+
+import android.util.Log;
+
+import com.example.android.sunshine.app.SunshineEndpointInterface;
+import com.example.android.sunshine.app.model.SunshineForecast;
+import com.example.android.sunshine.app.model.SunshineForecastDecoder;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.ResponseBody;
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+/**
+ * Fetch and parse stages of the sync.  The forecasts of all the requested locations are fetched
+ * concurrently through the shared client, whose dispatcher bounds the number of requests in
+ * flight overall and per host, so N locations take about one round trip of wall time.  Each body
+ * is decoded on the thread that received it.
+ * <p>
+ * A location the API has resolved to a city before is requested by the city's id, which the
+ * server looks up without geocoding the text, and locations of the same city are fetched once.
+ */
+class ForecastFetcher {
+
+    private static final String LOG_TAG = ForecastFetcher.class.getSimpleName();
+
+    // Upper bound for a whole multi-location fetch, on top of OkHttp's per-call timeouts
+    private static final long FETCH_TIMEOUT_SECONDS = 60;
+
+    private static final int HTTP_NOT_MODIFIED = 304;
+    private static final int HTTP_UNAUTHORIZED = 401;
+
+    static final int STATUS_PENDING = 0;
+    static final int STATUS_OK = 1;
+    static final int STATUS_NOT_MODIFIED = 2;
+    static final int STATUS_IO_ERROR = 3;
+    static final int STATUS_AUTH_ERROR = 4;
+    static final int STATUS_PARSE_ERROR = 5;
+
+    /**
+     * Outcome of the fetch for a single location.  It is written by the thread that completes
+     * the call and read by the sync thread once every call has completed or timed out.  It is
+     * written only once: a call that completes after the fetch timed out finds the result
+     * already failed and leaves it alone, so the sync thread never sees it change under it.
+     */
+    static class Result {
+        final String locationSetting;
+        // 0 if the location hasn't been resolved to a city yet
+        final long cityId;
+        // Written after forecast, so a thread that reads the status also sees the forecast.
+        volatile int status = STATUS_PENDING;
+        // Only set when status is STATUS_OK
+        SunshineForecast forecast;
+
+        Result(String locationSetting, long cityId) {
+            this.locationSetting = locationSetting;
+            this.cityId = cityId;
+        }
+
+        /**
+         * Sets the outcome unless the result already has one.
+         *
+         * @return false if the result was already complete, e.g. because the fetch timed out
+         */
+        synchronized boolean complete(int status, SunshineForecast forecast) {
+            if (this.status != STATUS_PENDING) {
+                return false;
+            }
+            this.forecast = forecast;
+            this.status = status;
+            return true;
+        }
+    }
+
+    private final SunshineApiClient mClient;
+
+    ForecastFetcher(SunshineApiClient client) {
+        mClient = client;
+    }
+
+    /**
+     * Fetches the forecast of every location and waits for all of them.  Calls still running
+     * when the timeout expires are cancelled and reported as I/O errors.
+     *
+     * @param cityIds the city each location setting resolved to, for those that have one
+     * @return one result per location, in the same order, leaving out the locations whose
+     * city an earlier one already fetches.
+     */
+    List<Result> fetch(List<String> locationSettings, Map<String, Long> cityIds)
+            throws InterruptedException {
+        List<Result> results = new ArrayList<>(locationSettings.size());
+        Set<Long> requestedCities = new HashSet<>();
+        for (String locationSetting : locationSettings) {
+            Long cityId = cityIds.get(locationSetting);
+            if (cityId == null || cityId == 0) {
+                results.add(new Result(locationSetting, 0));
+            } else if (requestedCities.add(cityId)) {
+                results.add(new Result(locationSetting, cityId));
+            }
+        }
+
+        final CountDownLatch done = new CountDownLatch(results.size());
+        List<Call<ResponseBody>> calls = new ArrayList<>(results.size());
+        SunshineEndpointInterface endpoint = mClient.getEndpoint();
+        for (final Result result : results) {
+            Call<ResponseBody> call = result.cityId != 0
+                    ? endpoint.getDaysById(SunshineApiClient.API_VERSION, result.cityId)
+                    : endpoint.getDays(SunshineApiClient.API_VERSION, result.locationSetting);
+            call.enqueue(new Callback<ResponseBody>() {
+                @Override
+                public void onResponse(Call<ResponseBody> call, Response<ResponseBody> response) {
+                    try {
+                        handleResponse(result, response);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+
+                @Override
+                public void onFailure(Call<ResponseBody> call, Throwable t) {
+                    if (result.complete(STATUS_IO_ERROR, null)) {
+                        Log.e(LOG_TAG, "Error fetching the forecast for "
+                                + result.locationSetting, t);
+                    }
+                    done.countDown();
+                }
+            });
+            calls.add(call);
+        }
+
+        if (!done.await(FETCH_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            Log.e(LOG_TAG, "Timed out fetching forecasts");
+            // Fail whatever is still pending before cancelling, so neither the cancellation nor
+            // a response that is being handled right now can change a result once it's returned.
+            for (Result result : results) {
+                result.complete(STATUS_IO_ERROR, null);
+            }
+            for (Call<ResponseBody> call : calls) {
+                call.cancel();
+            }
+        }
+        return results;
+    }
+
+    private static void handleResponse(Result result, Response<ResponseBody> response) {
+        if (!response.isSuccessful()) {
+            Log.e(LOG_TAG, "Forecast request for " + result.locationSetting
+                    + " failed with HTTP " + response.code());
+            result.complete(response.code() == HTTP_UNAUTHORIZED
+                    ? STATUS_AUTH_ERROR : STATUS_IO_ERROR, null);
+            return;
+        }
+
+        ResponseBody body = response.body();
+        if (isNotModified(response)) {
+            // The cached forecast is still current, so there is nothing to parse or store.
+            body.close();
+            SyncMetrics.recordCacheHit();
+            result.complete(STATUS_NOT_MODIFIED, null);
+            return;
+        }
+        SyncMetrics.recordCacheMiss();
+
+        try {
+            SunshineForecast forecast = SunshineForecastDecoder.decode(body.charStream());
+            if (forecast == null || !forecast.hasCity()) {
+                result.complete(STATUS_PARSE_ERROR, null);
+            } else {
+                result.complete(STATUS_OK, forecast);
+            }
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            Log.e(LOG_TAG, "Error parsing the forecast for " + result.locationSetting, e);
+            result.complete(STATUS_PARSE_ERROR, null);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error reading the forecast for " + result.locationSetting, e);
+            result.complete(STATUS_IO_ERROR, null);
+        } finally {
+            body.close();
+        }
+    }
+
+    /**
+     * OkHttp answers a revalidated request with the cached response, keeping the 304 it got from
+     * the server as the network response.
+     */
+    private static boolean isNotModified(Response<ResponseBody> response) {
+        okhttp3.Response rawResponse = response.raw();
+        okhttp3.Response networkResponse = rawResponse.networkResponse();
+        return rawResponse.cacheResponse() != null
+                && (networkResponse == null || networkResponse.code() == HTTP_NOT_MODIFIED);
+    }
+}
@@ -0,0 +1,161 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+
+import com.example.android.sunshine.app.BuildConfig;
+import com.example.android.sunshine.app.SunshineEndpointInterface;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Cache;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import retrofit2.Retrofit;
+
+/**
+ * Process-wide network layer used by {@link SunshineSyncAdapter}.
+ * <p>
+ * Building an {@link OkHttpClient}, a {@link Retrofit} instance and the reflective
+ * {@link SunshineEndpointInterface} proxy on every sync throws away the connection pool, the
+ * DNS cache and the parsed service methods. A single instance is kept for the whole process
+ * instead, so consecutive syncs reuse kept-alive (or HTTP/2 multiplexed, over TLS) connections.
+ * <p>
+ * Responses are kept in an on-disk {@link Cache} and always revalidated, so an unchanged
+ * forecast comes back as a 304 that the sync can skip without parsing or writing anything.
+ */
+public final class SunshineApiClient {
+
+    static final String BASE_URL = "http://api.openweathermap.org/";
+
+    public static final double API_VERSION = 2.5;
+    public static final int NUM_DAYS = 7;
+
+    private static final String FORMAT_PARAM = "mode";
+    private static final String UNITS_PARAM = "units";
+    private static final String DAYS_PARAM = "cnt";
+    private static final String LANG_PARAM = "lang";
+    private static final String APPID_PARAM = "APPID";
+
+    // Bounds on the forecasts fetched at once when several locations are synced together.
+    // Every request goes to the same host, so the per-host limit is the one that applies.
+    static final int MAX_REQUESTS = 8;
+    static final int MAX_REQUESTS_PER_HOST = 4;
+
+    // Enough idle connections to serve a multi-location sync, kept alive between quick syncs.
+    private static final int MAX_IDLE_CONNECTIONS = MAX_REQUESTS_PER_HOST;
+    private static final long KEEP_ALIVE_MINUTES = 5;
+
+    private static final String CACHE_DIRECTORY = "http";
+    private static final long CACHE_SIZE_BYTES = 2 * 1024 * 1024;
+
+    private static volatile SunshineApiClient sInstance;
+
+    private final OkHttpClient mHttpClient;
+    private final SunshineEndpointInterface mEndpoint;
+
+    /**
+     * @param context Context used to locate the cache directory on first use
+     * @return the shared client, built on first use.
+     */
+    public static SunshineApiClient getInstance(Context context) {
+        SunshineApiClient instance = sInstance;
+        if (instance == null) {
+            synchronized (SunshineApiClient.class) {
+                instance = sInstance;
+                if (instance == null) {
+                    Cache cache = new Cache(new File(context.getApplicationContext().getCacheDir(),
+                            CACHE_DIRECTORY), CACHE_SIZE_BYTES);
+                    instance = new SunshineApiClient(BASE_URL, cache);
+                    sInstance = instance;
+                }
+            }
+        }
+        return instance;
+    }
+
+    SunshineApiClient(String baseUrl, Cache cache) {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(MAX_REQUESTS);
+        dispatcher.setMaxRequestsPerHost(MAX_REQUESTS_PER_HOST);
+
+        mHttpClient = new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(
+                        MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+                .cache(cache)
+                .addInterceptor(new DefaultParamsInterceptor())
+                .addNetworkInterceptor(new RevalidateInterceptor())
+                .build();
+
+        // The forecast is requested as a raw body so the sync can skip parsing on a 304.
+        // Callbacks run on the dispatcher thread that completed the call, never on the main
+        // thread, so the sync thread can wait for them.
+        Retrofit retrofit = new Retrofit.Builder()
+                .client(mHttpClient)
+                .baseUrl(baseUrl)
+                .callbackExecutor(new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        command.run();
+                    }
+                })
+                .build();
+
+        mEndpoint = retrofit.create(SunshineEndpointInterface.class);
+    }
+
+    public OkHttpClient getHttpClient() {
+        return mHttpClient;
+    }
+
+    public SunshineEndpointInterface getEndpoint() {
+        return mEndpoint;
+    }
+
+    /**
+     * Adds the query parameters shared by every OpenWeatherMap request.  The language is read
+     * on each request so a locale change is picked up without rebuilding the client.
+     */
+    private static class DefaultParamsInterceptor implements Interceptor {
+        @Override
+        public okhttp3.Response intercept(Chain chain) throws IOException {
+            Request request = chain.request();
+            HttpUrl url = request.url().newBuilder()
+                    .addQueryParameter(FORMAT_PARAM, "json")
+                    .addQueryParameter(UNITS_PARAM, "metric")
+                    .addQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
+                    .addQueryParameter(LANG_PARAM, Locale.getDefault().getLanguage())
+                    .addQueryParameter(DAYS_PARAM, Integer.toString(NUM_DAYS))
+                    .build();
+
+            return chain.proceed(request.newBuilder().url(url).build());
+        }
+    }
+
+    /**
+     * Lets every successful forecast response be stored but forces it to be revalidated on the
+     * next request, which OkHttp then sends with If-None-Match / If-Modified-Since when the
+     * server provided an ETag or Last-Modified validator.
+     */
+    private static class RevalidateInterceptor implements Interceptor {
+        @Override
+        public okhttp3.Response intercept(Chain chain) throws IOException {
+            okhttp3.Response response = chain.proceed(chain.request());
+            if (!response.isSuccessful()) {
+                return response;
+            }
+            return response.newBuilder()
+                    .removeHeader("Pragma")
+                    .header("Cache-Control", "no-cache")
+                    .build();
+        }
+    }
+}
@@ -7,51 +7,38 @@ import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
 import android.content.ContentResolver;
-import android.content.ContentUris;
-import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.SyncRequest;
 import android.content.SyncResult;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.RemoteException;
 import android.preference.PreferenceManager;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.TaskStackBuilder;
-import android.text.format.Time;
 import android.util.Log;
-import android.widget.Toast;
 
-import com.example.android.sunshine.app.BuildConfig;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
-import com.example.android.sunshine.app.SunshineEndpointInterface;
+import com.example.android.sunshine.app.Settings;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.ForecastBatch;
+import com.example.android.sunshine.app.data.JulianDay;
 import com.example.android.sunshine.app.data.WeatherContract;
-import com.example.android.sunshine.app.model.SunshineCity;
-import com.example.android.sunshine.app.model.SunshineDay;
-import com.example.android.sunshine.app.model.SunshineInfo;
-import com.example.android.sunshine.app.model.SunshineTemperature;
-import com.example.android.sunshine.app.model.SunshineWeather;
-
-import java.io.IOException;
-import java.util.Locale;
-import java.util.Vector;
-
-import okhttp3.HttpUrl;
-import okhttp3.Interceptor;
-import okhttp3.OkHttpClient;
-import okhttp3.Request;
-import retrofit2.Call;
-import retrofit2.Callback;
-import retrofit2.Response;
-import retrofit2.Retrofit;
-import retrofit2.converter.gson.GsonConverterFactory;
-
-public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements Callback<SunshineDay> {
+import com.example.android.sunshine.app.model.SunshineForecast;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
 
     // Interval at which to sync with the weather, in seconds.
@@ -61,6 +48,8 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
     private static final int WEATHER_NOTIFICATION_ID = 3004;
 
+    // The archive compaction passes a sync runs at most; the rest waits for the next sync.
+    private static final int MAX_COMPACTION_PASSES = 20;
 
     private static final String[] NOTIFY_WEATHER_PROJECTION = new String[] {
             WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
@@ -75,74 +64,308 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     private static final int INDEX_MIN_TEMP = 2;
     private static final int INDEX_SHORT_DESC = 3;
 
+    // Requests a sync when the settings ask for a forecast that hasn't been synced yet.
+    private static Settings.OnChangeListener sSettingsListener;
+
     public SunshineSyncAdapter(Context context, boolean autoInitialize) {
         super(context, autoInitialize);
     }
 
     public static void initializeSyncAdapter(Context context) {
         getSyncAccount(context);
+        watchSettings(context.getApplicationContext());
     }
 
+    private static synchronized void watchSettings(final Context appContext) {
+        if (sSettingsListener != null) {
+            return;
+        }
+        sSettingsListener = new Settings.OnChangeListener() {
+            @Override
+            public void onSettingsChanged(Settings.Snapshot oldSettings,
+                                          Settings.Snapshot newSettings) {
+                if (newSettings.locationChanged(oldSettings)
+                        || (newSettings.syncAllLocations && !oldSettings.syncAllLocations)) {
+                    syncImmediately(appContext);
+                }
+            }
+        };
+        Settings.addOnChangeListener(appContext, sSettingsListener);
+    }
+
+    /**
+     * Runs the whole sync on the sync thread: fetch and parse the forecast of every location
+     * being synced, upsert and prune in a single provider transaction, then compact the
+     * archive of pruned days.  Since nothing is left running once this returns, the framework
+     * sees the real duration of the sync, won't start an overlapping one, and can back off
+     * using the stats filled into {@code syncResult}.
+     * A forecast that hasn't changed since the last sync comes back as a 304 and skips both the
+     * parse and the database writes.
+     * <p>
+     * The {@link SyncCoordinator} hears when the sync starts and finishes, so the callers of
+     * {@link #syncImmediately} can share it, and a sync it requested right after an identical
+     * one is skipped.
+     */
     @Override
     public void onPerformSync(Account account, Bundle extras, String authority,
                               ContentProviderClient provider, SyncResult syncResult) {
-        final String FORMAT_PARAM = "mode";
-        final String UNITS_PARAM = "units";
-        final String DAYS_PARAM = "cnt";
-        final String LANG_PARAM = "lang";
-        final String APPID_PARAM = "APPID";
+        Settings.Snapshot settings = Settings.get(getContext());
+        SyncCoordinator coordinator = SyncCoordinator.getInstance();
+        SyncCoordinator.Flight flight = coordinator.onSyncStarted(SyncCoordinator.keyOf(settings),
+                extras.getBoolean(SyncCoordinator.SYNC_EXTRAS_COORDINATED));
+        if (flight == null) {
+            Log.i(LOG_TAG, "Skipping the requested sync, the same locations were just synced");
+            return;
+        }
 
-        final int NUM_DAYS = 7;
-        final double VERSION = 2.5;
+        boolean completed = false;
+        try {
+            completed = performSync(settings, provider, syncResult);
+        } finally {
+            coordinator.onSyncFinished(flight, completed && !syncResult.hasError());
+        }
+    }
 
-        Interceptor interceptor = new Interceptor() {
-            @Override
-            public okhttp3.Response intercept(Chain chain) throws IOException {
-                Request request = chain.request();
-                HttpUrl.Builder urlBuilder = request.url().newBuilder();
+    /**
+     * @return false if the sync was cancelled or its forecasts couldn't be stored.
+     */
+    private boolean performSync(Settings.Snapshot settings, ContentProviderClient provider,
+                                SyncResult syncResult) {
+        Map<String, Long> cityIds = new HashMap<>();
+        List<String> locationSettings = getLocationsToSync(settings, provider, cityIds);
+
+        List<ForecastFetcher.Result> results;
+        try {
+            results = new ForecastFetcher(SunshineApiClient.getInstance(getContext()))
+                    .fetch(locationSettings, cityIds);
+        } catch (InterruptedException e) {
+            // The sync was cancelled
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        boolean hasCurrentForecast = recordFetchResults(results, syncResult);
+        Log.d(LOG_TAG, "Fetched " + results.size() + " locations, " + SyncMetrics.summary());
 
-                urlBuilder = urlBuilder.addQueryParameter(FORMAT_PARAM, "json")
-                        .addQueryParameter(UNITS_PARAM, "metric")
-                        .addQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
-                        .addQueryParameter(LANG_PARAM, Locale.getDefault().getLanguage())
-                        .addQueryParameter(DAYS_PARAM, Integer.toString(NUM_DAYS));
+        ForecastBatch batch = buildForecastBatch(results);
+        if (!storeForecastBatch(batch, syncResult)) {
+            return false;
+        }
+        compactArchive();
+
+        if (hasCurrentForecast) {
+            notifyWeather();
+        }
+        return true;
+    }
 
-                HttpUrl url = urlBuilder.build();
+    /**
+     * Reads the city every location to sync resolved to on an earlier sync into
+     * {@code cityIds}, so the fetch can request it by id.
+     *
+     * @return the preferred location first, followed by every other saved location when the
+     * user chose to sync all of them.
+     */
+    private List<String> getLocationsToSync(Settings.Snapshot settings,
+                                            ContentProviderClient provider,
+                                            Map<String, Long> cityIds) {
+        LinkedHashSet<String> locationSettings = new LinkedHashSet<>();
+        locationSettings.add(settings.location);
+
+        try {
+            Cursor cursor = provider.query(
+                    WeatherContract.LocationEntry.CONTENT_URI,
+                    new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+                            WeatherContract.LocationEntry.COLUMN_CITY_ID},
+                    settings.syncAllLocations ? null
+                            : WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                    settings.syncAllLocations ? null : new String[]{settings.location},
+                    null);
+            if (cursor != null) {
+                try {
+                    while (cursor.moveToNext()) {
+                        locationSettings.add(cursor.getString(0));
+                        if (cursor.getLong(1) != 0) {
+                            cityIds.put(cursor.getString(0), cursor.getLong(1));
+                        }
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+        } catch (RemoteException e) {
+            // The locations are still synced, by their text.
+            Log.e(LOG_TAG, "Error reading the saved locations", e);
+        }
+        return new ArrayList<>(locationSettings);
+    }
 
-                request = request.newBuilder().url(url).build();
-                return chain.proceed(request);
+    /**
+     * Adds the outcome of every fetch to the sync stats.
+     *
+     * @return true if at least one location has a current forecast, either new or unchanged.
+     */
+    private static boolean recordFetchResults(List<ForecastFetcher.Result> results,
+                                              SyncResult syncResult) {
+        boolean hasCurrentForecast = false;
+        for (ForecastFetcher.Result result : results) {
+            switch (result.status) {
+                case ForecastFetcher.STATUS_OK:
+                    syncResult.stats.numSkippedEntries += result.forecast.getSkippedCount();
+                    hasCurrentForecast = true;
+                    break;
+                case ForecastFetcher.STATUS_NOT_MODIFIED:
+                    syncResult.stats.numSkippedEntries++;
+                    hasCurrentForecast = true;
+                    break;
+                case ForecastFetcher.STATUS_AUTH_ERROR:
+                    syncResult.stats.numAuthExceptions++;
+                    break;
+                case ForecastFetcher.STATUS_PARSE_ERROR:
+                    syncResult.stats.numParseExceptions++;
+                    break;
+                default:
+                    // Failed or still pending when the fetch timed out
+                    syncResult.stats.numIoExceptions++;
             }
-        };
+        }
+        return hasCurrentForecast;
+    }
 
-        OkHttpClient.Builder clientBuilder = new OkHttpClient.Builder();
-        clientBuilder.interceptors().add(interceptor);
-        OkHttpClient client = clientBuilder.build();
+    /**
+     * Upsert and prune stage.  Collects, for every location with a new forecast, the location
+     * and the columns of its forecast days into one {@link ForecastBatch}, with the days that
+     * are already past to be moved to the archive.  The provider stores the whole batch in a
+     * single call and a single transaction.
+     * <p>
+     * The past days are pruned even when no location has a new forecast, e.g. when every one
+     * came back unchanged as a 304: the batch then carries only the prune date.
+     */
+    private static ForecastBatch buildForecastBatch(List<ForecastFetcher.Result> results) {
+        ForecastBatch batch = new ForecastBatch(
+                results.size(), results.size() * SunshineApiClient.NUM_DAYS);
+
+        // The forecast starts with the local today.
+        int julianStartDay = JulianDay.today();
 
-        String baseUrl = "http://api.openweathermap.org/";
-        Retrofit retrofit = new Retrofit.Builder()
-                .client(client)
-                .baseUrl(baseUrl)
-                .addConverterFactory(GsonConverterFactory.create())
-                .build();
+        for (ForecastFetcher.Result result : results) {
+            if (result.status != ForecastFetcher.STATUS_OK || result.forecast.getCount() == 0) {
+                continue;
+            }
+            SunshineForecast forecast = result.forecast;
+
+            // The provider resolves an existing location or creates it, and stores the days
+            // under the rows every location of the same city shares.
+            int location = batch.addLocation(result.locationSetting, forecast.getCityName(),
+                    forecast.getLat(), forecast.getLong(), forecast.getCityId());
+
+            for (int i = 0; i < forecast.getCount(); i++) {
+                batch.addDay(location,
+                        julianStartDay + i,
+                        forecast.getDescription(i),
+                        forecast.getWeatherId(i),
+                        forecast.getMinTemp(i),
+                        forecast.getMaxTemp(i),
+                        forecast.getHumidity(i),
+                        forecast.getPressure(i),
+                        forecast.getWindSpeed(i),
+                        forecast.getDegrees(i));
+            }
+        }
 
-        SunshineEndpointInterface sunshineAPI = retrofit.create(
-                SunshineEndpointInterface.class);
+        batch.setPruneDate(julianStartDay - 1);
+        return batch;
+    }
 
-        String locationValue = getLocationValueFromPreferences();
+    /**
+     * Stores the batch through {@link WeatherContract#METHOD_INGEST_FORECAST}, which
+     * {@link com.example.android.sunshine.app.data.WeatherProvider} runs in a single
+     * transaction, and records the row counts.  ContentProviderClient.call needs API 17, so
+     * the call goes through the resolver.
+     *
+     * @return true if the batch was committed.
+     */
+    private boolean storeForecastBatch(ForecastBatch batch, SyncResult syncResult) {
+        Bundle counts;
+        try {
+            counts = getContext().getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                    WeatherContract.METHOD_INGEST_FORECAST, null, batch.toBundle());
+        } catch (SQLException | IllegalArgumentException e) {
+            Log.e(LOG_TAG, "Error storing the forecast", e);
+            syncResult.databaseError = true;
+            return false;
+        }
+        if (counts == null) {
+            // The provider's process went away
+            syncResult.databaseError = true;
+            return false;
+        }
 
-        Call<SunshineDay> call = sunshineAPI.getDays(VERSION, locationValue);
-        call.enqueue(this);
+        syncResult.stats.numInserts += counts.getInt(WeatherContract.STAT_WEATHER_ROWS_INSERTED);
+        syncResult.stats.numUpdates += counts.getInt(WeatherContract.STAT_WEATHER_ROWS_UPDATED);
+        syncResult.stats.numSkippedEntries +=
+                counts.getInt(WeatherContract.STAT_WEATHER_ROWS_UNCHANGED);
+        syncResult.stats.numDeletes += counts.getInt(WeatherContract.STAT_WEATHER_ROWS_DELETED);
+        Log.d(LOG_TAG, "Sync Complete. " + syncResult.stats.numInserts + " Inserted, "
+                + syncResult.stats.numUpdates + " Updated, "
+                + syncResult.stats.numDeletes + " Deleted");
+        return true;
+    }
 
+    /**
+     * Compacts the weather history through {@link WeatherContract#METHOD_COMPACT_ARCHIVE}, one
+     * bounded pass at a time, so the provider's writer is free between passes and a cancelled
+     * sync stops after the current one.  The history is secondary to the forecast, so a
+     * failure here is only logged.
+     */
+    private void compactArchive() {
+        ContentResolver resolver = getContext().getContentResolver();
+        String today = Integer.toString(JulianDay.today());
+        int compacted = 0;
+        try {
+            for (int pass = 0; pass < MAX_COMPACTION_PASSES; pass++) {
+                if (Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+                Bundle result = resolver.call(WeatherContract.BASE_CONTENT_URI,
+                        WeatherContract.METHOD_COMPACT_ARCHIVE, today, null);
+                if (result == null) {
+                    break;
+                }
+                compacted += result.getInt(WeatherContract.STAT_ARCHIVE_ROWS_COMPACTED);
+                if (result.getBoolean(WeatherContract.STAT_ARCHIVE_COMPACTED)) {
+                    break;
+                }
+            }
+        } catch (SQLException | IllegalArgumentException e) {
+            Log.e(LOG_TAG, "Error compacting the weather history", e);
+        }
+        if (compacted != 0) {
+            Log.d(LOG_TAG, "Compacted " + compacted + " archived rows");
+        }
     }
 
     /**
-     * Helper method to have the sync adapter sync immediately
+     * Helper method to have the sync adapter sync immediately, unless a sync of the same
+     * locations is already on its way.
      * @param context The context used to access the account service
      */
     public static void syncImmediately(Context context) {
+        syncImmediately(context, null);
+    }
+
+    /**
+     * @param listener told on the main thread once the sync covering this request finished.
+     */
+    public static void syncImmediately(Context context, SyncCoordinator.Listener listener) {
+        SyncCoordinator.getInstance().requestSync(context, listener);
+    }
+
+    static void requestExpeditedSync(Context context) {
         Bundle bundle = new Bundle();
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
+        bundle.putBoolean(SyncCoordinator.SYNC_EXTRAS_COORDINATED, true);
         ContentResolver.requestSync(getSyncAccount(context),
                 context.getString(R.string.content_authority), bundle);
     }
@@ -198,121 +421,6 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
         syncImmediately(context);
     }
 
-    private String getLocationValueFromPreferences() {
-        String locationKey = getContext().getString(R.string.pref_location_key);
-        String locationDefaultValue = getContext().getString(R.string.pref_location_default);
-        return PreferenceManager
-                .getDefaultSharedPreferences(getContext())
-                .getString(locationKey, locationDefaultValue);
-    }
-
-    /**
-     * Helper method to handle insertion of a new location in the weather database.
-     *
-     * @param locationSetting The location string used to request updates from the server.
-     * @param cityName        A human-readable city name, e.g "Mountain View"
-     * @param lat             the latitude of the city
-     * @param lon             the longitude of the city
-     * @return the row ID of the added location.
-     */
-    long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
-
-        Cursor locationCursor = getContext().getContentResolver().query(
-                WeatherContract.LocationEntry.CONTENT_URI,
-                new String[]{WeatherContract.LocationEntry._ID},
-                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
-                new String[]{locationSetting},
-                null
-        );
-
-        if (locationCursor.moveToFirst()) {
-            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
-            locationId = locationCursor.getLong(locationIdIndex);
-        } else {
-            ContentValues locationValues = new ContentValues();
-
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
-
-            Uri insertedUri = getContext().getContentResolver().insert(
-                    WeatherContract.LocationEntry.CONTENT_URI,
-                    locationValues);
-
-            locationId = ContentUris.parseId(insertedUri);
-        }
-
-        return locationId;
-    }
-
-    @Override
-    public void onResponse(Call<SunshineDay> call, Response<SunshineDay> response) {
-
-        SunshineDay sunshineDay = response.body();
-
-        Vector<ContentValues> cVVector = new Vector<>(sunshineDay.getList().size());
-
-        Time dayTime = new Time();
-        dayTime.setToNow();
-        int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
-        dayTime = new Time();
-
-        SunshineCity city = sunshineDay.getCity();
-        if (city == null || city.getCityCoords() == null) return;
-
-        String locationSetting = getLocationValueFromPreferences();
-
-        long locationId = addLocation(locationSetting, city.getName(),
-                city.getCityCoords().getLat(), city.getCityCoords().getLong());
-
-        int i = 0;
-        for (SunshineInfo sunshineInfo : sunshineDay.getList()) {
-            SunshineTemperature temperature = sunshineInfo.getTemperature();
-            SunshineWeather weather = sunshineInfo.getWeather();
-            if (weather != null) {
-                String description = weather.getDescription();
-                long dateTime;
-                dateTime = dayTime.setJulianDay(julianStartDay + (i++));
-
-                ContentValues weatherValues = new ContentValues();
-
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, sunshineInfo.getHumidity());
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, sunshineInfo.getPressure());
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, sunshineInfo.getSpeed());
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, sunshineInfo.getDegrees());
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, temperature.getMax());
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, temperature.getMin());
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weather.getId());
-
-                cVVector.add(weatherValues);
-            }
-
-        }
-
-        // add to database
-        if (cVVector.size() > 0) {
-            ContentValues[] contentValues = cVVector.toArray(
-                    new ContentValues[cVVector.size()]);
-            int inserts = getContext().getContentResolver().bulkInsert(
-                    WeatherContract.WeatherEntry.CONTENT_URI,
-                    contentValues);
-
-            Log.d(LOG_TAG, "BuilkInsert Complete. " + inserts + " Inserted");
-
-            long dateTimeYesterday = dayTime.setJulianDay(julianStartDay - 1);
-            getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                    WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                    new String[] {Long.toString(dateTimeYesterday)});
-
-            notifyWeather();
-        }
-    }
-
     private void notifyWeather() {
         Context context = getContext();
         //checking the last update and notify if it' the first of the day
@@ -320,13 +428,13 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
         String lastNotificationKey = context.getString(R.string.pref_last_notification);
         long lastSync = prefs.getLong(lastNotificationKey, 0);
 
-        boolean isAllowingNotifications = Utility.isAllowingNotifications(getContext());
-        if (isAllowingNotifications && System.currentTimeMillis() - lastSync >= DAY_IN_MILLIS) {
+        Settings.Snapshot settings = Settings.get(context);
+        if (settings.notificationsEnabled && System.currentTimeMillis() - lastSync >= DAY_IN_MILLIS) {
 
             // Last sync was more than 1 day ago, let's send a notification with the weather.
-            String locationQuery = Utility.getPreferredLocation(context);
+            String locationQuery = settings.location;
 
-            Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
+            Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, JulianDay.today());
 
             // we'll query our contentProvider, as always
             Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
@@ -342,8 +450,8 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
 
                 // Define the text of the forecast.
                 String contentText = String.format(context.getString(R.string.format_notification),
-                        desc, Utility.formatTemperature(context, high),
-                        Utility.formatTemperature(context, low));
+                        desc, Utility.formatTemperature(context, high, settings.isMetric),
+                        Utility.formatTemperature(context, low, settings.isMetric));
 
                 //build your notification here.
                 NotificationCompat.Builder mBuilder =
@@ -373,11 +481,6 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
         }
     }
 
-    @Override
-    public void onFailure(Call<SunshineDay> call, Throwable t) {
-        Toast.makeText(getContext(), t.getLocalizedMessage(), Toast.LENGTH_SHORT).show();
-    }
-
     /**
      * Helper method to schedule the sync adapter periodic execution
      */
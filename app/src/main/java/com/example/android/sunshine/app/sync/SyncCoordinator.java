@@ -0,0 +1,212 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.example.android.sunshine.app.Settings;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Funnels the requests for an immediate sync into as few syncs as possible.  A location change,
+ * pull-to-refresh and the refresh menu item can all ask within moments of each other, and each
+ * request would otherwise be a separate sync with its own round of fetches.
+ * <ul>
+ * <li>While a requested sync hasn't started, further requests wait for that one: it reads the
+ * settings when it starts, so it syncs what the latest request asked for.</li>
+ * <li>While a sync of the same locations is running, requests attach to its result.</li>
+ * <li>A request for the locations a sync finished with moments ago gets that sync's result,
+ * and a sync this class requested that starts moments after one of the same locations, with
+ * nobody waiting for it, is skipped.</li>
+ * </ul>
+ * Syncs it didn't request, periodic ones or one the user asked for in the account settings,
+ * always run, and leave the requested sync to run after them.
+ * Listeners are called on the main thread.
+ */
+public final class SyncCoordinator {
+
+    public interface Listener {
+        void onSyncFinished(boolean success);
+    }
+
+    interface SyncRequester {
+        void requestSync(Context context);
+    }
+
+    // Set in the extras of the syncs this class requests.
+    static final String SYNC_EXTRAS_COORDINATED = "coordinated";
+
+    // How long the result of a sync stands in for another sync of the same locations.
+    static final long COALESCE_WINDOW_MILLIS = 5000;
+    // How long a requested sync may take to start before its callers are told it failed,
+    // e.g. while there is no network.
+    static final long PENDING_TIMEOUT_MILLIS = 60000;
+
+    private static SyncCoordinator sInstance;
+
+    private final SyncRequester mRequester;
+    private final Handler mHandler;
+    private final long mCoalesceWindowMillis;
+    private final long mPendingTimeoutMillis;
+
+    // Guarded by this.
+    private Flight mPending;
+    private Flight mRunning;
+    private String mLastKey;
+    private long mLastFinishedAt;
+    private boolean mLastSuccess;
+
+    /**
+     * One sync as seen by its callers: requested, then running, then finished.
+     */
+    static final class Flight {
+        // The locations being synced; null until the sync starts.
+        String key;
+        final List<Listener> listeners = new ArrayList<>();
+
+        void add(Listener listener) {
+            if (listener != null) {
+                listeners.add(listener);
+            }
+        }
+    }
+
+    public static synchronized SyncCoordinator getInstance() {
+        if (sInstance == null) {
+            sInstance = new SyncCoordinator(new SyncRequester() {
+                @Override
+                public void requestSync(Context context) {
+                    SunshineSyncAdapter.requestExpeditedSync(context);
+                }
+            }, COALESCE_WINDOW_MILLIS, PENDING_TIMEOUT_MILLIS);
+        }
+        return sInstance;
+    }
+
+    SyncCoordinator(SyncRequester requester, long coalesceWindowMillis,
+                    long pendingTimeoutMillis) {
+        mRequester = requester;
+        mHandler = new Handler(Looper.getMainLooper());
+        mCoalesceWindowMillis = coalesceWindowMillis;
+        mPendingTimeoutMillis = pendingTimeoutMillis;
+    }
+
+    /**
+     * @return what a sync started with these settings would fetch, for telling apart syncs
+     * of different locations.
+     */
+    static String keyOf(Settings.Snapshot settings) {
+        return settings.syncAllLocations ? settings.location + "+all" : settings.location;
+    }
+
+    /**
+     * Asks for a sync of the current settings, unless one already covers them.
+     *
+     * @param listener told once the sync covering this request finished, or null.
+     */
+    public void requestSync(Context context, Listener listener) {
+        String key = keyOf(Settings.get(context));
+        synchronized (this) {
+            if (mPending != null) {
+                mPending.add(listener);
+                return;
+            }
+            if (mRunning != null && key.equals(mRunning.key)) {
+                mRunning.add(listener);
+                return;
+            }
+            if (mRunning == null && isRecentSuccess(key)) {
+                if (listener != null) {
+                    deliver(listener, true);
+                }
+                return;
+            }
+            final Flight pending = new Flight();
+            pending.add(listener);
+            mPending = pending;
+            mHandler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    expire(pending);
+                }
+            }, mPendingTimeoutMillis);
+        }
+        mRequester.requestSync(context);
+    }
+
+    /**
+     * Called by the sync adapter before it fetches anything.
+     *
+     * @param coordinated whether this class requested the sync, i.e. its extras have
+     * {@link #SYNC_EXTRAS_COORDINATED} set.
+     * @return the flight to finish, or null if the sync should be skipped.
+     */
+    synchronized Flight onSyncStarted(String key, boolean coordinated) {
+        Flight flight;
+        if (!coordinated) {
+            flight = new Flight();
+        } else if (mPending != null) {
+            flight = mPending;
+            mPending = null;
+        } else if (isRecentSuccess(key)) {
+            // The framework can start a requested sync again, e.g. once it's back online, after
+            // the sync that covered its callers already finished.
+            return null;
+        } else {
+            flight = new Flight();
+        }
+        flight.key = key;
+        mRunning = flight;
+        return flight;
+    }
+
+    void onSyncFinished(Flight flight, boolean success) {
+        synchronized (this) {
+            if (mRunning == flight) {
+                mRunning = null;
+            }
+            mLastKey = flight.key;
+            mLastFinishedAt = SystemClock.elapsedRealtime();
+            mLastSuccess = success;
+        }
+        deliver(flight.listeners, success);
+    }
+
+    private void expire(Flight pending) {
+        synchronized (this) {
+            if (mPending != pending) {
+                return;
+            }
+            mPending = null;
+        }
+        deliver(pending.listeners, false);
+    }
+
+    private boolean isRecentSuccess(String key) {
+        return mLastSuccess && key.equals(mLastKey)
+                && SystemClock.elapsedRealtime() - mLastFinishedAt < mCoalesceWindowMillis;
+    }
+
+    private void deliver(Listener listener, boolean success) {
+        List<Listener> listeners = new ArrayList<>(1);
+        listeners.add(listener);
+        deliver(listeners, success);
+    }
+
+    private void deliver(final List<Listener> listeners, final boolean success) {
+        if (listeners.isEmpty()) {
+            return;
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (Listener listener : listeners) {
+                    listener.onSyncFinished(success);
+                }
+            }
+        });
+    }
+}
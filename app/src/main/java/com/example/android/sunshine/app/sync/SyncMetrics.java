@@ -0,0 +1,38 @@
+package com.example.android.sunshine.app.sync;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide counters describing how the forecast syncs went.  They are cumulative since the
+ * process started and are meant for logging and verification, not for persistence.
+ */
+public final class SyncMetrics {
+
+    // Forecast responses answered with a 304, so nothing had to be parsed or written
+    private static final AtomicLong sCacheHits = new AtomicLong();
+    // Forecast responses that carried a new body
+    private static final AtomicLong sCacheMisses = new AtomicLong();
+
+    private SyncMetrics() {
+    }
+
+    static void recordCacheHit() {
+        sCacheHits.incrementAndGet();
+    }
+
+    static void recordCacheMiss() {
+        sCacheMisses.incrementAndGet();
+    }
+
+    public static long getCacheHitCount() {
+        return sCacheHits.get();
+    }
+
+    public static long getCacheMissCount() {
+        return sCacheMisses.get();
+    }
+
+    public static String summary() {
+        return "forecast cache hits: " + getCacheHitCount() + ", misses: " + getCacheMissCount();
+    }
+}